@@ -0,0 +1,35 @@
+# Decodes a (~ 4 KB) certificate using OpenSSL::ASN1.decode N times,
+# run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/asn1_decode.rb [count]
+#
+require 'benchmark'
+require 'openssl'
+
+COUNT = ( ARGV[0] || 100_000 ).to_i
+
+key = OpenSSL::PKey::RSA.new(4096)
+cert = OpenSSL::X509::Certificate.new
+cert.version = 2
+cert.serial = 1
+cert.subject = cert.issuer = OpenSSL::X509::Name.parse('/DC=org/DC=ruby-lang/O=JRuby/CN=Bench ASN.1')
+cert.public_key = key.public_key
+cert.not_before = Time.now - 60
+cert.not_after = Time.now + 3600
+ef = OpenSSL::X509::ExtensionFactory.new
+ef.subject_certificate = ef.issuer_certificate = cert
+cert.add_extension ef.create_extension('basicConstraints', 'CA:TRUE', true)
+cert.add_extension ef.create_extension('keyUsage', 'keyCertSign, cRLSign', true)
+cert.add_extension ef.create_extension('subjectKeyIdentifier', 'hash')
+alt_names = (1..100).map { |i| "DNS:host#{i}.bench.jruby.org" }.join(',')
+cert.add_extension ef.create_extension('subjectAltName', alt_names)
+cert.sign(key, OpenSSL::Digest::SHA256.new)
+der = cert.to_der
+
+3.times do |round| # first rounds are a warm-up
+  count = round < 2 ? COUNT / 10 : COUNT
+  puts round < 2 ? 'warm-up:' : "\n#{count} x ASN1.decode (#{der.size} bytes):"
+  Benchmark.bm(20) do |bm|
+    bm.report('decode') { count.times { OpenSSL::ASN1.decode(der) } }
+  end
+end
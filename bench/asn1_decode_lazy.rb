@@ -0,0 +1,38 @@
+# Decodes a large (~ 50 MB) SEQUENCE OF certificates eagerly and lazily
+# (picking out a few fields), run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/asn1_decode_lazy.rb [megabytes]
+#
+require 'benchmark'
+require 'openssl'
+
+SIZE = ( ARGV[0] || 50 ).to_i * 1024 * 1024
+
+key = OpenSSL::PKey::RSA.new(2048)
+cert = OpenSSL::X509::Certificate.new
+cert.version = 2
+cert.serial = 1
+cert.subject = cert.issuer = OpenSSL::X509::Name.parse('/DC=org/DC=ruby-lang/CN=Bench ASN.1')
+cert.public_key = key.public_key
+cert.not_before = Time.now - 60
+cert.not_after = Time.now + 3600
+cert.sign(key, OpenSSL::Digest::SHA256.new)
+cert = cert.to_der
+
+count = SIZE / cert.size
+content = cert * count
+der = "\x30\x84".force_encoding('BINARY') + [ content.size ].pack('N') + content
+content = nil
+
+def pick(asn1)
+  certs = asn1.value
+  [ certs.size, certs[0].value[0].value[1].value, certs[-1].value[0].value[5].to_der.size ]
+end
+
+puts "#{count} certificates (#{der.size} bytes):"
+Benchmark.bm(20) do |bm|
+  5.times { pick OpenSSL::ASN1.decode(der, :lazy => true) } # warm-up
+  bm.report('decode(lazy) + pick') { pick OpenSSL::ASN1.decode(der, :lazy => true) }
+  bm.report('decode(lazy) + to_der') { OpenSSL::ASN1.decode(der, :lazy => true).to_der.size == der.size or raise }
+  bm.report('decode + pick') { pick OpenSSL::ASN1.decode(der) }
+end
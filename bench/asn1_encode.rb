@@ -0,0 +1,25 @@
+# Encodes a (Ruby built) 10k element SEQUENCE OF SEQUENCE, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/asn1_encode.rb [elements] [iterations]
+#
+require 'benchmark'
+require 'openssl'
+
+COUNT = ( ARGV[0] || 10_000 ).to_i
+TIMES = ( ARGV[1] || 100 ).to_i
+
+seq = OpenSSL::ASN1::Sequence.new( (0...COUNT).map do |i|
+  OpenSSL::ASN1::Sequence.new([
+    OpenSSL::ASN1::Integer.new(i * 1_000_003),
+    OpenSSL::ASN1::OctetString.new("element #{i}"),
+    OpenSSL::ASN1::UTF8String.new("name-#{i}"),
+    OpenSSL::ASN1::Boolean.new(i.odd?),
+    OpenSSL::ASN1::Null.new(nil)
+  ])
+end )
+
+puts "#{COUNT} elements (#{seq.to_der.size} bytes) x #{TIMES}:"
+Benchmark.bm(10) do |bm|
+  10.times { seq.to_der } # warm-up
+  bm.report('to_der') { TIMES.times { seq.to_der } }
+end
@@ -0,0 +1,31 @@
+# Base64 encode/decode (PEM wrapped) of 1 KB and 1 MB payloads, the codec
+# (impl.Base64) against BouncyCastle's, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/base64.rb [iterations-per-1KB]
+#
+require 'benchmark'
+require 'openssl'
+
+java_import org.jruby.ext.openssl.impl.Base64
+BCBase64 = org.bouncycastle.util.encoders.Base64
+
+TIMES = ( ARGV[0] || 100_000 ).to_i
+
+[ 1024, 1024 * 1024 ].each do |size|
+  bytes = OpenSSL::Random.random_bytes(size).to_java_bytes
+  pem = Base64.encode(bytes, 0, size, Base64::PEM_LINE_LENGTH)
+  pem_str = String.from_java_bytes(pem)
+  times = [ TIMES * 1024 / size, 10 ].max
+
+  puts "#{size} bytes x #{times}:"
+  Benchmark.bm(20) do |bm|
+    2.times do # warm-up
+      1000.times { Base64.encode(bytes); Base64.decode(pem); BCBase64.encode(bytes); BCBase64.decode(pem_str) } if size == 1024
+    end
+    bm.report('encode') { times.times { Base64.encode(bytes) } }
+    bm.report('encode (PEM lines)') { times.times { Base64.encode(bytes, 0, size, 64) } }
+    bm.report('encode (BC)') { times.times { BCBase64.encode(bytes) } }
+    bm.report('decode (PEM)') { times.times { Base64.decode(pem) } }
+    bm.report('decode (BC)') { times.times { BCBase64.decode(pem_str) } }
+  end
+end
@@ -0,0 +1,18 @@
+# BN.generate_prime(bits, safe) average seconds per prime, run (after
+# `rake jar`) as :
+#
+#   jruby -Ilib bench/bn_generate_prime.rb [bits] [count]
+#
+require 'openssl'
+require 'benchmark'
+
+BITS = ( ARGV[0] || 1024 ).to_i
+COUNT = ( ARGV[1] || 5 ).to_i
+
+OpenSSL::BN.generate_prime(256, true) # warm-up
+
+[ false, true ].each do |safe|
+  times = (1..COUNT).map { Benchmark.realtime { OpenSSL::BN.generate_prime(BITS, safe) } }
+  avg = times.inject(:+) / COUNT
+  puts "generate_prime(#{BITS}, #{safe})".ljust(30) + " avg #{avg.round(3)} sec (min #{times.min.round(3)}, max #{times.max.round(3)})"
+end
@@ -0,0 +1,41 @@
+# 2048-bit BN modular arithmetic, operations per second : mod_exp against
+# a BN::FixedBase precomputed base and allocating against in-place
+# (mod_mul! / mod_exp!) operations, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/bn_mod_exp.rb [seconds]
+#
+require 'openssl'
+
+SECONDS = ( ARGV[0] || 5 ).to_f
+
+p = OpenSSL::BN.new( ( 2 ** 2048 - 1942289 ).to_s ) # an odd 2048-bit modulus
+g = OpenSSL::BN.new('2')
+x = OpenSSL::BN.rand(2047)
+y = OpenSSL::BN.rand(2047)
+
+def ops(label)
+  2.times { 100.times { yield } } # warm-up
+  count = 0; start = Time.now
+  while ( elapsed = Time.now - start ) < SECONDS
+    10.times { yield }; count += 10
+  end
+  puts "#{label.ljust(32)} #{( count / elapsed ).round} ops/sec"
+end
+
+ops('g.mod_exp(x, p)') { g.mod_exp(x, p) }
+ops('y.mod_exp(x, p)') { y.mod_exp(x, p) }
+
+if defined? OpenSSL::BN::FixedBase
+  [ 4, 5, 6 ].each do |window|
+    fixed = OpenSSL::BN::FixedBase.new(y, p, window)
+    ops("FixedBase(y, w = #{window}).mod_exp(x)") { fixed.mod_exp(x) }
+  end
+end
+
+ops('r = r.mod_mul(y, p)') { r = x; 100.times { r = r.mod_mul(y, p) } }
+if x.respond_to?(:mod_mul!)
+  ctx = OpenSSL::BN::Context.new(p)
+  ops('r.mod_mul!(y, p)') { r = x.dup; 100.times { r.mod_mul!(y, p) } }
+  ops('r.mod_mul!(y, ctx)') { r = x.dup; 100.times { r.mod_mul!(y, ctx) } }
+  ops('r.mod_exp!(x, ctx)') { x.dup.mod_exp!(x, ctx) }
+end
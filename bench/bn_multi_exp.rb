@@ -0,0 +1,38 @@
+# BN.multi_exp (simultaneous exponentiation) against a product of mod_exp
+# results and BN.mod_exp_many against repeated mod_exp calls, for a 2048-bit
+# (by default, odd) modulus, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/bn_multi_exp.rb [seconds] [threads] [bits]
+#
+require 'openssl'
+require 'benchmark'
+
+SECONDS = ( ARGV[0] || 5 ).to_f
+THREADS = ( ARGV[1] || java.lang.Runtime.getRuntime.availableProcessors ).to_i
+
+BITS = ( ARGV[2] || 2048 ).to_i
+
+m = OpenSSL::BN.new( ( 2 ** BITS - 1942289 ).to_s ) # an odd modulus
+
+def ops(label)
+  2.times { yield } # warm-up
+  count = 0; start = Time.now
+  while ( elapsed = Time.now - start ) < SECONDS
+    yield; count += 1
+  end
+  puts "#{label.ljust(36)} #{( count / elapsed ).round(1)} ops/sec"
+end
+
+[ 2, 4, 8, 16 ].each do |n|
+  bases = (1..n).map { OpenSSL::BN.rand(BITS - 1) }
+  exps = (1..n).map { OpenSSL::BN.rand(BITS) }
+  ops("#{n} x mod_exp + mod_mul") do
+    bases.zip(exps).inject(1.to_bn) { |r, (b, e)| r.mod_mul(b.mod_exp(e, m), m) }
+  end
+  ops("multi_exp(#{n})") { OpenSSL::BN.multi_exp(bases, exps, m) }
+end
+
+bases = (1..64).map { OpenSSL::BN.rand(BITS - 1) }
+exps = (1..64).map { OpenSSL::BN.rand(BITS) }
+ops('64 x mod_exp') { bases.zip(exps).map { |b, e| b.mod_exp(e, m) } }
+ops("mod_exp_many(64, threads = #{THREADS})") { OpenSSL::BN.mod_exp_many(bases, exps, m, THREADS) }
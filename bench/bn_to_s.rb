@@ -0,0 +1,27 @@
+# BN conversions to and from hex / decimal / binary strings, operations
+# per second for a few value sizes, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/bn_to_s.rb [seconds]
+#
+require 'openssl'
+
+SECONDS = ( ARGV[0] || 2 ).to_f
+
+def ops(label)
+  2.times { 1000.times { yield } } # warm-up
+  count = 0; start = Time.now
+  while ( elapsed = Time.now - start ) < SECONDS
+    100.times { yield }; count += 100
+  end
+  puts "#{label.ljust(32)} #{( count / elapsed ).round} ops/sec"
+end
+
+[ 64, 256, 2048 ].each do |bits|
+  bn = OpenSSL::BN.rand(bits)
+  hex = bn.to_s(16); dec = bn.to_s; bin = bn.to_s(2)
+  ops("#{bits} to_s(16)") { bn.to_s(16) }
+  ops("#{bits} to_s") { bn.to_s }
+  ops("#{bits} BN.new(hex, 16)") { OpenSSL::BN.new(hex, 16) }
+  ops("#{bits} BN.new(dec)") { OpenSSL::BN.new(dec) }
+  ops("#{bits} BN.new(bin, 2)") { OpenSSL::BN.new(bin, 2) }
+end
@@ -0,0 +1,36 @@
+# PKCS7.encrypt / decrypt (envelope) throughput for a large (64 MB by
+# default) payload, run (after `rake jar`) as :
+#
+#   jruby -J-Xmx2g -Ilib bench/pkcs7_encrypt.rb [megabytes] [iterations]
+#
+require 'benchmark'
+require 'openssl'
+
+SIZE = ( ARGV[0] || 64 ).to_i * 1024 * 1024
+TIMES = ( ARGV[1] || 3 ).to_i
+
+key = OpenSSL::PKey::RSA.new(2048)
+cert = OpenSSL::X509::Certificate.new
+cert.version = 2; cert.serial = 1
+cert.subject = cert.issuer = OpenSSL::X509::Name.parse('/DC=org/DC=ruby-lang/CN=bench')
+cert.public_key = key.public_key
+cert.not_before = Time.now - 60; cert.not_after = Time.now + 3600
+cert.sign(key, OpenSSL::Digest::SHA256.new)
+
+data = ( "PKCS7 bench line #{'-' * 53}\r\n" * ( SIZE / 72 + 1 ) )[0, SIZE]
+BINARY = OpenSSL::PKCS7::BINARY
+
+[ 'AES-128-CBC', 'DES-EDE3-CBC' ].each do |name|
+  cipher = OpenSSL::Cipher.new(name)
+  p7 = nil
+  puts "#{name} #{SIZE / 1024 / 1024} MB x #{TIMES}:"
+  Benchmark.bm(10) do |bm|
+    bm.report('encrypt') do
+      TIMES.times { p7 = OpenSSL::PKCS7.encrypt([ cert ], data, cipher, BINARY) }
+    end
+    bm.report('decrypt') do
+      TIMES.times { p7.decrypt(key, cert, BINARY).size == SIZE or raise 'size mismatch' }
+    end
+  end
+  puts "  (#{ ( SIZE * TIMES / 1024.0 / 1024 ).round } MB each way)"
+end
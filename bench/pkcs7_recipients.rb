@@ -0,0 +1,39 @@
+# PKCS7.encrypt for many (1000 by default) recipients, wrapping the content
+# key serially and on 2, 4 ... threads, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/pkcs7_recipients.rb [recipients] [iterations]
+#
+require 'benchmark'
+require 'openssl'
+
+COUNT = ( ARGV[0] || 1000 ).to_i
+TIMES = ( ARGV[1] || 3 ).to_i
+
+key = OpenSSL::PKey::RSA.new(2048) # recipients share the key (not the cert)
+certs = ( 1..COUNT ).map do |serial|
+  cert = OpenSSL::X509::Certificate.new
+  cert.version = 2; cert.serial = serial
+  cert.subject = cert.issuer = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=recipient#{serial}")
+  cert.public_key = key.public_key
+  cert.not_before = Time.now - 60; cert.not_after = Time.now + 3600
+  cert.sign(key, OpenSSL::Digest::SHA256.new)
+end
+
+data = 'report ' * 1000
+cipher = OpenSSL::Cipher.new('AES-128-CBC')
+processors = java.lang.Runtime.getRuntime.availableProcessors
+threads = [ 2, 4, processors ].uniq.sort
+
+2.times { OpenSSL::PKCS7.encrypt(certs, data, cipher) } # warm-up
+
+puts "#{COUNT} recipients x #{TIMES}:"
+Benchmark.bm(12) do |bm|
+  bm.report('serial') do
+    TIMES.times { OpenSSL::PKCS7.encrypt(certs, data, cipher) }
+  end
+  threads.each do |count|
+    bm.report("#{count} threads") do
+      TIMES.times { OpenSSL::PKCS7.encrypt(certs, data, cipher, 0, count) }
+    end
+  end
+end
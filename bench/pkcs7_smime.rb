@@ -0,0 +1,42 @@
+# S/MIME round trips (sign, write_smime, read_smime, verify) of a large
+# (100 MB by default) payload, run (after `rake jar`) as :
+#
+#   jruby -J-Xmx2g -Ilib bench/pkcs7_smime.rb [megabytes] [iterations]
+#
+require 'benchmark'
+require 'openssl'
+
+SIZE = ( ARGV[0] || 100 ).to_i * 1024 * 1024
+TIMES = ( ARGV[1] || 3 ).to_i
+
+key = OpenSSL::PKey::RSA.new(2048)
+cert = OpenSSL::X509::Certificate.new
+cert.version = 2; cert.serial = 1
+cert.subject = cert.issuer = OpenSSL::X509::Name.parse('/DC=org/DC=ruby-lang/CN=bench')
+cert.public_key = key.public_key
+cert.not_before = Time.now - 60; cert.not_after = Time.now + 3600
+cert.sign(key, OpenSSL::Digest::SHA256.new)
+store = OpenSSL::X509::Store.new; store.add_cert(cert)
+
+data = ( "S/MIME bench line #{'-' * 50}\r\n" * ( SIZE / 72 + 1 ) )[0, SIZE]
+BINARY = OpenSSL::PKCS7::BINARY
+
+puts "#{SIZE / 1024 / 1024} MB x #{TIMES}:"
+Benchmark.bm(20) do |bm|
+  bm.report('detached (multipart)') do
+    TIMES.times do
+      p7 = OpenSSL::PKCS7.sign(cert, key, data, [], OpenSSL::PKCS7::DETACHED | BINARY)
+      smime = OpenSSL::PKCS7.write_smime(p7, data, OpenSSL::PKCS7::DETACHED | BINARY)
+      p7 = OpenSSL::PKCS7.read_smime(smime)
+      p7.verify([], store, p7.data, BINARY) or raise 'not verified'
+    end
+  end
+  bm.report('attached') do
+    TIMES.times do
+      p7 = OpenSSL::PKCS7.sign(cert, key, data, [], BINARY)
+      smime = OpenSSL::PKCS7.write_smime(p7, nil, BINARY)
+      p7 = OpenSSL::PKCS7.read_smime(smime)
+      p7.verify([], store, nil, BINARY) or raise 'not verified'
+    end
+  end
+end
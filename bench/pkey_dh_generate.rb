@@ -0,0 +1,20 @@
+# DH parameter (safe prime) generation, average seconds per DH.new(bits)
+# against DH.group(bits) returning a well-known group, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/pkey_dh_generate.rb [bits] [count]
+#
+require 'openssl'
+require 'benchmark'
+
+BITS = ( ARGV[0] || 1024 ).to_i
+COUNT = ( ARGV[1] || 5 ).to_i
+
+OpenSSL::PKey::DH.new(256) # warm-up
+
+time = Benchmark.realtime { COUNT.times { OpenSSL::PKey::DH.new(BITS) } }
+puts "DH.new(#{BITS})".ljust(20) + " #{( time / COUNT ).round(3)} sec"
+
+if OpenSSL::PKey::DH.respond_to?(:group)
+  time = Benchmark.realtime { 1000.times { OpenSSL::PKey::DH.group(2048) } }
+  puts "DH.group(2048)".ljust(20) + " #{( time / 1000 * 1_000_000 ).round(1)} usec"
+end
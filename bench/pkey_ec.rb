@@ -0,0 +1,42 @@
+# ECDSA (P-256) sign / verify and ECDH key agreement against RSA 2048
+# sign / verify and (RSA key transport) public_encrypt / private_decrypt,
+# operations per second, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/pkey_ec.rb [seconds]
+#
+# NOTE: ECDSA is expected to out-sign RSA 2048 but not out-verify it, an RSA
+# verify (e = 65537) is a handful of modular multiplications while an ECDSA
+# verify costs about two point multiplications. P-256 signatures go through
+# SunEC (when available) as BC's pure Java ECDSA signs about 2x slower.
+#
+require 'openssl'
+
+SECONDS = ( ARGV[0] || 5 ).to_f
+
+rsa = OpenSSL::PKey::RSA.new(2048); rsa_pub = rsa.public_key
+ec = OpenSSL::PKey::EC.generate('prime256v1')
+peer = OpenSSL::PKey::EC.generate('prime256v1').public_key
+
+digest = OpenSSL::Digest::SHA256.new
+data = '{"alg":"ES256","typ":"JWT"}.{"sub":"1234567890","name":"John Doe","iat":1516239022}'
+hash = digest.digest(data)
+rsa_sig = rsa.sign(digest, data)
+ec_sig = ec.dsa_sign_asn1(hash)
+enc = rsa_pub.public_encrypt('secret' * 5)
+
+def ops(label)
+  2.times { 200.times { yield } } # warm-up
+  count = 0; start = Time.now
+  while ( elapsed = Time.now - start ) < SECONDS
+    100.times { yield }; count += 100
+  end
+  puts "#{label.ljust(22)} #{( count / elapsed ).round} ops/sec"
+end
+
+ops('RSA sign') { rsa.sign(digest, data) }
+ops('RSA verify') { rsa_pub.verify(digest, rsa_sig, data) or raise 'not verified' }
+ops('RSA public_encrypt') { rsa_pub.public_encrypt('secret' * 5) }
+ops('RSA private_decrypt') { rsa.private_decrypt(enc) }
+ops('ECDSA sign') { ec.dsa_sign_asn1(hash) }
+ops('ECDSA verify') { ec.dsa_verify_asn1(hash, ec_sig) or raise 'not verified' }
+ops('ECDH dh_compute_key') { ec.dh_compute_key(peer) }
@@ -0,0 +1,29 @@
+# RSA.generate latency (p50/p99) with requests arriving at an interval, with
+# and without a RSA.pregenerate pool, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/pkey_pregenerate.rb [requests] [interval] [bits]
+#
+require 'openssl'
+
+REQUESTS = ( ARGV[0] || 20 ).to_i
+INTERVAL = ( ARGV[1] || 0.5 ).to_f
+BITS = ( ARGV[2] || 2048 ).to_i
+
+def measure
+  times = REQUESTS.times.map do
+    sleep INTERVAL
+    start = Time.now; yield; Time.now - start
+  end.sort
+  pct = lambda { |p| '%.1f ms' % ( times[ ( ( times.size - 1 ) * p ).round ] * 1000 ) }
+  "p50: #{pct[0.5]} p99: #{pct[0.99]} max: #{pct[1.0]}"
+end
+
+3.times { OpenSSL::PKey::RSA.generate(BITS) } # warm-up
+
+puts "#{REQUESTS} x RSA.generate(#{BITS}) every #{INTERVAL}s"
+puts "  synchronous   #{measure { OpenSSL::PKey::RSA.generate(BITS) }}"
+
+OpenSSL::PKey::RSA.pregenerate(BITS, :count => 8, :threads => 2)
+sleep 0.1 while OpenSSL::PKey::RSA.pool_stats[BITS][:depth] < 8
+puts "  pregenerated  #{measure { OpenSSL::PKey::RSA.generate(BITS) }}"
+puts "  pool stats:   #{OpenSSL::PKey::RSA.pool_stats[BITS].inspect}"
@@ -0,0 +1,38 @@
+# PKey.read / RSA.new operations per second for PEM and DER encoded keys,
+# without and with the (opt-in) PKey.cache_keys cache, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/pkey_read.rb [seconds]
+#
+require 'openssl'
+
+SECONDS = ( ARGV[0] || 3 ).to_f
+
+def ops(label)
+  2.times { 100.times { yield } } # warm-up
+  count = 0; start = Time.now
+  while ( elapsed = Time.now - start ) < SECONDS
+    10.times { yield }; count += 10
+  end
+  puts "#{label.ljust(40)} #{( count / elapsed ).round} ops/sec"
+end
+
+rsa = OpenSSL::PKey::RSA.new(2048)
+dsa = OpenSSL::PKey::DSA.new(1024)
+rsa_pem = rsa.to_pem; rsa_der = rsa.to_der
+enc_pem = rsa.to_pem(OpenSSL::Cipher.new('AES-128-CBC'), 'secret')
+pub_der = rsa.public_key.to_der
+dsa_der = dsa.to_der; dsa_pub_der = dsa.public_key.to_der
+
+cache = OpenSSL::PKey.respond_to?(:cache_keys) ? [ false, true ] : [ false ]
+cache.each do |cached|
+  OpenSSL::PKey.cache_keys(64) if cached
+  suffix = cached ? ' (cached)' : ''
+  ops("PKey.read(rsa_pem)#{suffix}") { OpenSSL::PKey.read(rsa_pem) }
+  ops("PKey.read(enc_pem, pass)#{suffix}") { OpenSSL::PKey.read(enc_pem, 'secret') }
+  ops("PKey.read(rsa_der)#{suffix}") { OpenSSL::PKey.read(rsa_der) }
+  ops("PKey.read(pub_der)#{suffix}") { OpenSSL::PKey.read(pub_der) }
+  ops("PKey.read(dsa_der)#{suffix}") { OpenSSL::PKey.read(dsa_der) }
+  ops("PKey.read(dsa_pub_der)#{suffix}") { OpenSSL::PKey.read(dsa_pub_der) rescue nil }
+  ops("RSA.new(rsa_pem)#{suffix}") { OpenSSL::PKey::RSA.new(rsa_pem) }
+  ops("RSA.new(pub_der)#{suffix}") { OpenSSL::PKey::RSA.new(pub_der) }
+end
@@ -0,0 +1,29 @@
+# PKey#sign / #verify and RSA public_encrypt / private_decrypt operations
+# per second (RSA 2048, SHA256), run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/pkey_sign_verify.rb [seconds]
+#
+require 'openssl'
+
+SECONDS = ( ARGV[0] || 5 ).to_f
+
+key = OpenSSL::PKey::RSA.new(2048)
+pub = key.public_key
+digest = OpenSSL::Digest::SHA256.new
+data = '{"alg":"RS256","typ":"JWT"}.{"sub":"1234567890","name":"John Doe","iat":1516239022}'
+sig = key.sign(digest, data)
+enc = pub.public_encrypt('secret')
+
+def ops(label)
+  2.times { 200.times { yield } } # warm-up
+  count = 0; start = Time.now
+  while ( elapsed = Time.now - start ) < SECONDS
+    100.times { yield }; count += 100
+  end
+  puts "#{label.ljust(18)} #{( count / elapsed ).round} ops/sec"
+end
+
+ops('sign') { key.sign(digest, data) }
+ops('verify') { pub.verify(digest, sig, data) or raise 'not verified' }
+ops('public_encrypt') { pub.public_encrypt('secret') }
+ops('private_decrypt') { key.private_decrypt(enc) }
@@ -0,0 +1,38 @@
+# PKey#verify (one call per signature) compared with PKey#verify_many
+# (serial and on threads), RSA 2048 / SHA256, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/pkey_verify_many.rb [signatures] [iterations]
+#
+require 'benchmark'
+require 'openssl'
+
+COUNT = ( ARGV[0] || 10_000 ).to_i
+TIMES = ( ARGV[1] || 3 ).to_i
+
+key = OpenSSL::PKey::RSA.new(2048)
+pub = key.public_key
+digest = OpenSSL::Digest::SHA256.new
+payloads = ( 0...100 ).map { |i| "{\"event\":\"push\",\"id\":#{i},\"body\":\"#{'x' * 512}\"}" }
+signed = payloads.map { |payload| [ key.sign(digest, payload), payload ] }
+pairs = ( 0...COUNT ).map { |i| signed[i % signed.size] }
+
+processors = java.lang.Runtime.getRuntime.availableProcessors
+threads = [ 2, 4, processors ].uniq.sort - [ 1 ]
+
+pub.verify_many(digest, pairs) # warm-up
+pairs.each { |sig, data| pub.verify(digest, sig, data) }
+
+puts "#{COUNT} signatures x #{TIMES}:"
+Benchmark.bm(22) do |bm|
+  bm.report('verify (each)') do
+    TIMES.times { pairs.each { |sig, data| pub.verify(digest, sig, data) or raise 'not verified' } }
+  end
+  bm.report('verify_many') do
+    TIMES.times { pub.verify_many(digest, pairs).all? or raise 'not verified' }
+  end
+  threads.each do |count|
+    bm.report("verify_many #{count} threads") do
+      TIMES.times { pub.verify_many(digest, pairs, count).all? or raise 'not verified' }
+    end
+  end
+end
@@ -0,0 +1,37 @@
+# Compares splitting a PEM bundle and calling X509::Certificate.new for each
+# certificate with the bulk X509::Certificate.load, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/x509_certificate_load.rb [count]
+#
+require 'benchmark'
+require 'openssl'
+
+COUNT = ( ARGV[0] || 2000 ).to_i
+
+key = OpenSSL::PKey::RSA.new(1024)
+certs = (1..COUNT).map do |i|
+  cert = OpenSSL::X509::Certificate.new
+  cert.version = 2
+  cert.serial = i
+  cert.subject = cert.issuer = OpenSSL::X509::Name.parse("/CN=Bench #{i}")
+  cert.public_key = key.public_key
+  cert.not_before = Time.now - 60
+  cert.not_after = Time.now + 3600
+  cert.sign(key, OpenSSL::Digest::SHA256.new)
+  cert
+end
+bundle = certs.map { |cert| cert.to_pem }.join
+
+PEM_CERT = /-----BEGIN CERTIFICATE-----.+?-----END CERTIFICATE-----/m
+
+3.times do |round| # first rounds are a warm-up
+  puts round < 2 ? 'warm-up:' : "\n#{COUNT} certificates (#{bundle.size} bytes):"
+  Benchmark.bm(20) do |bm|
+    bm.report('scan + new') do
+      bundle.scan(PEM_CERT).map { |pem| OpenSSL::X509::Certificate.new(pem) }.size == COUNT or raise
+    end
+    bm.report('load') do
+      OpenSSL::X509::Certificate.load(bundle).size == COUNT or raise
+    end
+  end
+end
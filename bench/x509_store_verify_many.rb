@@ -0,0 +1,51 @@
+# Compares X509::Store#verify (one by one) with Store#verify_many using 1..N
+# worker threads, run (after `rake jar`) as :
+#
+#   jruby -Ilib bench/x509_store_verify_many.rb [count]
+#
+require 'benchmark'
+require 'openssl'
+
+COUNT = ( ARGV[0] || 2000 ).to_i
+
+def issue_cert(subject, key, serial, issuer = nil, issuer_key = nil, ca = false)
+  cert = OpenSSL::X509::Certificate.new
+  cert.version = 2
+  cert.serial = serial
+  cert.subject = OpenSSL::X509::Name.parse(subject)
+  cert.issuer = issuer ? issuer.subject : cert.subject
+  cert.public_key = key.public_key
+  cert.not_before = Time.now - 60
+  cert.not_after = Time.now + 3600
+  if ca
+    ef = OpenSSL::X509::ExtensionFactory.new
+    ef.subject_certificate = cert
+    cert.add_extension ef.create_extension('basicConstraints', 'CA:TRUE', true)
+  end
+  cert.sign(issuer_key || key, OpenSSL::Digest::SHA256.new)
+  cert
+end
+
+ca_key = OpenSSL::PKey::RSA.new(2048)
+ca = issue_cert('/CN=Bench CA', ca_key, 1, nil, nil, true)
+ee_key = OpenSSL::PKey::RSA.new(1024)
+certs = (1..COUNT).map { |i| issue_cert("/CN=Bench EE #{i}", ee_key, i + 1, ca, ca_key) }
+
+store = OpenSSL::X509::Store.new
+store.add_cert ca
+
+cores = java.lang.Runtime.getRuntime.availableProcessors
+threads = [ 1 ]; threads << threads.last * 2 while threads.last * 2 <= cores
+threads << cores unless threads.include?(cores)
+
+2.times do |round| # first round is a warm-up
+  puts round == 0 ? 'warm-up:' : "\n#{COUNT} certificates (#{cores} cores):"
+  Benchmark.bm(20) do |bm|
+    bm.report('verify') { certs.each { |cert| store.verify(cert) or raise store.error_string } }
+    threads.each do |n|
+      bm.report("verify_many(#{n})") do
+        store.verify_many(certs, n).each { |ok, err| ok or raise "error: #{err}" }
+      end
+    end
+  end
+end
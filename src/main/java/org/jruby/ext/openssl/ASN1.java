@@ -27,8 +27,10 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.ext.openssl;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -92,6 +94,8 @@ import org.jruby.Ruby;
 import org.jruby.RubyArray;
 import org.jruby.RubyBignum;
 import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyHash;
 import org.jruby.RubyInteger;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
@@ -106,8 +110,11 @@ import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.Visibility;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.runtime.ivars.VariableAccessor;
 import org.jruby.util.ByteList;
+import org.jruby.util.IOInputStream;
 
+import org.jruby.ext.openssl.impl.ASN1Parser;
 import org.jruby.ext.openssl.impl.ASN1Registry;
 
 import static org.jruby.ext.openssl.OpenSSL.*;
@@ -951,6 +958,582 @@ public class ASN1 {
 
     } // ObjectId
 
+    /**
+     * Decodes (definite length) DER straight from the input bytes into
+     * OpenSSL::ASN1 objects - without building a BC object tree first and
+     * without dispatching a Ruby-level <code>new</code> for every node.
+     *
+     * Encodings it does not handle (BER indefinite lengths, high tag numbers,
+     * constructed strings, unknown universal types ...) make it return null
+     * so that callers fall back to decoding using BC (and decodeObject).
+     *
+     * In lazy mode SEQUENCE and SET values only keep a slice of the input,
+     * their contents get decoded on first access of the value.
+     */
+    static final class DERDecoder {
+
+        private final Ruby runtime;
+        private final RubyModule ASN1;
+        private final boolean lazy;
+        // looked-up on demand - once for every decoder instance
+        private final RubyClass[] classes = new RubyClass[ ASN1_INFO.length ];
+        private final VariableAccessor[][] accessors = new VariableAccessor[ ASN1_INFO.length ][];
+        private RubyClass ASN1Data;
+        private VariableAccessor[] dataAccessors;
+        private IRubyObject UNIVERSAL, CONTEXT_SPECIFIC, APPLICATION;
+
+        private byte[] bytes;
+        private int pos;
+        private ASN1Parser parser;
+
+        DERDecoder(final Ruby runtime, final RubyModule ASN1) {
+            this(runtime, ASN1, false);
+        }
+
+        DERDecoder(final Ruby runtime, final RubyModule ASN1, final boolean lazy) {
+            this.runtime = runtime; this.ASN1 = ASN1; this.lazy = lazy;
+        }
+
+        /**
+         * @return the decoded value or null if not handled
+         * @see #position()
+         */
+        IRubyObject decode(final byte[] bytes, final int offset, final int limit)
+            throws IOException, IllegalArgumentException {
+            this.bytes = bytes; this.pos = offset;
+            this.parser = new ASN1Parser(bytes, offset, limit - offset);
+            return decodeNext(limit);
+        }
+
+        /**
+         * @return the decoded values (of a constructed encoding's contents)
+         * or null if not handled
+         */
+        RubyArray decodeContents(final byte[] bytes, final int offset, final int end)
+            throws IOException, IllegalArgumentException {
+            this.bytes = bytes; this.pos = offset;
+            this.parser = new ASN1Parser(bytes, offset, end - offset);
+            return decodeContents(end);
+        }
+
+        /**
+         * @return position after the last successfully decoded value
+         */
+        final int position() { return pos; }
+
+        private IRubyObject decodeNext(final int limit) throws IOException {
+            final int start = pos;
+            if ( start < limit && bytes[start] == 0 ) return null; // EOC
+            parser.reset(start, limit);
+            if ( ! parser.next() ) throw new EOFException("EOF found when tag expected");
+            final int tagNo = parser.tag();
+            if ( tagNo >= 0x1F ) return null; // high tag number
+            if ( parser.length() == -1 ) return null; // indefinite-length (BER)
+
+            final int tag = bytes[start] & 0xFF;
+            final boolean constructed = parser.isConstructed();
+            final int i = start + parser.headerLength();
+            final int length = (int) parser.length(); // (array) bounds checked
+            final int end = i + length;
+            pos = i; // contents
+
+            final IRubyObject decoded;
+            if ( ( tag & BERTags.APPLICATION ) != 0 ) { // APPLICATION (or PRIVATE)
+                if ( ! constructed ) return null;
+                final RubyArray values = decodeContents(end);
+                if ( values == null ) return null;
+                decoded = newASN1Data(values, tagNo, applicationSymbol());
+            }
+            else if ( ( tag & BERTags.TAGGED ) != 0 ) { // CONTEXT_SPECIFIC
+                final IRubyObject value;
+                if ( constructed ) {
+                    final RubyArray values = decodeContents(end);
+                    if ( values == null ) return null;
+                    // NOTE: same as BC does - [0] { a, b } is an implicit tagged SEQUENCE
+                    value = values.size() == 1 ? values.eltInternal(0) : newConstructive(SEQUENCE, values);
+                }
+                else {
+                    value = newPrimitive(OCTET_STRING, newString(i, length));
+                }
+                decoded = newASN1Data(runtime.newArray(value), tagNo, contextSpecificSymbol());
+            }
+            else if ( constructed ) {
+                if ( tagNo != SEQUENCE && tagNo != SET ) return null;
+                if ( lazy ) {
+                    final Constructive constructive = newConstructive(tagNo, null);
+                    constructive.lazyEncoded = new ByteList(bytes, start, end - start, false);
+                    constructive.lazyHeaderLength = i - start;
+                    pos = end;
+                    return constructive;
+                }
+                final RubyArray values = decodeContents(end);
+                if ( values == null ) return null;
+                decoded = newConstructive(tagNo, values);
+            }
+            else {
+                decoded = decodePrimitive(tagNo, start, i, length);
+                if ( decoded == null ) return null;
+            }
+            pos = end;
+            return decoded;
+        }
+
+        private RubyArray decodeContents(final int end) throws IOException {
+            final RubyArray values = runtime.newArray();
+            while ( pos < end ) {
+                final IRubyObject value = decodeNext(end);
+                if ( value == null ) return null;
+                values.append(value);
+            }
+            return values;
+        }
+
+        private IRubyObject decodePrimitive(final int tagNo, final int start, final int off, final int len)
+            throws IOException {
+            switch ( tagNo ) {
+                case 1 : // BOOLEAN
+                    if ( len != 1 ) throw new IllegalArgumentException("BOOLEAN value should have 1 byte in it");
+                    return newPrimitive(tagNo, runtime.newBoolean(bytes[off] != 0));
+                case 2 : // INTEGER
+                    if ( len < 1 ) throw new IOException("malformed integer");
+                    return newPrimitive(tagNo, BN.newBN(runtime, new BigInteger(copy(off, len))));
+                case 3 : // BIT_STRING
+                    if ( len < 1 ) throw new IllegalArgumentException("truncated BIT STRING detected");
+                    final Primitive bitString = newPrimitive(tagNo, newString(off + 1, len - 1));
+                    bitString.setInstanceVariable("@unused_bits", runtime.newFixnum(bytes[off]));
+                    return bitString;
+                case 4 : // OCTET_STRING
+                    return newPrimitive(tagNo, newString(off, len));
+                case 5 : // NULL
+                    return newPrimitive(tagNo, runtime.getNil());
+                case 6 : // OBJECT
+                    final String oid = decodeObjectId(off, len);
+                    final String name = oid2Sym(runtime, new ASN1ObjectIdentifier(oid), true);
+                    return newPrimitive(tagNo, runtime.newString(name == null ? oid : name));
+                case 10 : // ENUMERATED
+                    if ( len < 1 ) throw new IOException("malformed enumerated");
+                    return newPrimitive(tagNo, RubyBignum.bignorm(runtime, new BigInteger(copy(off, len))));
+                case 12 : // UTF8STRING
+                case 18 : // NUMERICSTRING
+                case 19 : // PRINTABLESTRING
+                case 20 : // T61STRING
+                case 22 : // IA5STRING
+                case 27 : // GENERALSTRING
+                    return newPrimitive(tagNo, newString(off, len));
+                case 28 : // UNIVERSALSTRING
+                    final String str = new DERUniversalString(copy(off, len)).getString();
+                    return newPrimitive(tagNo, runtime.newString(ByteList.create(str)));
+                case 30 : // BMPSTRING
+                    final byte[] chars = new byte[ len / 2 ]; // same as BC's getString() + ByteList.create
+                    for ( int i = 0; i < chars.length; i++ ) chars[i] = bytes[ off + 2 * i + 1 ];
+                    return newPrimitive(tagNo, runtime.newString(new ByteList(chars, false)));
+                case 23 : // UTCTIME
+                    final Date adjustedTime;
+                    try { adjustedTime = ASN1UTCTime.getInstance(copy(start, off - start + len)).getAdjustedDate(); }
+                    catch (ParseException e) { throw new IOException(e); }
+                    return newPrimitive(tagNo, RubyTime.newTime(runtime, adjustedTime.getTime()));
+                case 24 : // GENERALIZEDTIME
+                    final Date generalTime;
+                    try { generalTime = ASN1GeneralizedTime.getInstance(copy(start, off - start + len)).getDate(); }
+                    catch (ParseException e) { throw new IOException(e); }
+                    return newPrimitive(tagNo, RubyTime.newTime(runtime, generalTime.getTime()));
+            }
+            return null;
+        }
+
+        // NOTE: BC's ASN1ObjectIdentifier(byte[]) "reinvented" - without the intermediate objects
+        private String decodeObjectId(final int off, final int len) {
+            final StringBuilder objId = new StringBuilder(len * 3);
+            long value = 0; BigInteger bigValue = null;
+            boolean first = true;
+
+            for ( int i = off; i < off + len; i++ ) {
+                final int b = bytes[i] & 0xFF;
+
+                if ( value <= LONG_LIMIT ) {
+                    value += ( b & 0x7F );
+                    if ( ( b & 0x80 ) == 0 ) { // end of number reached
+                        if ( first ) {
+                            if ( value < 40 ) objId.append('0');
+                            else if ( value < 80 ) { objId.append('1'); value -= 40; }
+                            else { objId.append('2'); value -= 80; }
+                            first = false;
+                        }
+                        objId.append('.').append(value);
+                        value = 0;
+                    }
+                    else {
+                        value <<= 7;
+                    }
+                }
+                else {
+                    if ( bigValue == null ) bigValue = BigInteger.valueOf(value);
+                    bigValue = bigValue.or(BigInteger.valueOf(b & 0x7F));
+                    if ( ( b & 0x80 ) == 0 ) {
+                        if ( first ) {
+                            objId.append('2');
+                            bigValue = bigValue.subtract(BigInteger.valueOf(80));
+                            first = false;
+                        }
+                        objId.append('.').append(bigValue);
+                        bigValue = null; value = 0;
+                    }
+                    else {
+                        bigValue = bigValue.shiftLeft(7);
+                    }
+                }
+            }
+            return objId.toString();
+        }
+
+        private static final long LONG_LIMIT = ( Long.MAX_VALUE >> 7 ) - 0x7F;
+
+        private byte[] copy(final int off, final int len) {
+            final byte[] copy = new byte[len];
+            System.arraycopy(bytes, off, copy, 0, len);
+            return copy;
+        }
+
+        private RubyString newString(final int off, final int len) {
+            return runtime.newString(new ByteList(copy(off, len), false));
+        }
+
+        private RubyClass getClass(final int tag) {
+            RubyClass klass = classes[tag];
+            if ( klass == null ) {
+                klass = classes[tag] = ASN1.getClass((String) ASN1_INFO[tag][2]);
+            }
+            return klass;
+        }
+
+        private Primitive newPrimitive(final int tag, final IRubyObject value) {
+            final Primitive self = new Primitive(runtime, getClass(tag));
+            initialize(self, tag, value);
+            return self;
+        }
+
+        private Constructive newConstructive(final int tag, final RubyArray value) {
+            final Constructive self = new Constructive(runtime, getClass(tag));
+            initialize(self, tag, value);
+            return self;
+        }
+
+        private static final String[] VARIABLES = {
+            "@tag", "@value", "@tag_class", "@tagging", "@infinite_length"
+        };
+
+        // same as Primitive.initializeImpl (for the UNIVERSAL case)
+        private void initialize(final ASN1Data self, final int tag, final IRubyObject value) {
+            VariableAccessor[] vars = accessors[tag];
+            if ( vars == null ) vars = accessors[tag] = getAccessors(getClass(tag), 5);
+            vars[0].set(self, runtime.newFixnum(tag));
+            if ( value != null ) vars[1].set(self, value);
+            vars[2].set(self, universalSymbol());
+            vars[3].set(self, runtime.getNil());
+            vars[4].set(self, runtime.getFalse());
+        }
+
+        private ASN1Data newASN1Data(final IRubyObject value, final int tag, final IRubyObject tag_class) {
+            if ( ASN1Data == null ) {
+                ASN1Data = ASN1.getClass("ASN1Data");
+                dataAccessors = getAccessors(ASN1Data, 3);
+            }
+            final ASN1Data self = new ASN1Data(runtime, ASN1Data);
+            dataAccessors[0].set(self, runtime.newFixnum(tag));
+            dataAccessors[1].set(self, value);
+            dataAccessors[2].set(self, tag_class);
+            return self;
+        }
+
+        private static VariableAccessor[] getAccessors(final RubyClass klass, final int count) {
+            final VariableAccessor[] vars = new VariableAccessor[count];
+            for ( int i = 0; i < count; i++ ) {
+                vars[i] = klass.getRealClass().getVariableAccessorForWrite(VARIABLES[i]);
+            }
+            return vars;
+        }
+
+        private IRubyObject universalSymbol() {
+            if ( UNIVERSAL == null ) UNIVERSAL = runtime.newSymbol("UNIVERSAL");
+            return UNIVERSAL;
+        }
+
+        private IRubyObject contextSpecificSymbol() {
+            if ( CONTEXT_SPECIFIC == null ) CONTEXT_SPECIFIC = runtime.newSymbol("CONTEXT_SPECIFIC");
+            return CONTEXT_SPECIFIC;
+        }
+
+        private IRubyObject applicationSymbol() {
+            if ( APPLICATION == null ) APPLICATION = runtime.newSymbol("APPLICATION");
+            return APPLICATION;
+        }
+
+    }
+
+    /**
+     * A two-pass DER encoder for (untagged) SEQUENCE and SET values.
+     *
+     * The first pass walks the Ruby objects, computes contents lengths and
+     * collects contents of leaves, the second writes everything into a single
+     * exact-size buffer. Common primitives are encoded directly, others (tagged
+     * values, times etc.) are DER encoded "as before" and copied into place.
+     */
+    static final class DEREncoder {
+
+        private final ThreadContext context;
+        private final Ruby runtime;
+        private final RubyModule ASN1;
+        // looked-up on demand - once for every encoder instance
+        private final RubyClass[] classes = new RubyClass[ ASN1_INFO.length ];
+        private final IRubyObject UNIVERSAL;
+
+        // first pass results (in encoding order) : tag - or -1 for a complete
+        // encoding, length of contents and the contents (null if constructed)
+        private int[] tags = new int[16];
+        private int[] lengths = new int[16];
+        private ByteList[] contents = new ByteList[16];
+        private int count;
+
+        DEREncoder(final ThreadContext context) {
+            this.context = context; this.runtime = context.runtime;
+            this.ASN1 = _ASN1(runtime);
+            this.UNIVERSAL = runtime.newSymbol("UNIVERSAL");
+        }
+
+        /**
+         * @return whether the (constructive) value will be encoded by this encoder
+         */
+        boolean isEncodable(final Constructive value) {
+            return constructedTag(value) != -1 && value.get_value(context) instanceof RubyArray;
+        }
+
+        byte[] encode(final IRubyObject value) throws IOException {
+            count = 0;
+            final int length = measure(value); // first pass
+
+            if ( count == 1 && tags[0] == -1 && contents[0].getBegin() == 0 &&
+                 contents[0].unsafeBytes().length == length ) {
+                return contents[0].unsafeBytes(); // already encoded
+            }
+
+            final byte[] out = new byte[ length ]; int pos = 0;
+            for ( int i = 0; i < count; i++ ) { // second pass
+                final ByteList bytes = contents[i];
+                if ( tags[i] != -1 ) pos = writeHeader(out, pos, tags[i], lengths[i]);
+                if ( bytes != null ) {
+                    System.arraycopy(bytes.unsafeBytes(), bytes.getBegin(), out, pos, bytes.getRealSize());
+                    pos += bytes.getRealSize();
+                }
+            }
+            return out;
+        }
+
+        private int measure(final IRubyObject entry) throws IOException {
+            if ( entry instanceof Constructive ) {
+                final Constructive constructive = (Constructive) entry;
+                if ( constructive.isLazyUnchanged() ) return add(-1, constructive.lazyEncoded);
+                final int tag = constructedTag(constructive);
+                if ( tag != -1 ) {
+                    final IRubyObject value = constructive.get_value(context);
+                    if ( value instanceof RubyArray ) {
+                        if ( tag == SEQUENCE ) return measureSequence((RubyArray) value);
+                        return measureSet((RubyArray) value);
+                    }
+                }
+            }
+            else if ( entry instanceof Primitive ) {
+                final int tag = primitiveTag((Primitive) entry);
+                if ( tag != -1 ) {
+                    final ByteList bytes = primitiveContents(tag, entry.getInstanceVariables().getInstanceVariable("@value"));
+                    if ( bytes != null ) {
+                        return headerLength(bytes.getRealSize()) + add(tag, bytes);
+                    }
+                }
+            }
+            // not handled - encode "as before" :
+            final ASN1Data data;
+            if ( entry instanceof ASN1Data ) data = (ASN1Data) entry;
+            else data = (ASN1Data) decodeImpl(context, entry);
+            return add(-1, new ByteList(data.toDER(context), false));
+        }
+
+        private int measureSequence(final RubyArray values) throws IOException {
+            final int index = add(0x30, null, 0);
+            int length = 0;
+            for ( int i = 0; i < values.size(); i++ ) {
+                final IRubyObject entry = values.eltInternal(i);
+                if ( entry instanceof ASN1Data && ((ASN1Data) entry).isEOC() ) break;
+                length += measure(entry);
+            }
+            lengths[index] = length;
+            return headerLength(length) + length;
+        }
+
+        // DER requires SET OF elements to be sorted by their encodings
+        private int measureSet(final RubyArray values) throws IOException {
+            final byte[][] encoded = new byte[ values.size() ][];
+            int size = 0; int length = 0;
+            for ( int i = 0; i < encoded.length; i++ ) {
+                final IRubyObject entry = values.eltInternal(i);
+                if ( entry instanceof ASN1Data && ((ASN1Data) entry).isEOC() ) break;
+                final byte[] bytes = new DEREncoder(context).encode(entry);
+                // insertion sort - keeps the order of equal encodings (same as BC)
+                int j = size++;
+                while ( j > 0 && ! lessThanOrEqual(encoded[j - 1], bytes) ) {
+                    encoded[j] = encoded[j - 1]; j--;
+                }
+                encoded[j] = bytes; length += bytes.length;
+            }
+            add(0x31, null, length);
+            for ( int i = 0; i < size; i++ ) add(-1, new ByteList(encoded[i], false));
+            return headerLength(length) + length;
+        }
+
+        private static boolean lessThanOrEqual(final byte[] a, final byte[] b) {
+            final int len = Math.min(a.length, b.length);
+            for ( int i = 0; i < len; i++ ) {
+                if ( a[i] != b[i] ) return ( a[i] & 0xFF ) < ( b[i] & 0xFF );
+            }
+            return len == a.length;
+        }
+
+        private int add(final int tag, final ByteList bytes) {
+            add(tag, bytes, bytes.getRealSize());
+            return bytes.getRealSize();
+        }
+
+        private int add(final int tag, final ByteList bytes, final int length) {
+            if ( count == tags.length ) {
+                final int newSize = count * 2;
+                final int[] newTags = new int[newSize]; System.arraycopy(tags, 0, newTags, 0, count);
+                final int[] newLengths = new int[newSize]; System.arraycopy(lengths, 0, newLengths, 0, count);
+                final ByteList[] newContents = new ByteList[newSize]; System.arraycopy(contents, 0, newContents, 0, count);
+                tags = newTags; lengths = newLengths; contents = newContents;
+            }
+            tags[count] = tag; lengths[count] = length; contents[count] = bytes;
+            return count++;
+        }
+
+        /**
+         * @return SEQUENCE or SET for an untagged definite length value, -1 otherwise
+         */
+        private int constructedTag(final Constructive value) {
+            final int tag = universalTag(value);
+            if ( tag != SEQUENCE && tag != SET ) return -1;
+            final IRubyObject infinite = value.getInstanceVariable("@infinite_length");
+            if ( infinite != null && infinite.isTrue() ) return -1;
+            return tag;
+        }
+
+        private int primitiveTag(final Primitive value) {
+            final int tag = universalTag(value);
+            switch ( tag ) {
+                case 1 : case 2 : case 4 : case 5 : case 10 : case 12 : case 22 :
+                    return tag;
+            }
+            return -1;
+        }
+
+        // tag of a UNIVERSAL (un-tagged) value whose class matches its tag
+        private int universalTag(final ASN1Data value) {
+            final IRubyObject tag = value.getInstanceVariable("@tag");
+            if ( ! ( tag instanceof RubyFixnum ) ) return -1;
+            final long tagNo = ((RubyFixnum) tag).getLongValue();
+            if ( tagNo <= 0 || tagNo >= ASN1_INFO.length ) return -1;
+            if ( value.getInstanceVariable("@tag_class") != UNIVERSAL ) return -1;
+            final IRubyObject tagging = value.getInstanceVariable("@tagging");
+            if ( tagging != null && ! tagging.isNil() ) return -1;
+            final RubyClass klass = getClass((int) tagNo);
+            if ( klass == null || value.getMetaClass() != klass ) return -1;
+            return (int) tagNo;
+        }
+
+        // NOTE: needs to produce the same encoding as Primitive#toASN1 does
+        private ByteList primitiveContents(final int tag, final IRubyObject value) {
+            switch ( tag ) {
+                case 1 : // BOOLEAN
+                    if ( value == null ) return null;
+                    return new ByteList(new byte[] { value.isTrue() ? (byte) 0xFF : 0 }, false);
+                case 2 : case 10 : // INTEGER, ENUMERATED
+                    if ( value instanceof RubyFixnum ) {
+                        return new ByteList(integerBytes(((RubyFixnum) value).getLongValue()), false);
+                    }
+                    if ( value instanceof RubyBignum ) {
+                        return new ByteList(((RubyBignum) value).getValue().toByteArray(), false);
+                    }
+                    if ( value instanceof BN ) {
+                        return new ByteList(((BN) value).getValue().toByteArray(), false);
+                    }
+                    return null;
+                case 4 : // OCTET_STRING
+                    if ( value instanceof RubyString ) return ((RubyString) value).getByteList();
+                    return null;
+                case 5 : // NULL
+                    return ByteList.EMPTY_BYTELIST;
+                case 12 : case 22 : // UTF8String, IA5String
+                    if ( value instanceof RubyString ) { // 7-bit only (same as BC)
+                        final ByteList bytes = ((RubyString) value).getByteList();
+                        final byte[] b = bytes.unsafeBytes();
+                        final int end = bytes.getBegin() + bytes.getRealSize();
+                        for ( int i = bytes.getBegin(); i < end; i++ ) {
+                            if ( b[i] < 0 ) return null;
+                        }
+                        return bytes;
+                    }
+                    return null;
+            }
+            return null;
+        }
+
+        // minimal two's complement (same as BigInteger.toByteArray)
+        private static byte[] integerBytes(final long value) {
+            int len = 8;
+            while ( len > 1 ) {
+                final long rest = value >> ( ( len - 1 ) * 8 - 1 );
+                if ( rest != 0 && rest != -1 ) break;
+                len--;
+            }
+            final byte[] bytes = new byte[len];
+            for ( int i = 0; i < len; i++ ) {
+                bytes[i] = (byte) ( value >> ( ( len - 1 - i ) * 8 ) );
+            }
+            return bytes;
+        }
+
+        private static int headerLength(final int length) {
+            if ( length < 0x80 ) return 2;
+            int size = 1;
+            for ( int val = length; ( val >>>= 8 ) != 0; ) size++;
+            return 2 + size;
+        }
+
+        private static int writeHeader(final byte[] out, int pos, final int tag, final int length) {
+            out[pos++] = (byte) tag;
+            if ( length < 0x80 ) {
+                out[pos++] = (byte) length;
+                return pos;
+            }
+            int size = 1;
+            for ( int val = length; ( val >>>= 8 ) != 0; ) size++;
+            out[pos++] = (byte) ( 0x80 | size );
+            for ( int i = ( size - 1 ) * 8; i >= 0; i -= 8 ) {
+                out[pos++] = (byte) ( length >> i );
+            }
+            return pos;
+        }
+
+        private RubyClass getClass(final int tag) {
+            RubyClass klass = classes[tag];
+            if ( klass == null ) {
+                final String name = (String) ASN1_INFO[tag][2];
+                if ( name == null ) return null;
+                klass = classes[tag] = ASN1.getClass(name);
+            }
+            return klass;
+        }
+
+    }
+
     static IRubyObject decodeObject(final ThreadContext context,
         final RubyModule ASN1, final org.bouncycastle.asn1.ASN1Encodable obj)
         throws IOException, IllegalArgumentException {
@@ -1135,10 +1718,29 @@ public class ASN1 {
         return arr;
     }
 
-    @JRubyMethod(meta = true)
     public static IRubyObject decode(final ThreadContext context,
         final IRubyObject self, final IRubyObject obj) {
+        return decode(context, self, new IRubyObject[] { obj });
+    }
+
+    /**
+     * <code>OpenSSL::ASN1.decode(der, :lazy => true)</code> decodes SEQUENCE
+     * and SET contents on first access (and re-uses the DER slice on to_der).
+     */
+    @JRubyMethod(meta = true, required = 1, optional = 1)
+    public static IRubyObject decode(final ThreadContext context,
+        final IRubyObject self, final IRubyObject[] args) {
+        final IRubyObject obj = args[0];
+        boolean lazy = false;
+        if ( args.length > 1 && ! args[1].isNil() ) {
+            if ( ! ( args[1] instanceof RubyHash ) ) {
+                throw context.runtime.newTypeError(args[1], context.runtime.getHash());
+            }
+            final IRubyObject opt = ((RubyHash) args[1]).fastARef(context.runtime.newSymbol("lazy"));
+            lazy = opt != null && opt.isTrue();
+        }
         try {
+            if ( lazy ) return decodeLazy(context, (RubyModule) self, obj);
             return decodeImpl(context, (RubyModule) self, obj);
         }
         catch (IOException e) {
@@ -1165,7 +1767,21 @@ public class ASN1 {
         final RubyModule ASN1, IRubyObject obj) throws IOException, IllegalArgumentException {
         obj = to_der_if_possible(context, obj);
         BytesInputStream in = new BytesInputStream( obj.asString().getByteList() );
-        final IRubyObject decoded = decodeImpl(context, ASN1, in);
+        final IRubyObject decoded = decodeImpl(context, ASN1, in, new DERDecoder(context.runtime, ASN1));
+        if ( in.available() > 0 ) {
+            final int read = in.readCount();
+            throw new IOException("Type mismatch. Total bytes read: "+ read + " Bytes available: " + in.available());
+        }
+        return decoded;
+    }
+
+    private static IRubyObject decodeLazy(final ThreadContext context,
+        final RubyModule ASN1, IRubyObject obj) throws IOException, IllegalArgumentException {
+        obj = to_der_if_possible(context, obj);
+        // lazy values keep (slices of) the bytes - make sure they do not change :
+        final RubyString str = obj.asString().strDup(context.runtime);
+        BytesInputStream in = new BytesInputStream( str.getByteList() );
+        final IRubyObject decoded = decodeImpl(context, ASN1, in, new DERDecoder(context.runtime, ASN1, true));
         if ( in.available() > 0 ) {
             final int read = in.readCount();
             throw new IOException("Type mismatch. Total bytes read: "+ read + " Bytes available: " + in.available());
@@ -1187,12 +1803,19 @@ public class ASN1 {
 
         final int offset() { return mark; }
 
+        final int limit() { return count; }
+
     }
 
     private static IRubyObject decodeImpl(final ThreadContext context,
-        final RubyModule ASN1, final BytesInputStream in) throws IOException, IllegalArgumentException {
+        final RubyModule ASN1, final BytesInputStream in, final DERDecoder decoder)
+        throws IOException, IllegalArgumentException {
+        final IRubyObject fastDecoded = decoder.decode(in.bytes(), in.position(), in.limit());
+        if ( fastDecoded != null ) {
+            in.skip( decoder.position() - in.position() ); return fastDecoded;
+        }
         // NOTE: need to handle OpenSSL::ASN1::Constructive wrapping by hand :
-        final Integer tag = getConstructiveTag(in.bytes(), in.offset());
+        final Integer tag = getConstructiveTag(in.bytes(), in.offset(), in.limit());
         IRubyObject decoded = decodeObject(context, ASN1, readObject( in ));
         if ( tag != null ) { // OpenSSL::ASN1::Constructive.new( arg ) :
             final String type; List<IRubyObject> value = null;
@@ -1220,11 +1843,12 @@ public class ASN1 {
 
         BytesInputStream in = new BytesInputStream( obj.asString().getByteList() );
         final RubyModule ASN1 = _ASN1(context.runtime);
+        final DERDecoder decoder = new DERDecoder(context.runtime, ASN1);
         final RubyArray arr = context.runtime.newArray();
         while ( in.available() > 0 ) {
             try {
                 in.mark(0); // set offset() before each object is read
-                arr.append( decodeImpl(context, ASN1, in) );
+                arr.append( decodeImpl(context, ASN1, in, decoder) );
             }
             catch (IOException e) {
                 //throw context.runtime.newIOErrorFromException(e);
@@ -1238,10 +1862,55 @@ public class ASN1 {
         return arr;
     }
 
+    /**
+     * OpenSSL::ASN1.traverse(der_or_io) { |depth, offset, header_len, length, constructed, tag_class, tag| }
+     *
+     * Streams through the (DER/BER) input without building any objects,
+     * the length yielded is nil for indefinite length values.
+     */
     @JRubyMethod(meta = true, required = 1)
-    public static IRubyObject traverse(final ThreadContext context, final IRubyObject self, IRubyObject arg) {
-        warn(context, "WARNING: unimplemented method called: ASN1#traverse");
-        return context.runtime.getNil();
+    public static IRubyObject traverse(final ThreadContext context, final IRubyObject self, IRubyObject arg, final Block block) {
+        final Ruby runtime = context.runtime;
+        if ( ! block.isGiven() ) throw runtime.newLocalJumpErrorNoBlock();
+
+        final InputStream in;
+        if ( arg.respondsTo("read") ) {
+            in = new BufferedInputStream(new IOInputStream(arg));
+        }
+        else {
+            final ByteList bytes = to_der_if_possible(context, arg).asString().getByteList();
+            in = new ByteArrayInputStream(bytes.unsafeBytes(), bytes.getBegin(), bytes.getRealSize());
+        }
+
+        final ASN1Parser parser = new ASN1Parser(in);
+        try {
+            while ( parser.next() ) {
+                final long length = parser.length();
+                block.yieldArray(context, runtime.newArrayNoCopy(
+                    runtime.newFixnum(parser.depth()),
+                    runtime.newFixnum(parser.offset()),
+                    runtime.newFixnum(parser.headerLength()),
+                    length == -1 ? runtime.getNil() : runtime.newFixnum(length),
+                    runtime.newBoolean(parser.isConstructed()),
+                    runtime.newSymbol(tagClassName(parser.tagClass())),
+                    runtime.newFixnum(parser.tag())
+                ), null, null);
+            }
+        }
+        catch (IOException e) {
+            debugStackTrace(runtime, e);
+            throw newASN1Error(runtime, e.getMessage());
+        }
+        return runtime.getNil();
+    }
+
+    private static String tagClassName(final int tagClass) {
+        switch ( tagClass ) {
+            case ASN1Parser.APPLICATION : return "APPLICATION";
+            case ASN1Parser.CONTEXT_SPECIFIC : return "CONTEXT_SPECIFIC";
+            case ASN1Parser.PRIVATE : return "PRIVATE";
+        }
+        return "UNIVERSAL";
     }
 
     public static RaiseException newASN1Error(Ruby runtime, String message) {
@@ -1263,86 +1932,26 @@ public class ASN1 {
     }
 
     // NOTE: BC's ASNInputStream internals "reinvented" a bit :
-    private static Integer getConstructiveTag(final byte[] asn1, int offset) {
-        final int tag = asn1[ offset ] & 0xFF;
-        if ( ( tag & BERTags.CONSTRUCTED ) != 0 ) { // isConstructed
-            //
-            // calculate tag number
-            //
-            // readTagNumber(asn1, ++offset, tag) :
-            int tagNo = tag & 0x1f;
-            //
-            // with tagged object tag number is bottom 5 bits, or stored at the start of the content
-            //
-            if (tagNo == 0x1f)
-            {
-                tagNo = 0;
-
-                int b = asn1[ ++offset ]; //s.read();
-
-                // X.690-0207 8.1.2.4.2
-                // "c) bits 7 to 1 of the first subsequent octet shall not all be zero."
-                if ((b & 0x7f) == 0) // Note: -1 will pass
-                {
-                    return null; //throw new IOException("corrupted stream - invalid high tag number found");
-                }
-
-                while ((b >= 0) && ((b & 0x80) != 0))
-                {
-                    tagNo |= (b & 0x7f);
-                    tagNo <<= 7;
-                    b = asn1[ ++offset ]; //s.read();
-                }
-
-                if (b < 0)
-                {
-                    return null; //throw new EOFException("EOF found inside tag value.");
-                }
-
-                tagNo |= (b & 0x7f);
-            }
-
-            //
-            // calculate length
-            //
-            final int length = asn1[ ++offset ] & 0xFF;
-
-            if ( length == 0x80 ) {
-                // return -1; // indefinite-length encoding
-            }
-            else {
-                return null;
-            }
-
-            if ((tag & BERTags.APPLICATION) != 0) {
-                //return new BERApplicationSpecificParser(tagNo, sp).getLoadedObject();
-            }
-
-            if ((tag & BERTags.TAGGED) != 0) {
-                //return new BERTaggedObjectParser(true, tagNo, sp).getLoadedObject();
-            }
-
-            //System.out.println(" tagNo = 0x" + Integer.toHexString(tagNo));
-            // TODO There are other tags that may be constructed (e.g. BIT_STRING)
-            switch (tagNo) {
-                case BERTags.SEQUENCE :
-                    //return new BERSequenceParser(sp).getLoadedObject();
-                    return Integer.valueOf( SEQUENCE ); //return "Sequence";
-                case BERTags.SET :
-                    //return new BERSetParser(sp).getLoadedObject();
-                    return Integer.valueOf( SET ); //return "Set";
-                case BERTags.OCTET_STRING :
-                    return Integer.valueOf( OCTET_STRING );
-                    //return new BEROctetStringParser(sp).getLoadedObject();
-                case BERTags.EXTERNAL :
-                    //return new DERExternalParser(sp).getLoadedObject();
-                default:
-                    return Integer.valueOf( 0 ); //return "Constructive";
-                    //throw new IOException("unknown BER object encountered");
-            }
+    private static Integer getConstructiveTag(final byte[] asn1, final int offset, final int limit) {
+        final ASN1Parser parser = new ASN1Parser(asn1, offset, limit - offset);
+        try {
+            if ( ! parser.next() ) return null;
         }
+        catch (IOException e) { return null; } // reported when (BC) decoding
+        // only indefinite-length (constructed) encodings :
+        if ( ! parser.isConstructed() || parser.length() != -1 ) return null;
 
-        return null;
+        // TODO There are other tags that may be constructed (e.g. BIT_STRING)
+        switch ( parser.tag() ) {
+            case BERTags.SEQUENCE :
+                return Integer.valueOf( SEQUENCE ); //return "Sequence";
+            case BERTags.SET :
+                return Integer.valueOf( SET ); //return "Set";
+            case BERTags.OCTET_STRING :
+                return Integer.valueOf( OCTET_STRING );
+            default:
+                return Integer.valueOf( 0 ); //return "Constructive";
+        }
     }
 
     public static class ASN1Data extends RubyObject {
@@ -1748,7 +2357,7 @@ public class ASN1 {
             if ( val instanceof RubyInteger ) { // RubyBignum
                 return ((RubyInteger) val).getBigIntegerValue();
             }
-            if ( val instanceof BN ) ((BN) val).getValue();
+            if ( val instanceof BN ) return ((BN) val).getValue();
             return new BigInteger( val.asString().getBytes() );
         }
 
@@ -1772,6 +2381,10 @@ public class ASN1 {
             }
         };
 
+        // lazy decoded (DER) encoding - contents decoded on first value access
+        ByteList lazyEncoded; int lazyHeaderLength;
+        private RubyArray lazyValue; private LazyEntry[] lazyEntries;
+
         public Constructive(Ruby runtime, RubyClass type) {
             super(runtime, type);
         }
@@ -1782,6 +2395,198 @@ public class ASN1 {
             return this;
         }
 
+        @Override
+        @JRubyMethod(visibility = Visibility.PRIVATE)
+        public IRubyObject initialize_copy(final IRubyObject original) {
+            super.initialize_copy(original);
+            if ( original instanceof Constructive ) {
+                final Constructive orig = (Constructive) original;
+                if ( orig.lazyEncoded != null && orig.lazyValue == null ) {
+                    this.lazyEncoded = orig.lazyEncoded;
+                    this.lazyHeaderLength = orig.lazyHeaderLength;
+                }
+            }
+            return this;
+        }
+
+        @JRubyMethod(name = "value")
+        public IRubyObject get_value(final ThreadContext context) {
+            if ( lazyEncoded != null && lazyValue == null ) decodeLazyValue(context);
+            final IRubyObject value = getInstanceVariable("@value");
+            return value == null ? context.nil : value;
+        }
+
+        // @value reads (instance_variable_get, instance_variables, inspect)
+        // decode a lazy value the same way as #value does :
+
+        @Override
+        protected Object variableTableFetch(final String name) {
+            if ( lazyEncoded != null && lazyValue == null && "@value".equals(name) ) {
+                decodeLazyValue(getRuntime().getCurrentContext());
+            }
+            return super.variableTableFetch(name);
+        }
+
+        @Override
+        protected boolean variableTableContains(final String name) {
+            if ( lazyEncoded != null && lazyValue == null && "@value".equals(name) ) {
+                decodeLazyValue(getRuntime().getCurrentContext());
+            }
+            return super.variableTableContains(name);
+        }
+
+        @Override
+        public List<String> getInstanceVariableNameList() {
+            if ( lazyEncoded != null && lazyValue == null ) decodeLazyValue(getRuntime().getCurrentContext());
+            return super.getInstanceVariableNameList();
+        }
+
+        @Override
+        public IRubyObject inspect() {
+            if ( lazyEncoded != null && lazyValue == null ) decodeLazyValue(getRuntime().getCurrentContext());
+            return super.inspect();
+        }
+
+        @JRubyMethod(name = "value=")
+        public IRubyObject set_value(final ThreadContext context, final IRubyObject value) {
+            lazyEncoded = null; lazyValue = null; lazyEntries = null;
+            setInstanceVariable("@value", value);
+            return value;
+        }
+
+        private void decodeLazyValue(final ThreadContext context) {
+            final Ruby runtime = context.runtime;
+            final ByteList encoded = lazyEncoded;
+            final int beg = encoded.getBegin() + lazyHeaderLength;
+            final int end = encoded.getBegin() + encoded.getRealSize();
+            IRubyObject value;
+            try {
+                value = new DERDecoder(runtime, _ASN1(runtime), true).decodeContents(encoded.unsafeBytes(), beg, end);
+                if ( value == null ) { // not handled by the DER decoder - use BC
+                    value = decodeObject(context, _ASN1(runtime), readObject(lazyEncoded())).callMethod(context, "value");
+                }
+            }
+            catch (IOException e) {
+                throw newASN1Error(runtime, e.getMessage());
+            }
+            catch (IllegalArgumentException e) {
+                debugStackTrace(runtime, e);
+                throw runtime.newArgumentError(e.getMessage());
+            }
+            setInstanceVariable("@value", value);
+            if ( value instanceof RubyArray ) {
+                lazyValue = (RubyArray) value;
+                lazyEntries = LazyEntry.newEntries(lazyValue);
+            }
+            else {
+                lazyEncoded = null;
+            }
+        }
+
+        /**
+         * @return true if this was lazy decoded and (its value) has not been
+         * changed since, thus the encoding slice can be re-used for to_der
+         */
+        final boolean isLazyUnchanged() {
+            if ( lazyEncoded == null ) return false;
+            // tag, tag_class, tagging or infinite_length= might have changed :
+            final int tag = lazyEncoded.unsafeBytes()[ lazyEncoded.getBegin() ] & 0x1F;
+            final IRubyObject tagValue = getInstanceVariable("@tag");
+            if ( ! ( tagValue instanceof RubyFixnum ) || ((RubyFixnum) tagValue).getLongValue() != tag ) return false;
+            final IRubyObject tagClass = getInstanceVariable("@tag_class");
+            if ( tagClass == null || ! "UNIVERSAL".equals( tagClass.toString() ) ) return false;
+            final IRubyObject tagging = getInstanceVariable("@tagging");
+            if ( tagging != null && ! tagging.isNil() ) return false;
+            if ( isInfiniteLength() ) return false;
+
+            if ( lazyValue == null ) return true; // not decoded yet
+            return getInstanceVariable("@value") == lazyValue && LazyEntry.unchanged(lazyValue, lazyEntries);
+        }
+
+        /**
+         * Remembers the (decoded) entry state, besides value (and tag) setters
+         * in place modifications (such as <code>value.value << 'more'</code>)
+         * of String values are noticed - these are marked as (byte list) shared
+         * thus any modification (copies) replaces the byte list.
+         */
+        private static final class LazyEntry {
+
+            private static final String[] VARIABLES = {
+                "@tag", "@value", "@tag_class", "@tagging", "@infinite_length", "@unused_bits"
+            };
+
+            final IRubyObject entry;
+            final IRubyObject[] variables;
+            final LazyEntry[] entries;
+            // String value's byte list (and its length) or BN's BigInteger :
+            final Object valueState; final int valueLength;
+
+            private LazyEntry(final IRubyObject entry) {
+                this.entry = entry;
+                if ( entry instanceof Constructive && ((Constructive) entry).lazyEncoded != null ) {
+                    this.variables = null; this.entries = null; // tracks changes itself
+                    this.valueState = null; this.valueLength = 0;
+                    return;
+                }
+                variables = new IRubyObject[ VARIABLES.length ];
+                for ( int i = 0; i < VARIABLES.length; i++ ) {
+                    variables[i] = entry.getInstanceVariables().getInstanceVariable(VARIABLES[i]);
+                }
+                final IRubyObject value = variables[1];
+                entries = value instanceof RubyArray ? newEntries((RubyArray) value) : null;
+                if ( value instanceof RubyString ) {
+                    final RubyString str = (RubyString) value;
+                    str.setByteListShared(); // next modification copies the byte list
+                    valueState = str.getByteList(); valueLength = str.getByteList().getRealSize();
+                }
+                else if ( value instanceof BN ) {
+                    valueState = ((BN) value).getValue(); valueLength = 0;
+                }
+                else {
+                    valueState = null; valueLength = 0;
+                }
+            }
+
+            static LazyEntry[] newEntries(final RubyArray values) {
+                final LazyEntry[] entries = new LazyEntry[ values.size() ];
+                for ( int i = 0; i < entries.length; i++ ) entries[i] = new LazyEntry( values.eltInternal(i) );
+                return entries;
+            }
+
+            static boolean unchanged(final RubyArray values, final LazyEntry[] entries) {
+                if ( values.size() != entries.length ) return false;
+                for ( int i = 0; i < entries.length; i++ ) {
+                    if ( values.eltInternal(i) != entries[i].entry ) return false;
+                    if ( ! entries[i].unchanged() ) return false;
+                }
+                return true;
+            }
+
+            private boolean unchanged() {
+                if ( variables == null ) return ((Constructive) entry).isLazyUnchanged();
+                for ( int i = 0; i < VARIABLES.length; i++ ) {
+                    if ( entry.getInstanceVariables().getInstanceVariable(VARIABLES[i]) != variables[i] ) return false;
+                }
+                final IRubyObject value = variables[1];
+                if ( value instanceof RubyString ) {
+                    final ByteList bytes = ((RubyString) value).getByteList();
+                    if ( bytes != valueState || bytes.getRealSize() != valueLength ) return false;
+                }
+                else if ( value instanceof BN ) {
+                    if ( ((BN) value).getValue() != valueState ) return false;
+                }
+                return entries == null || unchanged((RubyArray) variables[1], entries);
+            }
+
+        }
+
+        private byte[] lazyEncoded() {
+            final ByteList encoded = lazyEncoded;
+            final byte[] bytes = new byte[ encoded.getRealSize() ];
+            System.arraycopy(encoded.unsafeBytes(), encoded.getBegin(), bytes, 0, bytes.length);
+            return bytes;
+        }
+
         static Constructive newInfiniteConstructive(final ThreadContext context,
             final String type, final List<IRubyObject> value, final int defaultTag) {
             final Ruby runtime = context.runtime;
@@ -1841,6 +2646,14 @@ public class ASN1 {
 
         @Override
         ASN1Encodable toASN1(final ThreadContext context) {
+            if ( isLazyUnchanged() ) {
+                try {
+                    return readObject( lazyEncoded() );
+                }
+                catch (IOException e) {
+                    throw newASN1Error(context.runtime, e.getMessage());
+                }
+            }
             if ( isInfiniteLength() ) return super.toASN1(context);
 
             if ( isSequence() ) {
@@ -1870,6 +2683,12 @@ public class ASN1 {
         @Override
         @JRubyMethod
         public IRubyObject to_der(final ThreadContext context) {
+            if ( isLazyUnchanged() ) { // un-touched since decoded
+                final ByteList encoded = lazyEncoded;
+                return RubyString.newStringShared(context.runtime,
+                    new ByteList(encoded.unsafeBytes(), encoded.getBegin(), encoded.getRealSize(), false)
+                );
+            }
             if ( rawConstructive() ) { // MRI compatibility
                 if ( ! isInfiniteLength() && ! super.value(context).isNil() ) {
                     final Ruby runtime = context.runtime;
@@ -1882,6 +2701,8 @@ public class ASN1 {
 
         @Override
         byte[] toDER(final ThreadContext context) throws IOException {
+            if ( isLazyUnchanged() ) return lazyEncoded();
+
             if ( isInfiniteLength() ) {
                 if ( isSequence() ) {
                     return sequenceToDER(context);
@@ -1904,6 +2725,9 @@ public class ASN1 {
                 }
             }
 
+            final DEREncoder encoder = new DEREncoder(context);
+            if ( encoder.isEncodable(this) ) return encoder.encode(this);
+
             return super.toDER(context);
         }
 
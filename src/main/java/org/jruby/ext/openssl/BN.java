@@ -31,8 +31,14 @@ import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jcodings.specific.USASCIIEncoding;
 
 import org.jruby.Ruby;
+import org.jruby.RubyArray;
 import org.jruby.RubyBignum;
 import org.jruby.RubyBoolean;
 import org.jruby.RubyClass;
@@ -44,6 +50,8 @@ import org.jruby.RubyObject;
 import org.jruby.RubyString;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
+import org.jruby.ext.openssl.impl.PrimeGenerator;
+import org.jruby.ext.openssl.impl.Workers;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
@@ -98,6 +106,11 @@ public class BN extends RubyObject {
         RubyClass BN = OpenSSL.defineClassUnder("BN", runtime.getObject(), BN_ALLOCATOR);
         BN.includeModule( runtime.getModule("Comparable") );
         BN.defineAnnotatedMethods(BN.class);
+
+        BN.defineClassUnder("Context", runtime.getObject(), Context.ALLOCATOR)
+          .defineAnnotatedMethods(Context.class);
+        BN.defineClassUnder("FixedBase", runtime.getObject(), FixedBase.ALLOCATOR)
+          .defineAnnotatedMethods(FixedBase.class);
     }
 
     private volatile BigInteger value;
@@ -144,17 +157,17 @@ public class BN extends RubyObject {
             // the string is used instead. the value is always interpreted
             // as positive, hence the use of the signum version of the BI
             // constructor here:
-            this.value = new BigInteger(1, str.getBytes());
+            this.value = fromBinary(str.getByteList());
             break;
         case 10:
         case 16:
             // here, the ASCII-encoded decimal or hex string is used
-            try {
-                this.value = new BigInteger(str.toString(), base);
-                break;
-            } catch (NumberFormatException e) {
+            final BigInteger val = base == 16 ? fromHex(str.getByteList()) : fromDecimal(str.getByteList());
+            if ( val == null ) {
                 throw runtime.newArgumentError("value " + str + " is not legal for radix " + base);
             }
+            this.value = val;
+            break;
         default:
             throw runtime.newArgumentError("illegal radix: " + base);
         }
@@ -237,22 +250,197 @@ public class BN extends RubyObject {
                 return runtime.newString(new ByteList(bytes, 1, bytes.length - 1, false));
             }
             return runtime.newString(new ByteList(bytes, false));
-        case 10:
-            return runtime.newString(value.toString(10));
+        case 10: // US-ASCII as before (BigInteger#toString)
+            final ByteList decimal = toDecimal(value);
+            decimal.setEncoding(USASCIIEncoding.INSTANCE);
+            return runtime.newString(decimal);
         case 16:
-            final String hex = value.toString(16);
-            final int len = hex.length();
-            final ByteList val = new ByteList(len + 1);
-            if ( value.signum() == 1 && len % 2 != 0 ) val.append('0');
-            for ( int i = 0; i < len ; i++ ) {
-                val.append( Character.toUpperCase(hex.charAt(i)) );
-            }
-            return runtime.newString(val);
+            return runtime.newString(toHex(value));
         default:
             throw runtime.newArgumentError("illegal radix: " + base);
         }
     }
 
+    /**
+     * BN#to_bytes(len = num_bytes)
+     *
+     * The (absolute) value as a big-endian binary string of exactly len
+     * bytes, zero padded on the left (c: BN_bn2binpad).
+     * @return a String
+     */
+    @JRubyMethod(name = "to_bytes", optional = 1)
+    public RubyString to_bytes(final ThreadContext context, final IRubyObject[] args) {
+        final BigInteger val = this.value.abs();
+        final int len = args.length > 0 ? RubyNumeric.num2int(args[0]) : ( val.bitLength() + 7 ) / 8;
+        if ( len < 0 ) throw context.runtime.newArgumentError("negative length: " + len);
+        final ByteList bytes = toBytes(val, len);
+        if ( bytes == null ) throw newBNError(context.runtime, "bignum too long (for " + len + " bytes)");
+        return context.runtime.newString(bytes);
+    }
+
+    // ByteList encoders / decoders (without intermediate Strings)
+
+    /**
+     * @param val (non-negative) value
+     * @param len (fixed) number of bytes
+     * @return big-endian bytes zero padded to len or null if the value does not fit
+     */
+    public static ByteList toBytes(final BigInteger val, final int len) {
+        if ( len < 0 ) return null;
+        final byte[] mag = val.toByteArray(); // might have a leading 0 (sign) byte
+        final int off = ( mag.length > 1 && mag[0] == 0 ) ? 1 : 0;
+        int size = mag.length - off;
+        if ( size == 1 && mag[off] == 0 ) size = 0; // zero
+        if ( size > len ) return null;
+        if ( size == len && size == mag.length ) return new ByteList(mag, false);
+        final byte[] bytes = new byte[len];
+        System.arraycopy(mag, mag.length - size, bytes, len - size, size);
+        return new ByteList(bytes, false);
+    }
+
+    private static BigInteger fromBinary(final ByteList bytes) {
+        final byte[] unsafe = bytes.getUnsafeBytes();
+        final int begin = bytes.getBegin(), size = bytes.getRealSize();
+        if ( begin == 0 && size == unsafe.length ) {
+            return new BigInteger(1, unsafe); // BigInteger does not keep the array
+        }
+        final byte[] mag = new byte[size];
+        System.arraycopy(unsafe, begin, mag, 0, size);
+        return new BigInteger(1, mag);
+    }
+
+    /**
+     * Upper-case hex digits (2 per byte - thus an even count for positive
+     * values) as MRI, the digits are computed without table lookups or
+     * branches on the value.
+     * @param value
+     * @return ASCII hex digits
+     */
+    public static ByteList toHex(final BigInteger value) {
+        final int signum = value.signum();
+        if ( signum == 0 ) return new ByteList(new byte[] { '0' }, false);
+
+        final byte[] mag = value.abs().toByteArray();
+        final int off = mag[0] == 0 ? 1 : 0;
+        // negative values do not get the leading 0 digit (as with toString(16))
+        final boolean skip = signum < 0 && ( mag[off] & 0xF0 ) == 0;
+        final byte[] hex = new byte[ ( mag.length - off ) * 2 + ( signum < 0 ? 1 : 0 ) - ( skip ? 1 : 0 ) ];
+        int h = 0;
+        if ( signum < 0 ) hex[h++] = '-';
+        for ( int i = off; i < mag.length; i++ ) {
+            if ( i > off || ! skip ) hex[h++] = hexDigit( ( mag[i] >> 4 ) & 0x0F );
+            hex[h++] = hexDigit( mag[i] & 0x0F );
+        }
+        return new ByteList(hex, false);
+    }
+
+    private static byte hexDigit(final int n) { // 0-9 -> '0'-'9', 10-15 -> 'A'-'F'
+        return (byte) ( n + '0' + ( ( ( 9 - n ) >> 31 ) & ( 'A' - '9' - 1 ) ) );
+    }
+
+    private static int hexValue(final int c) { // -1 if not a hex digit
+        final int d = c - '0', l = ( c | 0x20 ) - 'a';
+        final int isDigit = ~( ( d | ( 9 - d ) ) >> 31 ); // -1 when 0 <= d <= 9
+        final int isLetter = ~( ( l | ( 5 - l ) ) >> 31 ); // -1 when 0 <= l <= 5
+        return ( d & isDigit ) | ( ( l + 10 ) & isLetter ) | ~( isDigit | isLetter );
+    }
+
+    /**
+     * @param hex ASCII hex digits (upper or lower case) with an optional sign
+     * @return the value or null if not a valid hex string
+     */
+    public static BigInteger fromHex(final ByteList hex) {
+        final byte[] bytes = hex.getUnsafeBytes();
+        int i = hex.getBegin(); final int end = i + hex.getRealSize();
+        final boolean negative = i < end && bytes[i] == '-';
+        if ( i < end && ( bytes[i] == '-' || bytes[i] == '+' ) ) i++;
+        final int digits = end - i;
+        if ( digits == 0 ) return null;
+
+        final byte[] mag = new byte[ ( digits + 1 ) / 2 ];
+        int invalid = 0, m = 0;
+        if ( digits % 2 != 0 ) {
+            final int v = hexValue(bytes[i++]); invalid |= v;
+            mag[m++] = (byte) v;
+        }
+        while ( i < end ) {
+            final int hi = hexValue(bytes[i++]), lo = hexValue(bytes[i++]);
+            invalid |= hi | lo;
+            mag[m++] = (byte) ( ( hi << 4 ) | lo );
+        }
+        if ( invalid < 0 ) return null;
+        return new BigInteger(negative ? -1 : 1, mag);
+    }
+
+    private static final long TEN_18 = 1000000000000000000L;
+    private static final BigInteger BIG_TEN_18 = BigInteger.valueOf(TEN_18);
+
+    /**
+     * Decimal digits, written in 18 digit (long) chunks.
+     * @param value
+     * @return ASCII decimal digits
+     */
+    public static ByteList toDecimal(final BigInteger value) {
+        final int bits = value.bitLength();
+        if ( bits > 1024 ) { // BigInteger's recursive conversion wins for large values
+            final String str = value.toString();
+            final byte[] bytes = new byte[str.length()];
+            for ( int i = 0; i < bytes.length; i++ ) bytes[i] = (byte) str.charAt(i);
+            return new ByteList(bytes, false);
+        }
+        if ( bits < 64 ) return ByteList.create(Long.toString(value.longValue()));
+
+        final long[] chunks = new long[ bits / 59 + 1 ]; int n = 0;
+        BigInteger val = value.abs();
+        while ( val.bitLength() > 63 ) {
+            final BigInteger[] qr = val.divideAndRemainder(BIG_TEN_18);
+            chunks[n++] = qr[1].longValue(); val = qr[0];
+        }
+        final String first = Long.toString(val.longValue());
+        final int sign = value.signum() < 0 ? 1 : 0;
+        final byte[] bytes = new byte[ sign + first.length() + 18 * n ];
+        int p = 0;
+        if ( sign == 1 ) bytes[p++] = '-';
+        for ( int i = 0; i < first.length(); i++ ) bytes[p++] = (byte) first.charAt(i);
+        for ( int c = n - 1; c >= 0; c-- ) {
+            long chunk = chunks[c];
+            for ( int j = 17; j >= 0; j-- ) {
+                bytes[p + j] = (byte) ( '0' + chunk % 10 ); chunk /= 10;
+            }
+            p += 18;
+        }
+        return new ByteList(bytes, false);
+    }
+
+    /**
+     * @param dec ASCII decimal digits with an optional sign
+     * @return the value or null if not a valid decimal string
+     */
+    public static BigInteger fromDecimal(final ByteList dec) {
+        final byte[] bytes = dec.getUnsafeBytes();
+        int i = dec.getBegin(); final int end = i + dec.getRealSize();
+        final boolean negative = i < end && bytes[i] == '-';
+        if ( i < end && ( bytes[i] == '-' || bytes[i] == '+' ) ) i++;
+        final int digits = end - i;
+        if ( digits == 0 ) return null;
+
+        int invalid = 0;
+        BigInteger val = null; long chunk = 0;
+        int len = digits % 18 == 0 ? 18 : digits % 18;
+        while ( i < end ) {
+            for ( final int e = i + len; i < e; i++ ) {
+                final int d = bytes[i] - '0';
+                invalid |= d | ( 9 - d );
+                chunk = chunk * 10 + d;
+            }
+            if ( val == null ) val = BigInteger.valueOf(chunk);
+            else val = val.multiply(BIG_TEN_18).add(BigInteger.valueOf(chunk));
+            chunk = 0; len = 18;
+        }
+        if ( invalid < 0 ) return null;
+        return negative ? val.negate() : val;
+    }
+
     @Override
     public String toString() {
         return to_s().toString();
@@ -361,7 +549,7 @@ public class BN extends RubyObject {
     @JRubyMethod(name="%")
     public BN mod(final ThreadContext context, IRubyObject other) {
         try {
-            return newBN(context.runtime, value.mod(getBigInteger(other)));
+            return newBN(context.runtime, value.mod(getModulus(other)));
         }
         catch (ArithmeticException e) {
             throw context.runtime.newZeroDivisionError();
@@ -443,7 +631,7 @@ public class BN extends RubyObject {
     @JRubyMethod(name="mod_sqr")
     public BN mod_sqr(final ThreadContext context, IRubyObject other) {
         try {
-            return newBN(context.runtime, value.modPow(TWO, getBigInteger(other)));
+            return newBN(context.runtime, value.modPow(TWO, getModulus(other)));
         }
         catch (ArithmeticException e) {
             throw context.runtime.newZeroDivisionError();
@@ -453,7 +641,7 @@ public class BN extends RubyObject {
     @JRubyMethod(name="mod_inverse")
     public BN mod_inverse(final ThreadContext context, IRubyObject other) {
         try {
-            return newBN(context.runtime, value.modInverse(getBigInteger(other)));
+            return newBN(context.runtime, value.modInverse(getModulus(other)));
         }
         catch (ArithmeticException e) {
             throw context.runtime.newZeroDivisionError();
@@ -463,7 +651,7 @@ public class BN extends RubyObject {
     @JRubyMethod(name="mod_add")
     public BN mod_add(final ThreadContext context, IRubyObject other, IRubyObject mod) {
         try {
-            return newBN(context.runtime, value.add(getBigInteger(other)).mod(getBigInteger(mod)));
+            return newBN(context.runtime, value.add(getBigInteger(other)).mod(getModulus(mod)));
         }
         catch (ArithmeticException e) {
             throw context.runtime.newZeroDivisionError();
@@ -473,7 +661,7 @@ public class BN extends RubyObject {
     @JRubyMethod(name="mod_sub")
     public BN mod_sub(final ThreadContext context, IRubyObject other, IRubyObject mod) {
         try {
-            return newBN(context.runtime, value.subtract(getBigInteger(other)).mod(getBigInteger(mod)));
+            return newBN(context.runtime, value.subtract(getBigInteger(other)).mod(getModulus(mod)));
         }
         catch (ArithmeticException e) {
             throw context.runtime.newZeroDivisionError();
@@ -483,7 +671,7 @@ public class BN extends RubyObject {
     @JRubyMethod(name="mod_mul")
     public BN mod_mul(final ThreadContext context, IRubyObject other, IRubyObject mod) {
         try {
-            return newBN(context.runtime, value.multiply(getBigInteger(other)).mod(getBigInteger(mod)));
+            return newBN(context.runtime, value.multiply(getBigInteger(other)).mod(getModulus(mod)));
         }
         catch (ArithmeticException e) {
             throw context.runtime.newZeroDivisionError();
@@ -493,13 +681,278 @@ public class BN extends RubyObject {
     @JRubyMethod(name="mod_exp")
     public BN mod_exp(final ThreadContext context, IRubyObject other, IRubyObject mod) {
         try {
-            return newBN(context.runtime, value.modPow(getBigInteger(other), getBigInteger(mod)));
+            return newBN(context.runtime, value.modPow(getBigInteger(other), getModulus(mod)));
         }
         catch (ArithmeticException e) {
             throw context.runtime.newZeroDivisionError();
         }
     }
 
+    // in-place (mutating) arithmetic, for tight loops that would otherwise
+    // allocate a new BN on every operation (a modulus might be a BN::Context)
+    // NOTE: these are not atomic, a BN should not be mutated concurrently
+
+    @JRubyMethod(name="add!")
+    public BN add_bang(final ThreadContext context, IRubyObject other) {
+        this.value = value.add(getBigInteger(other));
+        return this;
+    }
+
+    @JRubyMethod(name="sub!")
+    public BN sub_bang(final ThreadContext context, IRubyObject other) {
+        this.value = value.subtract(getBigInteger(other));
+        return this;
+    }
+
+    @JRubyMethod(name="mul!")
+    public BN mul_bang(final ThreadContext context, IRubyObject other) {
+        this.value = value.multiply(getBigInteger(other));
+        return this;
+    }
+
+    @JRubyMethod(name="sqr!")
+    public BN sqr_bang(final ThreadContext context) {
+        this.value = value.multiply(value);
+        return this;
+    }
+
+    @JRubyMethod(name="mod!")
+    public BN mod_bang(final ThreadContext context, IRubyObject mod) {
+        try {
+            this.value = value.mod(getModulus(mod));
+        }
+        catch (ArithmeticException e) {
+            throw context.runtime.newZeroDivisionError();
+        }
+        return this;
+    }
+
+    @JRubyMethod(name="mod_add!")
+    public BN mod_add_bang(final ThreadContext context, IRubyObject other, IRubyObject mod) {
+        try {
+            this.value = value.add(getBigInteger(other)).mod(getModulus(mod));
+        }
+        catch (ArithmeticException e) {
+            throw context.runtime.newZeroDivisionError();
+        }
+        return this;
+    }
+
+    @JRubyMethod(name="mod_sub!")
+    public BN mod_sub_bang(final ThreadContext context, IRubyObject other, IRubyObject mod) {
+        try {
+            this.value = value.subtract(getBigInteger(other)).mod(getModulus(mod));
+        }
+        catch (ArithmeticException e) {
+            throw context.runtime.newZeroDivisionError();
+        }
+        return this;
+    }
+
+    @JRubyMethod(name="mod_mul!")
+    public BN mod_mul_bang(final ThreadContext context, IRubyObject other, IRubyObject mod) {
+        try {
+            this.value = value.multiply(getBigInteger(other)).mod(getModulus(mod));
+        }
+        catch (ArithmeticException e) {
+            throw context.runtime.newZeroDivisionError();
+        }
+        return this;
+    }
+
+    @JRubyMethod(name="mod_sqr!")
+    public BN mod_sqr_bang(final ThreadContext context, IRubyObject mod) {
+        try {
+            this.value = value.multiply(value).mod(getModulus(mod));
+        }
+        catch (ArithmeticException e) {
+            throw context.runtime.newZeroDivisionError();
+        }
+        return this;
+    }
+
+    @JRubyMethod(name="mod_exp!")
+    public BN mod_exp_bang(final ThreadContext context, IRubyObject other, IRubyObject mod) {
+        try {
+            this.value = value.modPow(getBigInteger(other), getModulus(mod));
+        }
+        catch (ArithmeticException e) {
+            throw context.runtime.newZeroDivisionError();
+        }
+        return this;
+    }
+
+    /**
+     * BN.mod_exp_many(bases, exps, mod, threads = 1)
+     *
+     * Computes base ** exp % mod for each (base, exp) pair, on more than one
+     * thread when asked to. Either bases or exps might be a single value.
+     * @return [ BN, ... ] in the same order as given
+     */
+    @JRubyMethod(name = "mod_exp_many", meta = true, required = 3, optional = 1)
+    public static IRubyObject mod_exp_many(final ThreadContext context, final IRubyObject self, final IRubyObject[] args) {
+        final Ruby runtime = context.runtime;
+        final BigInteger[][] pairs = getBigIntegerPairs(runtime, args[0], args[1]);
+        final BigInteger[] bases = pairs[0], exps = pairs[1];
+        final BigInteger mod = getModulus(args[2]);
+
+        int threads = 1;
+        if ( args.length > 3 && ! args[3].isNil() ) threads = RubyNumeric.fix2int(args[3]);
+        if ( threads < 1 ) throw runtime.newArgumentError("invalid thread count: " + threads);
+
+        final BatchModExp batch = new BatchModExp(bases, exps, mod);
+        try {
+            if ( threads == 1 || bases.length < 2 ) batch.modExpAll();
+            else batch.run(Math.min(threads, bases.length));
+        }
+        catch (ArithmeticException e) {
+            throw runtime.newZeroDivisionError();
+        }
+        catch (InterruptedException e) {
+            throw newBNError(runtime, "mod_exp interrupted");
+        }
+
+        final IRubyObject[] results = new IRubyObject[bases.length];
+        for ( int i = 0; i < results.length; i++ ) results[i] = newBN(runtime, batch.results[i]);
+        return runtime.newArrayNoCopy(results);
+    }
+
+    private static class BatchModExp {
+
+        final BigInteger[] bases, exps;
+        final BigInteger mod;
+
+        final BigInteger[] results;
+
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        BatchModExp(BigInteger[] bases, BigInteger[] exps, BigInteger mod) {
+            this.bases = bases; this.exps = exps; this.mod = mod;
+            this.results = new BigInteger[bases.length];
+        }
+
+        void run(final int threads) throws InterruptedException {
+            try {
+                Workers.invokeAll(new Callable<Object>() {
+                    public Object call() { modExpAll(); return null; }
+                }, threads);
+            }
+            catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+                if ( cause instanceof Error ) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        void modExpAll() {
+            int i;
+            while ( ( i = next.getAndIncrement() ) < bases.length ) {
+                if ( Thread.currentThread().isInterrupted() ) return;
+                results[i] = bases[i].modPow(exps[i], mod);
+            }
+        }
+    }
+
+    /**
+     * BN.multi_exp(bases, exps, mod)
+     *
+     * Product of the powers base ** exp (mod mod) using simultaneous
+     * (Straus/Shamir) exponentiation : all exponents are scanned together
+     * (window by window) thus squaring is shared.
+     *
+     * NOTE: BigInteger#modPow (Montgomery with JIT intrinsics) is much faster
+     * per multiplication than what we can do on top of BigInteger, thus the
+     * shared squaring only pays off with many (large) powers, otherwise the
+     * powers are computed separately.
+     * @return BN
+     */
+    @JRubyMethod(name = "multi_exp", meta = true)
+    public static BN multi_exp(final ThreadContext context, final IRubyObject self,
+        final IRubyObject bases, final IRubyObject exps, final IRubyObject mod) {
+        final Ruby runtime = context.runtime;
+        final BigInteger[][] pairs = getBigIntegerPairs(runtime, bases, exps);
+        try {
+            return newBN(runtime, multiExp(Context.getContext(runtime, mod), pairs[0], pairs[1]));
+        }
+        catch (ArithmeticException e) { // negative exponent of a non-invertible base
+            throw runtime.newZeroDivisionError();
+        }
+    }
+
+    // (measured) break-even of simultaneous exponentiation vs separate modPow
+    private static final int STRAUS_MIN_COUNT = 16, STRAUS_MIN_BITS = 2048;
+
+    static BigInteger multiExp(final Context ctx, final BigInteger[] bases, final BigInteger[] exps) {
+        final BigInteger mod = ctx.mod;
+        final int count = bases.length;
+        if ( count == 0 ) return BigInteger.ONE.mod(mod);
+
+        int bits = 0;
+        final BigInteger[] es = new BigInteger[count];
+        for ( int i = 0; i < count; i++ ) {
+            es[i] = exps[i].abs();
+            bits = Math.max(bits, es[i].bitLength());
+        }
+
+        if ( count < STRAUS_MIN_COUNT || mod.bitLength() < STRAUS_MIN_BITS ) {
+            BigInteger r = BigInteger.ONE;
+            for ( int i = 0; i < count; i++ ) {
+                r = r.multiply( bases[i].modPow(exps[i], mod) ).mod(mod);
+            }
+            return r.mod(mod);
+        }
+
+        final int window = bits <= 64 ? 2 : ( bits <= 512 ? 3 : ( bits <= 2048 ? 4 : 5 ) );
+        final int digits = 1 << window;
+        // table[i][d] = base[i] ^ d (in Montgomery form if applicable)
+        final BigInteger[][] table = new BigInteger[count][digits];
+        for ( int i = 0; i < count; i++ ) {
+            BigInteger b = bases[i].mod(mod);
+            if ( exps[i].signum() < 0 ) b = b.modInverse(mod);
+            if ( ctx.isMontgomery() ) b = ctx.toMontgomery(b);
+            final BigInteger[] row = table[i];
+            row[1] = b;
+            for ( int d = 2; d < digits; d++ ) row[d] = ctx.multiply(row[d - 1], b);
+        }
+
+        BigInteger r = null; // 1
+        for ( int pos = ( ( bits + window - 1 ) / window - 1 ) * window; pos >= 0; pos -= window ) {
+            if ( r != null ) {
+                for ( int w = 0; w < window; w++ ) r = ctx.multiply(r, r);
+            }
+            for ( int i = 0; i < count; i++ ) {
+                final BigInteger e = es[i]; int d = 0;
+                for ( int b = window - 1; b >= 0; b-- ) {
+                    d = ( d << 1 ) | ( e.testBit(pos + b) ? 1 : 0 );
+                }
+                if ( d == 0 ) continue;
+                r = r == null ? table[i][d] : ctx.multiply(r, table[i][d]);
+            }
+        }
+        if ( r == null ) return BigInteger.ONE.mod(mod);
+        return ctx.fromMontgomery(r);
+    }
+
+    private static BigInteger[][] getBigIntegerPairs(final Ruby runtime, final IRubyObject bases, final IRubyObject exps) {
+        final boolean basesArray = bases instanceof RubyArray, expsArray = exps instanceof RubyArray;
+        if ( ! basesArray && ! expsArray ) throw runtime.newTypeError("Array expected");
+
+        final int size = basesArray ? ((RubyArray) bases).size() : ((RubyArray) exps).size();
+        if ( basesArray && expsArray && ((RubyArray) exps).size() != size ) {
+            throw runtime.newArgumentError("bases and exps size differ");
+        }
+        final BigInteger[] b = new BigInteger[size], e = new BigInteger[size];
+        final BigInteger base = basesArray ? null : getBigInteger(bases);
+        final BigInteger exp = expsArray ? null : getBigInteger(exps);
+        for ( int i = 0; i < size; i++ ) {
+            b[i] = basesArray ? getBigInteger(((RubyArray) bases).eltInternal(i)) : base;
+            e[i] = expsArray ? getBigInteger(((RubyArray) exps).eltInternal(i)) : exp;
+            if ( b[i] == null || e[i] == null ) throw runtime.newTypeError("Cannot convert into OpenSSL::BN");
+        }
+        return new BigInteger[][] { b, e };
+    }
+
     @JRubyMethod(name="set_bit!")
     public synchronized IRubyObject set_bit(IRubyObject n) {
         // evil mutable BN
@@ -639,22 +1092,46 @@ public class BN extends RubyObject {
         return runtime.newBoolean(this.value.isProbablePrime(certainty));
     }
 
+    /**
+     * BN.generate_prime(bits, safe = true, add = nil, rem = nil, threads = 1)
+     *
+     * The (sieved) search runs on the calling thread unless more threads are
+     * given, which only pays off for large (safe) primes.
+     * @return BN
+     */
     @JRubyMethod(name = "generate_prime", meta = true, rest = true)
     public static IRubyObject generate_prime(IRubyObject recv, IRubyObject[] args) {
         Ruby runtime = recv.getRuntime();
-        int argc = Arity.checkArgumentCount(runtime, args, 1, 4);
+        int argc = Arity.checkArgumentCount(runtime, args, 1, 5);
         int bits = RubyNumeric.num2int(args[0]);
         boolean safe = argc > 1 ? args[1] != runtime.getFalse() : true;
-        BigInteger add = argc > 2 ? getBigInteger(args[2]) : null;
-        BigInteger rem = argc > 3 ? getBigInteger(args[3]) : null;
+        BigInteger add = argc > 2 && ! args[2].isNil() ? getBigInteger(args[2]) : null;
+        BigInteger rem = argc > 3 && ! args[3].isNil() ? getBigInteger(args[3]) : null;
+        int threads = argc > 4 && ! args[4].isNil() ? RubyNumeric.fix2int(args[4]) : 1;
         if (bits < 3) {
             if (safe) throw runtime.newArgumentError("bits < 3");
             if (bits < 2) throw runtime.newArgumentError("bits < 2");
         }
-        return newBN(runtime, generatePrime(bits, safe, add, rem));
+        if ( threads < 1 ) throw runtime.newArgumentError("invalid thread count: " + threads);
+        try {
+            return newBN(runtime, generatePrime(bits, safe, add, rem, threads));
+        }
+        catch (IllegalStateException e) { // interrupted
+            throw newBNError(runtime, e.getMessage());
+        }
     }
 
     public static BigInteger generatePrime(int bits, boolean safe, BigInteger add, BigInteger rem) {
+        return generatePrime(bits, safe, add, rem, 1);
+    }
+
+    /**
+     * Generates a (safe) prime with a sieved search, on more than one thread
+     * when asked to, falling back to a plain search for small bit sizes or
+     * add/rem values not supported by the sieve.
+     * @see PrimeGenerator
+     */
+    public static BigInteger generatePrime(int bits, boolean safe, BigInteger add, BigInteger rem, int threads) {
         // From OpenSSL man page BN_generate_prime(3):
         //
         // "If add is not NULL, the prime will fulfill the condition p % add == rem
@@ -670,6 +1147,18 @@ public class BN extends RubyObject {
             rem = BigInteger.ONE;
         }
 
+        // BigInteger.probablePrime (sieves itself) is quicker for small primes
+        final boolean plain = ! safe && add == null && bits < 1024 && threads == 1;
+        if ( ! plain && PrimeGenerator.isSievable(bits, safe, add, rem) ) {
+            try {
+                return PrimeGenerator.generatePrime(bits, safe, add, rem, threads, getSecureRandom());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted generating prime");
+            }
+        }
+
         // borrowing technique from org.bouncycastle.crypto.generators.DHParametersHelper
         // (unfortunately the code has package visibility), wherein for safe primes,
         // we'll use the lowest useful certainty (2) for generation of q, then if
@@ -839,15 +1328,186 @@ public class BN extends RubyObject {
     }
 
     public static BigInteger getBigInteger(final IRubyObject arg) {
+        if ( arg instanceof BN ) return ((BN) arg).value;
+
         if ( arg.isNil() ) return null;
 
         if ( arg instanceof RubyInteger ) {
             return ((RubyInteger) arg).getBigIntegerValue();
         }
 
-        if ( arg instanceof BN ) return ((BN) arg).value;
-
         throw arg.getRuntime().newTypeError("Cannot convert into OpenSSL::BN");
     }
 
+    static BigInteger getModulus(final IRubyObject arg) {
+        if ( arg instanceof Context ) return ((Context) arg).mod;
+        return getBigInteger(arg);
+    }
+
+    /**
+     * OpenSSL::BN::Context - a modulus for (repeated) modular arithmetic.
+     *
+     * Might be passed where BN methods expect a modulus (e.g. mod_mul!),
+     * saving the argument conversion. For odd moduli it keeps Montgomery
+     * constants, used for fixed-base exponentiation.
+     *
+     * @see FixedBase
+     */
+    public static final class Context extends RubyObject {
+        private static final long serialVersionUID = -3046312950165457931L;
+
+        static final ObjectAllocator ALLOCATOR = new ObjectAllocator() {
+            public Context allocate(Ruby runtime, RubyClass klass) { return new Context(runtime, klass); }
+        };
+
+        private BigInteger mod;
+        // Montgomery (R = 2^bits) : mask = R - 1, inv = -mod^-1 (mod R)
+        private int bits; private BigInteger mask, inv;
+
+        public Context(Ruby runtime, RubyClass type) {
+            super(runtime, type);
+        }
+
+        Context(Ruby runtime, BigInteger mod) {
+            super(runtime, runtime.getModule("OpenSSL").getClass("BN").getClass("Context"));
+            setModulus(runtime, mod);
+        }
+
+        static Context getContext(final Ruby runtime, final IRubyObject mod) {
+            if ( mod instanceof Context ) return (Context) mod;
+            return new Context(runtime, getBigInteger(mod));
+        }
+
+        @JRubyMethod(visibility = Visibility.PRIVATE)
+        public IRubyObject initialize(final ThreadContext context, final IRubyObject mod) {
+            setModulus(context.runtime, getBigInteger(mod));
+            return this;
+        }
+
+        private void setModulus(final Ruby runtime, final BigInteger m) {
+            if ( m == null || m.signum() <= 0 ) throw newBNError(runtime, "invalid modulus");
+            this.mod = m;
+            if ( m.testBit(0) && m.bitLength() > 1 ) {
+                this.bits = m.bitLength();
+                final BigInteger R = BigInteger.ONE.shiftLeft(bits);
+                this.mask = R.subtract(BigInteger.ONE);
+                this.inv = m.modInverse(R).negate().mod(R);
+            }
+        }
+
+        @JRubyMethod
+        public BN mod(final ThreadContext context) {
+            return newBN(context.runtime, mod);
+        }
+
+        final boolean isMontgomery() { return inv != null; }
+
+        final BigInteger toMontgomery(final BigInteger x) {
+            return x.shiftLeft(bits).mod(mod);
+        }
+
+        final BigInteger fromMontgomery(final BigInteger x) {
+            return isMontgomery() ? reduce(x) : x;
+        }
+
+        // x * R^-1 (mod m) for x < m * R
+        final BigInteger reduce(final BigInteger x) {
+            final BigInteger u = x.and(mask).multiply(inv).and(mask);
+            final BigInteger r = x.add(u.multiply(mod)).shiftRight(bits);
+            return r.compareTo(mod) >= 0 ? r.subtract(mod) : r;
+        }
+
+        final BigInteger multiply(final BigInteger a, final BigInteger b) {
+            if ( isMontgomery() ) return reduce(a.multiply(b));
+            return a.multiply(b).mod(mod);
+        }
+
+    }
+
+    /**
+     * OpenSSL::BN::FixedBase - precomputed powers of a (fixed) base, for
+     * repeated g ** e (mod m) with varying exponents (e.g. DH, SRP, DSA).
+     *
+     * FixedBase.new(g, mod_or_context, window = 5, bits = mod.num_bits)
+     *
+     * Keeps g ^ (d * 2 ^ (window * i)) for all window sized digits d of an
+     * up to bits long exponent, so an exponentiation takes (bits / window)
+     * multiplications (done in Montgomery form for odd moduli) and no
+     * squaring. The table holds (bits / window) * (2 ^ window - 1) values.
+     */
+    public static final class FixedBase extends RubyObject {
+        private static final long serialVersionUID = 6317294851460512391L;
+
+        static final ObjectAllocator ALLOCATOR = new ObjectAllocator() {
+            public FixedBase allocate(Ruby runtime, RubyClass klass) { return new FixedBase(runtime, klass); }
+        };
+
+        private BigInteger base;
+        private Context mod;
+        private int window, bits;
+        private BigInteger[][] table;
+
+        public FixedBase(Ruby runtime, RubyClass type) {
+            super(runtime, type);
+        }
+
+        @JRubyMethod(required = 2, optional = 2, visibility = Visibility.PRIVATE)
+        public IRubyObject initialize(final ThreadContext context, final IRubyObject[] args) {
+            final Ruby runtime = context.runtime;
+            this.mod = Context.getContext(runtime, args[1]);
+            final BigInteger m = mod.mod;
+            this.base = getBigInteger(args[0]).mod(m);
+            this.window = args.length > 2 ? RubyNumeric.fix2int(args[2]) : 5;
+            if ( window < 1 || window > 8 ) throw runtime.newArgumentError("invalid window: " + window);
+            this.bits = args.length > 3 ? RubyNumeric.fix2int(args[3]) : m.bitLength();
+            if ( bits < 1 ) throw runtime.newArgumentError("invalid bits: " + bits);
+
+            final int digits = 1 << window;
+            final BigInteger[][] table = new BigInteger[(bits + window - 1) / window][];
+            BigInteger b = mod.isMontgomery() ? mod.toMontgomery(base) : base;
+            for ( int i = 0; i < table.length; i++ ) {
+                final BigInteger[] row = table[i] = new BigInteger[digits];
+                row[1] = b;
+                for ( int d = 2; d < digits; d++ ) row[d] = mod.multiply(row[d - 1], b);
+                b = mod.multiply(row[digits - 1], b); // b ^ (2 ^ window)
+            }
+            this.table = table;
+            return this;
+        }
+
+        @JRubyMethod
+        public BN base(final ThreadContext context) {
+            return newBN(context.runtime, base);
+        }
+
+        @JRubyMethod
+        public BN mod(final ThreadContext context) {
+            return newBN(context.runtime, mod.mod);
+        }
+
+        @JRubyMethod
+        public BN mod_exp(final ThreadContext context, final IRubyObject exp) {
+            return newBN(context.runtime, modExp(getBigInteger(exp)));
+        }
+
+        final BigInteger modExp(final BigInteger exp) {
+            if ( exp.signum() < 0 || exp.bitLength() > bits ) {
+                return base.modPow(exp, mod.mod); // not covered by the table
+            }
+            BigInteger r = null;
+            final int len = exp.bitLength();
+            for ( int i = 0, pos = 0; pos < len; i++, pos += window ) {
+                int d = 0;
+                for ( int b = 0; b < window; b++ ) {
+                    if ( exp.testBit(pos + b) ) d |= 1 << b;
+                }
+                if ( d == 0 ) continue;
+                r = r == null ? table[i][d] : mod.multiply(r, table[i][d]);
+            }
+            if ( r == null ) return BigInteger.ONE.mod(mod.mod);
+            return mod.fromMontgomery(r);
+        }
+
+    }
+
 }
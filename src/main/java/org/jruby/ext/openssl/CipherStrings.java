@@ -176,6 +176,12 @@ public class CipherStrings {
     public final static String SSL_TXT_TLSV1 = "TLSv1";
     public final static String SSL_TXT_ALL = "ALL";
     public final static String SSL_TXT_ECC = "ECCdraft";
+    public final static String SSL_TXT_kEECDH = "kEECDH";
+    public final static String SSL_TXT_aECDSA = "aECDSA";
+    public final static String SSL_TXT_ECDSA = "ECDSA";
+    public final static String SSL_TXT_ECDH = "ECDH";
+    public final static String SSL_TXT_EECDH = "EECDH";
+    public final static String SSL_TXT_AECDH = "AECDH";
 
     public final static String SSL_TXT_CMPALL = "COMPLEMENTOFALL";
     public final static String SSL_TXT_CMPDEF = "COMPLEMENTOFDEFAULT";
@@ -546,6 +552,26 @@ public class CipherStrings {
                     matching.retainAll( matchingPattern(pattern, all, false, setSuite) );
                 }
             }
+            else if ( CipherNames.containsKey(name) ) { // e.g. "ECDHE-ECDSA-AES128-SHA"
+                if ( matching == null ) {
+                    matching = matchingExact(name, all, setSuite);
+                }
+                else {
+                    matching.retainAll( matchingExact(name, all, setSuite) );
+                }
+            }
+        }
+        return matching;
+    }
+
+    private static Collection<Def> matchingExact(final String name, final String[] all,
+        final boolean setSuite) {
+        final Collection<Def> matching = new LinkedHashSet<Def>(4);
+        final Def def = CipherNames.get(name);
+        for ( final String entry : all ) {
+            if ( name.equals( SuiteToOSSL.get(entry) ) ) {
+                matching.add( setSuite ? def.setCipherSuite(entry) : def );
+            }
         }
         return matching;
     }
@@ -593,6 +619,12 @@ public class CipherStrings {
         Definitions.put(SSL_TXT_DH,new Def(0,SSL_TXT_DH,	0,SSL_DH,    0,0,0,0,SSL_MKEY_MASK,0));
         Definitions.put(SSL_TXT_ECC,new Def(0,SSL_TXT_ECC,	0,(SSL_kECDH|SSL_kECDHE), 0,0,0,0,SSL_MKEY_MASK,0));
         Definitions.put(SSL_TXT_EDH,new Def(0,SSL_TXT_EDH,	0,SSL_EDH,   0,0,0,0,SSL_MKEY_MASK|SSL_AUTH_MASK,0));
+        Definitions.put(SSL_TXT_kEECDH,new Def(0,SSL_TXT_kEECDH,0,SSL_kECDHE,0,0,0,0,SSL_MKEY_MASK,0));
+        Definitions.put(SSL_TXT_ECDH,new Def(0,SSL_TXT_ECDH,0,SSL_ECDH,  0,0,0,0,SSL_MKEY_MASK,0));
+        Definitions.put(SSL_TXT_EECDH,new Def(0,SSL_TXT_EECDH,0,SSL_kECDHE|(SSL_AUTH_MASK^SSL_aNULL),0,0,0,0,SSL_MKEY_MASK|SSL_AUTH_MASK,0));
+        Definitions.put(SSL_TXT_AECDH,new Def(0,SSL_TXT_AECDH,0,SSL_kECDHE|SSL_aNULL,0,0,0,0,SSL_MKEY_MASK|SSL_AUTH_MASK,0));
+        Definitions.put(SSL_TXT_aECDSA,new Def(0,SSL_TXT_aECDSA,0,SSL_aECDSA,0,0,0,0,SSL_AUTH_MASK,0));
+        Definitions.put(SSL_TXT_ECDSA,new Def(0,SSL_TXT_ECDSA,0,SSL_aECDSA,0,0,0,0,SSL_AUTH_MASK,0));
         Definitions.put(SSL_TXT_aKRB5,new Def(0,SSL_TXT_aKRB5,0,SSL_aKRB5,0,0,0,0,SSL_AUTH_MASK,0));
         Definitions.put(SSL_TXT_aRSA,new Def(0,SSL_TXT_aRSA,0,SSL_aRSA,  0,0,0,0,SSL_AUTH_MASK,0));
         Definitions.put(SSL_TXT_aDSS,new Def(0,SSL_TXT_aDSS,0,SSL_aDSS,  0,0,0,0,SSL_AUTH_MASK,0));
@@ -1811,7 +1843,7 @@ public class CipherStrings {
         CipherNames = new HashMap<String, Def>(Ciphers.size());
         for ( Def def : Ciphers ) CipherNames.put(def.name, def);
 
-        SuiteToOSSL = new HashMap<String, String>(80);
+        SuiteToOSSL = new HashMap<String, String>(120);
         SuiteToOSSL.put("SSL_RSA_WITH_NULL_MD5","NULL-MD5");
         SuiteToOSSL.put("SSL_RSA_WITH_NULL_SHA","NULL-SHA");
         SuiteToOSSL.put("SSL_RSA_EXPORT_WITH_RC4_40_MD5","EXP-RC4-MD5");
@@ -1871,6 +1903,31 @@ public class CipherStrings {
         SuiteToOSSL.put("TLS_DHE_DSS_EXPORT1024_WITH_DES_CBC_SHA","EXP1024-DHE-DSS-DES-CBC-SHA");
         SuiteToOSSL.put("TLS_DHE_DSS_EXPORT1024_WITH_RC4_56_SHA","EXP1024-DHE-DSS-RC4-SHA");
         SuiteToOSSL.put("TLS_DHE_DSS_WITH_RC4_128_SHA","DHE-DSS-RC4-SHA");
+        SuiteToOSSL.put("TLS_ECDH_ECDSA_WITH_NULL_SHA","ECDH-ECDSA-NULL-SHA");
+        SuiteToOSSL.put("TLS_ECDH_ECDSA_WITH_RC4_128_SHA","ECDH-ECDSA-RC4-SHA");
+        SuiteToOSSL.put("TLS_ECDH_ECDSA_WITH_3DES_EDE_CBC_SHA","ECDH-ECDSA-DES-CBC3-SHA");
+        SuiteToOSSL.put("TLS_ECDH_ECDSA_WITH_AES_128_CBC_SHA","ECDH-ECDSA-AES128-SHA");
+        SuiteToOSSL.put("TLS_ECDH_ECDSA_WITH_AES_256_CBC_SHA","ECDH-ECDSA-AES256-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_ECDSA_WITH_NULL_SHA","ECDHE-ECDSA-NULL-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_ECDSA_WITH_RC4_128_SHA","ECDHE-ECDSA-RC4-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_ECDSA_WITH_3DES_EDE_CBC_SHA","ECDHE-ECDSA-DES-CBC3-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA","ECDHE-ECDSA-AES128-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA","ECDHE-ECDSA-AES256-SHA");
+        SuiteToOSSL.put("TLS_ECDH_RSA_WITH_NULL_SHA","ECDH-RSA-NULL-SHA");
+        SuiteToOSSL.put("TLS_ECDH_RSA_WITH_RC4_128_SHA","ECDH-RSA-RC4-SHA");
+        SuiteToOSSL.put("TLS_ECDH_RSA_WITH_3DES_EDE_CBC_SHA","ECDH-RSA-DES-CBC3-SHA");
+        SuiteToOSSL.put("TLS_ECDH_RSA_WITH_AES_128_CBC_SHA","ECDH-RSA-AES128-SHA");
+        SuiteToOSSL.put("TLS_ECDH_RSA_WITH_AES_256_CBC_SHA","ECDH-RSA-AES256-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_RSA_WITH_NULL_SHA","ECDHE-RSA-NULL-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_RSA_WITH_RC4_128_SHA","ECDHE-RSA-RC4-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_RSA_WITH_3DES_EDE_CBC_SHA","ECDHE-RSA-DES-CBC3-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA","ECDHE-RSA-AES128-SHA");
+        SuiteToOSSL.put("TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA","ECDHE-RSA-AES256-SHA");
+        SuiteToOSSL.put("TLS_ECDH_anon_WITH_NULL_SHA","AECDH-NULL-SHA");
+        SuiteToOSSL.put("TLS_ECDH_anon_WITH_RC4_128_SHA","AECDH-RC4-SHA");
+        SuiteToOSSL.put("TLS_ECDH_anon_WITH_3DES_EDE_CBC_SHA","AECDH-DES-CBC3-SHA");
+        SuiteToOSSL.put("TLS_ECDH_anon_WITH_AES_128_CBC_SHA","AECDH-AES128-SHA");
+        SuiteToOSSL.put("TLS_ECDH_anon_WITH_AES_256_CBC_SHA","AECDH-AES256-SHA");
         SuiteToOSSL.put("SSL_CK_RC4_128_WITH_MD5","RC4-MD5");
         SuiteToOSSL.put("SSL_CK_RC4_128_EXPORT40_WITH_MD5","EXP-RC4-MD5");
         SuiteToOSSL.put("SSL_CK_RC2_128_CBC_WITH_MD5","RC2-MD5");
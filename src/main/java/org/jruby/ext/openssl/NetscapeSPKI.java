@@ -131,10 +131,9 @@ public class NetscapeSPKI extends RubyObject {
     // just try to decode for the time when the given bytes are base64 encoded.
     private static byte[] tryBase64Decode(byte[] b) {
         try {
-            b = Base64.decode(b, 0, b.length, Base64.NO_OPTIONS);
+            b = Base64.decode(b);
         }
         catch (IOException ignored) { }
-        catch (IllegalArgumentException ignored) { }
         return b;
     }
 
@@ -152,7 +151,7 @@ public class NetscapeSPKI extends RubyObject {
         try {
             byte[] source = toDER();
             // no Base64.DO_BREAK_LINES option needed for NSPKI :
-            source = Base64.encodeBytesToBytes(source, 0, source.length, Base64.NO_OPTIONS);
+            source = Base64.encode(source);
             return getRuntime().newString(new ByteList(source, false));
         }
         catch (IOException ioe) { throw newSPKIError(ioe); }
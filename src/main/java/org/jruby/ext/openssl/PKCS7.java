@@ -27,7 +27,9 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.ext.openssl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -39,12 +41,12 @@ import java.security.PrivateKey;
 import java.security.cert.CertificateEncodingException;
 
 import org.bouncycastle.asn1.ASN1Encodable;
+import org.jcodings.specific.UTF8Encoding;
 
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
 import org.jruby.RubyBignum;
 import org.jruby.RubyClass;
-import org.jruby.RubyFile;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyObject;
@@ -58,6 +60,8 @@ import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.Visibility;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.util.ByteList;
+import org.jruby.util.IOInputStream;
+import org.jruby.util.IOOutputStream;
 
 import org.jruby.ext.openssl.impl.ASN1Registry;
 import org.jruby.ext.openssl.impl.BIO;
@@ -112,18 +116,15 @@ public class PKCS7 extends RubyObject {
     }
 
     public static BIO obj2bio(IRubyObject obj) {
-        if ( obj instanceof RubyFile ) {
-            throw obj.getRuntime().newNotImplementedError("TODO: handle RubyFile correctly");
-//     if (TYPE(obj) == T_FILE) {
-//         OpenFile *fptr;
-//         GetOpenFile(obj, fptr);
-//         rb_io_check_readable(fptr);
-//         bio = BIO_new_fp(fptr->f, BIO_NOCLOSE);
-        }
-        else {
-            final ByteList str = obj.asString().getByteList();
-            return BIO.memBuf(str.getUnsafeBytes(), str.getBegin(), str.getRealSize());
+        if ( isIO(obj) ) { // BIO_new_fp - content is read in chunks
+            return BIO.fromStream(new IOInputStream(obj));
         }
+        final ByteList str = obj.asString().getByteList();
+        return BIO.memBuf(str.getUnsafeBytes(), str.getBegin(), str.getRealSize());
+    }
+
+    private static boolean isIO(final IRubyObject obj) {
+        return ! ( obj instanceof RubyString ) && obj.respondsTo("read");
     }
 
     @Deprecated // no loger used
@@ -140,7 +141,7 @@ public class PKCS7 extends RubyObject {
     }
 
     public static IRubyObject membio2str(Ruby runtime, BIO bio) {
-        return runtime.newString( new ByteList(((MemBIO) bio).getMemCopy(), false) );
+        return runtime.newString( ((MemBIO) bio).getMemByteList() );
     }
 
     private static List<X509AuxCertificate> getAuxCerts(final IRubyObject arg) {
@@ -183,8 +184,10 @@ public class PKCS7 extends RubyObject {
         final PKCS7 pkcs7;
         IRubyObject data = runtime.getNil();
         IRubyObject flags = runtime.getNil();
+        IRubyObject io = runtime.getNil();
 
-        switch ( Arity.checkArgumentCount(runtime, args, 1, 3) ) {
+        switch ( Arity.checkArgumentCount(runtime, args, 1, 4) ) {
+            case 4: io = args[3];
             case 3: flags = args[2];
             case 2: data = args[1];
             default: pkcs7 = (PKCS7) args[0];
@@ -192,9 +195,12 @@ public class PKCS7 extends RubyObject {
 
         final int flg = flags.isNil() ? 0 : RubyNumeric.fix2int(flags);
 
-        String smime = "";
+        // with an IO (data) and io (output) the message is streamed through
+        final BIO dataBIO = data.isNil() ? null : obj2bio(data);
+        final OutputStream out = io.isNil() ? new ByteArrayOutputStream() : new IOOutputStream(io);
         try {
-            smime = new SMIME().writePKCS7(pkcs7.p7, data.asJavaString(), flg);
+            new SMIME().writePKCS7(pkcs7.p7, dataBIO, out, flg);
+            out.flush();
         }
         catch (PKCS7Exception e) {
             throw newPKCS7Error(runtime, e);
@@ -203,7 +209,9 @@ public class PKCS7 extends RubyObject {
             throw newPKCS7Error(runtime, e.getMessage());
         }
 
-        return RubyString.newString(runtime, smime);
+        if ( ! io.isNil() ) return io;
+        final byte[] smime = ( (ByteArrayOutputStream) out ).toByteArray();
+        return runtime.newString(new ByteList(smime, UTF8Encoding.INSTANCE, false));
     }
 
     @JRubyMethod(meta = true, rest = true)
@@ -243,14 +251,20 @@ public class PKCS7 extends RubyObject {
 
     /** ossl_pkcs7_s_encrypt
      *
+     * PKCS7.encrypt(certs, data, cipher = nil, flags = 0, threads = 1)
+     *
+     * With more than one thread the content-encryption key gets wrapped for
+     * the recipients (certs) in parallel, the output is the same (ordered).
      */
     @JRubyMethod(meta = true, rest = true)
     public static IRubyObject encrypt(IRubyObject self, IRubyObject[] args) {
         final Ruby runtime = self.getRuntime();
 
         IRubyObject certs, data, cipher = runtime.getNil(), flags = runtime.getNil();
+        IRubyObject threads = runtime.getNil();
 
-        switch ( Arity.checkArgumentCount(self.getRuntime(), args, 2, 4) ) {
+        switch ( Arity.checkArgumentCount(self.getRuntime(), args, 2, 5) ) {
+            case 5: threads = args[4];
             case 4: flags = args[3];
             case 3: cipher = args[2];
         }
@@ -269,12 +283,14 @@ public class PKCS7 extends RubyObject {
             cipherSpec = new CipherSpec(c.getCipherInstance(), c.getName(), c.getGenerateKeyLength() * 8);
         }
         final int flg = flags.isNil() ? 0 : RubyNumeric.fix2int(flags);
+        final int thr = threads.isNil() ? 1 : RubyNumeric.fix2int(threads);
+        if ( thr < 1 ) throw runtime.newArgumentError("invalid thread count: " + thr);
         final List<X509AuxCertificate> auxCerts = getAuxCerts(certs);
         final byte[] dataBytes = data.asString().getBytes();
 
         org.jruby.ext.openssl.impl.PKCS7 pkcs7Impl;
         try {
-            pkcs7Impl = org.jruby.ext.openssl.impl.PKCS7.encrypt(auxCerts, dataBytes, cipherSpec, flg);
+            pkcs7Impl = org.jruby.ext.openssl.impl.PKCS7.encrypt(auxCerts, dataBytes, cipherSpec, flg, thr);
         }
         catch (PKCS7Exception pkcs7e) {
             throw newPKCS7Error(self.getRuntime(), pkcs7e);
@@ -303,6 +319,7 @@ public class PKCS7 extends RubyObject {
             return this;
         }
         IRubyObject arg = to_der_if_possible(context, args[0]);
+        if ( isIO(arg) ) arg = arg.callMethod(context, "read"); // needs reset
         BIO input = obj2bio(arg);
         try {
             p7 = org.jruby.ext.openssl.impl.PKCS7.readPEM(input);
@@ -549,7 +566,7 @@ public class PKCS7 extends RubyObject {
         } catch (PKCS7Exception pkcs7e) {
             throw newPKCS7Error(getRuntime(), pkcs7e);
         }
-        byte[] buf = new byte[4096];
+        byte[] buf = new byte[BIO.BLOCK_SIZE];
         for(;;) {
             try {
                 int i = in.read(buf, 0, buf.length);
@@ -596,7 +613,8 @@ public class PKCS7 extends RubyObject {
         List<X509AuxCertificate> x509s = certs.isNil() ? null : getAuxCerts(certs);
 
         final Store storeStr = store.getStore();
-        final BIO out = BIO.mem();
+        // content streamed from an IO is only digested (not kept as #data)
+        final BIO out = indata.isNil() || ! isIO(indata) ? BIO.mem() : null;
 
         boolean result = false;
         try {
@@ -614,8 +632,7 @@ public class PKCS7 extends RubyObject {
             // result = false;
         }
 
-        IRubyObject data = membio2str(getRuntime(), out);
-        setData(data);
+        setData( out == null ? runtime.getNil() : membio2str(runtime, out) );
 
         return result ? runtime.getTrue() : runtime.getFalse();
     }
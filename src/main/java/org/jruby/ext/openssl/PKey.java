@@ -27,12 +27,11 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.ext.openssl;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
@@ -42,29 +41,45 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.interfaces.DSAPrivateKey;
 import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
-
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jruby.Finalizable;
 import org.jruby.Ruby;
+import org.jruby.RubyArray;
 import org.jruby.RubyClass;
+import org.jruby.RubyHash;
 import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
 import org.jruby.RubyObject;
 import org.jruby.RubyString;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
+import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.Visibility;
+import org.jruby.util.ByteList;
 
 import org.jruby.ext.openssl.x509store.PEMInputOutput;
+import org.jruby.ext.openssl.x509store.PEMScanner;
 import static org.jruby.ext.openssl.OpenSSL.*;
 import org.jruby.ext.openssl.impl.CipherSpec;
-import static org.jruby.ext.openssl.impl.PKey.readPrivateKey;
-import static org.jruby.ext.openssl.impl.PKey.readPublicKey;
+import org.jruby.ext.openssl.impl.KeyCache;
+import org.jruby.ext.openssl.impl.KeyPool;
+import org.jruby.ext.openssl.impl.Workers;
 
 /**
  * @author <a href="mailto:ola.bini@ki.se">Ola Bini</a>
@@ -86,6 +101,7 @@ public abstract class PKey extends RubyObject {
         PKeyRSA.createPKeyRSA(runtime, PKey, PKeyPKey);
         PKeyDSA.createPKeyDSA(runtime, PKey, PKeyPKey);
         PKeyDH.createPKeyDH(runtime, PKey, PKeyPKey);
+        PKeyEC.createPKeyEC(runtime, PKey, PKeyPKey);
     }
 
     public static RaiseException newPKeyError(Ruby runtime, String message) {
@@ -98,11 +114,64 @@ public abstract class PKey extends RubyObject {
 
     public static class PKeyModule {
 
+        /**
+         * PKey.cache_keys(capacity = 64)
+         *
+         * Caches parsed keys read with PKey.read and RSA.new (by a fingerprint of
+         * the input and pass-phrase), useful when the same key is read repeatedly.
+         * A capacity of 0 disables (and clears) the cache.
+         * @return the cache stats (see #cache_stats) or nil if disabled
+         */
+        @JRubyMethod(name = "cache_keys", meta = true, optional = 1)
+        public static IRubyObject cache_keys(final ThreadContext context, final IRubyObject self, final IRubyObject[] args) {
+            final Ruby runtime = context.runtime;
+            final int capacity = args.length > 0 ? RubyNumeric.fix2int(args[0]) : 64;
+            if ( capacity < 0 ) throw runtime.newArgumentError("invalid cache size: " + capacity);
+            final RubyModule PKey = (RubyModule) self;
+            final Object prev;
+            if ( capacity == 0 ) prev = PKey.removeInternalVariable(KEY_CACHE);
+            else {
+                prev = PKey.getInternalVariable(KEY_CACHE);
+                final RuntimeKeyCache cache = new RuntimeKeyCache(capacity);
+                PKey.setInternalVariable(KEY_CACHE, cache);
+                runtime.addInternalFinalizer(cache);
+            }
+            if ( prev != null ) {
+                runtime.removeInternalFinalizer((RuntimeKeyCache) prev);
+                ((RuntimeKeyCache) prev).clear();
+            }
+            return cache_stats(context, self);
+        }
+
+        /**
+         * PKey.cache_stats
+         * @return { size: 1, capacity: 64, hits: 9, misses: 1, evictions: 0 } or nil
+         */
+        @JRubyMethod(name = "cache_stats", meta = true)
+        public static IRubyObject cache_stats(final ThreadContext context, final IRubyObject self) {
+            final Ruby runtime = context.runtime;
+            final KeyCache cache = (KeyCache) ((RubyModule) self).getInternalVariable(KEY_CACHE);
+            if ( cache == null ) return runtime.getNil();
+            final RubyHash stats = RubyHash.newHash(runtime);
+            stats.fastASet(runtime.newSymbol("size"), runtime.newFixnum(cache.getSize()));
+            stats.fastASet(runtime.newSymbol("capacity"), runtime.newFixnum(cache.getCapacity()));
+            stats.fastASet(runtime.newSymbol("hits"), runtime.newFixnum(cache.getHits()));
+            stats.fastASet(runtime.newSymbol("misses"), runtime.newFixnum(cache.getMisses()));
+            stats.fastASet(runtime.newSymbol("evictions"), runtime.newFixnum(cache.getEvictions()));
+            return stats;
+        }
+
+        /**
+         * PKey.read(string_or_io, pass = nil) { |_| pass }
+         *
+         * When no pass-phrase is given and the (PEM) key is encrypted, the block
+         * gets called (as OpenSSL's pem_passwd_cb) and should return the pass-phrase.
+         */
         @JRubyMethod(name = "read", meta = true, required = 1, optional = 1)
-        public static IRubyObject read(final ThreadContext context, IRubyObject recv, IRubyObject[] args) {
+        public static IRubyObject read(final ThreadContext context, IRubyObject recv, IRubyObject[] args, Block block) {
             final Ruby runtime = context.runtime;
 
-            final IRubyObject data; final char[] pass;
+            final IRubyObject data; char[] pass;
             switch (args.length) {
             case 1:
                 data = args[0];
@@ -113,62 +182,117 @@ public abstract class PKey extends RubyObject {
                 pass = args[1].isNil() ? null : args[1].toString().toCharArray();
             }
 
-            final byte[] input = StringHelper.readX509PEM(context, data);
-            KeyPair key = null;
-            // d2i_PrivateKey_bio
-            try {
-                key = readPrivateKey(input);
-            } catch (IOException ioe) {
-                // ignore
-            } catch (GeneralSecurityException gse) {
-                // ignore
+            final ByteList input = StringHelper.readPossibleDERInput(context, data).getByteList();
+            if ( pass == null && block.isGiven() && PEMScanner.isPEM(input) && input.indexOf(ENCRYPTED) != -1 ) {
+                pass = block.yield(context, runtime.getNil()).toString().toCharArray(); // pem_passwd_cb
             }
-            // PEM_read_bio_PrivateKey
-            if (key == null) {
-                try {
-                    key = PEMInputOutput.readPrivateKey(new InputStreamReader(new ByteArrayInputStream(input)), pass);
-                } catch (IOException ioe) {
-                    // ignore
+
+            final Object key = readCachedKey(runtime, input, pass);
+            if ( key instanceof KeyPair ) { // PEM_read_bio_PrivateKey / d2i_PrivateKey_bio
+                final PrivateKey privKey = ((KeyPair) key).getPrivate();
+                final PublicKey pubKey = ((KeyPair) key).getPublic();
+                if ( privKey instanceof RSAPrivateCrtKey ) {
+                    return new PKeyRSA(runtime, _PKey(runtime).getClass("RSA"), (RSAPrivateCrtKey) privKey, (RSAPublicKey) pubKey);
                 }
-            }
-            if (key != null) {
-                if (key.getPublic().getAlgorithm().equals("RSA")) {
-                    return new PKeyRSA(runtime, _PKey(runtime).getClass("RSA"), (RSAPrivateCrtKey) key.getPrivate(),
-                            (RSAPublicKey) key.getPublic());
-                } else if (key.getPublic().getAlgorithm().equals("DSA")) {
-                    return new PKeyDSA(runtime, _PKey(runtime).getClass("DSA"), (DSAPrivateKey) key.getPrivate(),
-                            (DSAPublicKey) key.getPublic());
+                if ( privKey instanceof DSAPrivateKey ) {
+                    return new PKeyDSA(runtime, _PKey(runtime).getClass("DSA"), (DSAPrivateKey) privKey, (DSAPublicKey) pubKey);
+                }
+                if ( privKey instanceof ECPrivateKey ) {
+                    return new PKeyEC(runtime, _PKey(runtime).getClass("EC"), (ECPrivateKey) privKey, (ECPublicKey) pubKey);
                 }
             }
-
-            PublicKey pubKey = null;
-            // d2i_PUBKEY_bio
-            try {
-                pubKey = readPublicKey(input);
-            } catch (IOException ioe) {
-                // ignore
-            } catch (GeneralSecurityException gse) {
-                // ignore
+            else if ( key instanceof PublicKey ) { // PEM_read_bio_PUBKEY / d2i_PUBKEY_bio
+                if ( key instanceof RSAPublicKey ) return new PKeyRSA(runtime, (RSAPublicKey) key);
+                if ( key instanceof DSAPublicKey ) return new PKeyDSA(runtime, (DSAPublicKey) key);
+                if ( key instanceof ECPublicKey ) return new PKeyEC(runtime, (ECPublicKey) key);
             }
-            // PEM_read_bio_PUBKEY
-            if (pubKey == null) {
-                try {
-                    pubKey = PEMInputOutput.readPubKey(new InputStreamReader(new ByteArrayInputStream(input)));
-                } catch (IOException ioe) {
-                    // ignore
+
+            throw runtime.newArgumentError("Could not parse PKey");
+        }
+    }
+
+    private static final ByteList ENCRYPTED = new ByteList(new byte[] { 'E','N','C','R','Y','P','T','E','D' }, false);
+
+    // opt-in (see PKey.cache_keys) parsed key cache, kept per runtime :
+    private static final String KEY_CACHE = "key_cache";
+
+    // NOTE: finalizers are only weakly referenced by the runtime, the cache
+    // (internal variable) keeps it reachable while the runtime is alive
+    private static final class RuntimeKeyCache extends KeyCache implements Finalizable {
+
+        RuntimeKeyCache(final int capacity) { super(capacity); }
+
+        public void finalize() { clear(); } // runtime tear-down - drop parsed keys
+
+    }
+
+    // (see RSA.pregenerate and DH.pregenerate) key pools, kept per runtime :
+    static final String RSA_POOLS = "rsa_pools";
+    static final String DH_POOLS = "dh_pools";
+
+    @SuppressWarnings("unchecked")
+    static <K, T> Map<K, KeyPool<T>> keyPools(final Ruby runtime, final String name) {
+        final RubyModule PKey = _PKey(runtime);
+        Object pools = PKey.getInternalVariable(name);
+        if ( pools == null ) {
+            synchronized (PKey) {
+                pools = PKey.getInternalVariable(name);
+                if ( pools == null ) {
+                    final KeyPools<K, T> keyPools = new KeyPools<K, T>();
+                    PKey.setInternalVariable(name, pools = keyPools);
+                    runtime.addInternalFinalizer(keyPools);
                 }
             }
+        }
+        return (Map<K, KeyPool<T>>) pools;
+    }
 
-            if (pubKey != null) {
-                if (pubKey.getAlgorithm().equals("RSA")) {
-                    return new PKeyRSA(runtime, (RSAPublicKey) pubKey);
-                } else if (key.getPublic().getAlgorithm().equals("DSA")) {
-                    return new PKeyDSA(runtime, (DSAPublicKey) pubKey);
-                }
+    // NOTE: finalizers are only weakly referenced by the runtime, the pools
+    // (internal variable) keep it reachable while the runtime is alive
+    private static final class KeyPools<K, T> extends ConcurrentHashMap<K, KeyPool<T>> implements Finalizable {
+        private static final long serialVersionUID = -3710495188254871920L;
+
+        KeyPools() { super(4); }
+
+        public void finalize() { // runtime tear-down - stop the filler threads
+            for ( KeyPool<T> pool : values() ) pool.shutdown();
+            clear();
+        }
+    }
+
+    /**
+     * Reads a private key (pair) or a public key. PEM blocks are picked by their
+     * label and DER formats detected up front, thus there are no parse attempts.
+     * @return a key pair, a public key or null if not a (supported) key
+     */
+    static Object readKey(final Ruby runtime, final ByteList input, final char[] passwd) {
+        try {
+            if ( PEMScanner.isPEM(input) ) {
+                return PEMInputOutput.readKey(input.unsafeBytes(), input.getBegin(), input.getRealSize(), passwd);
             }
+            return org.jruby.ext.openssl.impl.PKey.readKey(input.bytes());
+        }
+        catch (IOException e) { debug(runtime, "PKey could not read key", e); }
+        catch (GeneralSecurityException e) { debug(runtime, "PKey could not read key", e); }
+        catch (RuntimeException e) { debugStackTrace(runtime, e); } // malformed ASN.1
+        return null;
+    }
 
-            throw runtime.newArgumentError("Could not parse PKey");
+    /**
+     * Same as {@link #readKey(Ruby, ByteList, char[])} but when caching is
+     * enabled returns the previously read key for the same input.
+     */
+    static Object readCachedKey(final Ruby runtime, final ByteList input, final char[] passwd) {
+        final KeyCache cache = (KeyCache) _PKey(runtime).getInternalVariable(KEY_CACHE);
+        if ( cache == null ) return readKey(runtime, input, passwd);
+
+        final Object fingerprint = KeyCache.fingerprint(input.unsafeBytes(), input.getBegin(), input.getRealSize(), passwd);
+        Object key = cache.get(fingerprint);
+        if ( key == null ) {
+            key = readKey(runtime, input, passwd);
+            if ( key != null ) cache.put(fingerprint, key);
         }
+        return key;
     }
 
     public PKey(Ruby runtime, RubyClass type) {
@@ -198,17 +322,21 @@ public abstract class PKey extends RubyObject {
 
     @JRubyMethod(name = "sign")
     public IRubyObject sign(IRubyObject digest, IRubyObject data) {
-        if (!this.callMethod(getRuntime().getCurrentContext(), "private?").isTrue()) {
+        final PrivateKey privateKey = getPrivateKey();
+        if ( privateKey == null ) {
             throw getRuntime().newArgumentError("Private key is needed.");
         }
         String digAlg = ((Digest) digest).getShortAlgorithm();
+        final String algorithm = digAlg + "WITH" + getAlgorithm();
         try {
-            Signature signature = SecurityHelper.getSignature(digAlg + "WITH" + getAlgorithm());
-            signature.initSign(getPrivateKey());
-            byte[] inp = data.convertToString().getBytes();
-            signature.update(inp);
-            byte[] sigge = signature.sign();
-            return RubyString.newString(getRuntime(), sigge);
+            final Signature signature = getSignature(algorithm, privateKey);
+            try {
+                final ByteList inp = data.convertToString().getByteList();
+                signature.update(inp.getUnsafeBytes(), inp.getBegin(), inp.getRealSize());
+                byte[] sigge = signature.sign();
+                return RubyString.newString(getRuntime(), sigge);
+            }
+            catch (GeneralSecurityException e) { releaseEngine(algorithm, SIGN); throw e; }
         } catch (GeneralSecurityException gse) {
             throw newPKeyError(getRuntime(), gse.getMessage());
         }
@@ -239,15 +367,17 @@ public abstract class PKey extends RubyObject {
         if ( ! (data instanceof RubyString) ) {
             throw newPKeyError(getRuntime(), "invalid data");
         }
-        byte[] sigBytes = ((RubyString) sig).getBytes();
-        byte[] dataBytes = ((RubyString) data).getBytes();
+        final ByteList sigBytes = ((RubyString) sig).getByteList();
+        final ByteList dataBytes = ((RubyString) data).getByteList();
         String algorithm = ((Digest) digest).getShortAlgorithm() + "WITH" + getAlgorithm();
         boolean valid;
         try {
-            Signature signature = SecurityHelper.getSignature(algorithm);
-            signature.initVerify(getPublicKey());
-            signature.update(dataBytes);
-            valid = signature.verify(sigBytes);
+            final Signature signature = getSignature(algorithm, getPublicKey());
+            try {
+                signature.update(dataBytes.getUnsafeBytes(), dataBytes.getBegin(), dataBytes.getRealSize());
+                valid = signature.verify(sigBytes.getUnsafeBytes(), sigBytes.getBegin(), sigBytes.getRealSize());
+            }
+            catch (SignatureException e) { releaseEngine(algorithm, VERIFY); throw e; }
         } catch (NoSuchAlgorithmException e) {
             throw newPKeyError(getRuntime(), "unsupported algorithm: " + algorithm);
         } catch (SignatureException e) {
@@ -258,6 +388,213 @@ public abstract class PKey extends RubyObject {
         return getRuntime().newBoolean(valid);
     }
 
+    /**
+     * PKey#verify_many(digest, [ [ signature, data ], ... ], threads = 1)
+     *
+     * Verifies a batch of signatures (against this public key), using more
+     * than one thread when asked to. Malformed signatures do not raise.
+     * @return [ true/false, ... ] in the same order as given
+     */
+    @JRubyMethod(required = 2, optional = 1)
+    public IRubyObject verify_many(final ThreadContext context, final IRubyObject[] args) {
+        final Ruby runtime = context.runtime;
+        if ( ! (args[0] instanceof Digest) ) {
+            throw newPKeyError(runtime, "invalid digest");
+        }
+        final String algorithm = ((Digest) args[0]).getShortAlgorithm() + "WITH" + getAlgorithm();
+
+        final RubyArray pairs = args[1].convertToArray();
+        final int size = pairs.size();
+        final ByteList[] sigs = new ByteList[size], data = new ByteList[size];
+        for ( int i = 0; i < size; i++ ) {
+            final RubyArray pair = pairs.entry(i).convertToArray();
+            if ( pair.size() != 2 ) throw runtime.newArgumentError("[ signature, data ] pair expected");
+            sigs[i] = pair.entry(0).convertToString().getByteList();
+            data[i] = pair.entry(1).convertToString().getByteList();
+        }
+
+        int threads = 1;
+        if ( args.length > 2 && ! args[2].isNil() ) threads = RubyNumeric.fix2int(args[2]);
+        if ( threads < 1 ) throw runtime.newArgumentError("invalid thread count: " + threads);
+
+        final BatchVerify batch = new BatchVerify(algorithm, getPublicKey(), sigs, data);
+        try {
+            if ( threads == 1 || size < 2 ) {
+                batch.verifyAll( getSignature(algorithm, getPublicKey()) );
+            }
+            else {
+                batch.run(Math.min(threads, size));
+            }
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw newPKeyError(runtime, "unsupported algorithm: " + algorithm);
+        }
+        catch (InvalidKeyException e) {
+            throw newPKeyError(runtime, "invalid key");
+        }
+        catch (InterruptedException e) {
+            throw newPKeyError(runtime, "verify interrupted");
+        }
+
+        final IRubyObject[] results = new IRubyObject[size];
+        for ( int i = 0; i < size; i++ ) results[i] = runtime.newBoolean( batch.results[i] );
+        return runtime.newArrayNoCopy(results);
+    }
+
+    private class BatchVerify {
+
+        final String algorithm;
+        final PublicKey key;
+        final ByteList[] sigs;
+        final ByteList[] data;
+
+        final boolean[] results;
+
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        BatchVerify(String algorithm, PublicKey key, ByteList[] sigs, ByteList[] data) {
+            this.algorithm = algorithm; this.key = key; this.sigs = sigs; this.data = data;
+            this.results = new boolean[sigs.length];
+        }
+
+        void run(final int threads)
+            throws InterruptedException, NoSuchAlgorithmException, InvalidKeyException {
+            try {
+                Workers.invokeAll(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        try {
+                            verifyAll( newSignature(algorithm, key) );
+                        }
+                        catch (Exception e) {
+                            next.set(sigs.length); throw e; // stop the other workers
+                        }
+                        return null;
+                    }
+                }, threads);
+            }
+            catch (ExecutionException e) { // re-throw as the single threaded verify
+                final Throwable cause = e.getCause();
+                if ( cause instanceof NoSuchAlgorithmException ) throw (NoSuchAlgorithmException) cause;
+                if ( cause instanceof InvalidKeyException ) throw (InvalidKeyException) cause;
+                if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+                if ( cause instanceof Error ) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        void verifyAll(final Signature signature) throws InvalidKeyException {
+            int i;
+            while ( ( i = next.getAndIncrement() ) < sigs.length ) {
+                if ( Thread.currentThread().isInterrupted() ) return;
+                final ByteList sig = sigs[i], dat = data[i];
+                try {
+                    signature.update(dat.getUnsafeBytes(), dat.getBegin(), dat.getRealSize());
+                    results[i] = signature.verify(sig.getUnsafeBytes(), sig.getBegin(), sig.getRealSize());
+                }
+                catch (SignatureException e) { // malformed signature
+                    results[i] = false;
+                    signature.initVerify(key); // reset
+                }
+            }
+        }
+    }
+
+    /**
+     * An initialized (Signature or Cipher) engine along with the key
+     * (and mode) it got initialized with.
+     */
+    private static final class Engine {
+        final Object engine; final Key key; final int mode;
+
+        Engine(Object engine, Key key, int mode) {
+            this.engine = engine; this.key = key; this.mode = mode;
+        }
+    }
+
+    // initialized engines by algorithm, per thread as JCE engines are not thread-safe
+    private transient volatile ThreadLocal<Map<String, Engine>> engines;
+
+    private Map<String, Engine> engines() {
+        ThreadLocal<Map<String, Engine>> engines = this.engines;
+        if ( engines == null ) {
+            synchronized (this) {
+                if ( ( engines = this.engines ) == null ) {
+                    this.engines = engines = new ThreadLocal<Map<String, Engine>>() {
+                        @Override
+                        protected Map<String, Engine> initialValue() {
+                            return new HashMap<String, Engine>(4);
+                        }
+                    };
+                }
+            }
+        }
+        return engines.get();
+    }
+
+    /**
+     * @return an initialized (for signing with a private key, verifying otherwise)
+     * signature engine, re-used (per thread) as long as the key does not change
+     */
+    final Signature getSignature(final String algorithm, final Key key)
+        throws NoSuchAlgorithmException, InvalidKeyException {
+        final int mode = signatureMode(key);
+        final String slot = algorithm + '/' + mode;
+        final Map<String, Engine> engines = engines();
+        final Engine cached = engines.get(slot);
+        if ( cached != null && cached.key == key ) return (Signature) cached.engine;
+
+        final Signature signature = newSignature(algorithm, key);
+        engines.put(slot, new Engine(signature, key, mode));
+        return signature;
+    }
+
+    /**
+     * @return a new signature engine initialized with the key
+     * @see #getSignature(String, Key)
+     */
+    Signature newSignature(final String algorithm, final Key key)
+        throws NoSuchAlgorithmException, InvalidKeyException {
+        return initSignature(SecurityHelper.getSignature(algorithm), key);
+    }
+
+    static Signature initSignature(final Signature signature, final Key key)
+        throws InvalidKeyException {
+        if ( signatureMode(key) == SIGN ) signature.initSign((PrivateKey) key);
+        else signature.initVerify((PublicKey) key);
+        return signature;
+    }
+
+    static final int SIGN = 1, VERIFY = 0;
+
+    static int signatureMode(final Key key) {
+        return key instanceof PrivateKey ? SIGN : VERIFY;
+    }
+
+    /**
+     * @return an initialized cipher engine (for the given mode and key),
+     * re-used (per thread) as long as the key does not change
+     */
+    final javax.crypto.Cipher getCipher(final String transformation, final int mode, final Key key)
+        throws GeneralSecurityException {
+        final String slot = transformation + '/' + mode;
+        final Map<String, Engine> engines = engines();
+        final Engine cached = engines.get(slot);
+        if ( cached != null && cached.key == key && cached.mode == mode ) {
+            return (javax.crypto.Cipher) cached.engine;
+        }
+        final javax.crypto.Cipher cipher = SecurityHelper.getCipher(transformation);
+        cipher.init(mode, key);
+        engines.put(slot, new Engine(cipher, key, mode));
+        return cipher;
+    }
+
+    /**
+     * Drops a cached engine (in an unknown state after a failure).
+     */
+    final void releaseEngine(final String transformation, final int mode) {
+        engines().remove(transformation + '/' + mode);
+    }
+
     // shared Helpers for PKeyRSA / PKEyDSA :
 
     protected PrivateKey tryPKCS8EncodedKey(final Ruby runtime, final KeyFactory keyFactory, final byte[] encodedKey) {
@@ -354,6 +691,40 @@ public abstract class PKey extends RubyObject {
         return StringHelper.readPossibleDERInput(context, arg);
     }
 
+    /**
+     * Parses the <code>count: 4, threads: 1</code> (pregenerate) options.
+     * @return { count, threads }
+     */
+    static int[] poolOptions(final ThreadContext context, final IRubyObject opts) {
+        final Ruby runtime = context.runtime;
+        int count = 4, threads = 1;
+        if ( opts != null && ! opts.isNil() ) {
+            if ( ! ( opts instanceof RubyHash ) ) throw runtime.newTypeError(opts, runtime.getHash());
+            IRubyObject opt = ((RubyHash) opts).fastARef(runtime.newSymbol("count"));
+            if ( opt != null && ! opt.isNil() ) count = RubyNumeric.fix2int(opt);
+            opt = ((RubyHash) opts).fastARef(runtime.newSymbol("threads"));
+            if ( opt != null && ! opt.isNil() ) threads = RubyNumeric.fix2int(opt);
+        }
+        if ( count < 0 ) throw runtime.newArgumentError("invalid pool size: " + count);
+        if ( threads < 1 ) throw runtime.newArgumentError("invalid thread count: " + threads);
+        return new int[] { count, threads };
+    }
+
+    static RubyHash poolStats(final Ruby runtime, final KeyPool<?> pool) {
+        final RubyHash stats = RubyHash.newHash(runtime);
+        stats.fastASet(runtime.newSymbol("depth"), runtime.newFixnum(pool.getDepth()));
+        stats.fastASet(runtime.newSymbol("capacity"), runtime.newFixnum(pool.getCapacity()));
+        stats.fastASet(runtime.newSymbol("threads"), runtime.newFixnum(pool.getThreads()));
+        stats.fastASet(runtime.newSymbol("hits"), runtime.newFixnum(pool.getHits()));
+        stats.fastASet(runtime.newSymbol("misses"), runtime.newFixnum(pool.getMisses()));
+        stats.fastASet(runtime.newSymbol("generated"), runtime.newFixnum(pool.getGenerated()));
+        stats.fastASet(runtime.newSymbol("failures"), runtime.newFixnum(pool.getFailures()));
+        final Exception failure = pool.getFailure();
+        stats.fastASet(runtime.newSymbol("error"), failure == null ? runtime.getNil() : runtime.newString(failure.toString()));
+        stats.fastASet(runtime.newSymbol("wait_time"), runtime.newFloat(pool.getWaitTime() / 1e9));
+        return stats;
+    }
+
     static void supportedSignatureAlgorithm(final Ruby runtime, final RubyClass errorClass,
         final PKey key, final Digest digest) {
         // Have to obey some artificial constraints of the OpenSSL implementation. Stupid.
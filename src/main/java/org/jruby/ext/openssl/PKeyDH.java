@@ -35,7 +35,10 @@ import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
@@ -47,11 +50,14 @@ import org.jruby.Ruby;
 import org.jruby.RubyBoolean;
 import org.jruby.RubyClass;
 import org.jruby.RubyHash;
+import org.jruby.RubyInteger;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyString;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
+import org.jruby.ext.openssl.impl.DHGroups;
+import org.jruby.ext.openssl.impl.KeyPool;
 import org.jruby.ext.openssl.x509store.PEMInputOutput;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.ObjectAllocator;
@@ -155,9 +161,12 @@ public class PKeyDH extends PKey {
                 int gval = argc == 2 ? RubyNumeric.fix2int(args[1]) : 2;
                 BigInteger p;
                 try {
-                    p = generateP(bits, gval);
+                    final KeyPool<BigInteger> pool = pools(runtime).get(Arrays.asList(bits, gval));
+                    p = pool != null ? pool.take() : generateP(bits, gval);
                 } catch(IllegalArgumentException e) {
                     throw runtime.newArgumentError(e.getMessage());
+                } catch(Exception e) { // from KeyPool#take or an interrupted generation
+                    throw newDHError(runtime, e.getMessage());
                 }
                 BigInteger g = BigInteger.valueOf(gval);
                 BigInteger x = generateX(p);
@@ -172,6 +181,11 @@ public class PKeyDH extends PKey {
     }
 
     public static BigInteger generateP(int bits, int g) {
+        // parallel search only pays off for sizes where generation takes a while
+        return generateP(bits, g, bits < 1024 ? 1 : Runtime.getRuntime().availableProcessors());
+    }
+
+    public static BigInteger generateP(int bits, int g, int threads) {
 
         // FIXME? I'm following algorithms used in OpenSSL, could use JCE provider instead.
         // (Note that I tried that, but got mystifying values of g returned by the param generator.
@@ -184,15 +198,102 @@ public class PKeyDH extends PKey {
 
         // generate safe prime meeting appropriate add/rem (mod) criteria
 
+        final BigInteger add, rem;
         switch (g) {
         // parameters used in generating 'p'; see [ossl]/crypto/dh/dh_gen.c #dh_builtin_genparams
         case 2 : // add = 24, rem = 11
-            return BN.generatePrime(bits, true, BigInteger.valueOf(24), BigInteger.valueOf(11));
+            add = BigInteger.valueOf(24); rem = BigInteger.valueOf(11); break;
         case 5 : // add = 10, rem = 3
-            return BN.generatePrime(bits, true, BigInteger.valueOf(10), BigInteger.valueOf(3));
+            add = BigInteger.valueOf(10); rem = BigInteger.valueOf(3); break;
         default: // add = 2, rem = 1
-            return BN.generatePrime(bits, true, TWO, BigInteger.ONE);
+            add = TWO; rem = BigInteger.ONE;
         }
+
+        return BN.generatePrime(bits, true, add, rem, threads);
+    }
+
+    /**
+     * DH.group(name_or_bits)
+     *
+     * A well-known group (RFC 3526 "modp2048" or RFC 7919 "ffdhe2048" etc.)
+     * given its name or modulus size (FFDHE groups are preferred), returned
+     * without the expensive parameter generation.
+     * @return a new DH (parameters only, use generate_key! for a key-pair)
+     * or nil if there's no such group
+     */
+    @JRubyMethod(meta = true)
+    public static IRubyObject group(final ThreadContext context, final IRubyObject self, final IRubyObject name) {
+        final DHParameterSpec spec;
+        if ( name instanceof RubyInteger ) {
+            spec = DHGroups.getGroup(RubyNumeric.fix2int(name));
+        } else {
+            spec = DHGroups.getGroup(name.asJavaString());
+        }
+        if ( spec == null ) return context.runtime.getNil();
+        return newInstance(context.runtime, (RubyClass) self, spec);
+    }
+
+    static PKeyDH newInstance(final Ruby runtime, final RubyClass DH, final DHParameterSpec spec) {
+        final PKeyDH dh = new PKeyDH(runtime, DH);
+        dh.dh_p = spec.getP(); dh.dh_g = spec.getG();
+        return dh;
+    }
+
+    // safe prime (p) pools by [ bits, g ]
+    private static Map<List<Integer>, KeyPool<BigInteger>> pools(final Ruby runtime) {
+        return PKey.keyPools(runtime, PKey.DH_POOLS);
+    }
+
+    /**
+     * DH.pregenerate(bits, count: 4, threads: 1, generator: 2)
+     *
+     * Starts generating (safe prime) parameters on background threads, keeping
+     * up to count around. DH.new(bits, generator) takes pre-generated ones when
+     * available. A count of 0 stops the pool.
+     * @return the pool stats (see #pool_stats)
+     */
+    @JRubyMethod(meta = true, required = 1, optional = 1)
+    public static IRubyObject pregenerate(final ThreadContext context, final IRubyObject self, final IRubyObject[] args) {
+        final Ruby runtime = context.runtime;
+        final int bits = RubyNumeric.fix2int(args[0]);
+        final IRubyObject opts = args.length > 1 ? args[1] : null;
+        final int[] count_threads = poolOptions(context, opts);
+        int gval = 2;
+        if ( opts instanceof RubyHash ) {
+            IRubyObject opt = ((RubyHash) opts).fastARef(runtime.newSymbol("generator"));
+            if ( opt != null && ! opt.isNil() ) gval = RubyNumeric.fix2int(opt);
+        }
+        if ( bits < 2 ) throw runtime.newArgumentError("invalid bit length");
+        if ( gval < 2 ) throw runtime.newArgumentError("invalid generator");
+
+        final int g = gval;
+        KeyPool<BigInteger> pool = null;
+        if ( count_threads[0] > 0 ) {
+            pool = new KeyPool<BigInteger>("DH.pregenerate(" + bits + ")", new KeyPool.Generator<BigInteger>() {
+                public BigInteger generate() { return generateP(bits, g, 1); }
+            }, count_threads[0], count_threads[1]);
+        }
+        final List<Integer> key = Arrays.asList(bits, g);
+        final KeyPool<BigInteger> prev = pool == null ? pools(runtime).remove(key) : pools(runtime).put(key, pool);
+        if ( prev != null ) prev.shutdown();
+        return pool == null ? runtime.getNil() : poolStats(runtime, pool);
+    }
+
+    /**
+     * DH.pool_stats
+     *
+     * @return { [ bits, generator ] => { :depth, :capacity, :threads, :hits, :misses, ... } }
+     */
+    @JRubyMethod(meta = true)
+    public static IRubyObject pool_stats(final ThreadContext context, final IRubyObject self) {
+        final Ruby runtime = context.runtime;
+        final RubyHash stats = RubyHash.newHash(runtime);
+        for ( Map.Entry<List<Integer>, KeyPool<BigInteger>> entry : pools(runtime).entrySet() ) {
+            final List<Integer> key = entry.getKey();
+            stats.fastASet(runtime.newArray(runtime.newFixnum(key.get(0)), runtime.newFixnum(key.get(1))),
+                           poolStats(runtime, entry.getValue()));
+        }
+        return stats;
     }
 
     public static BigInteger generateX(BigInteger p, int limit) {
@@ -353,6 +454,8 @@ public class PKeyDH extends PKey {
         return newBN(dh_p);
     }
 
+    final BigInteger getP() { return dh_p; }
+
     @JRubyMethod(name = "p=")
     public synchronized IRubyObject set_p(IRubyObject arg) {
         this.dh_p = BN.getBigInteger(arg);
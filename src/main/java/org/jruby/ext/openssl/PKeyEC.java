@@ -0,0 +1,882 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x9.ECNamedCurveTable;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyBoolean;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.RubyObject;
+import org.jruby.RubyString;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.exceptions.RaiseException;
+import org.jruby.ext.openssl.impl.CipherSpec;
+import org.jruby.ext.openssl.x509store.PEMInputOutput;
+import org.jruby.runtime.Arity;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.Visibility;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
+
+import static org.jruby.ext.openssl.OpenSSL.*;
+import static org.jruby.ext.openssl.PKey._PKey;
+import static org.jruby.ext.openssl.impl.PKey.getCurveName;
+import static org.jruby.ext.openssl.impl.PKey.getCurveOID;
+import static org.jruby.ext.openssl.impl.PKey.getCurveSpec;
+import static org.jruby.ext.openssl.impl.PKey.isOnCurve;
+import static org.jruby.ext.openssl.impl.PKey.readECPrivateKey;
+import static org.jruby.ext.openssl.impl.PKey.readECPublicKey;
+import static org.jruby.ext.openssl.impl.PKey.toDerECKey;
+import static org.jruby.ext.openssl.impl.PKey.toJavaPoint;
+import static org.jruby.ext.openssl.impl.PKey.toPoint;
+
+/**
+ * OpenSSL::PKey::EC (keys on named curves only).
+ */
+public class PKeyEC extends PKey {
+    private static final long serialVersionUID = -3289473154290637436L;
+
+    private static final ObjectAllocator ALLOCATOR = new ObjectAllocator() {
+        public PKeyEC allocate(Ruby runtime, RubyClass klass) { return new PKeyEC(runtime, klass); }
+    };
+
+    public static void createPKeyEC(final Ruby runtime, final RubyModule PKey, final RubyClass PKeyPKey) {
+        RubyClass EC = PKey.defineClassUnder("EC", PKeyPKey, ALLOCATOR);
+        RubyClass PKeyError = PKey.getClass("PKeyError");
+        PKey.defineClassUnder("ECError", PKeyError, PKeyError.getAllocator());
+
+        EC.defineAnnotatedMethods(PKeyEC.class);
+        EC.setConstant("NAMED_CURVE", runtime.newFixnum(NAMED_CURVE));
+
+        final RubyClass OpenSSLError = _OpenSSLError(runtime);
+        RubyClass group = EC.defineClassUnder("Group", runtime.getObject(), Group.ALLOCATOR);
+        group.defineClassUnder("Error", OpenSSLError, OpenSSLError.getAllocator());
+        group.defineAnnotatedMethods(Group.class);
+        RubyClass point = EC.defineClassUnder("Point", runtime.getObject(), Point.ALLOCATOR);
+        point.defineClassUnder("Error", OpenSSLError, OpenSSLError.getAllocator());
+        point.defineAnnotatedMethods(Point.class);
+    }
+
+    static RubyClass _EC(final Ruby runtime) {
+        return _PKey(runtime).getClass("EC");
+    }
+
+    // OPENSSL_EC_NAMED_CURVE
+    private static final int NAMED_CURVE = 1;
+
+    public PKeyEC(Ruby runtime, RubyClass type) {
+        super(runtime, type);
+    }
+
+    PKeyEC(Ruby runtime, ECPublicKey pubKey) {
+        this(runtime, _EC(runtime), null, pubKey);
+    }
+
+    PKeyEC(Ruby runtime, RubyClass type, ECPrivateKey privKey, ECPublicKey pubKey) {
+        super(runtime, type);
+        setKeys(runtime, privKey, pubKey);
+    }
+
+    private volatile String curveName;
+    private volatile ECPublicKey publicKey;
+    private volatile transient ECPrivateKey privateKey;
+
+    @Override
+    public PublicKey getPublicKey() { return publicKey; }
+
+    @Override
+    public PrivateKey getPrivateKey() { return privateKey; }
+
+    @Override
+    public String getAlgorithm() { return "ECDSA"; }
+
+    private void setKeys(final Ruby runtime, ECPrivateKey privKey, ECPublicKey pubKey) {
+        final java.security.spec.ECParameterSpec params =
+            pubKey != null ? pubKey.getParams() : privKey.getParams();
+        final String name = getCurveName(params);
+        if ( name == null ) throw newECError(runtime, "unsupported (explicit) curve parameters");
+        if ( pubKey == null ) { // e.g. read from an (encrypted) PKCS#8 key
+            final X9ECParameters x9 = curveParameters(name);
+            pubKey = generatePublic(runtime, name, x9.getG().multiply(privKey.getS()));
+        }
+        this.curveName = name;
+        this.privateKey = privKey; this.publicKey = pubKey;
+    }
+
+    static X9ECParameters curveParameters(final String curveName) {
+        return ECNamedCurveTable.getByName(curveName);
+    }
+
+    private static String[] curveNames;
+
+    /**
+     * @return (OpenSSL) short names of supported curves, aliases are not included
+     */
+    static String[] curveNames() {
+        String[] names = curveNames;
+        if ( names == null ) {
+            final Map<ASN1ObjectIdentifier, String> curves = new LinkedHashMap<ASN1ObjectIdentifier, String>();
+            final Enumeration<?> all = ECNamedCurveTable.getNames();
+            while ( all.hasMoreElements() ) {
+                final ASN1ObjectIdentifier oid = getCurveOID((String) all.nextElement());
+                if ( oid != null && ! curves.containsKey(oid) ) curves.put(oid, getCurveName(oid));
+            }
+            curveNames = names = curves.values().toArray(new String[curves.size()]);
+        }
+        return names;
+    }
+
+    @JRubyMethod(meta = true)
+    public static RubyArray builtin_curves(final ThreadContext context, final IRubyObject self) {
+        final Ruby runtime = context.runtime;
+        final String[] names = curveNames();
+        final RubyArray curves = runtime.newArray(names.length);
+        for ( final String name : names ) {
+            final ECCurve curve = curveParameters(name).getCurve();
+            final String field = curve instanceof ECCurve.F2m ? "binary" : "prime";
+            final String comment = "curve over a " + curve.getFieldSize() + " bit " + field + " field";
+            curves.append( runtime.newArray(
+                RubyString.newString(runtime, name), RubyString.newString(runtime, comment)
+            ) );
+        }
+        return curves;
+    }
+
+    @JRubyMethod(meta = true)
+    public static IRubyObject generate(final ThreadContext context, final IRubyObject self, final IRubyObject curve) {
+        PKeyEC ec = new PKeyEC(context.runtime, (RubyClass) self);
+        ec.set_group(context, curve);
+        return ec.generate_key(context);
+    }
+
+    private static volatile SecureRandom random;
+
+    private static KeyPair generateKeyPair(final String curveName) throws GeneralSecurityException {
+        KeyPairGenerator gen = SecurityHelper.getKeyPairGenerator("EC");
+        SecureRandom rand = random; // (thread-safe) shared across generators
+        if ( rand == null ) random = rand = new SecureRandom();
+        gen.initialize(getCurveSpec(curveName, curveParameters(curveName)), rand);
+        return gen.generateKeyPair();
+    }
+
+    static PKeyEC newInstance(final Ruby runtime, final PublicKey publicKey) {
+        return new PKeyEC(runtime, (ECPublicKey) publicKey);
+    }
+
+    @JRubyMethod(rest = true, visibility = Visibility.PRIVATE)
+    public IRubyObject initialize(final ThreadContext context, final IRubyObject[] args) {
+        final Ruby runtime = context.runtime;
+
+        if ( Arity.checkArgumentCount(runtime, args, 0, 2) == 0 ) {
+            this.privateKey = null; this.publicKey = null; return this;
+        }
+
+        IRubyObject arg = args[0]; IRubyObject pass = null;
+        if ( args.length > 1 ) pass = args[1];
+
+        if ( arg instanceof Group ) {
+            this.curveName = ((Group) arg).curveName; return this;
+        }
+        if ( arg instanceof RubyString ) { // curve name e.g. "prime256v1"
+            final String name = getCurveName(arg.toString());
+            if ( name != null ) { this.curveName = name; return this; }
+        }
+
+        final char[] passwd = password(pass);
+        final RubyString str = readInitArg(context, arg);
+        final ByteList bytes = str.getByteList();
+
+        Object key = null;
+        try { // PEM_read_bio_ECPrivateKey
+            key = PEMInputOutput.readPrivateKey(bytes.unsafeBytes(), bytes.getBegin(), bytes.getRealSize(), passwd);
+        }
+        catch (IOException e) { debug(runtime, "PKeyEC could not read private key", e); }
+        catch (RuntimeException e) { debugStackTrace(runtime, e); }
+        if ( key == null ) { // PEM_read_bio_EC_PUBKEY
+            try {
+                key = PEMInputOutput.readPubKey(bytes.unsafeBytes(), bytes.getBegin(), bytes.getRealSize());
+            }
+            catch (IOException e) { debug(runtime, "PKeyEC could not read public key", e); }
+            catch (RuntimeException e) { debugStackTrace(runtime, e); }
+        }
+        if ( key == null ) { // d2i_ECPrivateKey_bio
+            try {
+                key = readECPrivateKey(str.getBytes());
+            }
+            catch (GeneralSecurityException e) { debug(runtime, "PKeyEC could not read private key", e); }
+            catch (IOException e) { debug(runtime, "PKeyEC could not read private key", e); }
+            catch (RuntimeException e) { debugStackTrace(runtime, e); }
+        }
+        if ( key == null ) { // d2i_EC_PUBKEY_bio
+            try {
+                key = readECPublicKey(str.getBytes());
+            }
+            catch (GeneralSecurityException e) { debug(runtime, "PKeyEC could not read public key", e); }
+            catch (IOException e) { debug(runtime, "PKeyEC could not read public key", e); }
+            catch (RuntimeException e) { debugStackTrace(runtime, e); }
+        }
+
+        if ( key instanceof KeyPair ) {
+            final PrivateKey privKey = ((KeyPair) key).getPrivate();
+            final PublicKey pubKey = ((KeyPair) key).getPublic();
+            if ( ! ( privKey instanceof ECPrivateKey ) ) {
+                throw newECError(runtime, "Neither PUB key nor PRIV key: (not an EC key)");
+            }
+            setKeys(runtime, (ECPrivateKey) privKey, (ECPublicKey) pubKey);
+        }
+        else if ( key instanceof ECPublicKey ) {
+            setKeys(runtime, null, (ECPublicKey) key);
+        }
+        else {
+            throw newECError(runtime, "Neither PUB key nor PRIV key:");
+        }
+        return this;
+    }
+
+    @JRubyMethod(name = { "generate_key", "generate_key!" })
+    public PKeyEC generate_key(final ThreadContext context) {
+        final String curveName = curveName(context.runtime);
+        try {
+            final KeyPair pair = generateKeyPair(curveName);
+            this.privateKey = (ECPrivateKey) pair.getPrivate();
+            this.publicKey = (ECPublicKey) pair.getPublic();
+        }
+        catch (GeneralSecurityException e) {
+            throw newECError(context.runtime, e.getMessage(), e);
+        }
+        return this;
+    }
+
+    private String curveName(final Ruby runtime) {
+        final String curveName = this.curveName;
+        if ( curveName == null ) throw newECError(runtime, "no curve (group) set");
+        return curveName;
+    }
+
+    @JRubyMethod
+    public IRubyObject group(final ThreadContext context) {
+        final String curveName = this.curveName;
+        if ( curveName == null ) return context.nil;
+        return new Group(context.runtime, curveName);
+    }
+
+    @JRubyMethod(name = "group=")
+    public IRubyObject set_group(final ThreadContext context, final IRubyObject group) {
+        final String curveName;
+        if ( group instanceof Group ) curveName = ((Group) group).curveName;
+        else curveName = Group.curveName(context.runtime, group.convertToString().toString());
+
+        if ( ! curveName.equals(this.curveName) ) { // keys from another curve are no longer valid
+            this.privateKey = null; this.publicKey = null;
+        }
+        this.curveName = curveName;
+        return group;
+    }
+
+    @JRubyMethod(name = { "private_key?", "private?" })
+    public RubyBoolean private_p() {
+        return getRuntime().newBoolean(privateKey != null);
+    }
+
+    @JRubyMethod(name = { "public_key?", "public?" })
+    public RubyBoolean public_p() {
+        return getRuntime().newBoolean(publicKey != null);
+    }
+
+    @JRubyMethod
+    public IRubyObject private_key(final ThreadContext context) {
+        final ECPrivateKey key = this.privateKey;
+        return key == null ? context.nil : BN.newBN(context.runtime, key.getS());
+    }
+
+    @JRubyMethod(name = "private_key=")
+    public IRubyObject set_private_key(final ThreadContext context, final IRubyObject key) {
+        if ( key.isNil() ) { this.privateKey = null; return key; }
+        final String curveName = curveName(context.runtime);
+        final ECPrivateKeySpec spec = new ECPrivateKeySpec(BN.getBigInteger(key),
+            getCurveSpec(curveName, curveParameters(curveName)));
+        try {
+            this.privateKey = (ECPrivateKey) SecurityHelper.getKeyFactory("EC").generatePrivate(spec);
+        }
+        catch (GeneralSecurityException e) {
+            throw newECError(context.runtime, e.getMessage(), e);
+        }
+        return key;
+    }
+
+    @JRubyMethod
+    public IRubyObject public_key(final ThreadContext context) {
+        final ECPublicKey key = this.publicKey;
+        if ( key == null ) return context.nil;
+        final Group group = new Group(context.runtime, curveName);
+        return new Point(context.runtime, group, toPoint(group.getParameters(), key.getW()));
+    }
+
+    @JRubyMethod(name = "public_key=")
+    public IRubyObject set_public_key(final ThreadContext context, final IRubyObject point) {
+        if ( point.isNil() ) { this.publicKey = null; return point; }
+        if ( ! ( point instanceof Point ) ) {
+            throw context.runtime.newTypeError(point, _EC(context.runtime).getClass("Point"));
+        }
+        final String curveName = curveName(context.runtime);
+        this.publicKey = generatePublic(context.runtime, curveName, ((Point) point).point);
+        return point;
+    }
+
+    private static ECPublicKey generatePublic(final Ruby runtime, final String curveName, final ECPoint point) {
+        final ECPublicKeySpec spec = new ECPublicKeySpec(toJavaPoint(point),
+            getCurveSpec(curveName, curveParameters(curveName)));
+        try {
+            return (ECPublicKey) SecurityHelper.getKeyFactory("EC").generatePublic(spec);
+        }
+        catch (GeneralSecurityException e) {
+            throw newECError(runtime, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * c: EC_KEY_check_key
+     */
+    @JRubyMethod(name = { "check_key", "check_key?" })
+    public IRubyObject check_key(final ThreadContext context) {
+        final Ruby runtime = context.runtime;
+        final ECPublicKey pubKey = this.publicKey;
+        if ( pubKey == null ) throw newECError(runtime, "EC_KEY_check_key: public key not set");
+
+        final X9ECParameters x9 = curveParameters(curveName(runtime));
+        final ECPoint Q = toPoint(x9, pubKey.getW());
+        if ( Q.isInfinity() ) throw newECError(runtime, "EC_KEY_check_key: point at infinity");
+        if ( ! isOnCurve(Q) ) throw newECError(runtime, "EC_KEY_check_key: point is not on curve");
+        if ( ! Q.multiply(x9.getN()).isInfinity() ) {
+            throw newECError(runtime, "EC_KEY_check_key: wrong order");
+        }
+        final ECPrivateKey privKey = this.privateKey;
+        if ( privKey != null && ! x9.getG().multiply(privKey.getS()).equals(Q) ) {
+            throw newECError(runtime, "EC_KEY_check_key: invalid private key");
+        }
+        return runtime.getTrue();
+    }
+
+    /**
+     * ECDSA engines come from the JDK's SunEC provider for the NIST prime curves
+     * (the ones every SunEC build handles), BC's pure Java implementation signs
+     * about 2x slower on P-256. Other curves (e.g. brainpool) stay with BC, so
+     * does raw P-521 ECDSA as SunEC buffers no more than 64 bytes of digest.
+     */
+    @Override
+    Signature newSignature(final String algorithm, final Key key)
+        throws NoSuchAlgorithmException, InvalidKeyException {
+        final Provider sunEC = isSunECCurve(curveName, algorithm) ? Security.getProvider("SunEC") : null;
+        if ( sunEC != null ) {
+            try {
+                return initSignature(Signature.getInstance(algorithm, sunEC), key);
+            }
+            catch (NoSuchAlgorithmException e) { /* fall back to BC */ }
+            catch (InvalidKeyException e) { /* curve not supported by SunEC */ }
+        }
+        return super.newSignature(algorithm, key);
+    }
+
+    private static boolean isSunECCurve(final String curveName, final String algorithm) {
+        if ( "prime256v1".equals(curveName) || "secp256r1".equals(curveName) ) return true;
+        if ( "secp384r1".equals(curveName) ) return true;
+        return "secp521r1".equals(curveName) && ! "NONEwithECDSA".equals(algorithm);
+    }
+
+    // leftmost bytes of an over-sized digest, the engine truncates the remaining bits
+    private static int digestLength(final ECKey key, final ByteList digest) {
+        final int orderLength = ( key.getParams().getOrder().bitLength() + 7 ) / 8;
+        return Math.min(digest.getRealSize(), orderLength);
+    }
+
+    /**
+     * Signs a (message) digest, an over-sized one gets truncated (FIPS 186-3).
+     * c: ECDSA_sign
+     */
+    @JRubyMethod
+    public IRubyObject dsa_sign_asn1(final ThreadContext context, final IRubyObject data) {
+        final ECPrivateKey privKey = this.privateKey;
+        if ( privKey == null ) throw newECError(context.runtime, "Private EC key needed!");
+        try {
+            final Signature signature = getSignature("NONEwithECDSA", privKey);
+            try {
+                final ByteList bytes = data.convertToString().getByteList();
+                signature.update(bytes.unsafeBytes(), bytes.getBegin(), digestLength(privKey, bytes));
+                return StringHelper.newString(context.runtime, signature.sign());
+            }
+            catch (GeneralSecurityException e) { releaseEngine("NONEwithECDSA", SIGN); throw e; }
+        }
+        catch (GeneralSecurityException e) {
+            throw newECError(context.runtime, "ECDSA_sign: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * c: ECDSA_verify
+     */
+    @JRubyMethod
+    public IRubyObject dsa_verify_asn1(final ThreadContext context, final IRubyObject data, final IRubyObject sign) {
+        final ECPublicKey pubKey = this.publicKey;
+        if ( pubKey == null ) throw newECError(context.runtime, "EC public key needed!");
+        try {
+            final Signature signature = getSignature("NONEwithECDSA", pubKey);
+            try {
+                final ByteList bytes = data.convertToString().getByteList();
+                signature.update(bytes.unsafeBytes(), bytes.getBegin(), digestLength(pubKey, bytes));
+                final ByteList sig = sign.convertToString().getByteList();
+                final boolean verified = signature.verify(sig.unsafeBytes(), sig.getBegin(), sig.getRealSize());
+                return context.runtime.newBoolean(verified);
+            }
+            catch (SignatureException e) { // malformed signature - engine state is unknown
+                releaseEngine("NONEwithECDSA", VERIFY); throw e;
+            }
+        }
+        catch (GeneralSecurityException e) {
+            throw newECError(context.runtime, "ECDSA_verify: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Computes the (ECDH) shared secret - the x coordinate of the product
+     * of the given peer's public key (point) and our private key.
+     * c: ECDH_compute_key
+     */
+    @JRubyMethod
+    public IRubyObject dh_compute_key(final ThreadContext context, final IRubyObject pubKey) {
+        final Ruby runtime = context.runtime;
+        final ECPrivateKey privKey = this.privateKey;
+        if ( privKey == null ) throw newECError(runtime, "ECDH_compute_key: private key not set");
+        if ( ! ( pubKey instanceof Point ) ) {
+            throw runtime.newTypeError(pubKey, _EC(runtime).getClass("Point"));
+        }
+        final X9ECParameters x9 = curveParameters(curveName(runtime));
+        final ECPoint Q = ((Point) pubKey).point;
+        if ( ! Q.getCurve().equals(x9.getCurve()) ) {
+            throw newECError(runtime, "ECDH_compute_key: incompatible objects");
+        }
+        // an invalid (peer) point would leak bits of the private key
+        if ( Q.isInfinity() ) throw newECError(runtime, "ECDH_compute_key: point at infinity");
+        if ( ! isOnCurve(Q) ) throw newECError(runtime, "ECDH_compute_key: point is not on curve");
+        final ECPoint S = Q.multiply(privKey.getS()).normalize();
+        if ( S.isInfinity() ) throw newECError(runtime, "ECDH_compute_key: point arithmetic failure");
+
+        final int len = ( x9.getCurve().getFieldSize() + 7 ) / 8;
+        final byte[] secret = BigIntegers.asUnsignedByteArray(len, S.getAffineXCoord().toBigInteger());
+        return StringHelper.newString(runtime, secret);
+    }
+
+    @Override
+    @JRubyMethod(name = "to_der")
+    public RubyString to_der() {
+        final byte[] bytes;
+        try {
+            bytes = toDerECKey(publicKey, privateKey, curveName(getRuntime()));
+        }
+        catch (IOException e) {
+            throw newECError(getRuntime(), e.getMessage(), e);
+        }
+        return StringHelper.newString(getRuntime(), bytes);
+    }
+
+    @Override
+    @JRubyMethod(name = { "to_pem", "to_s" }, alias = "export", rest = true)
+    public RubyString to_pem(final IRubyObject[] args) {
+        Arity.checkArgumentCount(getRuntime(), args, 0, 2);
+
+        CipherSpec spec = null; char[] passwd = null;
+        if ( args.length > 0 ) {
+            spec = cipherSpec( args[0] );
+            if ( args.length > 1 ) passwd = password(args[1]);
+        }
+
+        try {
+            final StringWriter writer = new StringWriter();
+            if ( privateKey != null ) {
+                PEMInputOutput.writeECPrivateKey(writer, privateKey, publicKey, spec, passwd);
+            }
+            else if ( publicKey != null ) {
+                PEMInputOutput.writeECPublicKey(writer, publicKey);
+            }
+            else {
+                throw newECError(getRuntime(), "can't export - no key set");
+            }
+            return RubyString.newString(getRuntime(), writer.getBuffer());
+        }
+        catch (IOException e) {
+            throw newECError(getRuntime(), e.getMessage(), e);
+        }
+    }
+
+    @JRubyMethod
+    public RubyString to_text() {
+        final StringBuilder result = new StringBuilder();
+        final String curveName = curveName(getRuntime());
+        final X9ECParameters x9 = curveParameters(curveName);
+        result.append("Private-Key: (").append(x9.getN().bitLength()).append(" bit)").append("\n");
+        if ( privateKey != null ) {
+            result.append("priv:");
+            addSplittedAndFormatted(result, privateKey.getS());
+        }
+        if ( publicKey != null ) {
+            result.append("pub:");
+            final byte[] point = toPoint(x9, publicKey.getW()).getEncoded(false);
+            addSplittedAndFormatted(result, new BigInteger(1, point));
+        }
+        result.append("ASN1 OID: ").append(curveName).append("\n");
+        return RubyString.newString(getRuntime(), result);
+    }
+
+    public static RaiseException newECError(Ruby runtime, String message) {
+        return Utils.newError(runtime, _PKey(runtime).getClass("ECError"), message);
+    }
+
+    static RaiseException newECError(Ruby runtime, String message, Exception cause) {
+        return Utils.newError(runtime, _PKey(runtime).getClass("ECError"), message, cause);
+    }
+
+    /**
+     * OpenSSL::PKey::EC::Group (a named curve)
+     */
+    public static final class Group extends RubyObject {
+        private static final long serialVersionUID = 4906358412573398620L;
+
+        static final ObjectAllocator ALLOCATOR = new ObjectAllocator() {
+            public Group allocate(Ruby runtime, RubyClass klass) { return new Group(runtime, klass); }
+        };
+
+        static RubyClass _Group(final Ruby runtime) {
+            return _EC(runtime).getClass("Group");
+        }
+
+        public Group(Ruby runtime, RubyClass type) {
+            super(runtime, type);
+        }
+
+        Group(Ruby runtime, String curveName) {
+            this(runtime, _Group(runtime));
+            this.curveName = curveName;
+        }
+
+        private String curveName;
+        private transient X9ECParameters parameters;
+
+        X9ECParameters getParameters() {
+            X9ECParameters params = this.parameters;
+            if ( params == null ) this.parameters = params = curveParameters(curveName);
+            return params;
+        }
+
+        static String curveName(final Ruby runtime, final String name) {
+            final String curveName = getCurveName(name);
+            if ( curveName == null ) {
+                throw newGroupError(runtime, "unknown curve name (" + name + ")");
+            }
+            return curveName;
+        }
+
+        @JRubyMethod(rest = true, visibility = Visibility.PRIVATE)
+        public IRubyObject initialize(final ThreadContext context, final IRubyObject[] args) {
+            final Ruby runtime = context.runtime;
+            if ( Arity.checkArgumentCount(runtime, args, 1, 4) > 1 ) {
+                throw runtime.newNotImplementedError("only named curves are supported");
+            }
+            final IRubyObject arg = args[0];
+            if ( arg instanceof Group ) {
+                this.curveName = ((Group) arg).curveName; return this;
+            }
+            final RubyString str = readInitArg(context, arg);
+            String name = getCurveName(str.toString());
+            if ( name == null ) {
+                try { // PEM_read_bio_ECPKParameters / d2i_ECPKParameters_bio
+                    ASN1ObjectIdentifier oid = PEMInputOutput.readECParameters(new StringReader(str.toString()));
+                    if ( oid == null ) {
+                        final Object params = new ASN1InputStream(str.getBytes()).readObject();
+                        if ( params instanceof ASN1ObjectIdentifier ) oid = (ASN1ObjectIdentifier) params;
+                    }
+                    if ( oid != null ) name = getCurveName(oid);
+                }
+                catch (IOException e) { debug(runtime, "EC::Group could not read parameters", e); }
+                catch (RuntimeException e) { debugStackTrace(runtime, e); }
+            }
+            if ( name == null ) throw newGroupError(runtime, "unknown curve name (" + str + ")");
+            this.curveName = name;
+            return this;
+        }
+
+        @JRubyMethod
+        public IRubyObject curve_name(final ThreadContext context) {
+            return curveName == null ? context.nil : RubyString.newString(context.runtime, curveName);
+        }
+
+        @JRubyMethod(name = { "==", "eql?" })
+        public IRubyObject op_equal(final ThreadContext context, final IRubyObject other) {
+            if ( ! ( other instanceof Group ) ) return context.runtime.getFalse();
+            return context.runtime.newBoolean( curveName.equals(((Group) other).curveName) );
+        }
+
+        @Override
+        public int hashCode() {
+            return curveName == null ? 0 : curveName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Group && curveName != null
+                && curveName.equals(((Group) other).curveName);
+        }
+
+        @JRubyMethod
+        public IRubyObject generator(final ThreadContext context) {
+            return new Point(context.runtime, this, getParameters().getG());
+        }
+
+        @JRubyMethod
+        public IRubyObject order(final ThreadContext context) {
+            return BN.newBN(context.runtime, getParameters().getN());
+        }
+
+        @JRubyMethod
+        public IRubyObject cofactor(final ThreadContext context) {
+            return BN.newBN(context.runtime, getParameters().getH());
+        }
+
+        @JRubyMethod
+        public IRubyObject degree(final ThreadContext context) {
+            return context.runtime.newFixnum(getParameters().getCurve().getFieldSize());
+        }
+
+        @JRubyMethod
+        public IRubyObject seed(final ThreadContext context) {
+            final byte[] seed = getParameters().getSeed();
+            return seed == null ? context.nil : StringHelper.newString(context.runtime, seed);
+        }
+
+        @JRubyMethod
+        public IRubyObject asn1_flag(final ThreadContext context) {
+            return context.runtime.newFixnum(NAMED_CURVE);
+        }
+
+        @JRubyMethod
+        public IRubyObject point_conversion_form(final ThreadContext context) {
+            return context.runtime.newSymbol("uncompressed");
+        }
+
+        @JRubyMethod
+        public RubyString to_der(final ThreadContext context) {
+            try {
+                final byte[] der = getCurveOID(curveName).getEncoded(ASN1Encoding.DER);
+                return StringHelper.newString(context.runtime, der);
+            }
+            catch (IOException e) {
+                throw newGroupError(context.runtime, e.getMessage());
+            }
+        }
+
+        @JRubyMethod
+        public RubyString to_pem(final ThreadContext context) {
+            try {
+                final StringWriter writer = new StringWriter();
+                PEMInputOutput.writeECParameters(writer, getCurveOID(curveName));
+                return RubyString.newString(context.runtime, writer.getBuffer());
+            }
+            catch (IOException e) {
+                throw newGroupError(context.runtime, e.getMessage());
+            }
+        }
+
+        @JRubyMethod
+        public RubyString to_text(final ThreadContext context) {
+            final X9ECParameters x9 = getParameters();
+            final StringBuilder result = new StringBuilder();
+            result.append("ECDSA-Parameters: (").append(x9.getN().bitLength()).append(" bit)").append("\n");
+            result.append("ASN1 OID: ").append(curveName).append("\n");
+            return RubyString.newString(context.runtime, result);
+        }
+
+        static RaiseException newGroupError(Ruby runtime, String message) {
+            return Utils.newError(runtime, _Group(runtime).getClass("Error"), message);
+        }
+
+    }
+
+    /**
+     * OpenSSL::PKey::EC::Point
+     */
+    public static final class Point extends RubyObject {
+        private static final long serialVersionUID = -6429174389745212378L;
+
+        static final ObjectAllocator ALLOCATOR = new ObjectAllocator() {
+            public Point allocate(Ruby runtime, RubyClass klass) { return new Point(runtime, klass); }
+        };
+
+        static RubyClass _Point(final Ruby runtime) {
+            return _EC(runtime).getClass("Point");
+        }
+
+        public Point(Ruby runtime, RubyClass type) {
+            super(runtime, type);
+        }
+
+        Point(Ruby runtime, Group group, ECPoint point) {
+            this(runtime, _Point(runtime));
+            this.group = group; this.point = point;
+        }
+
+        private Group group;
+        private transient ECPoint point;
+
+        @JRubyMethod(rest = true, visibility = Visibility.PRIVATE)
+        public IRubyObject initialize(final ThreadContext context, final IRubyObject[] args) {
+            final Ruby runtime = context.runtime;
+            Arity.checkArgumentCount(runtime, args, 1, 2);
+
+            final IRubyObject arg = args[0];
+            if ( arg instanceof Point ) {
+                this.group = ((Point) arg).group; this.point = ((Point) arg).point; return this;
+            }
+            if ( ! ( arg instanceof Group ) ) throw runtime.newTypeError(arg, Group._Group(runtime));
+
+            this.group = (Group) arg;
+            final ECCurve curve = group.getParameters().getCurve();
+            if ( args.length == 1 ) {
+                this.point = curve.getInfinity(); return this;
+            }
+
+            final byte[] encoded;
+            if ( args[1] instanceof BN ) {
+                encoded = ((BN) args[1]).getValue().toByteArray();
+            }
+            else {
+                encoded = args[1].convertToString().getBytes();
+            }
+            final ECPoint point;
+            try {
+                point = curve.decodePoint(stripSign(encoded));
+            }
+            catch (RuntimeException e) {
+                throw newPointError(runtime, "invalid encoding: " + e.getMessage());
+            }
+            if ( ! point.isInfinity() && ! isOnCurve(point) ) {
+                throw newPointError(runtime, "point is not on curve");
+            }
+            this.point = point;
+            return this;
+        }
+
+        private static byte[] stripSign(final byte[] bytes) { // BigInteger#toByteArray might lead with 0x00
+            if ( bytes.length > 1 && bytes[0] == 0 ) {
+                final byte[] stripped = new byte[bytes.length - 1];
+                System.arraycopy(bytes, 1, stripped, 0, stripped.length);
+                return stripped;
+            }
+            return bytes;
+        }
+
+        @JRubyMethod
+        public IRubyObject group(final ThreadContext context) {
+            return group == null ? context.nil : group;
+        }
+
+        @JRubyMethod(name = "infinity?")
+        public IRubyObject infinity_p(final ThreadContext context) {
+            return context.runtime.newBoolean( point.isInfinity() );
+        }
+
+        @JRubyMethod(name = "on_curve?")
+        public IRubyObject on_curve_p(final ThreadContext context) {
+            return context.runtime.newBoolean( point.isInfinity() || isOnCurve(point) );
+        }
+
+        @JRubyMethod(name = { "==", "eql?" })
+        public IRubyObject op_equal(final ThreadContext context, final IRubyObject other) {
+            if ( ! ( other instanceof Point ) ) return context.runtime.getFalse();
+            return context.runtime.newBoolean( point.equals(((Point) other).point) );
+        }
+
+        @Override
+        public int hashCode() {
+            return point == null ? 0 : point.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Point && point != null && point.equals(((Point) other).point);
+        }
+
+        /**
+         * @return the point (uncompressed octet string) encoding as a BN
+         */
+        @JRubyMethod
+        public IRubyObject to_bn(final ThreadContext context) {
+            return BN.newBN(context.runtime, new BigInteger(1, point.getEncoded(false)));
+        }
+
+        static RaiseException newPointError(Ruby runtime, String message) {
+            return Utils.newError(runtime, _Point(runtime).getClass("Error"), message);
+        }
+
+    }
+
+}// PKeyEC
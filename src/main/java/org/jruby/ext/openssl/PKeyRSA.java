@@ -28,7 +28,6 @@
 package org.jruby.ext.openssl;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
@@ -47,6 +46,7 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAKeyGenParameterSpec;
 import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPublicKeySpec;
+import java.util.Map;
 
 import static javax.crypto.Cipher.*;
 
@@ -66,14 +66,14 @@ import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.Visibility;
+import org.jruby.util.ByteList;
 
 import org.jruby.ext.openssl.impl.CipherSpec;
+import org.jruby.ext.openssl.impl.KeyPool;
 import org.jruby.ext.openssl.x509store.PEMInputOutput;
 import static org.jruby.ext.openssl.OpenSSL.*;
 import static org.jruby.ext.openssl.PKey._PKey;
 import static org.jruby.ext.openssl.PKey.cipherSpec;
-import static org.jruby.ext.openssl.impl.PKey.readRSAPrivateKey;
-import static org.jruby.ext.openssl.impl.PKey.readRSAPublicKey;
 import static org.jruby.ext.openssl.impl.PKey.toDerRSAKey;
 
 /**
@@ -168,13 +168,10 @@ public class PKeyRSA extends PKey {
      */
     private static void rsaGenerate(PKeyRSA rsa, int keysize, BigInteger exp) throws RaiseException {
         try {
-            KeyPairGenerator gen = SecurityHelper.getKeyPairGenerator("RSA");
-            if ( "IBMJCEFIPS".equals( gen.getProvider().getName() ) ) {
-                gen.initialize(keysize); // IBMJCEFIPS does not support parameters
-            } else {
-                gen.initialize(new RSAKeyGenParameterSpec(keysize, exp), new SecureRandom());
-            }
-            KeyPair pair = gen.generateKeyPair();
+            final KeyPool<KeyPair> pool = RSAKeyGenParameterSpec.F4.equals(exp) ? pools(rsa.getRuntime()).get(keysize) : null;
+            final KeyPair pair;
+            if ( pool != null ) pair = pool.take();
+            else pair = generateKeyPair(keysize, exp);
             rsa.privateKey = (RSAPrivateCrtKey) pair.getPrivate();
             rsa.publicKey = (RSAPublicKey) pair.getPublic();
         }
@@ -187,6 +184,71 @@ public class PKeyRSA extends PKey {
         catch (RuntimeException e) {
             throw newRSAError(rsa.getRuntime(), e.getMessage());
         }
+        catch (Exception e) { // from KeyPool#take
+            throw newRSAError(rsa.getRuntime(), e.getMessage());
+        }
+    }
+
+    private static volatile SecureRandom random;
+
+    private static KeyPair generateKeyPair(final int keysize, final BigInteger exp)
+        throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+        KeyPairGenerator gen = SecurityHelper.getKeyPairGenerator("RSA");
+        if ( "IBMJCEFIPS".equals( gen.getProvider().getName() ) ) {
+            gen.initialize(keysize); // IBMJCEFIPS does not support parameters
+        } else {
+            SecureRandom rand = random; // (thread-safe) shared across generators
+            if ( rand == null ) random = rand = new SecureRandom();
+            gen.initialize(new RSAKeyGenParameterSpec(keysize, exp), rand);
+        }
+        return gen.generateKeyPair();
+    }
+
+    // RSA key-pair pools (by key size) with the default (65537) public exponent
+    private static Map<Integer, KeyPool<KeyPair>> pools(final Ruby runtime) {
+        return PKey.keyPools(runtime, PKey.RSA_POOLS);
+    }
+
+    /**
+     * RSA.pregenerate(bits, count: 4, threads: 1)
+     *
+     * Starts generating key-pairs (of the given size) on background threads,
+     * keeping up to count keys around. RSA.generate(bits) and RSA.new(bits)
+     * take a pre-generated key when one is available. A count of 0 stops the pool.
+     * @return the pool stats (see #pool_stats)
+     */
+    @JRubyMethod(meta = true, required = 1, optional = 1)
+    public static IRubyObject pregenerate(final ThreadContext context, final IRubyObject self, final IRubyObject[] args) {
+        final Ruby runtime = context.runtime;
+        final int keysize = RubyNumeric.fix2int(args[0]);
+        final int[] opts = poolOptions(context, args.length > 1 ? args[1] : null);
+
+        KeyPool<KeyPair> pool = null;
+        if ( opts[0] > 0 ) {
+            pool = new KeyPool<KeyPair>("RSA.pregenerate(" + keysize + ")", new KeyPool.Generator<KeyPair>() {
+                public KeyPair generate() throws Exception {
+                    return generateKeyPair(keysize, RSAKeyGenParameterSpec.F4);
+                }
+            }, opts[0], opts[1]);
+        }
+        final KeyPool<KeyPair> prev = pool == null ? pools(runtime).remove(keysize) : pools(runtime).put(keysize, pool);
+        if ( prev != null ) prev.shutdown();
+        return pool == null ? runtime.getNil() : poolStats(runtime, pool);
+    }
+
+    /**
+     * RSA.pool_stats
+     *
+     * @return { bits => { :depth, :capacity, :threads, :hits, :misses, :generated, :failures, :error, :wait_time } }
+     */
+    @JRubyMethod(meta = true)
+    public static IRubyObject pool_stats(final ThreadContext context, final IRubyObject self) {
+        final Ruby runtime = context.runtime;
+        final RubyHash stats = RubyHash.newHash(runtime);
+        for ( Map.Entry<Integer, KeyPool<KeyPair>> entry : pools(runtime).entrySet() ) {
+            stats.fastASet(runtime.newFixnum(entry.getKey()), poolStats(runtime, entry.getValue()));
+        }
+        return stats;
     }
 
     static PKeyRSA newInstance(final Ruby runtime, final PublicKey publicKey) {
@@ -218,61 +280,9 @@ public class PKeyRSA extends PKey {
         final char[] passwd = password(pass);
         final RubyString str = readInitArg(context, arg);
 
-        Object key = null;
-        final KeyFactory rsaFactory;
-        try {
-            rsaFactory = SecurityHelper.getKeyFactory("RSA");
-        } catch (NoSuchAlgorithmException e) {
-            throw runtime.newRuntimeError("unsupported key algorithm (RSA)");
-        } catch (RuntimeException e) {
-            throw runtime.newRuntimeError("unsupported key algorithm (RSA) " + e);
-        }
-        // TODO: ugly NoClassDefFoundError catching for no BC env. How can we remove this?
-        boolean noClassDef = false;
-        if ( key == null && ! noClassDef ) { // PEM_read_bio_RSAPrivateKey
-            try {
-                key = PEMInputOutput.readPrivateKey(new StringReader(str.toString()), passwd);
-            }
-            catch (NoClassDefFoundError e) { noClassDef = true; debugStackTrace(runtime, e); }
-            catch (Exception e) { debugStackTrace(runtime, e); }
-        }
-        if ( key == null && ! noClassDef )  { // PEM_read_bio_RSAPublicKey
-            try {
-                key = PEMInputOutput.readRSAPublicKey(new StringReader(str.toString()), passwd);
-            }
-            catch (NoClassDefFoundError e) { noClassDef = true; debugStackTrace(runtime, e); }
-            catch (Exception e) { debugStackTrace(runtime, e); }
-        }
-        if ( key == null && ! noClassDef ) { // PEM_read_bio_RSA_PUBKEY
-            try {
-                key = PEMInputOutput.readRSAPubKey(new StringReader(str.toString()));
-            }
-            catch (NoClassDefFoundError e) { noClassDef = true; debugStackTrace(runtime, e); }
-            catch (Exception e) { debugStackTrace(runtime, e); }
-        }
-        if ( key == null && ! noClassDef ) { // d2i_RSAPrivateKey_bio
-            try { key = readRSAPrivateKey(rsaFactory, str.getBytes()); }
-            catch (NoClassDefFoundError e) { noClassDef = true; debugStackTrace(runtime, e); }
-            catch (InvalidKeySpecException e) { debug(runtime, "PKeyRSA could not read private key", e); }
-            catch (IOException e) { debug(runtime, "PKeyRSA could not read private key", e); }
-            catch (RuntimeException e) {
-                if ( isKeyGenerationFailure(e) ) debug(runtime, "PKeyRSA could not read private key", e);
-                else debugStackTrace(runtime, e);
-            }
-        }
-        if ( key == null && ! noClassDef ) { // d2i_RSAPublicKey_bio
-            try { key = readRSAPublicKey(rsaFactory, str.getBytes()); }
-            catch (NoClassDefFoundError e) { noClassDef = true; debugStackTrace(runtime, e); }
-            catch (InvalidKeySpecException e) { debug(runtime, "PKeyRSA could not read public key", e); }
-            catch (IOException e) { debug(runtime, "PKeyRSA could not read public key", e); }
-            catch (RuntimeException e) {
-                if ( isKeyGenerationFailure(e) ) debug(runtime, "PKeyRSA could not read public key", e);
-                else debugStackTrace(runtime, e);
-            }
-        }
-
-        if ( key == null ) key = tryPKCS8EncodedKey(runtime, rsaFactory, str.getBytes());
-        if ( key == null ) key = tryX509EncodedKey(runtime, rsaFactory, str.getBytes());
+        // PEM_read_bio_RSAPrivateKey, PEM_read_bio_RSAPublicKey, PEM_read_bio_RSA_PUBKEY,
+        // d2i_RSAPrivateKey_bio, d2i_RSAPublicKey_bio (format detected up front)
+        final Object key = readCachedKey(runtime, str.getByteList(), passwd);
 
         if ( key == null ) throw newRSAError(runtime, "Neither PUB key nor PRIV key:");
 
@@ -283,27 +293,28 @@ public class PKeyRSA extends PKey {
                 if ( privateKey == null ) {
                     throw newRSAError(runtime, "Neither PUB key nor PRIV key: (private key is null)");
                 }
-                throw newRSAError(runtime, "Neither PUB key nor PRIV key: (invalid key type " + privateKey.getClass().getName() + ")");
+                throw newRSAError(runtime, "Neither PUB key nor PRIV key: (not an RSA key)");
             }
             this.privateKey = (RSAPrivateCrtKey) privateKey;
-            this.publicKey = (RSAPublicKey) publicKey;
-        }
-        else if ( key instanceof RSAPrivateCrtKey ) {
-            this.privateKey = (RSAPrivateCrtKey) key;
-            try {
-                this.publicKey = (RSAPublicKey) rsaFactory.generatePublic(new RSAPublicKeySpec(privateKey.getModulus(), privateKey.getPublicExponent()));
-            } catch (GeneralSecurityException e) {
-                throw newRSAError(runtime, e.getMessage());
-            } catch (RuntimeException e) {
-                debugStackTrace(runtime, e);
-                throw newRSAError(runtime, e.toString());
+            if ( publicKey == null ) { // encrypted PKCS#8 only holds the private key
+                try {
+                    publicKey = SecurityHelper.getKeyFactory("RSA").generatePublic(
+                        new RSAPublicKeySpec(this.privateKey.getModulus(), this.privateKey.getPublicExponent())
+                    );
+                } catch (GeneralSecurityException e) {
+                    throw newRSAError(runtime, e.getMessage());
+                } catch (RuntimeException e) {
+                    debugStackTrace(runtime, e);
+                    throw newRSAError(runtime, e.toString());
+                }
             }
+            this.publicKey = (RSAPublicKey) publicKey;
         }
         else if ( key instanceof RSAPublicKey ) {
             this.publicKey = (RSAPublicKey) key; this.privateKey = null;
         }
         else {
-            throw newRSAError(runtime, "Neither PUB key nor PRIV key: " + key.getClass().getName());
+            throw newRSAError(runtime, "Neither PUB key nor PRIV key: (not an RSA key)");
         }
         return this;
     }
@@ -483,13 +494,19 @@ public class PKeyRSA extends PKey {
         final IRubyObject content, final int padding,
         final int initMode, final Key initKey) {
 
-        final String cipherPadding = getPadding(padding);
-        final RubyString buffer = content.convertToString();
+        final String transformation = "RSA" + getPadding(padding);
+        final ByteList buffer = content.convertToString().getByteList();
         try {
-            javax.crypto.Cipher engine = SecurityHelper.getCipher("RSA" + cipherPadding);
-            engine.init(initMode, initKey);
-            byte[] output = engine.doFinal(buffer.getBytes());
-            return StringHelper.newString(runtime, output);
+            javax.crypto.Cipher engine = getCipher(transformation, initMode, initKey);
+            try {
+                byte[] output = engine.doFinal(buffer.getUnsafeBytes(), buffer.getBegin(), buffer.getRealSize());
+                return StringHelper.newString(runtime, output);
+            }
+            catch (GeneralSecurityException e) { releaseEngine(transformation, initMode); throw e; }
+            catch (RuntimeException e) { // e.g. BC's DataLengthException
+                releaseEngine(transformation, initMode);
+                throw newRSAError(runtime, e.getMessage());
+            }
         }
         catch (GeneralSecurityException gse) {
             throw newRSAError(runtime, gse.getMessage());
@@ -35,13 +35,17 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
+import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.interfaces.DSAKey;
+import java.security.interfaces.RSAKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
+import javax.crypto.spec.DHParameterSpec;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
@@ -68,7 +72,9 @@ import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.Visibility;
 import org.jruby.util.ByteList;
+import org.jruby.util.SafePropertyAccessor;
 
+import org.jruby.ext.openssl.impl.DHGroups;
 import org.jruby.ext.openssl.x509store.Certificate;
 import org.jruby.ext.openssl.x509store.Name;
 import org.jruby.ext.openssl.x509store.Store;
@@ -252,6 +258,7 @@ public class SSLContext extends RubyObject {
     private int sessionCacheSize; // 20480
 
     private InternalContext internalContext;
+    private boolean tmpDHWarned;
 
     @JRubyMethod(rest = true, visibility = Visibility.PRIVATE)
     public IRubyObject initialize(IRubyObject[] args) {
@@ -268,16 +275,8 @@ public class SSLContext extends RubyObject {
 
         internalContext = new InternalContext();
 
-        // TODO: handle tmp_dh_callback :
-        
-        // #if !defined(OPENSSL_NO_DH)
-        //   if (RTEST(ossl_sslctx_get_tmp_dh_cb(self))){
-        //     SSL_CTX_set_tmp_dh_callback(ctx, ossl_tmp_dh_callback);
-        //   }
-        //   else{
-        //     SSL_CTX_set_tmp_dh_callback(ctx, ossl_default_tmp_dh_callback);
-        //   }
-        // #endif
+        // NOTE: tmp_dh_callback gets called (for server sockets) on accept
+        // @see #setupTmpDH
 
         final X509Store certStore = getCertStore();
         internalContext.store = certStore != null ? certStore.getStore() : new Store();
@@ -625,6 +624,72 @@ public class SSLContext extends RubyObject {
         return engine;
     }
 
+    /**
+     * c: ossl_tmp_dh_callback
+     *
+     * Calls the tmp_dh_callback (if any) for a server side engine with
+     * (ssl, is_export = false, keylength).
+     *
+     * JSSE does not accept DH parameters per engine, it always uses its own
+     * well-known groups (sized by the <code>jdk.tls.ephemeralDHKeySize</code>
+     * system property). Thus the parameters of a DH returned by the callback
+     * are not used, only a nil return has an effect : the DHE (and anonymous
+     * DH) cipher suites get disabled, as with OpenSSL. A warning is printed
+     * (once) when the returned parameters differ from the group JSSE uses.
+     */
+    void setupTmpDH(final ThreadContext context, final IRubyObject ssl, final SSLEngine engine) {
+        final IRubyObject callback = getInstanceVariable("@tmp_dh_callback");
+        if ( callback == null || callback.isNil() ) return;
+
+        final Ruby runtime = context.runtime;
+        final int keyLength = getKeyLength(internalContext.privateKey);
+        final IRubyObject dh = callback.callMethod(context, "call",
+            new IRubyObject[] { ssl, runtime.getFalse(), runtime.newFixnum(keyLength) }
+        );
+        if ( dh.isNil() ) {
+            final String[] enabled = engine.getEnabledCipherSuites();
+            final ArrayList<String> suites = new ArrayList<String>(enabled.length);
+            for ( final String suite : enabled ) {
+                if ( suite.contains("_DHE_") || suite.contains("_DH_anon_") ) continue;
+                suites.add(suite);
+            }
+            engine.setEnabledCipherSuites( suites.toArray( new String[ suites.size() ] ) );
+        }
+        else if ( ! ( dh instanceof PKeyDH ) ) {
+            throw runtime.newTypeError("OpenSSL::PKey::DH expected but got " + dh.getMetaClass().getName());
+        }
+        else if ( ! tmpDHWarned ) {
+            final BigInteger p = ((PKeyDH) dh).getP();
+            final int bits = getEphemeralDHKeySize(keyLength);
+            if ( p == null || ! isGroup(p, DHGroups.getGroup("ffdhe" + bits)) && ! isGroup(p, DHGroups.getGroup("modp" + bits)) ) {
+                tmpDHWarned = true;
+                runtime.getWarnings().warn(ID.MISCELLANEOUS, "tmp_dh_callback DH parameters (" +
+                    ( p == null ? 0 : p.bitLength() ) + " bits) are not used, JSSE uses its own " + bits +
+                    " bit group (see jdk.tls.ephemeralDHKeySize)");
+            }
+        }
+    }
+
+    // the (non-export) DHE group size JSSE picks, keyLength of the server's key
+    private static int getEphemeralDHKeySize(final int keyLength) {
+        final String size = SafePropertyAccessor.getProperty("jdk.tls.ephemeralDHKeySize");
+        if ( size == null ) return 2048;
+        if ( "legacy".equals(size) ) return 1024;
+        if ( "matched".equals(size) ) return keyLength <= 1024 ? 1024 : keyLength;
+        try { return Integer.parseInt(size); }
+        catch (NumberFormatException e) { return 2048; }
+    }
+
+    private static boolean isGroup(final BigInteger p, final DHParameterSpec group) {
+        return group != null && group.getP().equals(p);
+    }
+
+    private static int getKeyLength(final PrivateKey key) {
+        if ( key instanceof RSAKey ) return ((RSAKey) key).getModulus().bitLength();
+        if ( key instanceof DSAKey ) return ((DSAKey) key).getParams().getP().bitLength();
+        return 2048;
+    }
+
     private String[] getCipherSuites(final String[] supported) {
         Collection<CipherStrings.Def> cipherDefs =
                 CipherStrings.matchingCiphers(this.ciphers, supported, true);
@@ -843,7 +908,7 @@ public class SSLContext extends RubyObject {
                 return null;
             }
             for (int i = 0; i < keyType.length; i++) {
-                if (keyType[i].equalsIgnoreCase(internalContext.keyAlgorithm)) {
+                if (matchesKeyType(keyType[i], internalContext.keyAlgorithm)) {
                     return keyType[i];
                 }
             }
@@ -855,12 +920,28 @@ public class SSLContext extends RubyObject {
             if (internalContext == null || internalContext.privateKey == null) {
                 return null;
             }
-            if (keyType.equalsIgnoreCase(internalContext.keyAlgorithm)) {
+            if (matchesKeyType(keyType, internalContext.keyAlgorithm)) {
                 return keyType;
             }
             return null;
         }
 
+        /**
+         * JSSE asks for "EC" (ECDHE_ECDSA) or "EC_EC" / "EC_RSA" (ECDH_ECDSA / ECDH_RSA
+         * - by certificate signature algorithm) keys while an EC PKey's algorithm is "ECDSA".
+         */
+        private boolean matchesKeyType(final String keyType, final String keyAlgorithm) {
+            if ( keyType.equalsIgnoreCase(keyAlgorithm) ) return true;
+            if ( "ECDSA".equals(keyAlgorithm) || "EC".equals(keyAlgorithm) ) {
+                if ( keyType.equals("EC") ) return true;
+                if ( keyType.startsWith("EC_") && internalContext.cert != null ) {
+                    final String sigAlg = internalContext.cert.getSigAlgName().toUpperCase();
+                    return sigAlg.endsWith( keyType.equals("EC_EC") ? "ECDSA" : keyType.substring(3) );
+                }
+            }
+            return false;
+        }
+
         @Override
         public String chooseClientAlias(String[] keyType, java.security.Principal[] issuers, java.net.Socket socket) {
             return null;
@@ -890,7 +971,7 @@ public class SSLContext extends RubyObject {
                     if ( x.getIssuerDN().equals(x.getSubjectDN()) ) break;
 
                     try {
-                        final Name name = new Name(x.getIssuerX500Principal());
+                        final Name name = Name.getInstance(x.getIssuerX500Principal());
                         X509Object[] s_obj = new X509Object[1];
                         if (storeCtx.getBySubject(X509Utils.X509_LU_X509, name, s_obj) <= 0) {
                             break;
@@ -245,6 +245,7 @@ public class SSLSocket extends RubyObject {
             if ( ! initialHandshake ) {
                 SSLEngine engine = ossl_ssl_setup(context);
                 engine.setUseClientMode(false);
+                sslContext.setupTmpDH(context, this, engine);
                 final IRubyObject verify_mode;
                 if( ! sslContext.isNil() &&
                     ! ( verify_mode = sslContext.callMethod(context, "verify_mode") ).isNil() ) {
@@ -23,9 +23,7 @@
  */
 package org.jruby.ext.openssl;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 
 import org.jcodings.specific.UTF8Encoding;
@@ -82,15 +80,17 @@ abstract class StringHelper {
     }
 
     static byte[] readX509PEM(final byte[] bytes, final int offset, final int length) {
-        InputStreamReader in = new InputStreamReader(new ByteArrayInputStream(bytes, offset, length));
         try {
-            byte[] readBytes = PEMInputOutput.readX509PEM(in);
+            byte[] readBytes = PEMInputOutput.readX509PEM(bytes, offset, length);
             if ( readBytes != null ) return readBytes;
         }
         catch (IOException e) {
             // this is not PEM encoded, let's use the default argument
         }
-        return bytes;
+        if ( offset == 0 && length == bytes.length ) return bytes;
+        final byte[] copy = new byte[length];
+        System.arraycopy(bytes, offset, copy, 0, length);
+        return copy;
     }
 
     static RubyString readPossibleDERInput(final ThreadContext context, final IRubyObject arg) {
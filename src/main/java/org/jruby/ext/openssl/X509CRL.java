@@ -202,9 +202,13 @@ public class X509CRL extends RubyObject {
         if ( Arity.checkArgumentCount(runtime, args, 0, 1) == 0 ) return this;
 
         final ByteList strList = args[0].asString().getByteList();
-        final byte[] bytes = strList.unsafeBytes();
-        final int offset = strList.getBegin(); final int length = strList.getRealSize();
+        byte[] bytes = strList.unsafeBytes();
+        int offset = strList.getBegin(); int length = strList.getRealSize();
         try {
+            final byte[] der = PEMInputOutput.readX509PEM(bytes, offset, length);
+            if ( der != null ) { // PEM - decoded without going through Strings
+                bytes = der; offset = 0; length = der.length;
+            }
             if ( avoidJavaSecurity ) {
                 this.crlHolder = parseCRLHolder(bytes, offset, length);
             }
@@ -191,6 +191,7 @@ public class X509Cert extends RubyObject {
 
         byte[] bytes = StringHelper.readX509PEM(encoded, offset, length);
 
+        final X509Certificate cert;
         try {
             final ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
             cert = (X509Certificate) SecurityHelper.getCertificateFactory("X.509").generateCertificate(bis);
@@ -203,6 +204,14 @@ public class X509Cert extends RubyObject {
             throw newCertificateError(runtime, (String) null);
         }
 
+        initialize(context, cert);
+    }
+
+    private void initialize(final ThreadContext context, final X509Certificate cert) {
+        final Ruby runtime = context.runtime;
+
+        this.cert = cert;
+
         set_serial( RubyNumeric.str2inum(runtime, runtime.newString(cert.getSerialNumber().toString()), 10) );
         set_not_before( context, RubyTime.newTime( runtime, cert.getNotBefore().getTime() ) );
         set_not_after( context, RubyTime.newTime( runtime, cert.getNotAfter().getTime() ) );
@@ -236,6 +245,51 @@ public class X509Cert extends RubyObject {
         catch (IOException e) { throw newCertificateError(context.runtime, e); }
     }
 
+    /**
+     * Loads all certificates from a PEM bundle (or concatenated DER).
+     * @return an array of certificates
+     */
+    @JRubyMethod(meta = true)
+    public static IRubyObject load(final ThreadContext context, final IRubyObject self, final IRubyObject arg) {
+        final RubyString str = StringHelper.readPossibleDERInput(context, arg);
+        final ByteList bytes = str.getByteList();
+        return load(context, bytes.unsafeBytes(), bytes.getBegin(), bytes.getRealSize());
+    }
+
+    @JRubyMethod(meta = true)
+    public static IRubyObject load_file(final ThreadContext context, final IRubyObject self, final IRubyObject path) {
+        final Ruby runtime = context.runtime;
+        final IRubyObject file = runtime.getFile().callMethod(context, "open", new IRubyObject[] { path, runtime.newString("rb") });
+        final RubyString str;
+        try {
+            str = file.callMethod(context, "read").convertToString();
+        }
+        finally {
+            file.callMethod(context, "close");
+        }
+        final ByteList bytes = str.getByteList();
+        return load(context, bytes.unsafeBytes(), bytes.getBegin(), bytes.getRealSize());
+    }
+
+    private static RubyArray load(final ThreadContext context, final byte[] bytes, final int offset, final int length) {
+        final Ruby runtime = context.runtime;
+        final List<X509AuxCertificate> certs;
+        try {
+            certs = PEMInputOutput.readX509Certificates(bytes, offset, length);
+        }
+        catch (IOException e) {
+            throw newCertificateError(runtime, e);
+        }
+
+        final RubyArray result = runtime.newArray(certs.size());
+        for ( final X509AuxCertificate cert : certs ) {
+            final X509Cert x509 = new X509Cert(runtime);
+            x509.initialize(context, cert);
+            result.append(x509);
+        }
+        return result;
+    }
+
     private static RubyClass _CertificateError(final Ruby runtime) {
         return _X509(runtime).getClass("CertificateError");
     }
@@ -464,6 +518,9 @@ public class X509Cert extends RubyObject {
     @JRubyMethod
     public IRubyObject public_key(final ThreadContext context) {
         if ( public_key == null ) initializePublicKey();
+        if ( public_key instanceof PKeyEC ) { // EC#public_key returns the (public) EC::Point
+            return PKeyEC.newInstance(context.runtime, public_key.getPublicKey());
+        }
         return public_key.callMethod(context, "public_key");
     }
 
@@ -508,6 +565,9 @@ public class X509Cert extends RubyObject {
             //}
             set_public_key( PKeyDSA.newInstance(runtime, publicKey) );
         }
+        else if ( "EC".equalsIgnoreCase(algorithm) || "ECDSA".equalsIgnoreCase(algorithm) ) {
+            set_public_key( PKeyEC.newInstance(runtime, publicKey) );
+        }
         else {
             String message = "unsupported algorithm";
             if ( algorithm != null ) message += " '" + algorithm + "'";
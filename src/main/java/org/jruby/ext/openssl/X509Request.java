@@ -127,6 +127,9 @@ public class X509Request extends RubyObject {
         else if ( "DSA".equalsIgnoreCase(algorithm) ) {
             this.public_key = newPKeyImplInstance(context, "DSA", enc);
         }
+        else if ( "EC".equalsIgnoreCase(algorithm) || "ECDSA".equalsIgnoreCase(algorithm) ) {
+            this.public_key = newPKeyImplInstance(context, "EC", enc);
+        }
         else {
             throw runtime.newLoadError("not implemented algo for public key: " + algorithm);
         }
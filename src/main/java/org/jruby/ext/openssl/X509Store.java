@@ -28,19 +28,31 @@
 package org.jruby.ext.openssl;
 
 import static org.jruby.ext.openssl.OpenSSL.debugStackTrace;
-import static org.jruby.ext.openssl.OpenSSL.warn;
 import static org.jruby.ext.openssl.X509._X509;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.jruby.Ruby;
+import org.jruby.RubyArray;
 import org.jruby.RubyClass;
 import org.jruby.RubyFixnum;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyObject;
+import org.jruby.RubyTime;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
+import org.jruby.ext.openssl.impl.Workers;
 import org.jruby.ext.openssl.x509store.Store;
 import org.jruby.ext.openssl.x509store.StoreContext;
+import org.jruby.ext.openssl.x509store.TrustBundle;
 import org.jruby.ext.openssl.x509store.X509AuxCertificate;
 import org.jruby.ext.openssl.x509store.X509Error;
 import org.jruby.ext.openssl.x509store.X509Utils;
@@ -156,8 +168,15 @@ public class X509Store extends RubyObject {
 
     @JRubyMethod
     public IRubyObject add_path(final ThreadContext context, final IRubyObject arg) {
-        warn(context, "WARNING: unimplemented method called: Store#add_path");
-        return context.nil;
+        final Ruby runtime = context.runtime;
+        try {
+            store.loadLocations(runtime, null, arg.convertToString().toString());
+        }
+        catch (Exception e) {
+            debugStackTrace(runtime, e);
+            throw newStoreError(runtime, "loading path failed: ", e);
+        }
+        return this;
     }
 
     @JRubyMethod
@@ -174,6 +193,46 @@ public class X509Store extends RubyObject {
         return this;
     }
 
+    @JRubyMethod
+    public IRubyObject add_bundle(final ThreadContext context, final IRubyObject arg) {
+        final Ruby runtime = context.runtime;
+        try {
+            store.loadBundle(runtime, arg.convertToString().toString());
+        }
+        catch (Exception e) {
+            debugStackTrace(runtime, e);
+            throw newStoreError(runtime, "loading bundle failed: ", e);
+        }
+        return this;
+    }
+
+    /**
+     * Store.compile_bundle(output, ca_file_or_dir, ...)
+     * @return number of (certificate and CRL) entries written
+     */
+    @JRubyMethod(meta = true, required = 2, rest = true)
+    public static IRubyObject compile_bundle(final ThreadContext context, final IRubyObject self, final IRubyObject[] args) {
+        final Ruby runtime = context.runtime;
+        final String cwd = runtime.getCurrentDirectory();
+        final List<File> sources = new ArrayList<File>(args.length - 1);
+        for ( int i = 1; i < args.length; i++ ) {
+            sources.add( resolveFile(cwd, args[i].convertToString().toString()) );
+        }
+        try {
+            final File output = resolveFile(cwd, args[0].convertToString().toString());
+            return runtime.newFixnum( TrustBundle.compile(output, sources) );
+        }
+        catch (IOException e) {
+            debugStackTrace(runtime, e);
+            throw newStoreError(runtime, "compiling bundle failed: ", e);
+        }
+    }
+
+    private static File resolveFile(final String cwd, final String path) {
+        final File file = new File(path);
+        return file.isAbsolute() ? file : new File(cwd, path);
+    }
+
     @JRubyMethod
     public IRubyObject set_default_paths(final ThreadContext context) {
         final Ruby runtime = context.runtime;
@@ -232,6 +291,134 @@ public class X509Store extends RubyObject {
         return result;
     }
 
+    /**
+     * Store#verify_many(certs, threads = nil)
+     *
+     * Verifies a batch of certificates (or [ cert, *untrusted_chain ] arrays)
+     * using a snapshot of the store on a pool of worker threads. The snapshot
+     * shares the store's lookups, thus certificates and CRLs loaded lazily
+     * (from add_path directories) are added to the store as with #verify.
+     * The verify callback is not used and no error gets raised.
+     * @return [ [ true/false, error ], ... ] in the same order as given
+     */
+    @JRubyMethod(required = 1, optional = 1)
+    public IRubyObject verify_many(final ThreadContext context, final IRubyObject[] args) {
+        final Ruby runtime = context.runtime;
+
+        final RubyArray items = args[0].convertToArray();
+        final int size = items.size();
+        final X509AuxCertificate[] certs = new X509AuxCertificate[size];
+        final List<List<X509AuxCertificate>> chains = new ArrayList<List<X509AuxCertificate>>(size);
+        for ( int i = 0; i < size; i++ ) {
+            final IRubyObject item = items.entry(i);
+            final List<X509AuxCertificate> chain;
+            if ( item instanceof RubyArray ) {
+                final RubyArray array = (RubyArray) item;
+                certs[i] = toAuxCert(runtime, array.entry(0));
+                chain = new ArrayList<X509AuxCertificate>(array.size());
+                for ( int j = 1; j < array.size(); j++ ) {
+                    chain.add( toAuxCert(runtime, array.entry(j)) );
+                }
+            }
+            else {
+                certs[i] = toAuxCert(runtime, item);
+                chain = new ArrayList<X509AuxCertificate>(2);
+            }
+            chains.add(chain);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        if ( args.length > 1 && ! args[1].isNil() ) threads = RubyNumeric.fix2int(args[1]);
+        if ( threads < 1 ) throw runtime.newArgumentError("invalid thread count: " + threads);
+
+        final IRubyObject time = getInstanceVariable("@time");
+        final Date checkTime = ( time == null || time.isNil() ) ? null : ( (RubyTime) time ).getJavaDate();
+
+        final BatchVerify batch = new BatchVerify(store.snapshot(), certs, chains, checkTime);
+        try {
+            batch.run(Math.min(threads, Math.max(size, 1)));
+        }
+        catch (InterruptedException e) {
+            throw newStoreError(runtime, "verify interrupted");
+        }
+
+        final IRubyObject[] results = new IRubyObject[size];
+        for ( int i = 0; i < size; i++ ) {
+            results[i] = runtime.newArray(
+                runtime.newBoolean( batch.results[i] != 0 ), runtime.newFixnum( batch.errors[i] )
+            );
+        }
+        return runtime.newArrayNoCopy(results);
+    }
+
+    private static X509AuxCertificate toAuxCert(final Ruby runtime, final IRubyObject cert) {
+        if ( cert instanceof X509Cert ) return ((X509Cert) cert).getAuxCert();
+        throw runtime.newTypeError(cert, _X509(runtime).getClass("Certificate"));
+    }
+
+    private static class BatchVerify {
+
+        final Store store;
+        final X509AuxCertificate[] certs;
+        final List<List<X509AuxCertificate>> chains;
+        final Date checkTime;
+
+        final int[] results;
+        final int[] errors;
+
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        BatchVerify(Store store, X509AuxCertificate[] certs, List<List<X509AuxCertificate>> chains, Date checkTime) {
+            this.store = store; this.certs = certs; this.chains = chains; this.checkTime = checkTime;
+            this.results = new int[certs.length]; this.errors = new int[certs.length];
+        }
+
+        void run(final int threads) throws InterruptedException {
+            if ( threads == 1 ) { verifyAll(); return; }
+
+            try {
+                Workers.invokeAll(new Callable<Object>() {
+                    public Object call() { verifyAll(); return null; }
+                }, threads);
+            }
+            catch (ExecutionException e) { // verify catches everything but Errors
+                final Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+                if ( cause instanceof Error ) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        private void verifyAll() {
+            int i;
+            while ( ( i = next.getAndIncrement() ) < certs.length ) {
+                if ( Thread.currentThread().isInterrupted() ) return;
+                verify(i);
+            }
+        }
+
+        private void verify(final int i) {
+            final StoreContext context = new StoreContext();
+            try {
+                if ( context.init(store, certs[i], chains.get(i)) != 1 ) {
+                    errors[i] = X509Utils.V_ERR_OUT_OF_MEM; return;
+                }
+                if ( checkTime != null ) context.setTime(0, checkTime);
+                results[i] = context.verifyCertificate();
+                errors[i] = context.getError();
+            }
+            catch (Exception e) {
+                results[i] = 0;
+                if ( context.getError() == X509Utils.V_OK ) {
+                    errors[i] = X509Utils.V_ERR_APPLICATION_VERIFICATION;
+                } else {
+                    errors[i] = context.getError();
+                }
+            }
+        }
+
+    }
+
     private static Store.VerifyCallbackFunction verifyCallback = new Store.VerifyCallbackFunction() {
 
         public int call(final StoreContext context, final Integer outcome) {
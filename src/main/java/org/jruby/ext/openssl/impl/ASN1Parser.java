@@ -0,0 +1,290 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A streaming (pull) parser for DER (and BER) encoded data.
+ *
+ * Every call to {@link #next()} moves to the next header (tag + length), the
+ * contents of primitive values are skipped unless read, constructed values
+ * are entered. Never builds a tree - memory use only depends on nesting.
+ *
+ * Parsing a byte array (slice) is supported directly, offsets are then array
+ * indexes and {@link #reset(int, int)} allows reading a header anywhere.
+ */
+public class ASN1Parser {
+
+    public static final int UNIVERSAL = 0x00;
+    public static final int APPLICATION = 0x40;
+    public static final int CONTEXT_SPECIFIC = 0x80;
+    public static final int PRIVATE = 0xC0;
+
+    private final InputStream in;
+    private final byte[] bytes;
+    private int limit; // (array) end
+    private long position;
+
+    // current "event" :
+    private int depth;
+    private long offset;
+    private int headerLength;
+    private long length;
+    private boolean constructed;
+    private int tagClass;
+    private int tag;
+
+    private boolean contentsPending;
+
+    // end positions of enclosing constructed values (-1 for indefinite length)
+    private long[] ends = new long[8];
+    private int level;
+
+    public ASN1Parser(final InputStream in) {
+        this.in = in; this.bytes = null;
+    }
+
+    /**
+     * Parses the given slice of bytes, offsets are indexes into the array.
+     */
+    public ASN1Parser(final byte[] bytes, final int offset, final int length) {
+        this.in = null; this.bytes = bytes;
+        this.position = offset; this.limit = offset + length;
+    }
+
+    /**
+     * (Re-)starts parsing (top-level values) at the given array offset.
+     * Values (and headers) are not allowed to go past the limit.
+     */
+    public void reset(final int offset, final int limit) {
+        if ( bytes == null ) throw new IllegalStateException("not parsing an array");
+        if ( limit > bytes.length ) throw new IllegalArgumentException("limit out of bounds");
+        this.position = offset; this.limit = limit;
+        this.level = 0; this.contentsPending = false;
+    }
+
+    /**
+     * Moves to the next (header of an) encoded value.
+     * @return false at the end of input (after a complete value)
+     * @throws IOException if the encoding is corrupted (or truncated)
+     */
+    public boolean next() throws IOException {
+        if ( contentsPending ) {
+            skipBytes(length); contentsPending = false;
+        }
+        // leave (definite length) constructed values we've read entirely :
+        while ( level > 0 && ends[level - 1] != -1 && position >= ends[level - 1] ) {
+            if ( position > ends[level - 1] ) {
+                throw new IOException("corrupted stream - value exceeds enclosing length");
+            }
+            level--;
+        }
+
+        final int b = read();
+        if ( b == -1 ) {
+            if ( level > 0 ) throw new EOFException("EOF found inside a constructed value");
+            return false;
+        }
+        offset = position++;
+
+        tagClass = b & 0xC0;
+        constructed = ( b & 0x20 ) != 0;
+        int tagNo = b & 0x1F;
+        if ( tagNo == 0x1F ) { // high tag number
+            tagNo = 0; int c;
+            do {
+                c = readByte("EOF found inside tag value");
+                if ( tagNo > ( Integer.MAX_VALUE >> 7 ) ) throw new IOException("tag number too large");
+                tagNo = ( tagNo << 7 ) | ( c & 0x7F );
+            }
+            while ( ( c & 0x80 ) != 0 );
+        }
+        tag = tagNo;
+
+        final int len = readByte("EOF found when length expected");
+        if ( len == 0x80 ) {
+            if ( ! constructed ) throw new IOException("indefinite-length primitive encoding encountered");
+            length = -1;
+        }
+        else if ( len > 0x7F ) {
+            final int size = len & 0x7F;
+            if ( size > 8 ) throw new IOException("DER length more than 8 bytes: " + size);
+            long value = 0;
+            for ( int i = 0; i < size; i++ ) {
+                value = ( value << 8 ) | readByte("EOF found reading length");
+            }
+            if ( value < 0 ) throw new IOException("corrupted stream - negative length found");
+            length = value;
+        }
+        else {
+            length = len;
+        }
+
+        headerLength = (int) ( position - offset );
+        depth = level;
+
+        if ( b == 0 && len == 0 ) { // end-of-contents
+            if ( level == 0 || ends[level - 1] != -1 ) {
+                throw new IOException("unexpected end-of-contents marker");
+            }
+            level--; return true;
+        }
+
+        if ( length != -1 && level > 0 && ends[level - 1] != -1 && position + length > ends[level - 1] ) {
+            throw new IOException("corrupted stream - out of bounds length found");
+        }
+        if ( bytes != null && length > limit - position ) { // (array) input end is known
+            throw new EOFException("DEF length " + length + " object truncated by " + ( length - ( limit - position ) ));
+        }
+
+        if ( constructed ) {
+            if ( level == ends.length ) {
+                final long[] newEnds = new long[ ends.length * 2 ];
+                System.arraycopy(ends, 0, newEnds, 0, level);
+                ends = newEnds;
+            }
+            ends[ level++ ] = length == -1 ? -1 : position + length;
+        }
+        else {
+            contentsPending = length > 0;
+        }
+        return true;
+    }
+
+    /**
+     * Skips the current value (including all nested values when constructed).
+     */
+    public void skip() throws IOException {
+        if ( ! constructed ) {
+            if ( contentsPending ) {
+                skipBytes(length); contentsPending = false;
+            }
+            return;
+        }
+        final int nesting = depth;
+        if ( length != -1 ) {
+            skipBytes(ends[level - 1] - position); level--;
+            return;
+        }
+        while ( level > nesting ) {
+            if ( ! next() ) throw new EOFException("EOF found inside a constructed value");
+        }
+    }
+
+    /**
+     * Reads the contents of the current (primitive) value.
+     * @return the contents bytes
+     */
+    public byte[] readContents() throws IOException {
+        if ( constructed ) throw new IllegalStateException("constructed value");
+        if ( length > Integer.MAX_VALUE ) throw new IOException("contents too large: " + length);
+        if ( ! contentsPending ) return new byte[0];
+        final byte[] contents = new byte[ (int) length ];
+        if ( bytes != null ) { // length checked by next()
+            System.arraycopy(bytes, (int) position, contents, 0, contents.length);
+            position += contents.length;
+            contentsPending = false;
+            return contents;
+        }
+        int off = 0;
+        while ( off < contents.length ) {
+            final int read = in.read(contents, off, contents.length - off);
+            if ( read == -1 ) throw new EOFException("DEF length " + length + " object truncated by " + ( length - off ));
+            off += read;
+        }
+        position += contents.length;
+        contentsPending = false;
+        return contents;
+    }
+
+    /**
+     * @return nesting level of the current value (0 for top-level values)
+     */
+    public int depth() { return depth; }
+
+    /**
+     * @return offset (from the start of input or the array index) of the current value
+     */
+    public long offset() { return offset; }
+
+    public int headerLength() { return headerLength; }
+
+    /**
+     * @return contents length of the current value or -1 for indefinite length
+     */
+    public long length() { return length; }
+
+    public boolean isConstructed() { return constructed; }
+
+    /**
+     * @return one of {@link #UNIVERSAL}, {@link #APPLICATION},
+     * {@link #CONTEXT_SPECIFIC} or {@link #PRIVATE}
+     */
+    public int tagClass() { return tagClass; }
+
+    public int tag() { return tag; }
+
+    /**
+     * @return bytes consumed so far
+     */
+    public long position() { return position; }
+
+    private int read() throws IOException {
+        if ( bytes == null ) return in.read();
+        return position < limit ? bytes[ (int) position ] & 0xFF : -1;
+    }
+
+    private int readByte(final String eofMessage) throws IOException {
+        final int b = read();
+        if ( b == -1 ) throw new EOFException(eofMessage);
+        position++;
+        return b;
+    }
+
+    private void skipBytes(long count) throws IOException {
+        if ( bytes != null ) {
+            if ( count > limit - position ) {
+                throw new EOFException("DEF length " + count + " object truncated by " + ( count - ( limit - position ) ));
+            }
+            position += count; return;
+        }
+        final long total = count;
+        while ( count > 0 ) {
+            long skipped = in.skip(count);
+            if ( skipped <= 0 ) { // might be at EOF
+                if ( in.read() == -1 ) {
+                    throw new EOFException("DEF length " + total + " object truncated by " + count);
+                }
+                skipped = 1;
+            }
+            count -= skipped; position += skipped;
+        }
+    }
+
+}
@@ -62,6 +62,12 @@ public class BIO {
     public final static int TYPE_BER             =    18 | TYPE_FILTER;
     public final static int TYPE_BIO             =    19 | TYPE_SOURCE_SINK;
 
+    /**
+     * (Preferred) size of blocks moved through a BIO chain - data is read
+     * (and ciphered) in blocks of this size.
+     */
+    public final static int BLOCK_SIZE = 64 * 1024;
+
     private static final class BIOInputStream extends InputStream {
         private BIO bio;
 
@@ -180,14 +186,21 @@ public class BIO {
      *
      */
     public static BIO memBuf(byte[] arr, int offset, int length) {
-        // TODO: create real readonly version of MemBIO.
-        try {
-            BIO bio = new MemBIO();
-            bio.write(arr, offset, length);
-            return bio;
-        } catch(IOException e) {
-            return null;
-        }
+        return new MemBIO(arr, offset, length); // shares arr
+    }
+
+    /** c: BIO_new_fp (for reading)
+     *
+     */
+    public static BIO fromStream(InputStream in) {
+        return new StreamBIO(in, null);
+    }
+
+    /** c: BIO_new_fp (for writing)
+     *
+     */
+    public static BIO toStream(OutputStream out) {
+        return new StreamBIO(null, out);
     }
 
     protected BIO nextBio;
@@ -220,8 +233,10 @@ public class BIO {
         int[] len = new int[]{0};
 
         if((flags & PKCS7.BINARY) > 0 ) {
-            while((len[0] = in.read(linebuf, 0, SMIME.MAX_SMLEN)) > 0) {
-                out.write(linebuf, 0, len[0]);
+            final byte[] buf = new byte[BLOCK_SIZE];
+            int n;
+            while((n = in.read(buf, 0, buf.length)) > 0) {
+                out.write(buf, 0, n);
             }
             return;
         }
@@ -31,6 +31,7 @@ import java.io.IOException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
 
 /**
  *
@@ -39,11 +40,11 @@ import javax.crypto.IllegalBlockSizeException;
 public class CipherBIOFilter extends BIOFilter {
     private Cipher cipher;
 
-    private byte[] bufRead = new byte[4096];
-    private int fillLen = 0;
-    private int fillOffset = 0;
-
-    private byte[] tmpBuf = new byte[1024];
+    // input (read from next) and output (cipher.update) buffers, re-used
+    private byte[] inBuf;
+    private byte[] outBuf = new byte[0];
+    private int outPos = 0;
+    private int outLen = 0;
 
     private boolean finalized = false;
 
@@ -51,105 +52,77 @@ public class CipherBIOFilter extends BIOFilter {
         this.cipher = cipher;
     }
 
+    private byte[] outBuf(final int required) {
+        if ( outBuf.length < required ) outBuf = new byte[required];
+        return outBuf;
+    }
+
     @Override
     public void flush() throws IOException, PKCS7Exception {
         try {
-            byte[] result = cipher.doFinal();
-            if(result == null) {
-                return;
-            }
-            next().write(result, 0, result.length);
+            final byte[] buf = outBuf(cipher.getOutputSize(0));
+            final int len = cipher.doFinal(buf, 0);
+            if ( len > 0 ) next().write(buf, 0, len);
         } catch(IllegalBlockSizeException e) {
             throw new PKCS7Exception(-1, -1, e);
         } catch(BadPaddingException e) {
             throw new PKCS7Exception(-1, -1, e);
+        } catch(ShortBufferException e) {
+            throw new PKCS7Exception(-1, -1, e);
         }
     }
 
     public int read(byte[] into, int offset, int len) throws IOException {
         try {
             int read = 0;
-            if(fillLen > 0) {
-                read = Math.min(fillLen, len);
-                System.arraycopy(bufRead, fillOffset, into, offset, read);
-                fillOffset += read;
-                fillLen -= read;
-                if(fillLen == 0) {
-                    fillOffset = 0;
+            while ( len > 0 ) {
+                if ( outLen > 0 ) { // pending (already deciphered) output
+                    final int n = Math.min(outLen, len);
+                    System.arraycopy(outBuf, outPos, into, offset, n);
+                    outPos += n; outLen -= n;
+                    offset += n; len -= n; read += n;
+                    continue;
                 }
-                if(read == len) {
-                    return read;
-                }
-            }
-            
-            int req = len - read;
-            int off = offset + read;
-            
-            if(finalized) {
-                return 0;
-            }
-
-            while(req > 0) {
-                int readFromNext = next().read(tmpBuf, 0, 1024);
-                if(readFromNext > 0) {
-                    int required = cipher.getOutputSize(readFromNext);
-                    if(required > (bufRead.length - (fillOffset + fillLen))) {
-                        byte[] newBuf = new byte[required + fillOffset + fillLen];
-                        System.arraycopy(bufRead, fillOffset, newBuf, 0, fillLen);
-                        fillOffset = 0;
-                        bufRead = newBuf;
+                if ( finalized ) break;
+
+                if ( inBuf == null ) inBuf = new byte[BLOCK_SIZE];
+                final int readFromNext = next().read(inBuf, 0, inBuf.length);
+                if ( readFromNext > 0 ) {
+                    if ( cipher.getOutputSize(readFromNext) <= len ) { // directly into the caller's buffer
+                        final int n = cipher.update(inBuf, 0, readFromNext, into, offset);
+                        offset += n; len -= n; read += n;
                     }
-                    int outputted = cipher.update(tmpBuf, 0, readFromNext, bufRead, fillOffset + fillLen);
-                    fillLen += outputted;
-
-                    read = Math.min(fillLen, req);
-                    System.arraycopy(bufRead, fillOffset, into, off, read);
-                    fillOffset += read;
-                    fillLen -= read;
-                    if(fillLen == 0) {
-                        fillOffset = 0;
+                    else {
+                        outLen = cipher.update(inBuf, 0, readFromNext, outBuf(cipher.getOutputSize(readFromNext)), 0);
+                        outPos = 0;
                     }
-
-                    req -= read;
-                    off += read;
-                } else {
-                    int required = cipher.getOutputSize(0);
-                    if(required > (bufRead.length - (fillOffset + fillLen))) {
-                        byte[] newBuf = new byte[required + fillOffset + fillLen];
-                        System.arraycopy(bufRead, fillOffset, newBuf, 0, fillLen);
-                        fillOffset = 0;
-                        bufRead = newBuf;
-                    }
-                    int outputted = cipher.doFinal(bufRead, fillOffset + fillLen);
+                }
+                else {
+                    outLen = cipher.doFinal(outBuf(cipher.getOutputSize(0)), 0);
+                    outPos = 0;
                     finalized = true;
-                    fillLen += outputted;
-
-                    read = Math.min(fillLen, req);
-                    System.arraycopy(bufRead, fillOffset, into, off, read);
-                    fillOffset += read;
-                    fillLen -= read;
-                    if(fillLen == 0) {
-                        fillOffset = 0;
-                    }
-
-                    req -= read;
-                    return len-req;
                 }
             }
-
-            return len;
+            return read;
         } catch(Exception e) {
             throw new IllegalArgumentException(e);
         }
     }
 
     public int write(byte[] out, int offset, int len) throws IOException {
-        byte[] result = cipher.update(out, offset, len);
-        if(result == null) {
-            return len;
+        final int written = len;
+        try {
+            while ( len > 0 ) { // ciphered in (at most) BLOCK_SIZE slices
+                final int n = Math.min(len, BLOCK_SIZE);
+                final byte[] buf = outBuf(cipher.getOutputSize(n));
+                final int outputted = cipher.update(out, offset, n, buf, 0);
+                if ( outputted > 0 ) next().write(buf, 0, outputted);
+                offset += n; len -= n;
+            }
+        } catch(ShortBufferException e) {
+            throw new IllegalStateException(e);
         }
-        next().write(result, 0, result.length);
-        return len;
+        return written;
     }
 
     public int getType() {
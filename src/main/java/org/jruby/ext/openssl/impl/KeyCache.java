@@ -0,0 +1,150 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jruby.ext.openssl.SecurityHelper;
+
+/**
+ * A bounded (least recently used) cache of parsed keys - key pairs or public
+ * keys, keyed by a (SHA-256) fingerprint of the encoded input and pass-phrase.
+ *
+ * Parsed (java.security) keys are immutable, a cached instance is shared by
+ * all PKey objects read from the same input.
+ */
+public class KeyCache {
+
+    private final int capacity;
+    private final Keys keys;
+
+    private long hits, misses; // guarded by this
+
+    public KeyCache(final int capacity) {
+        if ( capacity < 1 ) throw new IllegalArgumentException("invalid cache size: " + capacity);
+        this.capacity = capacity;
+        this.keys = new Keys(capacity);
+    }
+
+    /**
+     * @param bytes encoded (PEM or DER) key
+     * @param passwd pass-phrase (might be null)
+     * @return the fingerprint to look up (and store) the parsed key with
+     */
+    public static Object fingerprint(final byte[] bytes, final int off, final int len, final char[] passwd) {
+        final MessageDigest digest;
+        try {
+            digest = SecurityHelper.getMessageDigest("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // length prefixed input, so that input + pass-phrase are unambiguous
+        digest.update((byte) (len >>> 24)); digest.update((byte) (len >>> 16));
+        digest.update((byte) (len >>> 8)); digest.update((byte) len);
+        digest.update(bytes, off, len);
+        if ( passwd != null ) {
+            digest.update((byte) 1);
+            for ( int i = 0; i < passwd.length; i++ ) {
+                digest.update((byte) (passwd[i] >>> 8)); digest.update((byte) passwd[i]);
+            }
+        }
+        return new Fingerprint(digest.digest());
+    }
+
+    /**
+     * @return the cached key (pair) or null
+     */
+    public synchronized Object get(final Object fingerprint) {
+        final Object key = keys.get(fingerprint);
+        if ( key == null ) misses++; else hits++;
+        return key;
+    }
+
+    public synchronized void put(final Object fingerprint, final Object key) {
+        keys.put((Fingerprint) fingerprint, key);
+    }
+
+    public synchronized void clear() {
+        keys.clear();
+    }
+
+    public int getCapacity() { return capacity; }
+
+    public synchronized int getSize() { return keys.size(); }
+
+    public synchronized long getHits() { return hits; }
+
+    public synchronized long getMisses() { return misses; }
+
+    public synchronized long getEvictions() { return keys.evictions; }
+
+    private static final class Keys extends LinkedHashMap<Fingerprint, Object> {
+        private static final long serialVersionUID = 8358258995394207356L;
+
+        private final int capacity;
+        long evictions; // guarded by the cache
+
+        Keys(final int capacity) {
+            super(16, 0.75f, true); // access order
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Fingerprint, Object> eldest) {
+            if ( size() > capacity ) {
+                evictions++; return true;
+            }
+            return false;
+        }
+
+    }
+
+    private static final class Fingerprint {
+
+        private final byte[] digest;
+        private final int hash;
+
+        Fingerprint(final byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof Fingerprint && Arrays.equals(digest, ((Fingerprint) obj).digest);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of (pre-generated) keys, filled by background threads.
+ *
+ * Callers {@link #take()} a key from the pool when one is available and
+ * otherwise generate one on the calling thread, thus the pool never blocks.
+ * A failing generator stops filling, the failure is re-thrown on take.
+ *
+ * @param <T> type of keys (key pairs, parameters) generated
+ */
+public class KeyPool<T> {
+
+    public interface Generator<T> {
+        T generate() throws Exception;
+    }
+
+    private final Generator<T> generator;
+    private final BlockingQueue<T> queue;
+    private final ExecutorService executor;
+    private final int threads;
+
+    private volatile boolean shutdown;
+    private volatile Exception failure;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong(); // nanos
+
+    public KeyPool(final String name, final Generator<T> generator, final int capacity, final int threads) {
+        if ( capacity < 1 ) throw new IllegalArgumentException("invalid pool size: " + capacity);
+        if ( threads < 1 ) throw new IllegalArgumentException("invalid thread count: " + threads);
+        this.generator = generator;
+        this.queue = new ArrayBlockingQueue<T>(capacity);
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(final Runnable task) {
+                final Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        for ( int i = 0; i < threads; i++ ) {
+            executor.execute(new Runnable() {
+                public void run() { fill(); }
+            });
+        }
+    }
+
+    private void fill() {
+        while ( ! shutdown ) {
+            final T key;
+            try {
+                key = generator.generate();
+                generated.incrementAndGet();
+            }
+            catch (Exception e) {
+                // same (failing) parameters on every attempt - stop filling
+                failure = e; failures.incrementAndGet(); return;
+            }
+            try {
+                queue.put(key);
+            }
+            catch (InterruptedException e) { return; } // shutdown
+        }
+    }
+
+    /**
+     * @return a pre-generated key or a freshly generated one (on a miss)
+     * @throws Exception the generator failure, once the pool stopped filling
+     */
+    public T take() throws Exception {
+        final long start = System.nanoTime();
+        try {
+            T key = queue.poll();
+            if ( key != null ) {
+                hits.incrementAndGet(); return key;
+            }
+            final Exception failure = this.failure;
+            if ( failure != null ) throw failure;
+            misses.incrementAndGet();
+            return generator.generate();
+        }
+        finally {
+            waitTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        executor.shutdownNow();
+        queue.clear();
+    }
+
+    public boolean isShutdown() { return shutdown; }
+
+    /**
+     * @return number of keys currently available in the pool
+     */
+    public int getDepth() { return queue.size(); }
+
+    public int getCapacity() { return queue.size() + queue.remainingCapacity(); }
+
+    public int getThreads() { return threads; }
+
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    public long getGenerated() { return generated.get(); }
+
+    public long getFailures() { return failures.get(); }
+
+    /**
+     * @return the exception that stopped (background) generation or null
+     */
+    public Exception getFailure() { return failure; }
+
+    /**
+     * @return total time (in nanoseconds) spent in {@link #take()}
+     */
+    public long getWaitTime() { return waitTime.get(); }
+
+}
@@ -28,70 +28,150 @@
 package org.jruby.ext.openssl.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+
+import org.jruby.util.ByteList;
 
 /**
+ * A memory BIO kept as a list of fixed size chunks - writing never copies
+ * already buffered data, consumed chunks are released while reading.
+ *
+ * A BIO created with {@link BIO#memBuf(byte[], int, int)} shares the given
+ * array (as its first chunk) and is re-winded on {@link #reset()}.
  *
  * @author <a href="mailto:ola.bini@gmail.com">Ola Bini</a>
  */
 public class MemBIO extends BIO {
-    private byte[] buffer = new byte[1024];
-    private int wpointer = 0;
-    private int rpointer = 0;
-    private int slen = 0;
-    
-    private void realloc() {
-        byte[] newBuffer = new byte[buffer.length*2];
-        System.arraycopy(buffer, 0, newBuffer, 0, wpointer);
-        buffer = newBuffer;
-    }
 
-    @Override
-    public int gets(byte[] in, int len) throws IOException {
-        if(rpointer == slen) {
-            return 0;
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final class Chunk {
+        final byte[] bytes;
+        final int begin;
+        int end;
+        final boolean shared;
+
+        Chunk(byte[] bytes, int begin, int end, boolean shared) {
+            this.bytes = bytes; this.begin = begin; this.end = end;
+            this.shared = shared;
         }
+    }
 
-        int i=0;
-        for(;i<len && rpointer<slen; i++, rpointer++) {
-            in[i] = buffer[rpointer];
+    private final ArrayList<Chunk> chunks = new ArrayList<Chunk>(4);
+    private int first; // current chunk (for reading)
+    private int rpos; // read position in the current chunk
+    private int available; // readable (unread) bytes
+    private final boolean rewindable;
 
-            if(in[i] == '\n') {
-                i++; rpointer++;
-                break;
-            }
+    public MemBIO() {
+        this.rewindable = false;
+    }
+
+    /** c: BIO_new_mem_buf (does not copy bytes)
+     *
+     */
+    MemBIO(byte[] bytes, int offset, int length) {
+        this.rewindable = true;
+        if ( length > 0 ) {
+            chunks.add( new Chunk(bytes, offset, offset + length, true) );
+            rpos = offset; available = length;
         }
+    }
 
+    @Override
+    public int gets(byte[] in, int len) throws IOException {
+        int i = 0;
+        while ( i < len && available > 0 ) {
+            final Chunk chunk = current();
+            final byte[] bytes = chunk.bytes;
+            final int end = Math.min(chunk.end, rpos + len - i);
+            int p = rpos;
+            while ( p < end && bytes[p++] != '\n' ) /* scan */;
+            final int n = p - rpos;
+            System.arraycopy(bytes, rpos, in, i, n);
+            consumed(chunk, n); i += n;
+            if ( in[i - 1] == '\n' ) break;
+        }
         return i;
     }
 
     @Override
     public int read(byte[] in, int index, int len) throws IOException {
-        if(rpointer == slen) {
-            return 0;
+        int read = 0;
+        while ( len > 0 && available > 0 ) {
+            final Chunk chunk = current();
+            final int n = Math.min(len, chunk.end - rpos);
+            System.arraycopy(chunk.bytes, rpos, in, index, n);
+            consumed(chunk, n);
+            index += n; len -= n; read += n;
         }
-        int toRead = Math.min(len, slen-rpointer);
-        System.arraycopy(buffer, rpointer, in, index, toRead);
-        rpointer+=toRead;
-        return toRead;
+        return read;
     }
 
     @Override
     public int write(byte[] out, int offset, int len) throws IOException {
-        while(wpointer + len > buffer.length) {
-            realloc();
+        final int written = len;
+        while ( len > 0 ) {
+            Chunk last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if ( last == null || last.shared || last.end == last.bytes.length ) {
+                if ( first == chunks.size() ) rpos = 0; // nothing left to read
+                chunks.add( last = new Chunk(new byte[CHUNK_SIZE], 0, 0, false) );
+            }
+            final int n = Math.min(len, last.bytes.length - last.end);
+            System.arraycopy(out, offset, last.bytes, last.end, n);
+            last.end += n; available += n;
+            offset += n; len -= n;
         }
+        return written;
+    }
 
-        System.arraycopy(out, offset, buffer, wpointer, len);
-        wpointer += len;
-        slen += len;
+    /**
+     * Writes (drains) all readable bytes directly from the chunks into the
+     * given BIO e.g. a digest/cipher filter chain.
+     * @return number of bytes written
+     */
+    public int writeTo(BIO out) throws IOException {
+        int total = 0;
+        while ( available > 0 ) {
+            final Chunk chunk = current();
+            final int n = chunk.end - rpos;
+            out.write(chunk.bytes, rpos, n);
+            consumed(chunk, n); total += n;
+        }
+        return total;
+    }
 
-        return len;
+    @Override
+    public void crlfCopy(BIO out, int flags) throws IOException {
+        if ( (flags & PKCS7.BINARY) > 0 ) {
+            writeTo(out); return;
+        }
+        super.crlfCopy(out, flags);
+    }
+
+    private Chunk current() {
+        Chunk chunk = chunks.get(first);
+        if ( rpos == chunk.end ) { // move to the next chunk
+            if ( ! rewindable ) {
+                chunks.set(first, null); // release consumed chunk
+            }
+            chunk = chunks.get(++first);
+            rpos = chunk.begin;
+            if ( ! rewindable && first >= 16 ) {
+                chunks.subList(0, first).clear(); first = 0;
+            }
+        }
+        return chunk;
+    }
+
+    private void consumed(final Chunk chunk, final int n) {
+        rpos += n; available -= n;
     }
 
     @Override
     public String toString() {
         try {
-            return "<MemBIO w:" + wpointer + " r:" + rpointer + " buf:\"" + new String(buffer,rpointer,slen-rpointer) + "\" next=" + next() + ">";
+            return "<MemBIO len:" + available + " chunks:" + (chunks.size() - first) + " buf:\"" + new String(getMemCopy()) + "\" next=" + next() + ">";
         } catch(Exception e) {}
 
         return null;
@@ -105,13 +185,46 @@ public class MemBIO extends BIO {
         return TYPE_MEM;
     }
 
+    /**
+     * @return a copy of the readable bytes
+     */
     public byte[] getMemCopy() {
-        byte[] nbuf = new byte[slen];
-        System.arraycopy(buffer, 0, nbuf, 0, slen);
+        final byte[] nbuf = new byte[available];
+        int p = 0;
+        for ( int i = first; p < available; i++ ) {
+            final Chunk chunk = chunks.get(i);
+            final int beg = i == first ? rpos : chunk.begin;
+            final int n = chunk.end - beg;
+            System.arraycopy(chunk.bytes, beg, nbuf, p, n);
+            p += n;
+        }
         return nbuf;
     }
 
+    /**
+     * @return the readable bytes, shares the chunk when content is in a single one
+     */
+    public ByteList getMemByteList() {
+        if ( available > 0 ) {
+            final Chunk chunk = chunks.get(first);
+            if ( rpos < chunk.end && chunk.end - rpos == available ) {
+                return new ByteList(chunk.bytes, rpos, available, false);
+            }
+        }
+        return new ByteList(getMemCopy(), false);
+    }
+
+    /** c: BIO_reset - re-winds a read-only (mem buf) BIO, clears otherwise
+     *
+     */
     public void reset() {
-        this.rpointer = 0;
+        if ( rewindable ) {
+            first = 0; available = 0;
+            for ( Chunk chunk : chunks ) available += chunk.end - chunk.begin;
+            if ( ! chunks.isEmpty() ) rpos = chunks.get(0).begin;
+        }
+        else {
+            chunks.clear(); first = rpos = available = 0;
+        }
     }
 }// MemBIO
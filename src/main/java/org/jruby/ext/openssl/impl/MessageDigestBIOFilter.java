@@ -37,6 +37,11 @@ import java.security.MessageDigest;
 public class MessageDigestBIOFilter extends BIOFilter {
     private MessageDigest md;
 
+    // small writes (e.g. lines from crlfCopy) are batched into one update
+    private static final int BATCH_SIZE = 4096;
+    private byte[] batch;
+    private int batched = 0;
+
     public MessageDigestBIOFilter(MessageDigest md) {
         this.md = md;
     }
@@ -44,7 +49,7 @@ public class MessageDigestBIOFilter extends BIOFilter {
     public int gets(byte[] in, int len) throws IOException {
         int read = next().gets(in, len);
         if(read > 0) {
-            md.update(in, 0, read);
+            update(in, 0, read);
         }
         return read;
     }
@@ -52,17 +57,34 @@ public class MessageDigestBIOFilter extends BIOFilter {
     public int read(byte[] into, int offset, int len) throws IOException {
         int read = next().read(into, offset, len);
         if(read > 0) {
-            md.update(into, offset, read);
+            update(into, offset, read);
         }
         return read;
     }
 
     public int write(byte[] out, int offset, int len) throws IOException {
         int written = next().write(out, offset, len);
-        md.update(out, offset, written);
+        update(out, offset, written);
         return written;
     }
 
+    private void update(final byte[] bytes, final int offset, final int len) {
+        if ( len >= BATCH_SIZE / 2 ) {
+            flushBatch(); md.update(bytes, offset, len);
+            return;
+        }
+        if ( batch == null ) batch = new byte[BATCH_SIZE];
+        else if ( batched + len > BATCH_SIZE ) flushBatch();
+        System.arraycopy(bytes, offset, batch, batched, len);
+        batched += len;
+    }
+
+    private void flushBatch() {
+        if ( batched > 0 ) {
+            md.update(batch, 0, batched); batched = 0;
+        }
+    }
+
     public int getType() {
         return TYPE_MD;
     }
@@ -71,6 +93,7 @@ public class MessageDigestBIOFilter extends BIOFilter {
      *
      */
     public MessageDigest getMessageDigest() {
+        flushBatch();
         return md;
     }
 }// MessageDigestBIOFilter
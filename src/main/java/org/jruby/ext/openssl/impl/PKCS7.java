@@ -33,9 +33,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
@@ -93,6 +98,17 @@ public class PKCS7 {
 	 * leaving out the 'type' field. */
     private PKCS7Data data;
 
+    private int keyWrapThreads = 1;
+
+    /**
+     * Number of threads used (by dataInit) to wrap the content-encryption key
+     * for the recipients, 1 (the default) wraps on the calling thread.
+     */
+    public void setKeyWrapThreads(int threads) {
+        if ( threads < 1 ) throw new IllegalArgumentException("invalid thread count: " + threads);
+        this.keyWrapThreads = threads;
+    }
+
     public Object ctrl(int cmd, Object v, Object ignored) throws PKCS7Exception {
         return this.data.ctrl(cmd, v, ignored);
     }
@@ -384,13 +400,13 @@ public class PKCS7 {
         BIO tmpin = indata;
         BIO p7bio = dataInit(tmpin);
         BIO tmpout;
-        if((flags & TEXT) != 0) {
+        if((flags & TEXT) != 0 && out != null) {
             tmpout = BIO.mem();
         } else {
             tmpout = out;
         }
 
-        byte[] buf = new byte[4096];
+        byte[] buf = new byte[BIO.BLOCK_SIZE];
         for(;;) {
             try {
                 int i = p7bio.read(buf, 0, buf.length);
@@ -405,7 +421,7 @@ public class PKCS7 {
             }
         }
 
-        if((flags & TEXT) != 0) {
+        if((flags & TEXT) != 0 && out != null) {
             new SMIME(Mime.DEFAULT).text(tmpout, out);
         }
 
@@ -462,6 +478,11 @@ public class PKCS7 {
             return p7;
         }
 
+        // set before dataInit - detached content is only digested (not kept)
+        if ( (flags & DETACHED) != 0 ) {
+            p7.setDetached(1);
+        }
+
         BIO p7bio = p7.dataInit(null);
 
         try {
@@ -470,10 +491,6 @@ public class PKCS7 {
             throw new PKCS7Exception(F_PKCS7_SIGN, R_PKCS7_DATAFINAL_ERROR, e);
         }
 
-        if ( (flags & DETACHED) != 0 ) {
-            p7.setDetached(1);
-        }
-
         p7.dataFinal(p7bio);
 
         return p7;
@@ -483,7 +500,17 @@ public class PKCS7 {
      *
      */
     public static PKCS7 encrypt(Collection<X509AuxCertificate> certs, byte[] in, CipherSpec cipher, int flags) throws PKCS7Exception {
+        return encrypt(certs, in, cipher, flags, 1);
+    }
+
+    /**
+     * Same as {@link #encrypt(Collection, byte[], CipherSpec, int)} but the
+     * content-encryption key gets wrapped for each recipient on a pool of
+     * (at most) the given number of threads.
+     */
+    public static PKCS7 encrypt(Collection<X509AuxCertificate> certs, byte[] in, CipherSpec cipher, int flags, int threads) throws PKCS7Exception {
         PKCS7 p7 = new PKCS7();
+        p7.setKeyWrapThreads(threads);
 
         p7.setType(ASN1Registry.NID_pkcs7_enveloped);
 
@@ -521,8 +548,8 @@ public class PKCS7 {
                 new SMIME(Mime.DEFAULT).text(bread, data);
             } else {
                 int i;
-                byte[] buf = new byte[4096];
-                while((i = tmpmem.read(buf, 0, 4096)) > 0) {
+                byte[] buf = new byte[BIO.BLOCK_SIZE];
+                while((i = tmpmem.read(buf, 0, buf.length)) > 0) {
                     data.write(buf, 0, i);
                 }
             }
@@ -888,7 +915,6 @@ public class PKCS7 {
         }
 
         if (evpCipher != null) {
-            byte[] tmp;
             btmp = BIO.cipherFilter(evpCipher.getCipher());
             String algoBase = evpCipher.getCipher().getAlgorithm();
             if (algoBase.indexOf('/') != -1) {
@@ -900,13 +926,7 @@ public class PKCS7 {
                 SecretKey key = gen.generateKey();
                 evpCipher.getCipher().init(Cipher.ENCRYPT_MODE, key);
                 if (null != rsk) {
-                    for (RecipInfo ri : rsk) {
-                        PublicKey pkey = ri.getCert().getPublicKey();
-                        Cipher cipher = SecurityHelper.getCipher(CipherSpec.getWrappingAlgorithm(pkey.getAlgorithm()));
-                        cipher.init(Cipher.ENCRYPT_MODE, pkey);
-                        tmp = cipher.doFinal(key.getEncoded());
-                        ri.setEncKey(new DEROctetString(tmp));
-                    }
+                    new KeyWrap(rsk, key.getEncoded()).run(keyWrapThreads);
                 }
             } catch (Exception e) {
                 e.printStackTrace(System.err);
@@ -1293,5 +1313,66 @@ public class PKCS7 {
         }
         return null;
     }
+    /**
+     * Wraps the (encoded) content-encryption key for each recipient, in place.
+     * The (wrapping) Cipher is set-up once per algorithm and thread, results
+     * are stored in recipient order thus the output does not depend on the
+     * number of threads used.
+     */
+    private static class KeyWrap {
+
+        final RecipInfo[] recipients;
+        final byte[] key;
+
+        private final AtomicInteger next = new AtomicInteger(0);
+        private volatile Exception error;
+
+        KeyWrap(Collection<RecipInfo> recipients, byte[] key) {
+            this.recipients = recipients.toArray(new RecipInfo[recipients.size()]);
+            this.key = key;
+        }
+
+        void run(int threads) throws Exception {
+            threads = Math.min(threads, recipients.length);
+            if ( threads <= 1 ) wrapAll();
+            else {
+                try {
+                    Workers.invokeAll(new Callable<Object>() {
+                        public Object call() { wrapAll(); return null; }
+                    }, threads);
+                }
+                catch (ExecutionException e) { // wrapAll does not throw
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            if ( error != null ) throw error;
+        }
+
+        private void wrapAll() {
+            final Map<String, Cipher> ciphers = new HashMap<String, Cipher>(4);
+            int i;
+            while ( error == null && ( i = next.getAndIncrement() ) < recipients.length ) {
+                try {
+                    wrap(recipients[i], ciphers);
+                }
+                catch (Exception e) {
+                    error = e; return;
+                }
+            }
+        }
+
+        private void wrap(final RecipInfo ri, final Map<String, Cipher> ciphers) throws Exception {
+            final PublicKey pkey = ri.getCert().getPublicKey();
+            final String algorithm = CipherSpec.getWrappingAlgorithm(pkey.getAlgorithm());
+            Cipher cipher = ciphers.get(algorithm);
+            if ( cipher == null ) {
+                cipher = SecurityHelper.getCipher(algorithm);
+                ciphers.put(algorithm, cipher);
+            }
+            cipher.init(Cipher.ENCRYPT_MODE, pkey);
+            ri.setEncKey(new DEROctetString(cipher.doFinal(key)));
+        }
+    }
+
 }// PKCS7
 
@@ -39,21 +39,51 @@ import java.security.PublicKey;
 import java.security.interfaces.DSAParams;
 import java.security.interfaces.DSAPrivateKey;
 import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.DSAPrivateKeySpec;
 import java.security.spec.DSAPublicKeySpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Enumeration;
 import javax.crypto.spec.DHParameterSpec;
 
+import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERTaggedObject;
 import org.bouncycastle.asn1.DLSequence;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x9.ECNamedCurveTable;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.jcajce.provider.asymmetric.util.EC5Util;
+import org.bouncycastle.jcajce.provider.asymmetric.util.ECUtil;
+import org.bouncycastle.jce.spec.ECNamedCurveSpec;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECFieldElement;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
 
 import org.jruby.ext.openssl.SecurityHelper;
 
@@ -66,6 +96,8 @@ import org.jruby.ext.openssl.SecurityHelper;
 public class PKey {
 
     public static KeyPair readPrivateKey(byte[] input, String type) throws IOException, GeneralSecurityException {
+        if ( type.equals("EC") ) return readECPrivateKey(input);
+
         KeySpec pubSpec; KeySpec privSpec;
         ASN1Sequence seq = (ASN1Sequence) new ASN1InputStream(input).readObject();
         if ( type.equals("RSA") ) {
@@ -96,47 +128,113 @@ public class PKey {
     // d2i_PrivateKey_bio
     public static KeyPair readPrivateKey(byte[] input) throws IOException,
         NoSuchAlgorithmException, InvalidKeySpecException {
-        KeyPair key = null;
-        try {
-            key = readRSAPrivateKey(input);
-        }
-        catch (NoSuchAlgorithmException e) { throw e; /* should not happen */ }
-        catch (InvalidKeySpecException e) {
-            // ignore
-        }
-        if (key == null) {
-            try {
-                key = readDSAPrivateKey(input);
-            }
-            catch (NoSuchAlgorithmException e) { throw e; /* should not happen */ }
-            catch (InvalidKeySpecException e) {
-                // ignore
-            }
-        }
-        return key;
+        final Object key = readKey(input);
+        return key instanceof KeyPair ? (KeyPair) key : null;
     }
 
     // d2i_PUBKEY_bio
     public static PublicKey readPublicKey(byte[] input) throws IOException,
         NoSuchAlgorithmException, InvalidKeySpecException {
-        PublicKey key = null;
+        final Object key = readKey(input);
+        return key instanceof PublicKey ? (PublicKey) key : null;
+    }
+
+    // DER key formats (see #derKeyFormat) :
+    public static final int DER_UNKNOWN = 0;
+    public static final int DER_RSA_PRIVATE = 1; // RSAPrivateKey (PKCS#1)
+    public static final int DER_RSA_PUBLIC = 2; // RSAPublicKey (PKCS#1)
+    public static final int DER_DSA_PRIVATE = 3; // DSAPrivateKey (OpenSSL)
+    public static final int DER_DSA_PUBLIC = 4; // DSAPublicKey (OpenSSL)
+    public static final int DER_EC_PRIVATE = 5; // ECPrivateKey (SEC 1)
+    public static final int DER_PKCS8 = 6; // PrivateKeyInfo
+    public static final int DER_PUBKEY = 7; // SubjectPublicKeyInfo
+
+    private static final int TAG_INTEGER = 0x02, TAG_BIT_STRING = 0x03, TAG_OCTET_STRING = 0x04;
+    private static final int TAG_SEQUENCE = 0x30;
+
+    /**
+     * Detects the key format from the (top-level) DER structure, only tags
+     * and lengths are looked at - the key itself is not parsed.
+     * @return the format e.g. {@link #DER_RSA_PRIVATE} or {@link #DER_UNKNOWN}
+     */
+    public static int derKeyFormat(final byte[] input) {
+        if ( input.length < 2 || input[0] != TAG_SEQUENCE ) return DER_UNKNOWN;
+
+        final int[] tags = new int[10]; int count = 0; boolean integers = true;
+        final ASN1Parser parser = new ASN1Parser(input, 0, input.length);
         try {
-            key = readRSAPublicKey(input);
-        }
-        catch (NoSuchAlgorithmException e) { throw e; /* should not happen */ }
-        catch (InvalidKeySpecException e) {
-            // ignore
-        }
-        if (key == null) {
-            try {
-                key = readDSAPublicKey(input);
+            parser.next(); // SEQUENCE
+            if ( parser.length() == -1 ) return DER_UNKNOWN;
+            final long end = parser.position() + parser.length();
+            while ( parser.position() < end && parser.next() ) {
+                if ( count == tags.length ) return DER_UNKNOWN;
+                integers &= ( tags[count++] = input[ (int) parser.offset() ] ) == TAG_INTEGER;
+                parser.skip();
             }
-            catch (NoSuchAlgorithmException e) { throw e; /* should not happen */ }
-            catch (InvalidKeySpecException e) {
-                // ignore
+        }
+        catch (IOException e) { return DER_UNKNOWN; } // malformed
+        if ( integers ) {
+            switch ( count ) {
+                case 9 : return DER_RSA_PRIVATE; // version, n, e, d, p, q, dp, dq, qinv
+                case 2 : return DER_RSA_PUBLIC; // n, e
+                case 6 : return DER_DSA_PRIVATE; // version, p, q, g, y, x
+                case 4 : return DER_DSA_PUBLIC; // y, p, q, g
             }
+            return DER_UNKNOWN;
         }
-        return key;
+        if ( count == 2 && tags[0] == TAG_SEQUENCE && tags[1] == TAG_BIT_STRING ) {
+            return DER_PUBKEY; // algorithm, subjectPublicKey
+        }
+        if ( count >= 3 && tags[0] == TAG_INTEGER && tags[1] == TAG_SEQUENCE && tags[2] == TAG_OCTET_STRING ) {
+            return DER_PKCS8; // version, algorithm, privateKey [, attributes]
+        }
+        if ( count >= 2 && tags[0] == TAG_INTEGER && tags[1] == TAG_OCTET_STRING ) {
+            return DER_EC_PRIVATE; // version, privateKey [, parameters] [, publicKey]
+        }
+        return DER_UNKNOWN;
+    }
+
+    /**
+     * Reads a DER encoded private or public key, the format is detected
+     * (see {@link #derKeyFormat(byte[])}) before parsing.
+     * @return a key pair, a public key or null if not a (supported) key
+     */
+    public static Object readKey(final byte[] input)
+        throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        switch ( derKeyFormat(input) ) {
+            case DER_RSA_PRIVATE : return readRSAPrivateKey(input);
+            case DER_RSA_PUBLIC : return readRSAPublicKey(input);
+            case DER_DSA_PRIVATE : return readDSAPrivateKey(input);
+            case DER_DSA_PUBLIC : return readDSAPublicKey(input);
+            case DER_EC_PRIVATE : return readECPrivateKey(input);
+            case DER_PKCS8 :
+                final PrivateKeyInfo info = PrivateKeyInfo.getInstance(input);
+                final ASN1ObjectIdentifier alg = info.getPrivateKeyAlgorithm().getAlgorithm();
+                if ( X9ObjectIdentifiers.id_ecPublicKey.equals(alg) ) return readECPrivateKey(input);
+                if ( PKCSObjectIdentifiers.rsaEncryption.equals(alg) ) {
+                    return readRSAPrivateKey(((ASN1Object) info.parsePrivateKey()).getEncoded(ASN1Encoding.DER));
+                }
+                if ( X9ObjectIdentifiers.id_dsa.equals(alg) ) {
+                    final KeyFactory dsaFactory = SecurityHelper.getKeyFactory("DSA");
+                    final DSAPrivateKey priv = (DSAPrivateKey) dsaFactory.generatePrivate(new PKCS8EncodedKeySpec(input));
+                    final DSAParams params = priv.getParams();
+                    final BigInteger y = params.getG().modPow(priv.getX(), params.getP());
+                    final PublicKey pub = dsaFactory.generatePublic(new DSAPublicKeySpec(y, params.getP(), params.getQ(), params.getG()));
+                    return new KeyPair(pub, priv);
+                }
+                return null;
+            case DER_PUBKEY :
+                final AlgorithmIdentifier algId = SubjectPublicKeyInfo.getInstance(input).getAlgorithm();
+                if ( X9ObjectIdentifiers.id_ecPublicKey.equals(algId.getAlgorithm()) ) return readECPublicKey(input);
+                if ( PKCSObjectIdentifiers.rsaEncryption.equals(algId.getAlgorithm()) ) {
+                    return SecurityHelper.getKeyFactory("RSA").generatePublic(new X509EncodedKeySpec(input));
+                }
+                if ( X9ObjectIdentifiers.id_dsa.equals(algId.getAlgorithm()) ) {
+                    return SecurityHelper.getKeyFactory("DSA").generatePublic(new X509EncodedKeySpec(input));
+                }
+                return null;
+        }
+        return null;
     }
 
     // d2i_RSAPrivateKey_bio
@@ -174,7 +272,7 @@ public class PKey {
     public static PublicKey readRSAPublicKey(final KeyFactory rsaFactory, final byte[] input)
         throws IOException, InvalidKeySpecException {
         ASN1Sequence seq = (ASN1Sequence) new ASN1InputStream(input).readObject();
-        if ( seq.size() == 2 ) {
+        if ( seq.size() == 2 && seq.getObjectAt(0) instanceof ASN1Integer ) {
             BigInteger mod = ((ASN1Integer) seq.getObjectAt(0)).getValue();
             BigInteger pubexp = ((ASN1Integer) seq.getObjectAt(1)).getValue();
             return rsaFactory.generatePublic(new RSAPublicKeySpec(mod, pubexp));
@@ -213,7 +311,7 @@ public class PKey {
     public static PublicKey readDSAPublicKey(final KeyFactory dsaFactory, final byte[] input)
         throws IOException, InvalidKeySpecException {
         ASN1Sequence seq = (ASN1Sequence) new ASN1InputStream(input).readObject();
-        if ( seq.size() == 4 ) {
+        if ( seq.size() == 4 && seq.getObjectAt(1) instanceof ASN1Integer ) {
             BigInteger y = ((ASN1Integer) seq.getObjectAt(0)).getValue();
             BigInteger p = ((ASN1Integer) seq.getObjectAt(1)).getValue();
             BigInteger q = ((ASN1Integer) seq.getObjectAt(2)).getValue();
@@ -223,6 +321,155 @@ public class PKey {
         return null;
     }
 
+    // d2i_ECPrivateKey_bio (also accepts a PKCS#8 PrivateKeyInfo wrapping one)
+    public static KeyPair readECPrivateKey(final byte[] input)
+        throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        return readECPrivateKey(SecurityHelper.getKeyFactory("EC"), input);
+    }
+
+    public static KeyPair readECPrivateKey(final KeyFactory ecFactory, final byte[] input)
+        throws IOException, InvalidKeySpecException {
+        ASN1Sequence seq = (ASN1Sequence) new ASN1InputStream(input).readObject();
+        if ( seq == null || seq.size() < 2 ) return null;
+
+        ASN1Encodable curve = null;
+        if ( seq.getObjectAt(1) instanceof ASN1Sequence ) { // PKCS#8
+            final PrivateKeyInfo info = PrivateKeyInfo.getInstance(seq);
+            final AlgorithmIdentifier algId = info.getPrivateKeyAlgorithm();
+            if ( ! X9ObjectIdentifiers.id_ecPublicKey.equals(algId.getAlgorithm()) ) return null;
+            curve = algId.getParameters();
+            seq = ASN1Sequence.getInstance(info.parsePrivateKey());
+        }
+        if ( ! ( seq.getObjectAt(1) instanceof ASN1OctetString ) ) return null;
+
+        final org.bouncycastle.asn1.sec.ECPrivateKey key = org.bouncycastle.asn1.sec.ECPrivateKey.getInstance(seq);
+        if ( key.getParameters() != null ) curve = key.getParameters();
+        // only named curves (as OpenSSL writes them by default) are supported
+        if ( ! ( curve instanceof ASN1ObjectIdentifier ) ) return null;
+
+        final String name = getCurveName((ASN1ObjectIdentifier) curve);
+        final X9ECParameters x9 = name == null ? null : ECNamedCurveTable.getByName(name);
+        if ( x9 == null ) throw new InvalidKeySpecException("unknown curve: " + curve);
+
+        final BigInteger d = key.getKey(); final ECPoint Q;
+        final DERBitString pub = key.getPublicKey();
+        if ( pub != null ) {
+            Q = x9.getCurve().decodePoint(pub.getBytes());
+            if ( Q.isInfinity() || ! isOnCurve(Q) ) throw new InvalidKeySpecException("invalid public key point");
+        }
+        else Q = x9.getG().multiply(d); // (optional) public key not encoded
+
+        final ECParameterSpec spec = getCurveSpec(name, x9);
+        PrivateKey priv = ecFactory.generatePrivate(new ECPrivateKeySpec(d, spec));
+        PublicKey publ = ecFactory.generatePublic(new ECPublicKeySpec(toJavaPoint(Q), spec));
+        return new KeyPair(publ, priv);
+    }
+
+    // d2i_EC_PUBKEY_bio
+    public static PublicKey readECPublicKey(final byte[] input)
+        throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        return readECPublicKey(SecurityHelper.getKeyFactory("EC"), input);
+    }
+
+    public static PublicKey readECPublicKey(final KeyFactory ecFactory, final byte[] input)
+        throws IOException, InvalidKeySpecException {
+        ASN1Sequence seq = (ASN1Sequence) new ASN1InputStream(input).readObject();
+        if ( seq == null || seq.size() != 2 || ! ( seq.getObjectAt(0) instanceof ASN1Sequence ) ) {
+            return null;
+        }
+        final SubjectPublicKeyInfo info = SubjectPublicKeyInfo.getInstance(seq);
+        final AlgorithmIdentifier algId = info.getAlgorithm();
+        if ( ! X9ObjectIdentifiers.id_ecPublicKey.equals(algId.getAlgorithm()) ) return null;
+
+        final ASN1Encodable curve = algId.getParameters();
+        if ( ! ( curve instanceof ASN1ObjectIdentifier ) ) {
+            return ecFactory.generatePublic(new java.security.spec.X509EncodedKeySpec(input));
+        }
+        final String name = getCurveName((ASN1ObjectIdentifier) curve);
+        final X9ECParameters x9 = name == null ? null : ECNamedCurveTable.getByName(name);
+        if ( x9 == null ) throw new InvalidKeySpecException("unknown curve: " + curve);
+
+        final ECPoint Q = x9.getCurve().decodePoint(info.getPublicKeyData().getBytes());
+        if ( Q.isInfinity() || ! isOnCurve(Q) ) throw new InvalidKeySpecException("invalid public key point");
+        return ecFactory.generatePublic(new ECPublicKeySpec(toJavaPoint(Q), getCurveSpec(name, x9)));
+    }
+
+    /**
+     * Checks the (affine) point satisfies the curve equation, as decoding
+     * (ECCurve#decodePoint) does not validate points.
+     */
+    public static boolean isOnCurve(ECPoint point) {
+        point = point.normalize();
+        final ECCurve curve = point.getCurve();
+        final ECFieldElement x = point.getAffineXCoord(), y = point.getAffineYCoord();
+        final ECFieldElement x3 = x.square().multiply(x);
+        if ( curve instanceof ECCurve.F2m ) { // y^2 + xy = x^3 + ax^2 + b
+            return y.square().add(x.multiply(y)).equals(
+                x3.add(curve.getA().multiply(x.square())).add(curve.getB())
+            );
+        } // y^2 = x^3 + ax + b
+        return y.square().equals( x3.add(curve.getA().multiply(x)).add(curve.getB()) );
+    }
+
+    /**
+     * @return the (OpenSSL) short name of the curve with the given OID or null
+     */
+    public static String getCurveName(final ASN1ObjectIdentifier oid) {
+        return ECUtil.getCurveName(oid);
+    }
+
+    /**
+     * @return the (OpenSSL) short name for a curve name alias e.g. "P-256" or null
+     */
+    public static String getCurveName(final String name) {
+        final ASN1ObjectIdentifier oid = getCurveOID(name);
+        return oid == null ? null : getCurveName(oid);
+    }
+
+    /**
+     * Resolves the named curve of the given key parameters.
+     * @return the (OpenSSL) short name or null if parameters are not a named curve
+     */
+    public static String getCurveName(final ECParameterSpec spec) {
+        if ( spec instanceof ECNamedCurveSpec ) {
+            final String name = getCurveName( ((ECNamedCurveSpec) spec).getName() );
+            if ( name != null ) return name;
+        }
+        final org.bouncycastle.jce.spec.ECParameterSpec bcSpec = EC5Util.convertSpec(spec, false);
+        final Enumeration<?> names = ECNamedCurveTable.getNames();
+        while ( names.hasMoreElements() ) {
+            final String name = (String) names.nextElement();
+            final X9ECParameters x9 = ECNamedCurveTable.getByName(name);
+            if ( x9.getN().equals(bcSpec.getN()) && x9.getCurve().equals(bcSpec.getCurve())
+                && x9.getG().equals(bcSpec.getG()) ) {
+                return getCurveName(name);
+            }
+        }
+        return null;
+    }
+
+    public static ASN1ObjectIdentifier getCurveOID(final String name) {
+        try {
+            return ECUtil.getNamedCurveOid(name);
+        }
+        catch (IllegalArgumentException e) { return null; } // not an OID string
+    }
+
+    public static ECNamedCurveSpec getCurveSpec(final String name, final X9ECParameters x9) {
+        return new ECNamedCurveSpec(name, x9.getCurve(), x9.getG(), x9.getN(), x9.getH(), x9.getSeed());
+    }
+
+    public static java.security.spec.ECPoint toJavaPoint(ECPoint point) {
+        point = point.normalize();
+        return new java.security.spec.ECPoint(
+            point.getAffineXCoord().toBigInteger(), point.getAffineYCoord().toBigInteger()
+        );
+    }
+
+    public static ECPoint toPoint(final X9ECParameters x9, final java.security.spec.ECPoint point) {
+        return x9.getCurve().createPoint(point.getAffineX(), point.getAffineY());
+    }
+
     // d2i_DHparams_bio
     public static DHParameterSpec readDHParameter(final byte[] input) throws IOException {
         ASN1InputStream aIn = new ASN1InputStream(input);
@@ -279,6 +526,31 @@ public class PKey {
         if ( g != null ) vec.add( new ASN1Integer(g) );
         return new DLSequence(vec).getEncoded();
     }
-}
 
+    /**
+     * Encodes a private key as (SEC1) ECPrivateKey, a public key as SubjectPublicKeyInfo.
+     */
+    public static byte[] toDerECKey(final ECPublicKey pubKey, final ECPrivateKey privKey, final String curveName)
+        throws IOException {
+        final ASN1ObjectIdentifier curve = getCurveOID(curveName);
+        if ( curve == null ) throw new IOException("unknown curve: " + curveName);
+        final X9ECParameters x9 = ECNamedCurveTable.getByOID(curve);
+
+        DERBitString pub = null;
+        if ( pubKey != null ) pub = new DERBitString(toPoint(x9, pubKey.getW()).getEncoded(false));
 
+        if ( privKey == null ) {
+            final AlgorithmIdentifier algId = new AlgorithmIdentifier(X9ObjectIdentifiers.id_ecPublicKey, curve);
+            return new SubjectPublicKeyInfo(algId, pub.getBytes()).getEncoded(ASN1Encoding.DER);
+        }
+
+        ASN1EncodableVector vec = new ASN1EncodableVector();
+        vec.add(new ASN1Integer(BigInteger.ONE));
+        // private key octets are padded to the order's length (as OpenSSL does)
+        final int len = ( x9.getN().bitLength() + 7 ) / 8;
+        vec.add(new DEROctetString(BigIntegers.asUnsignedByteArray(len, privKey.getS())));
+        vec.add(new DERTaggedObject(true, 0, curve));
+        if ( pub != null ) vec.add(new DERTaggedObject(true, 1, pub));
+        return new DLSequence(vec).getEncoded(ASN1Encoding.DER);
+    }
+}
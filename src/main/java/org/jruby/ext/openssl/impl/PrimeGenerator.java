@@ -0,0 +1,221 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Prime (and safe prime p = 2q + 1 with p and q prime) search using an
+ * incremental sieve : candidates are walked from a random start in steps
+ * that keep p % add == rem, and any candidate where p (or q) has a small
+ * factor gets skipped by updating (int) residues - without touching a
+ * BigInteger. Only the survivors are subject to (expensive) primality tests.
+ *
+ * The search might run on several threads, each walking from its own
+ * random start, the first prime found wins and cancels the rest.
+ *
+ * @see [ossl]/crypto/bn/bn_prime.c #probable_prime_dh_safe
+ */
+public abstract class PrimeGenerator {
+
+    private static final int CERTAINTY = 100;
+
+    // odd primes < 2^14 used for sieving candidates
+    private static final int[] SMALL_PRIMES;
+
+    static {
+        final int limit = 1 << 14;
+        final boolean[] composite = new boolean[limit];
+        int count = 0;
+        for ( int i = 3; i < limit; i += 2 ) {
+            if ( composite[i] ) continue;
+            count++;
+            for ( int j = i * i; j < limit; j += 2 * i ) composite[j] = true;
+        }
+        SMALL_PRIMES = new int[count]; count = 0;
+        for ( int i = 3; i < limit; i += 2 ) {
+            if ( ! composite[i] ) SMALL_PRIMES[count++] = i;
+        }
+    }
+
+    // how many steps to walk from a random start before picking a new one
+    private static final int WINDOW = 1 << 16;
+
+    private PrimeGenerator() { /* no instances */ }
+
+    /**
+     * Whether a (sieved) prime search is possible for the given parameters,
+     * otherwise callers should fall back to plain generation.
+     * @param bits
+     * @param safe
+     * @param add (optional)
+     * @param rem (optional)
+     * @return true if {@link #generatePrime(int, boolean, BigInteger, BigInteger, int, Random)} supports these
+     */
+    public static boolean isSievable(final int bits, final boolean safe, final BigInteger add, final BigInteger rem) {
+        if ( bits < 32 ) return false; // sieve primes would exclude legit (small) candidates
+        if ( add == null ) return true;
+        if ( add.signum() <= 0 || add.bitLength() > 24 ) return false;
+        if ( rem != null && ( rem.signum() < 0 || rem.compareTo(add) >= 0 ) ) return false;
+        return stepStart(safe, add.intValue(), rem == null ? 1 : rem.intValue()) != -1;
+    }
+
+    /**
+     * Generate a (safe) prime of the given bit length, such that p % add == rem.
+     * @param bits
+     * @param safe whether to generate a safe prime
+     * @param add (optional) defaults to 2
+     * @param rem (optional) defaults to 1
+     * @param threads number of threads to search on (1 searches on the calling thread)
+     * @param random
+     * @return a (probable) prime
+     * @throws InterruptedException if interrupted while waiting for the search threads
+     */
+    public static BigInteger generatePrime(final int bits, final boolean safe,
+        final BigInteger add, final BigInteger rem, final int threads, final Random random)
+        throws InterruptedException {
+        if ( ! isSievable(bits, safe, add, rem) ) {
+            throw new IllegalArgumentException("can not sieve primes for bits = " + bits + " add = " + add + " rem = " + rem);
+        }
+        if ( threads < 1 ) throw new IllegalArgumentException("invalid thread count: " + threads);
+
+        final int a = add == null ? 2 : add.intValue();
+        final int r = add == null || rem == null ? 1 : rem.intValue();
+        final Search search = new Search(bits, safe, a, r, random);
+
+        if ( threads == 1 ) return search.call();
+
+        try {
+            return Workers.invokeAny(search, threads); // cancels (interrupts) the remaining searches
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if ( cause instanceof Error ) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @return a residue x (mod step) with x % add == rem and x odd, for safe
+     * primes x % 4 == 3 (q = (p - 1) / 2 needs to be odd) or -1 if there's no
+     * such residue
+     */
+    private static int stepStart(final boolean safe, final int add, final int rem) {
+        final int step = step(safe, add);
+        for ( int x = rem % add; x < step; x += add ) {
+            if ( safe ? x % 4 == 3 : x % 2 == 1 ) {
+                // a small prime dividing the step never changes its residue
+                for ( int s : SMALL_PRIMES ) {
+                    if ( s > step ) break;
+                    if ( step % s == 0 && ( x % s == 0 || ( safe && x % s == 1 ) ) ) return -1;
+                }
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    private static int step(final boolean safe, final int add) {
+        if ( safe ) return add % 4 == 0 ? add : ( add % 2 == 0 ? add * 2 : add * 4 );
+        return add % 2 == 0 ? add : add * 2;
+    }
+
+    private static final class Search implements Callable<BigInteger> {
+
+        final int bits, step, start;
+        final boolean safe;
+        final Random random;
+
+        Search(int bits, boolean safe, int add, int rem, Random random) {
+            this.bits = bits; this.safe = safe; this.random = random;
+            this.step = step(safe, add); this.start = stepStart(safe, add, rem);
+        }
+
+        public BigInteger call() throws InterruptedException {
+            final BigInteger bigStep = BigInteger.valueOf(step);
+            final int[] residues = new int[SMALL_PRIMES.length];
+            final int[] steps = new int[SMALL_PRIMES.length];
+            for ( int i = 0; i < SMALL_PRIMES.length; i++ ) steps[i] = step % SMALL_PRIMES[i];
+            // p % s == 0 or (for safe primes) q % s == 0 (p % s == 1)
+            final int reject = safe ? 1 : 0;
+
+            while ( true ) {
+                BigInteger base = new BigInteger(bits, random).setBit(bits - 1);
+                base = base.subtract( base.mod(bigStep) ).add( BigInteger.valueOf(start) );
+                if ( base.bitLength() != bits ) continue;
+
+                for ( int i = 0; i < SMALL_PRIMES.length; i++ ) {
+                    residues[i] = base.mod( BigInteger.valueOf(SMALL_PRIMES[i]) ).intValue();
+                }
+
+                for ( int k = 0; k < WINDOW; k++ ) {
+                    if ( k > 0 ) {
+                        for ( int i = 0; i < residues.length; i++ ) {
+                            final int m = residues[i] + steps[i];
+                            residues[i] = m >= SMALL_PRIMES[i] ? m - SMALL_PRIMES[i] : m;
+                        }
+                    }
+                    if ( ! survives(residues, reject) ) continue;
+
+                    if ( Thread.interrupted() ) throw new InterruptedException();
+
+                    final BigInteger p = base.add( bigStep.multiply( BigInteger.valueOf(k) ) );
+                    if ( p.bitLength() != bits ) break;
+                    if ( safe ? isSafePrime(p) : isPrime(p) ) return p;
+                }
+            }
+        }
+
+        private static boolean survives(final int[] residues, final int reject) {
+            for ( int i = 0; i < residues.length; i++ ) {
+                if ( residues[i] <= reject ) return false;
+            }
+            return true;
+        }
+
+    }
+
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    private static boolean isPrime(final BigInteger p) {
+        // quick (base 2) Fermat test first, most candidates fail here
+        if ( ! TWO.modPow(p.subtract(BigInteger.ONE), p).equals(BigInteger.ONE) ) return false;
+        return p.isProbablePrime(CERTAINTY);
+    }
+
+    private static boolean isSafePrime(final BigInteger p) {
+        final BigInteger q = p.shiftRight(1);
+        // quick (base 2) Fermat tests first, most candidates fail here
+        if ( ! TWO.modPow(q.subtract(BigInteger.ONE), q).equals(BigInteger.ONE) ) return false;
+        if ( ! TWO.modPow(p.subtract(BigInteger.ONE), p).equals(BigInteger.ONE) ) return false;
+        return q.isProbablePrime(CERTAINTY) && p.isProbablePrime(CERTAINTY);
+    }
+
+}
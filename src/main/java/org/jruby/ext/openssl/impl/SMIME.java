@@ -28,6 +28,7 @@
 package org.jruby.ext.openssl.impl;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -285,7 +286,7 @@ public class SMIME {
     /* c: SMIME_write_PKCS7
     *
     */
-    public String writePKCS7(PKCS7 p7, String data, int flags) throws PKCS7Exception, IOException {
+    public void writePKCS7(PKCS7 p7, BIO data, OutputStream out, int flags) throws PKCS7Exception, IOException {
 
         int ctype = p7.getType();
         Set<AlgorithmIdentifier> mdAlgs = null;
@@ -331,7 +332,8 @@ public class SMIME {
             if ((flags & PKCS7.TEXT) > 0) {
                 output.append("Content-Type: text/plain;").append(mimeEOL).append(mimeEOL);
             }
-            output.append(data);
+            write(out, output);
+            copy(data, out); // streamed (in chunks)
             output.append(mimeEOL);
             output.append("------").append(mimeBoundary).append(mimeEOL);
 
@@ -349,7 +351,8 @@ public class SMIME {
             // write final boundary
             output.append("------").append(mimeBoundary).append("--").append(mimeEOL);
 
-            return output.toString();
+            write(out, output);
+            return;
         }
 
         String msgType = null;
@@ -383,7 +386,23 @@ public class SMIME {
         String p7Base64 = Base64.encodeBytes(p7Bytes, Base64.DO_BREAK_LINES);
         output.append(p7Base64).append(mimeEOL);
 
-        return output.toString();
+        write(out, output);
+    }
+
+    private static void write(final OutputStream out, final StringBuilder str) throws IOException {
+        final int len = str.length();
+        final byte[] bytes = new byte[len]; // MIME headers/base64 are ASCII
+        for ( int i = 0; i < len; i++ ) bytes[i] = (byte) str.charAt(i);
+        out.write(bytes, 0, len);
+        str.setLength(0);
+    }
+
+    private static void copy(final BIO in, final OutputStream out) throws IOException {
+        final byte[] buf = new byte[BIO.BLOCK_SIZE];
+        int n;
+        while ( ( n = in.read(buf, 0, buf.length) ) > 0 ) {
+            out.write(buf, 0, n);
+        }
     }
 
     /**
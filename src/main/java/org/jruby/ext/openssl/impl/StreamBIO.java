@@ -0,0 +1,116 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A source/sink BIO over a Java stream (e.g. a Ruby IO's channel stream),
+ * reads happen in fixed size chunks thus content never needs to be fully
+ * held in memory.
+ *
+ * c: BIO_new_fp
+ */
+public class StreamBIO extends BIO {
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    private byte[] buffer;
+    private int pos, limit;
+    private boolean eof;
+
+    StreamBIO(final InputStream in, final OutputStream out) {
+        this.in = in; this.out = out;
+    }
+
+    private boolean fill() throws IOException {
+        if ( eof ) return false;
+        if ( in == null ) throw new UnsupportedOperationException("not readable");
+        if ( buffer == null ) buffer = new byte[BLOCK_SIZE];
+        pos = limit = 0;
+        int read;
+        while ( ( read = in.read(buffer, 0, buffer.length) ) == 0 ) /* retry */;
+        if ( read == -1 ) { eof = true; return false; }
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public int gets(final byte[] into, final int len) throws IOException {
+        int i = 0;
+        while ( i < len ) {
+            if ( pos == limit && ! fill() ) break;
+            final byte b = buffer[ pos++ ];
+            into[ i++ ] = b;
+            if ( b == '\n' ) break;
+        }
+        return i;
+    }
+
+    @Override
+    public int read(final byte[] into, final int offset, final int len) throws IOException {
+        if ( len == 0 ) return 0;
+        if ( pos == limit ) {
+            if ( eof ) return 0;
+            if ( len >= BLOCK_SIZE ) { // large reads bypass the buffer
+                if ( in == null ) throw new UnsupportedOperationException("not readable");
+                int read;
+                while ( ( read = in.read(into, offset, len) ) == 0 ) /* retry */;
+                if ( read == -1 ) { eof = true; return 0; }
+                return read;
+            }
+            if ( ! fill() ) return 0;
+        }
+        final int n = Math.min(len, limit - pos);
+        System.arraycopy(buffer, pos, into, offset, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int write(final byte[] bytes, final int offset, final int len) throws IOException {
+        if ( out == null ) throw new UnsupportedOperationException("not writable");
+        out.write(bytes, offset, len);
+        return len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if ( out != null ) out.flush();
+    }
+
+    @Override
+    public void setMemEofReturn(int value) { /* no-op */ }
+
+    @Override
+    public int getType() {
+        return TYPE_FILE;
+    }
+
+}
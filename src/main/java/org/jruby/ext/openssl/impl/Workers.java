@@ -0,0 +1,94 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared (daemon) thread pool for splitting CPU bound work among threads.
+ *
+ * Threads get created on demand and are re-used across calls (idle ones
+ * exit after a while), thus parallel operations do not pay for a new pool
+ * on every call. A task is submitted as many times as threads requested,
+ * work items are expected to be distributed by the task itself.
+ */
+public abstract class Workers {
+
+    private Workers() { /* no instances */ }
+
+    private static class Pool { // lazy holder
+        static final ExecutorService executor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                public Thread newThread(final Runnable task) {
+                    final Thread thread = new Thread(task, "jruby-openssl-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }
+        );
+    }
+
+    /**
+     * Runs the task on the given number of threads and waits for all of them.
+     * @param task
+     * @param threads
+     * @throws InterruptedException (remaining tasks get cancelled)
+     * @throws ExecutionException wrapping the (first) failure of the task
+     */
+    public static <T> void invokeAll(final Callable<T> task, final int threads)
+        throws InterruptedException, ExecutionException {
+        for ( final Future<T> result : Pool.executor.invokeAll( Collections.nCopies(threads, task) ) ) {
+            result.get();
+        }
+    }
+
+    /**
+     * Runs the task on the given number of threads, the first one completing
+     * wins and the remaining ones get cancelled (interrupted).
+     * @param task
+     * @param threads
+     * @return the (first) result
+     * @throws InterruptedException
+     * @throws ExecutionException if none of the tasks completed successfully
+     */
+    public static <T> T invokeAny(final Callable<T> task, final int threads)
+        throws InterruptedException, ExecutionException {
+        return Pool.executor.invokeAny( Collections.nCopies(threads, task) );
+    }
+
+}
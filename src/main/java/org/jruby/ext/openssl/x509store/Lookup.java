@@ -34,6 +34,7 @@ import static org.jruby.ext.openssl.x509store.X509Utils.X509_FILETYPE_PEM;
 import static org.jruby.ext.openssl.x509store.X509Utils.X509_LU_CRL;
 import static org.jruby.ext.openssl.x509store.X509Utils.X509_LU_FAIL;
 import static org.jruby.ext.openssl.x509store.X509Utils.X509_LU_X509;
+import static org.jruby.ext.openssl.x509store.X509Utils.X509_L_ADD_BUNDLE;
 import static org.jruby.ext.openssl.x509store.X509Utils.X509_L_ADD_DIR;
 import static org.jruby.ext.openssl.x509store.X509Utils.X509_L_FILE_LOAD;
 import static org.jruby.ext.openssl.x509store.X509Utils.X509_R_BAD_X509_FILETYPE;
@@ -45,13 +46,10 @@ import static org.jruby.ext.openssl.x509store.X509Utils.getDefaultCertificateDir
 import static org.jruby.ext.openssl.x509store.X509Utils.getDefaultCertificateFileEnvironment;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
@@ -60,12 +58,19 @@ import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.jruby.Ruby;
 import org.jruby.RubyHash;
 import org.jruby.ext.openssl.SecurityHelper;
+import org.jruby.util.ByteList;
 import org.jruby.util.JRubyFile;
 import org.jruby.util.io.ChannelDescriptor;
 import org.jruby.util.io.ChannelStream;
@@ -127,6 +132,14 @@ public class Lookup {
         return control(X509_L_ADD_DIR, dir.name, dir.type, null);
     }
 
+    /**
+     * Adds a (pre-compiled) trust bundle file.
+     * @see TrustBundle
+     */
+    public int addBundle(final String file) throws Exception {
+        return control(X509_L_ADD_BUNDLE, file, 0, null);
+    }
+
     /**
      * c: X509_LOOKUP_hash_dir
      */
@@ -141,6 +154,14 @@ public class Lookup {
         return x509FileLookup;
     }
 
+    /**
+     * Lookup (lazily) loading objects from memory-mapped trust bundles.
+     * @see TrustBundle
+     */
+    public static LookupMethod bundleLookup() {
+        return x509BundleLookup;
+    }
+
     /**
      * c: X509_LOOKUP_ctrl
      */
@@ -157,21 +178,27 @@ public class Lookup {
      * c: X509_LOOKUP_load_cert_file
      */
     public int loadCertificateFile(String file, int type) throws Exception {
+        return loadCertificateFile(file, type, null);
+    }
+
+    private int loadCertificateFile(final String file, final int type,
+        final List<X509Object> loaded) throws Exception {
         if ( file == null ) return 1;
 
         int count = 0;
         int ret = 0;
-        Reader reader = null;
+        InputStream in = null;
         try {
-            InputStream in = wrapJRubyNormalizedInputStream(file);
+            in = wrapJRubyNormalizedInputStream(file);
             X509AuxCertificate auxCert;
             if (type == X509_FILETYPE_PEM) {
-                reader = new BufferedReader(new InputStreamReader(in));
-                for (;;) {
-                    auxCert = PEMInputOutput.readX509Aux(reader, null);
-                    if ( auxCert == null ) break;
+                final PEMScanner pem = new PEMScanner(readAll(in));
+                while ( pem.next() ) {
+                    if ( ! pem.isCertificate() ) continue;
+                    auxCert = (X509AuxCertificate) PEMInputOutput.readPEM(pem, null);
                     final int i = store.addCertificate(auxCert);
-                    if ( i == 0 ) return ret;
+                    if ( i == 0 && ! isStored(loaded, newCertificate(auxCert)) ) return ret;
+                    if ( loaded != null ) loaded.add( newCertificate(auxCert) );
                     count++;
                 }
                 ret = count;
@@ -185,15 +212,16 @@ public class Lookup {
                     return ret;
                 }
                 final int i = store.addCertificate(auxCert);
-                if ( i == 0 ) return ret;
-                ret = i;
+                if ( i == 0 && ! isStored(loaded, newCertificate(auxCert)) ) return ret;
+                if ( loaded != null ) loaded.add( newCertificate(auxCert) );
+                ret = 1;
             } else {
                 X509Error.addError(X509_R_BAD_X509_FILETYPE);
             }
         }
         finally {
-            if ( reader != null ) {
-                try { reader.close(); } catch (Exception ignored) {}
+            if ( in != null ) {
+                try { in.close(); } catch (Exception ignored) {}
             }
         }
         return ret;
@@ -203,21 +231,27 @@ public class Lookup {
      * c: X509_LOOKUP_load_crl_file
      */
     public int loadCRLFile(String file, int type) throws Exception {
+        return loadCRLFile(file, type, null);
+    }
+
+    private int loadCRLFile(final String file, final int type,
+        final List<X509Object> loaded) throws Exception {
         if ( file == null ) return 1;
 
         int count = 0;
         int ret = 0;
-        Reader reader = null;
+        InputStream in = null;
         try {
-            InputStream in = wrapJRubyNormalizedInputStream(file);
+            in = wrapJRubyNormalizedInputStream(file);
             CRL crl;
             if (type == X509_FILETYPE_PEM) {
-                reader = new BufferedReader(new InputStreamReader(in));
-                for (;;) {
-                    crl = PEMInputOutput.readX509CRL(reader, null);
-                    if ( crl == null ) break;
+                final PEMScanner pem = new PEMScanner(readAll(in));
+                while ( pem.next() ) {
+                    if ( pem.label() != PEMScanner.X509_CRL ) continue;
+                    crl = (CRL) PEMInputOutput.readPEM(pem, null);
                     final int i = store.addCRL(crl);
-                    if ( i == 0 ) return ret;
+                    if ( i == 0 && ! isStored(loaded, newCRL(crl)) ) return ret;
+                    if ( loaded != null ) loaded.add( newCRL(crl) );
                     count++;
                 }
                 ret = count;
@@ -229,21 +263,38 @@ public class Lookup {
                     return ret;
                 }
                 final int i = store.addCRL(crl);
-                if ( i == 0 ) return ret;
-                ret = i;
+                if ( i == 0 && ! isStored(loaded, newCRL(crl)) ) return ret;
+                if ( loaded != null ) loaded.add( newCRL(crl) );
+                ret = 1;
             }
             else {
                 X509Error.addError(X509_R_BAD_X509_FILETYPE);
             }
         }
         finally {
-            if ( reader != null ) {
-                try { reader.close(); } catch (Exception ignored) {}
+            if ( in != null ) {
+                try { in.close(); } catch (Exception ignored) {}
             }
         }
         return ret;
     }
 
+    // (directory index) loading a file again, objects might already be in the store
+    private boolean isStored(final List<X509Object> loaded, final X509Object obj) {
+        return loaded != null && X509Object.retrieveMatch(store.getObjects(), obj) != null;
+    }
+
+    private static Certificate newCertificate(final X509AuxCertificate cert) {
+        final Certificate certObj = new Certificate(); certObj.x509 = cert;
+        return certObj;
+    }
+
+    private static X509Object newCRL(final CRL crl) {
+        final org.jruby.ext.openssl.x509store.CRL crlObj = new org.jruby.ext.openssl.x509store.CRL();
+        crlObj.crl = crl;
+        return crlObj;
+    }
+
     /**
      * c: X509_LOOKUP_load_cert_crl_file
      */
@@ -251,13 +302,14 @@ public class Lookup {
         if ( type != X509_FILETYPE_PEM ) return loadCertificateFile(file, type);
 
         int count = 0;
-        Reader reader = null;
+        InputStream in = null;
         try {
-            InputStream in = wrapJRubyNormalizedInputStream(file);
-            reader = new BufferedReader(new InputStreamReader(in));
-            for (;;) {
-                Object v = PEMInputOutput.readPEM(reader, null);
-                if ( v == null ) break;
+            in = wrapJRubyNormalizedInputStream(file);
+            final PEMScanner pem = new PEMScanner(readAll(in));
+            while ( pem.next() ) {
+                final int label = pem.label();
+                if ( ! pem.isCertificate() && label != PEMScanner.X509_CRL ) continue;
+                Object v = PEMInputOutput.readPEM(pem, null);
 
                 if ( v instanceof X509Certificate ) {
                     store.addCertificate(StoreContext.ensureAux((X509Certificate) v));
@@ -270,13 +322,20 @@ public class Lookup {
             }
         }
         finally {
-            if ( reader != null ) {
-                try { reader.close(); } catch (Exception ignored) {}
+            if ( in != null ) {
+                try { in.close(); } catch (Exception ignored) {}
             }
         }
         return count;
     }
 
+    private static ByteList readAll(final InputStream in) throws IOException {
+        final ByteList bytes = new ByteList(8192);
+        final byte[] buf = new byte[8192]; int read;
+        while ( ( read = in.read(buf) ) != -1 ) bytes.append(buf, 0, read);
+        return bytes;
+    }
+
     public int loadDefaultJavaCACertsFile() throws IOException, GeneralSecurityException {
         final String certsFile = X509Utils.X509_CERT_FILE.replace('/', File.separatorChar);
         final FileInputStream fin = new FileInputStream(certsFile);
@@ -324,6 +383,14 @@ public class Lookup {
         }
     }
 
+    private File resolveFile(final String file) {
+        File f = new File(file);
+        if ( ! f.isAbsolute() ) {
+            f = new File(runtime.getCurrentDirectory(), file);
+        }
+        return f;
+    }
+
     private String envEntry(final String key) {
     	RubyHash env = (RubyHash) runtime.getObject().getConstant("ENV");
         return (String) env.get( runtime.newString(key) );
@@ -423,6 +490,15 @@ public class Lookup {
         x509DirectoryLookup.getBySubject = new GetCertificateBySubject();
     }
 
+    private final static LookupMethod x509BundleLookup = new LookupMethod();
+    static {
+        x509BundleLookup.name = "Load certs from pre-compiled trust bundles";
+        x509BundleLookup.newItem = new NewLookupBundle();
+        x509BundleLookup.free = new FreeLookupBundle();
+        x509BundleLookup.control = new LookupBundleControl();
+        x509BundleLookup.getBySubject = new GetBundledBySubject();
+    }
+
     /**
      * c: by_file_ctrl
      */
@@ -468,6 +544,101 @@ public class Lookup {
     private static class LookupDir {
         Collection<String> dirs;
         Collection<Integer> dirsType;
+        Map<String, DirIndex> index;
+
+        DirIndex getIndex(final String dir) {
+            synchronized (index) {
+                DirIndex dirIndex = index.get(dir);
+                if ( dirIndex == null ) {
+                    index.put(dir, dirIndex = new DirIndex(dir));
+                }
+                return dirIndex;
+            }
+        }
+    }
+
+    /**
+     * c: BY_DIR_ENTRY (the hashes part)
+     *
+     * An index of a (c_rehash-ed) certificate directory. The directory is
+     * listed once and re-listed when its mtime changes, which is checked at
+     * most once per {@link #CHECK_INTERVAL}. Files are mapped by their
+     * "hash.[r]N" name thus a lookup miss (in between checks) does not touch
+     * the disk. Successfully loaded files keep their (parsed) objects until
+     * the directory changes.
+     */
+    private static class DirIndex {
+
+        private static final Pattern HASH_FILE = Pattern.compile("([0-9a-f]{8})\\.(r?)(\\d+)");
+
+        static final long CHECK_INTERVAL = 1000 * 1000 * 1000; // 1s (in nanos)
+
+        final String dir;
+        private long lastModified = Long.MIN_VALUE;
+        private long lastChecked; // System.nanoTime()
+        private boolean checked;
+        // e.g. "9d66eef0" -> [ "9d66eef0.0", "9d66eef0.1" ] (CRLs as "9d66eef0.r")
+        private final Map<String, List<String>> files = new HashMap<String, List<String>>();
+        private final Map<String, List<X509Object>> loaded = new HashMap<String, List<X509Object>>();
+
+        DirIndex(final String dir) { this.dir = dir; }
+
+        private void refresh() {
+            final long now = System.nanoTime();
+            if ( checked && now - lastChecked < CHECK_INTERVAL ) return;
+            checked = true; lastChecked = now;
+
+            final File directory = new File(dir);
+            final long mtime = directory.lastModified();
+            if ( mtime == lastModified ) return;
+
+            lastModified = mtime; files.clear(); loaded.clear();
+            final String[] names = directory.list();
+            if ( names == null ) return;
+            Arrays.sort(names, new Comparator<String>() {
+                public int compare(final String n1, final String n2) {
+                    if ( n1.length() != n2.length() ) return n1.length() - n2.length();
+                    return n1.compareTo(n2); // hash.9 < hash.10
+                }
+            });
+            for ( final String name : names ) {
+                final Matcher match = HASH_FILE.matcher(name);
+                if ( ! match.matches() ) continue;
+                final String key = match.group(1) + '.' + match.group(2);
+                List<String> list = files.get(key);
+                if ( list == null ) files.put(key, list = new ArrayList<String>(2));
+                list.add(name);
+            }
+        }
+
+        synchronized X509Object find(final Lookup lookup, final int dirType,
+            final int type, final String key, final Name name) throws Exception {
+            refresh();
+
+            final List<String> names = files.get(key);
+            if ( names == null ) return null;
+
+            for ( final String fileName : names ) {
+                List<X509Object> objects = loaded.get(fileName);
+                if ( objects == null ) {
+                    final String path = dir + File.separatorChar + fileName;
+                    objects = new ArrayList<X509Object>(1);
+                    final int ret;
+                    if ( type == X509_LU_X509 ) {
+                        ret = lookup.loadCertificateFile(path, dirType, objects);
+                    } else {
+                        ret = lookup.loadCRLFile(path, dirType, objects);
+                    }
+                    // a failed load is not kept, the file is tried again on the next lookup
+                    if ( ret > 0 ) loaded.put(fileName, objects);
+                }
+                for ( final X509Object obj : objects ) {
+                    if ( obj.type() == type && obj.isName(name) ) return obj;
+                }
+            }
+            return null;
+        }
+
     }
 
     /**
@@ -478,6 +649,7 @@ public class Lookup {
             final LookupDir lookupDir = new LookupDir();
             lookupDir.dirs = new ArrayList<String>();
             lookupDir.dirsType = new ArrayList<Integer>();
+            lookupDir.index = new HashMap<String, DirIndex>();
             lookup.methodData = lookupDir;
             return 1;
         }
@@ -491,6 +663,7 @@ public class Lookup {
             final LookupDir lookupDir = (LookupDir) lookup.methodData;
             lookupDir.dirs = null;
             lookupDir.dirsType = null;
+            lookupDir.index = null;
             lookup.methodData = null;
             return -1;
         }
@@ -545,15 +718,17 @@ public class Lookup {
 
             String[] dirs = dir.split(File.pathSeparator);
 
-            for ( int i=0; i<dirs.length; i++ ) {
-                if ( dirs[i].length() == 0 ) {
-                    continue;
-                }
-                if ( ctx.dirs.contains(dirs[i]) ) {
-                    continue;
+            synchronized (ctx) { // lookups might run concurrently (Store#snapshot)
+                for ( int i=0; i<dirs.length; i++ ) {
+                    if ( dirs[i].length() == 0 ) {
+                        continue;
+                    }
+                    if ( ctx.dirs.contains(dirs[i]) ) {
+                        continue;
+                    }
+                    ctx.dirsType.add(type);
+                    ctx.dirs.add(dirs[i]);
                 }
-                ctx.dirsType.add(type);
-                ctx.dirs.add(dirs[i]);
             }
 
             return 1;
@@ -583,44 +758,88 @@ public class Lookup {
 
             final LookupDir context = (LookupDir) lookup.methodData;
 
-            final String hash = String.format("%08x", name.hash());
-            final StringBuilder buffer = new StringBuilder(48);
+            // c_rehash-ed directories use the (OpenSSL >= 1.0) canonical
+            // SHA-1 hash while older ones might still have MD5 hash names
+            final String hash = String.format("%08x", name.canonicalHash()) + '.' + postfix;
+            final String hashOld = String.format("%08x", name.hash()) + '.' + postfix;
 
-            final Iterator<Integer> iter = context.dirsType.iterator();
+            final String[] dirs; final Integer[] dirsType;
+            synchronized (context) {
+                dirs = context.dirs.toArray(new String[context.dirs.size()]);
+                dirsType = context.dirsType.toArray(new Integer[dirs.length]);
+            }
 
-            for ( final String dir : context.dirs ) {
-                final int dirType = iter.next();
-                for ( int k = 0; ; k++ ) {
-                    buffer.setLength(0); // reset - clear buffer
-                    buffer.append(dir).append(File.separatorChar);
-                    buffer.append(hash);
-                    buffer.append('.').append(postfix).append(k);
+            for ( int i = 0; i < dirs.length; i++ ) {
+                final String dir = dirs[i]; final int dirType = dirsType[i];
+                final DirIndex index = context.getIndex(dir);
+                X509Object obj = index.find(lookup, dirType, type, hash, name);
+                if ( obj == null ) obj = index.find(lookup, dirType, type, hashOld, name);
+                if ( obj != null ) {
+                    ok = 1; ret[0] = obj; break;
+                }
+            }
 
-                    final String path = buffer.toString();
-                    if ( ! new File(path).exists() ) break;
+            return ok;
+        }
+    }
 
-                    if ( type == X509_LU_X509 ) {
-                        if ( lookup.loadCertificateFile(path, dirType) == 0 ) {
-                            break;
-                        }
-                    } else if ( type == X509_LU_CRL ) {
-                        if ( lookup.loadCRLFile(path, dirType) == 0 ) {
-                            break;
-                        }
-                    }
-                }
-                X509Object tmp = null;
-                for ( X509Object obj : lookup.store.getObjects() ) {
-                    if ( obj.type() == type && obj.isName(name) ) {
-                        tmp = obj; break;
-                    }
-                }
-                if ( tmp != null ) {
-                    ok = 1; ret[0] = tmp; break;
+    private static class NewLookupBundle implements LookupMethod.NewItemFunction {
+        public int call(final Lookup lookup) {
+            lookup.methodData = new ArrayList<TrustBundle>(2);
+            return 1;
+        }
+    }
+
+    private static class FreeLookupBundle implements LookupMethod.FreeFunction {
+        public int call(final Lookup lookup) {
+            lookup.methodData = null;
+            return -1;
+        }
+    }
+
+    private static class LookupBundleControl implements LookupMethod.ControlFunction {
+
+        @SuppressWarnings("unchecked")
+        public int call(final Lookup ctx, final Integer cmd, String argp, Number argl, String[] retp) throws Exception {
+            if ( cmd != X509_L_ADD_BUNDLE ) return 0;
+
+            final File file = ctx.resolveFile(argp);
+            final ArrayList<TrustBundle> bundles = (ArrayList<TrustBundle>) ctx.methodData;
+            synchronized (bundles) {
+                for ( TrustBundle bundle : bundles ) {
+                    if ( bundle.getPath().equals( file.getPath() ) ) return 1;
                 }
+                bundles.add( TrustBundle.open(file) );
             }
+            return 1;
+        }
 
-            return ok;
+    }
+
+    private static class GetBundledBySubject implements LookupMethod.BySubjectFunction {
+
+        @SuppressWarnings("unchecked")
+        public int call(final Lookup lookup, final Integer type, final Name name, final X509Object[] ret) throws Exception {
+            if ( name == null ) return 0;
+
+            if ( type != X509_LU_X509 && type != X509_LU_CRL ) {
+                X509Error.addError(X509_R_WRONG_LOOKUP_TYPE);
+                return 0;
+            }
+
+            final ArrayList<TrustBundle> bundles = (ArrayList<TrustBundle>) lookup.methodData;
+            final TrustBundle[] bundlesArray;
+            synchronized (bundles) {
+                bundlesArray = bundles.toArray( new TrustBundle[ bundles.size() ] );
+            }
+
+            for ( final TrustBundle bundle : bundlesArray ) {
+                final X509Object obj = bundle.find(lookup.store, type, name);
+                if ( obj != null ) {
+                    ret[0] = obj; return 1;
+                }
+            }
+            return 0;
         }
     }
 
@@ -27,12 +27,30 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.ext.openssl.x509store;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1String;
+import org.bouncycastle.asn1.DERBMPString;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.DERPrintableString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERT61String;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.asn1.DERUniversalString;
+import org.bouncycastle.asn1.DERVisibleString;
+import org.bouncycastle.asn1.x500.AttributeTypeAndValue;
+import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
 
 import org.jruby.ext.openssl.SecurityHelper;
@@ -46,19 +64,66 @@ public class Name {
 
     final X500Name name;
 
+    private X500Principal principal; // lazy
+
     public Name(final X500Principal principal) {
         this.name = X500Name.getInstance( principal.getEncoded() );
+        this.principal = principal;
     }
 
     public Name(final X500Name name) {
         this.name = name;
     }
 
+    private static final int INTERNED_MAX = 1024;
+
+    private static final Map<ByteBuffer, Name> interned = new Interned();
+
+    private static final class Interned extends LinkedHashMap<ByteBuffer, Name> {
+        private static final long serialVersionUID = -2790271541481922488L;
+
+        Interned() { super(64, 0.75f, true); } // access order
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Name> eldest) {
+            return size() > INTERNED_MAX;
+        }
+    }
+
+    /**
+     * Returns a shared (interned) name instance for the given principal.
+     * Thus (store) lookups for the same principal only compute the name's
+     * (canonical) encoding and hashes once.
+     */
+    public static Name getInstance(final X500Principal principal) {
+        final ByteBuffer key = ByteBuffer.wrap( principal.getEncoded() );
+        synchronized (interned) {
+            Name name = interned.get(key);
+            if ( name == null ) {
+                interned.put(key, name = new Name(principal));
+            }
+            return name;
+        }
+    }
+
+    /**
+     * c: X509_NAME_hash_old (MD5 of the DER encoding)
+     */
     public static int hash(final X500Name name) throws IOException {
+        return hash("MD5", name.getEncoded());
+    }
+
+    /**
+     * c: X509_NAME_hash (OpenSSL >= 1.0 - SHA-1 of the canonical encoding)
+     */
+    public static int canonicalHash(final X500Name name) throws IOException {
+        return hash("SHA-1", canonicalEncoding(name));
+    }
+
+    private static int hash(final String algorithm, final byte[] bytes) {
         try {
-            final byte[] bytes = name.getEncoded();
-            MessageDigest md5 = SecurityHelper.getMessageDigest("MD5");
-            final byte[] digest = md5.digest(bytes);
+            final MessageDigest md = SecurityHelper.getMessageDigest(algorithm);
+            final byte[] digest = md.digest(bytes);
             int result = 0;
             result |= digest[3] & 0xff; result <<= 8;
             result |= digest[2] & 0xff; result <<= 8;
@@ -71,7 +136,79 @@ public class Name {
         }
     }
 
+    /**
+     * c: x509_name_canon
+     *
+     * Each RDN gets encoded as a SET where all (string) values are converted
+     * to UTF8String, lower-cased and with white-space collapsed, there's no
+     * outer SEQUENCE header.
+     */
+    static byte[] canonicalEncoding(final X500Name name) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        for ( final RDN rdn : name.getRDNs() ) {
+            final AttributeTypeAndValue[] entries = rdn.getTypesAndValues();
+            final ASN1EncodableVector set = new ASN1EncodableVector();
+            for ( final AttributeTypeAndValue entry : entries ) {
+                ASN1Encodable value = entry.getValue();
+                final String str = canonicalString(value);
+                if ( str != null ) value = new DERUTF8String(str);
+                set.add( new DERSequence( new ASN1Encodable[] { entry.getType(), value } ) );
+            }
+            out.write( new DERSet(set).getEncoded(ASN1Encoding.DER) );
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * c: asn1_string_canon
+     */
+    private static String canonicalString(final ASN1Encodable value) {
+        final String str;
+        if ( value instanceof DERUniversalString ) {
+            final byte[] octets = ((DERUniversalString) value).getOctets();
+            final StringBuilder buf = new StringBuilder(octets.length / 4);
+            for ( int i = 0; i + 3 < octets.length; i += 4 ) {
+                buf.appendCodePoint( ( octets[i] & 0xff ) << 24 | ( octets[i + 1] & 0xff ) << 16 |
+                                     ( octets[i + 2] & 0xff ) << 8 | ( octets[i + 3] & 0xff ) );
+            }
+            str = buf.toString();
+        }
+        else if ( value instanceof DERUTF8String || value instanceof DERBMPString ||
+                  value instanceof DERPrintableString || value instanceof DERT61String ||
+                  value instanceof DERIA5String || value instanceof DERVisibleString ) {
+            str = ((ASN1String) value).getString();
+        }
+        else {
+            return null; // not a string type - copied as is
+        }
+
+        int beg = 0, end = str.length();
+        while ( beg < end && isSpace( str.charAt(beg) ) ) beg++;
+        while ( end > beg && isSpace( str.charAt(end - 1) ) ) end--;
+
+        final StringBuilder canon = new StringBuilder(end - beg);
+        for ( int i = beg; i < end; i++ ) {
+            final char c = str.charAt(i);
+            if ( isSpace(c) ) {
+                canon.append(' ');
+                while ( isSpace( str.charAt(i + 1) ) ) i++; // end is not a space
+            }
+            else if ( c >= 'A' && c <= 'Z' ) {
+                canon.append( (char) ( c + ('a' - 'A') ) );
+            }
+            else {
+                canon.append(c);
+            }
+        }
+        return canon.toString();
+    }
+
+    private static boolean isSpace(final char c) {
+        return c == ' ' || ( c >= '\t' && c <= '\r' );
+    }
+
     private transient int hash = 0;
+    private transient int canonicalHash = 0;
 
     public int hash() {
         try {
@@ -85,6 +222,29 @@ public class Name {
         }
     }
 
+    /**
+     * @see #canonicalHash(X500Name)
+     */
+    public int canonicalHash() {
+        try {
+            return canonicalHash == 0 ? canonicalHash = canonicalHash(name) : canonicalHash;
+        }
+        catch (IOException e) {
+            return 0;
+        }
+        catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private X500Principal getPrincipal() throws IOException {
+        X500Principal principal = this.principal;
+        if ( principal == null ) {
+            principal = this.principal = new X500Principal(this.name.getEncoded(ASN1Encoding.DER));
+        }
+        return principal;
+    }
+
     /**
      * c: X509_NAME_hash
      */
@@ -108,7 +268,7 @@ public class Name {
 
     public boolean equalTo(final X500Principal principal) {
         try {
-            return new X500Principal(this.name.getEncoded(ASN1Encoding.DER)).equals(principal);
+            return getPrincipal().equals(principal);
         }
         catch (IOException e) {
             return false;
@@ -52,6 +52,8 @@ import java.security.cert.X509Certificate;
 import java.security.cert.X509CRL;
 import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.DSAPrivateKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.spec.InvalidKeySpecException;
@@ -60,6 +62,8 @@ import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -113,12 +117,13 @@ import org.bouncycastle.crypto.modes.CBCBlockCipher;
 import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
-import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.encoders.Hex;
 import org.bouncycastle.cms.CMSSignedData;
 
 import org.jruby.ext.openssl.Cipher.Algorithm;
+import org.jruby.ext.openssl.impl.ASN1Parser;
 import org.jruby.ext.openssl.impl.ASN1Registry;
+import org.jruby.ext.openssl.impl.Base64;
 import org.jruby.ext.openssl.impl.CipherSpec;
 import org.jruby.ext.openssl.impl.PKCS10Request;
 
@@ -290,6 +295,176 @@ public class PEMInputOutput {
         return null;
     }
 
+    /**
+     * c: PEM_X509_INFO_read_bio (reads the current block of the scanner)
+     * @return the read object or null if the block (label) is not handled
+     */
+    public static Object readPEM(final PEMScanner pem, final char[] passwd) throws IOException {
+        switch ( pem.label() ) {
+            case PEMScanner.PUBLIC :
+            case PEMScanner.RSA_PUBLIC :
+                return readPubKey(pem);
+            case PEMScanner.RSA :
+            case PEMScanner.DSA :
+            case PEMScanner.ECPRIVATEKEY :
+                return readPrivateKey(pem, passwd);
+            case PEMScanner.X509 :
+            case PEMScanner.X509_OLD :
+            case PEMScanner.X509_TRUSTED :
+                try {
+                    return readAuxCertificate(pem.decode());
+                } catch (Exception e) {
+                    throw new IOException("problem creating X509 Aux certificate: " + e.toString(), e);
+                }
+            case PEMScanner.X509_CRL :
+                try {
+                    return readCRL(pem.decode());
+                } catch (Exception e) {
+                    throw new IOException("problem creating X509 CRL: " + e.toString(), e);
+                }
+            case PEMScanner.X509_REQ :
+            case PEMScanner.X509_REQ_OLD :
+                try {
+                    return new PKCS10Request(pem.decode());
+                } catch (Exception e) {
+                    throw new IOException("problem creating X509 REQ: " + e.toString(), e);
+                }
+        }
+        return null;
+    }
+
+    /**
+     * @return (DER) bytes of the first certificate, CRL or request block or null
+     */
+    public static byte[] readX509PEM(final byte[] bytes, final int off, final int len) throws IOException {
+        final PEMScanner pem = new PEMScanner(bytes, off, len);
+        while ( pem.next() ) {
+            switch ( pem.label() ) {
+                case PEMScanner.X509 :
+                case PEMScanner.X509_OLD :
+                case PEMScanner.X509_TRUSTED :
+                case PEMScanner.X509_CRL :
+                case PEMScanner.X509_REQ :
+                case PEMScanner.X509_REQ_OLD :
+                    return pem.decode();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * c: PEM_read_bio_PrivateKey
+     * CAUTION: KeyPair#getPublic() may be null.
+     */
+    public static KeyPair readPrivateKey(final byte[] bytes, final int off, final int len, final char[] passwd)
+        throws IOException {
+        final PEMScanner pem = new PEMScanner(bytes, off, len);
+        while ( pem.next() ) {
+            final KeyPair key = readPrivateKey(pem, passwd);
+            if ( key != null ) return key;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a private key from the current block of the scanner.
+     * @return the key (pair) or null if the block is not a private key
+     */
+    public static KeyPair readPrivateKey(final PEMScanner pem, final char[] passwd) throws IOException {
+        switch ( pem.label() ) {
+            case PEMScanner.RSA :
+                try {
+                    return readKeyPair(pem, passwd, "RSA");
+                } catch (Exception e) {
+                    throw new IOException("problem creating RSA private key: " + e.toString(), e);
+                }
+            case PEMScanner.DSA :
+                try {
+                    return readKeyPair(pem, passwd, "DSA");
+                } catch (Exception e) {
+                    throw new IOException("problem creating DSA private key: " + e.toString(), e);
+                }
+            case PEMScanner.ECPRIVATEKEY :
+                try {
+                    return readKeyPair(pem, passwd, "EC");
+                } catch (Exception e) {
+                    throw new IOException("problem creating EC private key: " + e.toString(), e);
+                }
+            case PEMScanner.PKCS8INF :
+                try {
+                    PrivateKeyInfo info = PrivateKeyInfo.getInstance(pem.decode());
+                    String type = getPrivateKeyTypeFromObjectId(info.getPrivateKeyAlgorithm().getAlgorithm());
+                    if ( type.equals("EC") ) { // curve parameters are part of the algorithm identifier
+                        return org.jruby.ext.openssl.impl.PKey.readECPrivateKey(info.getEncoded(ASN1Encoding.DER));
+                    }
+                    return org.jruby.ext.openssl.impl.PKey.readPrivateKey(((ASN1Object) info.parsePrivateKey()).getEncoded(ASN1Encoding.DER), type);
+                }
+                catch (Exception e) {
+                    throw new IOException("problem creating private key: " + e.toString(), e);
+                }
+            case PEMScanner.PKCS8 :
+                try {
+                    return readEncryptedPrivateKey(pem.decode(), passwd);
+                } catch (Exception e) {
+                    throw new IOException("problem creating private key: " + e.toString(), e);
+                }
+        }
+        return null;
+    }
+
+    /**
+     * c: PEM_read_bio_PUBKEY
+     */
+    public static PublicKey readPubKey(final byte[] bytes, final int off, final int len) throws IOException {
+        final PEMScanner pem = new PEMScanner(bytes, off, len);
+        while ( pem.next() ) {
+            if ( isPublicKey(pem) ) return readPubKey(pem);
+        }
+        return null;
+    }
+
+    /**
+     * c: PEM_read_bio_PrivateKey falling back to PEM_read_bio_PUBKEY
+     * Blocks are picked by their label, only the (first) key block is parsed.
+     * @return the private key (pair), the public key (when there's no private
+     * one) or null if there are no key blocks
+     */
+    public static Object readKey(final byte[] bytes, final int off, final int len, final char[] passwd)
+        throws IOException {
+        final PEMScanner pem = new PEMScanner(bytes, off, len);
+        PublicKey pubKey = null;
+        while ( pem.next() ) {
+            if ( isPublicKey(pem) ) {
+                if ( pubKey == null ) pubKey = readPubKey(pem);
+                continue;
+            }
+            final KeyPair key = readPrivateKey(pem, passwd);
+            if ( key != null ) return key;
+        }
+        return pubKey;
+    }
+
+    private static boolean isPublicKey(final PEMScanner pem) {
+        switch ( pem.label() ) {
+            case PEMScanner.PUBLIC :
+            case PEMScanner.RSA_PUBLIC :
+            case PEMScanner.DSA_PUBLIC :
+                return true;
+        }
+        return false;
+    }
+
+    // NOTE: RSA/DSA PUBLIC KEY blocks we write contain a SubjectPublicKeyInfo
+    // (but might also be PKCS#1 RSAPublicKey or a plain DSA public key)
+    private static PublicKey readPubKey(final PEMScanner pem) throws IOException {
+        try {
+            final Object key = org.jruby.ext.openssl.impl.PKey.readKey(pem.decode());
+            return key instanceof PublicKey ? (PublicKey) key : null;
+        } catch (Exception e) {
+            throw new IOException("problem creating public key: " + e.toString(), e);
+        }
+    }
+
     /**
      * c: PEM_read_PrivateKey + PEM_read_bio_PrivateKey
      * CAUTION: KeyPair#getPublic() may be null.
@@ -315,14 +490,21 @@ public class PEMInputOutput {
                     throw new IOException("problem creating DSA private key: " + e.toString(), e);
                 }
             }
-            else if ( line.indexOf(BEG_STRING_ECPRIVATEKEY) != -1) { // TODO EC!
-                throw new UnsupportedOperationException("EC private key not supported");
+            else if ( line.indexOf(BEG_STRING_ECPRIVATEKEY) != -1) {
+                try {
+                    return readKeyPair(reader, passwd, "EC", BEF_E + PEM_STRING_ECPRIVATEKEY);
+                } catch (Exception e) {
+                    throw new IOException("problem creating EC private key: " + e.toString(), e);
+                }
             }
             else if ( line.indexOf(BEG_STRING_PKCS8INF) != -1) {
                 try {
                     byte[] bytes = readBytes(reader, BEF_E + PEM_STRING_PKCS8INF);
                     PrivateKeyInfo info = PrivateKeyInfo.getInstance(bytes);
                     String type = getPrivateKeyTypeFromObjectId(info.getPrivateKeyAlgorithm().getAlgorithm());
+                    if ( type.equals("EC") ) { // curve parameters are part of the algorithm identifier
+                        return org.jruby.ext.openssl.impl.PKey.readECPrivateKey(info.getEncoded(ASN1Encoding.DER));
+                    }
                     return org.jruby.ext.openssl.impl.PKey.readPrivateKey(((ASN1Object) info.parsePrivateKey()).getEncoded(ASN1Encoding.DER), type);
                 }
                 catch (Exception e) {
@@ -331,16 +513,7 @@ public class PEMInputOutput {
             }
             else if ( line.indexOf(BEG_STRING_PKCS8) != -1 ) {
                 try {
-                    byte[] bytes = readBytes(reader, BEF_E + PEM_STRING_PKCS8);
-                    EncryptedPrivateKeyInfo eIn = EncryptedPrivateKeyInfo.getInstance(bytes);
-                    AlgorithmIdentifier algId = eIn.getEncryptionAlgorithm();
-                    PrivateKey privKey;
-                    if (algId.getAlgorithm().toString().equals("1.2.840.113549.1.5.13")) { // PBES2
-                        privKey = derivePrivateKeyPBES2(eIn, algId, passwd);
-                    } else {
-                        privKey = derivePrivateKeyPBES1(eIn, algId, passwd);
-                    }
-                    return new KeyPair(null, privKey);
+                    return readEncryptedPrivateKey(readBytes(reader, BEF_E + PEM_STRING_PKCS8), passwd);
                 } catch (Exception e) {
                     throw new IOException("problem creating private key: " + e.toString(), e);
                 }
@@ -349,6 +522,19 @@ public class PEMInputOutput {
         return null;
     }
 
+    private static KeyPair readEncryptedPrivateKey(final byte[] bytes, final char[] passwd)
+        throws GeneralSecurityException, IOException, InvalidCipherTextException {
+        EncryptedPrivateKeyInfo eIn = EncryptedPrivateKeyInfo.getInstance(bytes);
+        AlgorithmIdentifier algId = eIn.getEncryptionAlgorithm();
+        PrivateKey privKey;
+        if (algId.getAlgorithm().toString().equals("1.2.840.113549.1.5.13")) { // PBES2
+            privKey = derivePrivateKeyPBES2(eIn, algId, passwd);
+        } else {
+            privKey = derivePrivateKeyPBES1(eIn, algId, passwd);
+        }
+        return new KeyPair(null, privKey);
+    }
+
     private static PrivateKey derivePrivateKeyPBES1(EncryptedPrivateKeyInfo eIn, AlgorithmIdentifier algId, char[] password)
             throws GeneralSecurityException, IOException {
         // From BC's PEMReader
@@ -662,6 +848,26 @@ public class PEMInputOutput {
         return null;
     }
 
+    /**
+     * c: PEM_read_bio_ECPKParameters
+     * @return the (named) curve or null if no EC PARAMETERS block found
+     */
+    public static ASN1ObjectIdentifier readECParameters(final Reader in) throws IOException {
+        final String BEG_STRING_ECPARAMETERS = BEF_G + PEM_STRING_ECPARAMETERS;
+        final BufferedReader reader = makeBuffered(in); String line;
+        while ( ( line = reader.readLine() ) != null ) {
+            if ( line.indexOf(BEG_STRING_ECPARAMETERS) != -1 ) {
+                final byte[] bytes = readBytes(reader, BEF_E + PEM_STRING_ECPARAMETERS);
+                final Object params = new ASN1InputStream(bytes).readObject();
+                if ( params instanceof ASN1ObjectIdentifier ) {
+                    return (ASN1ObjectIdentifier) params;
+                }
+                throw new IOException("only named curve parameters are supported");
+            }
+        }
+        return null;
+    }
+
     public static DHParameterSpec readDHParameters(final Reader in) throws IOException {
         final String BEG_STRING_DHPARAMS = BEF_G + PEM_STRING_DHPARAMS;
 
@@ -793,58 +999,63 @@ public class PEMInputOutput {
     }
     public static void writeX509Aux(final Writer _out, final X509AuxCertificate cert) throws IOException {
         BufferedWriter out = makeBuffered(_out);
-        byte[] encoding;
+        final byte[] encoding = getEncodedAux(cert);
+        out.write(BEF_G + PEM_STRING_X509_TRUSTED + AFT);
+        out.newLine();
+        writeEncoded(out,encoding);
+        out.write(BEF_E + PEM_STRING_X509_TRUSTED + AFT);
+        out.newLine();
+        out.flush();
+    }
+
+    /**
+     * @return the certificate's DER encoding followed by the (optional) aux
+     * sequence - same bytes as are base64-ed for a "TRUSTED CERTIFICATE"
+     */
+    static byte[] getEncodedAux(final X509AuxCertificate cert) throws IOException {
         try {
-            if ( cert.aux == null ) {
-                encoding = cert.getEncoded();
-            }
-            else {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                byte[] enc = cert.getEncoded();
-                baos.write(enc, 0, enc.length);
-
-                final X509Aux aux = cert.aux;
-                ASN1EncodableVector a1 = new ASN1EncodableVector();
-                if ( aux.trust.size() > 0 ) {
-                    ASN1EncodableVector a2 = new ASN1EncodableVector();
-                    for ( String trust : aux.trust ) {
-                        a2.add(new ASN1ObjectIdentifier(trust));
-                    }
-                    a1.add(new DLSequence(a2));
+            if ( cert.aux == null ) return cert.getEncoded();
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] enc = cert.getEncoded();
+            baos.write(enc, 0, enc.length);
+
+            final X509Aux aux = cert.aux;
+            ASN1EncodableVector a1 = new ASN1EncodableVector();
+            if ( aux.trust.size() > 0 ) {
+                ASN1EncodableVector a2 = new ASN1EncodableVector();
+                for ( String trust : aux.trust ) {
+                    a2.add(new ASN1ObjectIdentifier(trust));
                 }
-                if ( aux.reject.size() > 0 ) {
-                    ASN1EncodableVector a2 = new ASN1EncodableVector();
-                    for ( String reject : aux.reject ) {
-                        a2.add(new ASN1ObjectIdentifier(reject));
-                    }
-                    a1.add(new DERTaggedObject(0,new DLSequence(a2)));
-                }
-                if ( aux.alias != null ) {
-                    a1.add(new DERUTF8String(aux.alias));
-                }
-                if ( aux.keyid != null ) {
-                    a1.add(new DEROctetString(aux.keyid));
-                }
-                if ( aux.other.size() > 0 ) {
-                    ASN1EncodableVector a2 = new ASN1EncodableVector();
-                    for ( ASN1Primitive other : aux.other ) a2.add(other);
-                    a1.add( new DERTaggedObject( 1, new DLSequence(a2) ) );
+                a1.add(new DLSequence(a2));
+            }
+            if ( aux.reject.size() > 0 ) {
+                ASN1EncodableVector a2 = new ASN1EncodableVector();
+                for ( String reject : aux.reject ) {
+                    a2.add(new ASN1ObjectIdentifier(reject));
                 }
-                enc = new DLSequence(a1).getEncoded();
-                baos.write(enc, 0, enc.length);
-                encoding = baos.toByteArray();
+                a1.add(new DERTaggedObject(0,new DLSequence(a2)));
+            }
+            if ( aux.alias != null ) {
+                a1.add(new DERUTF8String(aux.alias));
+            }
+            if ( aux.keyid != null ) {
+                a1.add(new DEROctetString(aux.keyid));
             }
+            if ( aux.other.size() > 0 ) {
+                ASN1EncodableVector a2 = new ASN1EncodableVector();
+                for ( ASN1Primitive other : aux.other ) a2.add(other);
+                a1.add( new DERTaggedObject( 1, new DLSequence(a2) ) );
+            }
+            enc = new DLSequence(a1).getEncoded();
+            baos.write(enc, 0, enc.length);
+            return baos.toByteArray();
         }
         catch (CertificateEncodingException e) {
             throw new IOException("problem with encoding object in write_X509_AUX", e);
         }
-        out.write(BEF_G + PEM_STRING_X509_TRUSTED + AFT);
-        out.newLine();
-        writeEncoded(out,encoding);
-        out.write(BEF_E + PEM_STRING_X509_TRUSTED + AFT);
-        out.newLine();
-        out.flush();
     }
+
     public static void writeX509CRL(Writer _out, X509CRL obj) throws IOException {
         BufferedWriter out = makeBuffered(_out);
         byte[] encoding = getEncoded(obj);
@@ -908,6 +1119,31 @@ public class PEMInputOutput {
         }
     }
 
+    public static void writeECPrivateKey(Writer _out, ECPrivateKey obj, ECPublicKey pub, CipherSpec cipher, char[] passwd) throws IOException {
+        assert (obj != null);
+        BufferedWriter out = makeBuffered(_out);
+        final String curveName = org.jruby.ext.openssl.impl.PKey.getCurveName(obj.getParams());
+        byte[] encoding = org.jruby.ext.openssl.impl.PKey.toDerECKey(pub, obj, curveName);
+
+        if (cipher != null && passwd != null) {
+            writePemEncrypted(out, PEM_STRING_ECPRIVATEKEY, encoding, cipher, passwd);
+        } else {
+            writePemPlain(out, PEM_STRING_ECPRIVATEKEY, encoding);
+        }
+    }
+
+    /** writes an EC public key encoded as a SubjectPublicKeyInfo structure. */
+    public static void writeECPublicKey(Writer _out, ECPublicKey obj) throws IOException {
+        final String curveName = org.jruby.ext.openssl.impl.PKey.getCurveName(obj.getParams());
+        byte[] encoding = org.jruby.ext.openssl.impl.PKey.toDerECKey(obj, null, curveName);
+        writePemPlain(makeBuffered(_out), PEM_STRING_PUBLIC, encoding);
+    }
+
+    /** writes EC (named curve) parameters. */
+    public static void writeECParameters(Writer _out, ASN1ObjectIdentifier curve) throws IOException {
+        writePemPlain(makeBuffered(_out), PEM_STRING_ECPARAMETERS, curve.getEncoded(ASN1Encoding.DER));
+    }
+
     private static void writePemPlain(BufferedWriter out, String pemHeader, byte[] encoding) throws IOException {
         out.write(BEF_G + pemHeader + AFT);
         out.newLine();
@@ -1001,13 +1237,27 @@ public class PEMInputOutput {
     }
 
     private static String getPrivateKeyTypeFromObjectId(ASN1ObjectIdentifier oid) {
-        if ( ASN1Registry.oid2nid(oid) == ASN1Registry.NID_rsaEncryption ) {
+        final Integer nid = ASN1Registry.oid2nid(oid);
+        if ( nid != null && nid == ASN1Registry.NID_rsaEncryption ) {
             return "RSA";
+        } else if ( nid != null && nid == ASN1Registry.NID_X9_62_id_ecPublicKey ) {
+            return "EC";
         } else {
             return "DSA";
         }
     }
 
+    // c: d2i_EC_PUBKEY
+    private static PublicKey readECPublicKey(final byte[] input) throws IOException {
+        try {
+            return org.jruby.ext.openssl.impl.PKey.readECPublicKey(input);
+        }
+        catch (NoSuchAlgorithmException e) { /* ignore */ }
+        catch (InvalidKeySpecException e) { /* ignore */ }
+        catch (RuntimeException e) { /* ignore */ }
+        return null;
+    }
+
     private static byte[] readBytes(BufferedReader in, String endMarker) throws IOException {
         String line; final StringBuilder buffer = new StringBuilder();
 
@@ -1022,7 +1272,11 @@ public class PEMInputOutput {
     }
 
     private static RSAPublicKey readRSAPublicKey(BufferedReader in, String endMarker) throws IOException {
-        Object asnObject = new ASN1InputStream(readBytes(in, endMarker)).readObject();
+        return readRSAPublicKey(readBytes(in, endMarker));
+    }
+
+    private static RSAPublicKey readRSAPublicKey(final byte[] input) throws IOException {
+        Object asnObject = new ASN1InputStream(input).readObject();
         ASN1Sequence sequence = (ASN1Sequence) asnObject;
         org.bouncycastle.asn1.pkcs.RSAPublicKey rsaPubStructure = org.bouncycastle.asn1.pkcs.RSAPublicKey.getInstance(sequence);
         RSAPublicKeySpec keySpec = new RSAPublicKeySpec(
@@ -1060,7 +1314,7 @@ public class PEMInputOutput {
                 return key;
             }
         }
-        return null;
+        return readECPublicKey(input);
     }
 
     /**
@@ -1093,6 +1347,12 @@ public class PEMInputOutput {
         return org.jruby.ext.openssl.impl.PKey.readPrivateKey(keyBytes, type);
     }
 
+    private static KeyPair readKeyPair(final PEMScanner pem, final char[] passwd, final String type) throws Exception {
+        byte[] keyBytes = pem.decode();
+        if ( pem.isEncrypted() ) keyBytes = decrypt(keyBytes, pem.getDEKInfo(), passwd);
+        return org.jruby.ext.openssl.impl.PKey.readPrivateKey(keyBytes, type);
+    }
+
     private static byte[] decrypt(byte[] decoded, String dekInfo, char[] passwd) throws IOException, GeneralSecurityException {
         if (passwd == null) {
             throw new IOException("Password is null, but a password is required");
@@ -1169,45 +1429,122 @@ public class PEMInputOutput {
             throw new IOException(endMarker + " not found");
         }
 
-        ASN1InputStream try1 = new ASN1InputStream(Base64.decode(buf.toString()));
-        ByteArrayInputStream bIn = new ByteArrayInputStream((try1.readObject()).getEncoded());
+        return readAuxCertificate( Base64.decode(buf.toString()) );
+    }
+
+    /**
+     * Reads a certificate (DER) with optional trailing aux information
+     * e.g. as returned from {@link #getEncodedAux(X509AuxCertificate)}.
+     */
+    static X509AuxCertificate readAuxCertificate(final byte[] encoded) throws IOException {
+        return readAuxCertificate(encoded, 0, encoded.length, getX509CertificateFactory());
+    }
+
+    private static X509Aux readAux(final ASN1Sequence aux) {
+        if ( aux == null ) return null;
+        final X509Aux ax = new X509Aux();
+        int ix = 0;
+        if(aux.size() > ix && aux.getObjectAt(ix) instanceof ASN1Sequence) {
+            ASN1Sequence trust = (ASN1Sequence)aux.getObjectAt(ix++);
+            for(int i=0;i<trust.size();i++) {
+                ax.trust.add(((ASN1ObjectIdentifier)trust.getObjectAt(i)).getId());
+            }
+        }
+        if(aux.size() > ix && aux.getObjectAt(ix) instanceof ASN1TaggedObject && ((ASN1TaggedObject)aux.getObjectAt(ix)).getTagNo() == 0) {
+            ASN1Sequence reject = (ASN1Sequence)((ASN1TaggedObject)aux.getObjectAt(ix++)).getObject();
+            for(int i=0;i<reject.size();i++) {
+                ax.reject.add(((ASN1ObjectIdentifier)reject.getObjectAt(i)).getId());
+            }
+        }
+        if(aux.size()>ix && aux.getObjectAt(ix) instanceof DERUTF8String) {
+            ax.alias = ((DERUTF8String)aux.getObjectAt(ix++)).getString();
+        }
+        if(aux.size()>ix && aux.getObjectAt(ix) instanceof DEROctetString) {
+            ax.keyid = ((DEROctetString)aux.getObjectAt(ix++)).getOctets();
+        }
+        if(aux.size() > ix && aux.getObjectAt(ix) instanceof ASN1TaggedObject && ((ASN1TaggedObject)aux.getObjectAt(ix)).getTagNo() == 1) {
+            ASN1Sequence other = (ASN1Sequence)((ASN1TaggedObject)aux.getObjectAt(ix++)).getObject();
+            for(int i=0;i<other.size();i++) {
+                ax.other.add((ASN1Primitive)(other.getObjectAt(i)));
+            }
+        }
+        return ax;
+    }
+
+    /**
+     * Reads all certificates from a PEM bundle (or from concatenated DER)
+     * scanning the bytes directly - no Reader/String copies - and sharing
+     * a single certificate factory for the whole bundle.
+     */
+    public static List<X509AuxCertificate> readX509Certificates(final byte[] bytes, final int off, final int len)
+        throws IOException {
+        final CertificateFactory factory = getX509CertificateFactory();
+        final ArrayList<X509AuxCertificate> certs = new ArrayList<X509AuxCertificate>();
+        final int end = off + len;
+        int i = skipWhitespace(bytes, off, end);
+
+        if ( i < end && bytes[i] == 0x30 ) { // DER - SEQUENCE(s) one after another
+            while ( i < end ) {
+                final int certLen = derLength(bytes, i, end);
+                certs.add( readAuxCertificate(bytes, i, certLen, factory) );
+                i = skipWhitespace(bytes, i + certLen, end);
+            }
+            return certs;
+        }
 
+        final PEMScanner pem = new PEMScanner(bytes, i, end - i);
+        while ( pem.next() ) {
+            if ( pem.isCertificate() ) {
+                final byte[] der = pem.decode();
+                certs.add( readAuxCertificate(der, 0, der.length, factory) );
+            }
+        }
+        return certs;
+    }
+
+    private static CertificateFactory getX509CertificateFactory() throws IOException {
         try {
-            CertificateFactory certFact = CertificateFactory.getInstance("X.509");
-            X509Certificate bCert = (X509Certificate)certFact.generateCertificate(bIn);
-            ASN1Sequence aux = (ASN1Sequence)try1.readObject();
-            X509Aux ax = null;
-            if(aux != null) {
-                ax = new X509Aux();
-                int ix = 0;
-                if(aux.size() > ix && aux.getObjectAt(ix) instanceof ASN1Sequence) {
-                    ASN1Sequence trust = (ASN1Sequence)aux.getObjectAt(ix++);
-                    for(int i=0;i<trust.size();i++) {
-                        ax.trust.add(((ASN1ObjectIdentifier)trust.getObjectAt(i)).getId());
-                    }
-                }
-                if(aux.size() > ix && aux.getObjectAt(ix) instanceof ASN1TaggedObject && ((ASN1TaggedObject)aux.getObjectAt(ix)).getTagNo() == 0) {
-                    ASN1Sequence reject = (ASN1Sequence)((ASN1TaggedObject)aux.getObjectAt(ix++)).getObject();
-                    for(int i=0;i<reject.size();i++) {
-                        ax.reject.add(((ASN1ObjectIdentifier)reject.getObjectAt(i)).getId());
-                    }
-                }
-                if(aux.size()>ix && aux.getObjectAt(ix) instanceof DERUTF8String) {
-                    ax.alias = ((DERUTF8String)aux.getObjectAt(ix++)).getString();
-                }
-                if(aux.size()>ix && aux.getObjectAt(ix) instanceof DEROctetString) {
-                    ax.keyid = ((DEROctetString)aux.getObjectAt(ix++)).getOctets();
-                }
-                if(aux.size() > ix && aux.getObjectAt(ix) instanceof ASN1TaggedObject && ((ASN1TaggedObject)aux.getObjectAt(ix)).getTagNo() == 1) {
-                    ASN1Sequence other = (ASN1Sequence)((ASN1TaggedObject)aux.getObjectAt(ix++)).getObject();
-                    for(int i=0;i<other.size();i++) {
-                        ax.other.add((ASN1Primitive)(other.getObjectAt(i)));
-                    }
-                }
+            return SecurityHelper.getCertificateFactory("X.509");
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("problem creating certificate factory: " + e.toString(), e);
+        }
+    }
+
+    private static int skipWhitespace(final byte[] bytes, int i, final int end) {
+        while ( i < end && ( bytes[i] == ' ' || bytes[i] == '\n' || bytes[i] == '\r' || bytes[i] == '\t' ) ) i++;
+        return i;
+    }
+
+    /**
+     * @return the total (header + content) length of the DER value at offset
+     */
+    static int derLength(final byte[] bytes, final int off, final int end) throws IOException {
+        final ASN1Parser parser = new ASN1Parser(bytes, off, end - off);
+        if ( ! parser.next() ) throw new IOException("DER value missing");
+        if ( parser.length() == -1 ) throw new IOException("DER indefinite length not supported");
+        return parser.headerLength() + (int) parser.length(); // bounds checked
+    }
+
+    /**
+     * Reads a certificate (DER) with optional trailing aux information, from
+     * the given slice of bytes.
+     */
+    private static X509AuxCertificate readAuxCertificate(final byte[] encoded, final int off, final int len,
+        final CertificateFactory factory) throws IOException {
+        final int certLen = derLength(encoded, off, off + len);
+        try {
+            final X509Certificate cert = (X509Certificate)
+                factory.generateCertificate(new ByteArrayInputStream(encoded, off, certLen));
+            X509Aux aux = null;
+            if ( certLen < len ) {
+                ASN1InputStream auxIn = new ASN1InputStream(new ByteArrayInputStream(encoded, off + certLen, len - certLen));
+                aux = readAux( (ASN1Sequence) auxIn.readObject() );
             }
-            return new X509AuxCertificate(bCert,ax);
-        } catch (Exception e) {
-            throw new IOException("problem parsing cert: " + e.toString());
+            return new X509AuxCertificate(cert, aux);
+        }
+        catch (Exception e) {
+            throw new IOException("problem parsing cert: " + e.toString(), e);
         }
     }
 
@@ -1232,10 +1569,13 @@ public class PEMInputOutput {
             throw new IOException(endMarker + " not found");
         }
 
+        return readCRL( Base64.decode(buf.toString()) );
+    }
+
+    private static X509CRL readCRL(final byte[] encoded) throws IOException {
         try {
             CertificateFactory certFact = CertificateFactory.getInstance("X.509");
-            ByteArrayInputStream bIn = new ByteArrayInputStream(Base64.decode(buf.toString()));
-            return (X509CRL) certFact.generateCRL(bIn);
+            return (X509CRL) certFact.generateCRL(new ByteArrayInputStream(encoded));
         } catch (Exception e) {
             throw new IOException("problem parsing cert: " + e.toString());
         }
@@ -1277,21 +1617,11 @@ public class PEMInputOutput {
     }
 
     private static void writeEncoded(BufferedWriter out, byte[] bytes) throws IOException {
-        char[]  buf = new char[64];
-        bytes = Base64.encode(bytes);
-        for (int i = 0; i < bytes.length; i += buf.length) {
-            int index = 0;
-
-            while (index != buf.length) {
-                if ((i + index) >= bytes.length) {
-                    break;
-                }
-                buf[index] = (char)bytes[i + index];
-                index++;
-            }
-            out.write(buf, 0, index);
-            out.newLine();
-        }
+        // base64 wrapped at 64 chars - each line terminated with a '\n'
+        final byte[] encoded = Base64.encode(bytes, 0, bytes.length, Base64.PEM_LINE_LENGTH);
+        final char[] chars = new char[ encoded.length ];
+        for ( int i = 0; i < encoded.length; i++ ) chars[i] = (char) encoded[i];
+        out.write(chars);
     }
 
     /**
@@ -1304,26 +1634,22 @@ public class PEMInputOutput {
     private static CMSSignedData readPKCS7(BufferedReader in, char[] p, String endMarker) throws IOException {
         String line;
         StringBuilder buf = new StringBuilder();
-        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
 
         while ((line = in.readLine()) != null) {
             if (line.indexOf(endMarker) != -1) {
                 break;
             }
-            line = line.trim();
             buf.append(line.trim());
-            Base64.decode(buf.substring(0, (buf.length() / 4) * 4), bOut);
-            buf.delete(0, (buf.length() / 4) * 4);
         }
 
-        if (buf.length() != 0) {
+        if (buf.length() % 4 != 0) {
             throw new IOException("base64 data appears to be truncated");
         }
         if (line == null) {
             throw new IOException(endMarker + " not found");
         }
         try {
-            ASN1InputStream aIn = new ASN1InputStream(bOut.toByteArray());
+            ASN1InputStream aIn = new ASN1InputStream(Base64.decode(buf));
             return new CMSSignedData(ContentInfo.getInstance(aIn.readObject()));
         }
         catch (Exception e) {
@@ -0,0 +1,272 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.x509store;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.jruby.ext.openssl.impl.Base64;
+import org.jruby.util.ByteList;
+
+import static org.jruby.ext.openssl.x509store.PEMInputOutput.*;
+
+/**
+ * Scans bytes for PEM (-----BEGIN label----- ... -----END label-----) blocks.
+ *
+ * Works on the input bytes directly - no Reader, no line Strings - labels are
+ * resolved using a lookup table and the (base64) contents are decoded straight
+ * from the input slice.
+ */
+public final class PEMScanner {
+
+    // known labels :
+    public static final int UNKNOWN = 0;
+    public static final int X509 = 1;
+    public static final int X509_OLD = 2;
+    public static final int X509_TRUSTED = 3;
+    public static final int X509_PAIR = 4;
+    public static final int X509_REQ = 5;
+    public static final int X509_REQ_OLD = 6;
+    public static final int X509_CRL = 7;
+    public static final int PUBLIC = 8;
+    public static final int RSA = 9;
+    public static final int RSA_PUBLIC = 10;
+    public static final int DSA = 11;
+    public static final int DSA_PUBLIC = 12;
+    public static final int PKCS7 = 13;
+    public static final int PKCS8 = 14;
+    public static final int PKCS8INF = 15;
+    public static final int EVP_PKEY = 16;
+    public static final int DHPARAMS = 17;
+    public static final int DSAPARAMS = 18;
+    public static final int ECDSA_PUBLIC = 19;
+    public static final int ECPARAMETERS = 20;
+    public static final int ECPRIVATEKEY = 21;
+    public static final int SSL_SESSION = 22;
+
+    private static final String[] LABELS = {
+        null,
+        PEM_STRING_X509, PEM_STRING_X509_OLD, PEM_STRING_X509_TRUSTED, PEM_STRING_X509_PAIR,
+        PEM_STRING_X509_REQ, PEM_STRING_X509_REQ_OLD, PEM_STRING_X509_CRL,
+        PEM_STRING_PUBLIC, PEM_STRING_RSA, PEM_STRING_RSA_PUBLIC, PEM_STRING_DSA, PEM_STRING_DSA_PUBLIC,
+        PEM_STRING_PKCS7, PEM_STRING_PKCS8, PEM_STRING_PKCS8INF, PEM_STRING_EVP_PKEY,
+        PEM_STRING_DHPARAMS, PEM_STRING_DSAPARAMS,
+        PEM_STRING_ECDSA_PUBLIC, PEM_STRING_ECPARAMETERS, PEM_STRING_ECPRIVATEKEY,
+        PEM_STRING_SSL_SESSION
+    };
+
+    private static final HashMap<ByteList, Integer> LABEL_IDS = new HashMap<ByteList, Integer>(32);
+
+    static {
+        for ( int i = 1; i < LABELS.length; i++ ) {
+            LABEL_IDS.put(new ByteList(ByteList.plain(LABELS[i]), false), i);
+        }
+    }
+
+    private static final byte[] BEGIN = ByteList.plain(BEF_G);
+    private static final byte[] END = ByteList.plain(BEF_E);
+    private static final byte[] DASHES = ByteList.plain(AFT);
+
+    // scanner states :
+    private static final int SEEK = 0; // looking for -----BEGIN
+    private static final int LABEL = 1; // reading label up to -----
+    private static final int HEADERS = 2; // RFC 1421 headers e.g. Proc-Type: 4,ENCRYPTED
+    private static final int BODY = 3; // base64 contents up to -----END
+    private static final int END_LABEL = 4; // label (same as BEGIN) followed by -----
+
+    private final byte[] bytes;
+    private final int end;
+    private int pos;
+
+    // current block :
+    private int begin = -1;
+    private int label;
+    private int labelBeg, labelEnd;
+    private int bodyBeg, bodyEnd;
+    private boolean encrypted;
+    private String dekInfo;
+
+    public PEMScanner(final byte[] bytes, final int offset, final int length) {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    public PEMScanner(final ByteList bytes) {
+        this(bytes.unsafeBytes(), bytes.getBegin(), bytes.getRealSize());
+    }
+
+    /**
+     * @return whether the bytes contain a (PEM) BEGIN marker
+     */
+    public static boolean isPEM(final ByteList bytes) {
+        final byte[] b = bytes.unsafeBytes();
+        final int last = bytes.getBegin() + bytes.getRealSize() - BEGIN.length;
+        OUTER: for ( int i = bytes.getBegin(); i <= last; i++ ) {
+            for ( int j = 0; j < BEGIN.length; j++ ) {
+                if ( b[i + j] != BEGIN[j] ) continue OUTER;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next PEM block.
+     * @return false if no more (BEGIN) markers are found
+     * @throws IOException for a block without a (matching) END marker
+     */
+    public boolean next() throws IOException {
+        final byte[] bytes = this.bytes;
+        int state = SEEK; int i = pos;
+        while ( true ) {
+            switch ( state ) {
+            case SEEK :
+                if ( i > end - BEGIN.length ) {
+                    pos = end; begin = -1; return false;
+                }
+                if ( bytes[i] == '-' && matches(BEGIN, i) ) {
+                    begin = i; i += BEGIN.length; labelBeg = i;
+                    state = LABEL; continue;
+                }
+                i++; continue;
+            case LABEL :
+                if ( i >= end || bytes[i] == '\n' || bytes[i] == '\r' ) {
+                    state = SEEK; continue; // not a marker line
+                }
+                if ( bytes[i] == '-' && matches(DASHES, i) ) {
+                    labelEnd = i; i += DASHES.length;
+                    final Integer id = LABEL_IDS.get(new ByteList(bytes, labelBeg, labelEnd - labelBeg, false));
+                    label = id == null ? UNKNOWN : id.intValue();
+                    encrypted = false; dekInfo = null;
+                    i = nextLine(i);
+                    state = HEADERS; continue;
+                }
+                i++; continue;
+            case HEADERS :
+                final int lineEnd = lineEnd(i);
+                final int colon = indexOf((byte) ':', i, lineEnd);
+                if ( colon == -1 || bytes[i] == '-' ) {
+                    bodyBeg = i; state = BODY; continue;
+                }
+                final String name = new String(bytes, i, colon - i, "ISO-8859-1").trim();
+                final String value = new String(bytes, colon + 1, lineEnd - colon - 1, "ISO-8859-1").trim();
+                if ( "Proc-Type".equals(name) ) encrypted = value.endsWith("ENCRYPTED");
+                else if ( "DEK-Info".equals(name) ) dekInfo = value;
+                i = nextLine(lineEnd); continue;
+            case BODY :
+                if ( i > end - END.length ) throw new IOException(BEF_E + labelName() + " not found");
+                if ( bytes[i] == '-' && matches(END, i) ) {
+                    bodyEnd = i; i += END.length;
+                    state = END_LABEL; continue;
+                }
+                i++; continue;
+            case END_LABEL :
+                final int labelLen = labelEnd - labelBeg;
+                if ( i + labelLen + DASHES.length > end || ! matches(bytes, labelBeg, labelLen, i) ||
+                     ! matches(DASHES, i + labelLen) ) {
+                    throw new IOException(BEF_E + labelName() + " not found");
+                }
+                pos = i + labelLen + DASHES.length;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the (known) label of the current block or {@link #UNKNOWN}
+     */
+    public int label() { return label; }
+
+    public String labelName() {
+        if ( label != UNKNOWN ) return LABELS[label];
+        return new String(bytes, labelBeg, labelEnd - labelBeg);
+    }
+
+    public boolean isCertificate() {
+        return label == X509 || label == X509_OLD || label == X509_TRUSTED;
+    }
+
+    /**
+     * @return offset of the current block's BEGIN marker
+     */
+    public int begin() { return begin; }
+
+    /**
+     * @return offset right after the current block's END marker
+     */
+    public int end() { return pos; }
+
+    /**
+     * @return whether the (key) block is encrypted - Proc-Type: 4,ENCRYPTED
+     */
+    public boolean isEncrypted() { return encrypted; }
+
+    /**
+     * @return DEK-Info header value (for encrypted blocks) e.g. "DES-EDE3-CBC,3F17F5316E2BAC89"
+     */
+    public String getDEKInfo() { return dekInfo; }
+
+    /**
+     * Decodes the (base64) contents of the current block.
+     */
+    public byte[] decode() throws IOException {
+        if ( begin == -1 ) throw new IllegalStateException("no current block");
+        return Base64.decode(bytes, bodyBeg, bodyEnd - bodyBeg);
+    }
+
+    private boolean matches(final byte[] what, final int i) {
+        return matches(what, 0, what.length, i);
+    }
+
+    private boolean matches(final byte[] what, final int off, final int len, final int i) {
+        if ( i + len > end ) return false;
+        for ( int j = 0; j < len; j++ ) {
+            if ( bytes[i + j] != what[off + j] ) return false;
+        }
+        return true;
+    }
+
+    private int indexOf(final byte b, final int beg, final int end) {
+        for ( int i = beg; i < end; i++ ) {
+            if ( bytes[i] == b ) return i;
+        }
+        return -1;
+    }
+
+    private int lineEnd(int i) {
+        while ( i < end && bytes[i] != '\n' && bytes[i] != '\r' ) i++;
+        return i;
+    }
+
+    private int nextLine(int i) {
+        i = lineEnd(i);
+        if ( i < end && bytes[i] == '\r' ) i++;
+        if ( i < end && bytes[i] == '\n' ) i++;
+        return i;
+    }
+
+}
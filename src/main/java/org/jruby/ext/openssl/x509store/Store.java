@@ -144,6 +144,29 @@ public class Store implements X509TrustManager {
         this.extraData.add(null); this.extraData.add(null); this.extraData.add(null);
     }
 
+    /**
+     * A copy of this store sharing its objects and lookups (without the
+     * verify callback), meant for verifying concurrently (e.g. in batches).
+     * Objects added to this store afterwards are not reflected, however the
+     * (thread-safe) lookups are shared - objects they load lazily (from hash
+     * directories or trust bundles) get added to this store as with #verify.
+     */
+    public synchronized Store snapshot() {
+        final Store copy = new Store();
+        copy.objects = objects; // never modified in place
+        copy.certificateMethods = certificateMethods;
+        copy.verifyParameter.set(verifyParameter);
+        copy.verify = verify;
+        copy.getIssuer = getIssuer;
+        copy.checkIssued = checkIssued;
+        copy.checkRevocation = checkRevocation;
+        copy.getCRL = getCRL;
+        copy.checkCRL = checkCRL;
+        copy.certificateCRL = certificateCRL;
+        copy.cleanup = cleanup;
+        return copy;
+    }
+
     public List<X509Object> getObjects() {
         return Arrays.asList(objects);
     }
@@ -336,6 +359,16 @@ public class Store implements X509TrustManager {
         return 1;
     }
 
+    /**
+     * Adds a pre-compiled trust bundle, certificates are parsed lazily.
+     * @see TrustBundle
+     */
+    public int loadBundle(Ruby runtime, String file) throws Exception {
+        final Lookup lookup = addLookup( runtime, Lookup.bundleLookup() );
+        if ( lookup == null ) return 0;
+        return lookup.addBundle(file);
+    }
+
     /**
      * c: X509_STORE_set_default_paths
      */
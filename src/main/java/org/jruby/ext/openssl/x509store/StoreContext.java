@@ -130,7 +130,7 @@ public class StoreContext {
      * c: X509_STORE_CTX_get1_issuer
      */
     int getFirstIssuer(final X509AuxCertificate[] issuers, final X509AuxCertificate x) throws Exception {
-        final Name xn = new Name( x.getIssuerX500Principal() );
+        final Name xn = Name.getInstance( x.getIssuerX500Principal() );
         final X509Object[] s_obj = new X509Object[1];
         int ok = store == null ? 0 : getBySubject(X509Utils.X509_LU_X509, xn, s_obj);
         if ( ok != X509Utils.X509_LU_X509 ) {
@@ -1214,7 +1214,7 @@ public class StoreContext {
      */
     final static Store.GetCRLFunction defaultGetCRL = new Store.GetCRLFunction() {
         public int call(final StoreContext context, final X509CRL[] crls, X509AuxCertificate x) throws Exception {
-            final Name name = new Name( x.getIssuerX500Principal() );
+            final Name name = Name.getInstance( x.getIssuerX500Principal() );
             final X509CRL[] crl = new X509CRL[1];
             int ok = context.getCRLStack(crl, name, context.crls);
             if ( ok != 0 ) {
@@ -0,0 +1,291 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: EPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Eclipse Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the EPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the EPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.x509store;
+
+import static org.jruby.ext.openssl.x509store.X509Utils.X509_LU_CRL;
+import static org.jruby.ext.openssl.x509store.X509Utils.X509_LU_X509;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jruby.ext.openssl.SecurityHelper;
+
+/**
+ * A pre-compiled (binary) trust bundle - certificates (and CRLs) in DER form
+ * indexed by their subject's {@link Name#hash()}.
+ *
+ * The bundle file is memory mapped and entries are only parsed once a lookup
+ * asks for the subject (hash) they belong to, thus loading a bundle costs
+ * nothing compared to parsing a PEM CA file (or a hash directory).
+ *
+ * Layout (big-endian) :
+ * <pre>
+ * int magic ("JOTB") | int version | int count
+ * count * { int hash | int type | int offset | int length } (sorted by hash)
+ * DER blobs (certificates followed by optional aux info, CRLs)
+ * </pre>
+ *
+ * Bundles might be compiled using the Ruby API or from the command line :
+ * <code>java org.jruby.ext.openssl.x509store.TrustBundle out.bundle ca.pem certs/</code>
+ */
+public class TrustBundle {
+
+    static final int MAGIC = 0x4a4f5442; // "JOTB"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 16;
+
+    private final String path;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final X509Object[] objects; // parsed (and added to the store)
+
+    private TrustBundle(final String path, final ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if ( buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC ) {
+            throw new IOException("not a trust bundle: " + path);
+        }
+        if ( buffer.getInt(4) != VERSION ) {
+            throw new IOException("unsupported trust bundle version: " + buffer.getInt(4));
+        }
+        this.count = buffer.getInt(8);
+        if ( count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > buffer.limit() ) {
+            throw new IOException("corrupted trust bundle: " + path);
+        }
+        for ( int i = 0; i < count; i++ ) {
+            final int off = HEADER_SIZE + i * ENTRY_SIZE;
+            final int blobOffset = buffer.getInt(off + 8), blobLength = buffer.getInt(off + 12);
+            if ( blobOffset < 0 || blobLength < 0 || (long) blobOffset + blobLength > buffer.limit() ) {
+                throw new IOException("corrupted trust bundle: " + path);
+            }
+        }
+        this.objects = new X509Object[count];
+    }
+
+    /**
+     * Maps the given bundle file (read-only) into memory.
+     */
+    public static TrustBundle open(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return new TrustBundle(file.getPath(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally {
+            try { raf.close(); } catch (Exception ignored) {} // mapping remains valid
+        }
+    }
+
+    public String getPath() { return path; }
+
+    public int size() { return count; }
+
+    final int hashAt(final int idx) {
+        return buffer.getInt(HEADER_SIZE + idx * ENTRY_SIZE);
+    }
+
+    final int typeAt(final int idx) {
+        return buffer.getInt(HEADER_SIZE + idx * ENTRY_SIZE + 4);
+    }
+
+    /**
+     * @return index of the first entry with the given (subject) hash or -1
+     */
+    final int indexOf(final int hash) {
+        int low = 0, high = count - 1, found = -1;
+        while ( low <= high ) {
+            final int mid = (low + high) >>> 1;
+            final int midHash = hashAt(mid);
+            if ( midHash < hash ) low = mid + 1;
+            else if ( midHash > hash ) high = mid - 1;
+            else { found = mid; high = mid - 1; } // keep looking left
+        }
+        return found;
+    }
+
+    /**
+     * Finds the object of the given type for the (subject) name, entries with
+     * a matching hash are parsed once and added to the store.
+     * @return the matching object or null
+     */
+    synchronized X509Object find(final Store store, final int type, final Name name) throws IOException {
+        final int hash = name.hash();
+        for ( int i = indexOf(hash); i >= 0 && i < count && hashAt(i) == hash; i++ ) {
+            if ( typeAt(i) != type ) continue;
+            X509Object obj = objects[i];
+            if ( obj == null ) {
+                if ( type == X509_LU_X509 ) {
+                    final Certificate cert = new Certificate();
+                    cert.x509 = PEMInputOutput.readAuxCertificate( bytesAt(i) );
+                    store.addCertificate(cert.x509);
+                    obj = cert;
+                }
+                else if ( type == X509_LU_CRL ) {
+                    final CRL crl = new CRL();
+                    crl.crl = parseCRL( bytesAt(i) );
+                    store.addCRL(crl.crl);
+                    obj = crl;
+                }
+                else continue;
+                objects[i] = obj;
+            }
+            if ( obj.isName(name) ) return obj;
+        }
+        return null;
+    }
+
+    private byte[] bytesAt(final int idx) {
+        final int off = HEADER_SIZE + idx * ENTRY_SIZE;
+        final byte[] bytes = new byte[ buffer.getInt(off + 12) ];
+        final ByteBuffer blob = buffer.duplicate();
+        blob.position( buffer.getInt(off + 8) );
+        blob.get(bytes);
+        return bytes;
+    }
+
+    private static X509CRL parseCRL(final byte[] encoded) throws IOException {
+        try {
+            return (X509CRL) SecurityHelper.getCertificateFactory("X.509").generateCRL(new ByteArrayInputStream(encoded));
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("problem parsing CRL: " + e.toString(), e);
+        }
+    }
+
+    private static class Entry {
+        final int hash; final int type; final byte[] encoded;
+
+        Entry(int hash, int type, byte[] encoded) {
+            this.hash = hash; this.type = type; this.encoded = encoded;
+        }
+    }
+
+    /**
+     * Compiles PEM files (CA bundles) and/or (hash) directories into a trust
+     * bundle file.
+     * @return number of entries written
+     */
+    public static int compile(final File output, final List<File> sources) throws IOException {
+        final List<Entry> entries = new ArrayList<Entry>();
+        for ( final File source : sources ) {
+            if ( source.isDirectory() ) {
+                final File[] files = source.listFiles();
+                if ( files == null ) throw new IOException("could not list directory: " + source);
+                Arrays.sort(files);
+                for ( final File file : files ) {
+                    if ( file.isFile() ) readEntries(file, entries);
+                }
+            }
+            else {
+                readEntries(source, entries);
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() { // stable
+            public int compare(final Entry e1, final Entry e2) {
+                return e1.hash < e2.hash ? -1 : ( e1.hash == e2.hash ? 0 : 1 );
+            }
+        });
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            int offset = HEADER_SIZE + entries.size() * ENTRY_SIZE;
+            for ( final Entry entry : entries ) {
+                out.writeInt(entry.hash);
+                out.writeInt(entry.type);
+                out.writeInt(offset);
+                out.writeInt(entry.encoded.length);
+                offset += entry.encoded.length;
+            }
+            for ( final Entry entry : entries ) out.write(entry.encoded);
+        }
+        finally {
+            out.close();
+        }
+        return entries.size();
+    }
+
+    private static void readEntries(final File file, final List<Entry> entries) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+        try {
+            Object obj;
+            while ( ( obj = PEMInputOutput.readPEM(reader, null) ) != null ) {
+                if ( obj instanceof X509AuxCertificate ) {
+                    final X509AuxCertificate cert = (X509AuxCertificate) obj;
+                    final int hash = new Name( cert.getSubjectX500Principal() ).hash();
+                    entries.add( new Entry(hash, X509_LU_X509, PEMInputOutput.getEncodedAux(cert)) );
+                }
+                else if ( obj instanceof X509CRL ) {
+                    final X509CRL crl = (X509CRL) obj;
+                    final int hash = new Name( crl.getIssuerX500Principal() ).hash();
+                    try {
+                        entries.add( new Entry(hash, X509_LU_CRL, crl.getEncoded()) );
+                    }
+                    catch (GeneralSecurityException e) {
+                        throw new IOException("problem encoding CRL: " + e.toString(), e);
+                    }
+                }
+            }
+        }
+        finally {
+            try { reader.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if ( args.length < 2 ) {
+            System.err.println("usage: TrustBundle <output> <CA-file|CA-dir> ...");
+            System.exit(1);
+        }
+        final List<File> sources = new ArrayList<File>(args.length - 1);
+        for ( int i = 1; i < args.length; i++ ) sources.add( new File(args[i]) );
+        final int count = compile(new File(args[0]), sources);
+        System.out.println("compiled " + count + " entries into " + args[0]);
+    }
+
+}
@@ -316,6 +316,7 @@ public abstract class X509Utils {
 
     public static final int X509_L_FILE_LOAD = 1;
     public static final int X509_L_ADD_DIR = 2;
+    public static final int X509_L_ADD_BUNDLE = 101; // JRuby extension (TrustBundle)
 
     public static final int V_OK = 0;
     public static final int	V_ERR_UNABLE_TO_GET_ISSUER_CERT = 2;
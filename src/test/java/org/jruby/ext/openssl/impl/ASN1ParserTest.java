@@ -0,0 +1,83 @@
+package org.jruby.ext.openssl.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+
+import org.junit.Test;
+
+public class ASN1ParserTest {
+
+    // SEQUENCE { INTEGER 1, OCTET STRING 'ab' } preceded by some junk
+    private static final byte[] BYTES = new byte[] {
+        0x7F, 0x7F, 0x30, 0x07, 0x02, 0x01, 0x01, 0x04, 0x02, 'a', 'b'
+    };
+
+    @Test
+    public void parsesArraySlice() throws Exception {
+        final ASN1Parser parser = new ASN1Parser(BYTES, 2, BYTES.length - 2);
+        assertTrue( parser.next() );
+        assertEquals(2, parser.offset());
+        assertEquals(0x10, parser.tag());
+        assertTrue( parser.isConstructed() );
+        assertEquals(2, parser.headerLength());
+        assertEquals(7, parser.length());
+        assertTrue( parser.next() );
+        assertEquals(2, parser.tag());
+        assertEquals(1, parser.depth());
+        assertTrue( parser.next() );
+        assertEquals(7, parser.offset());
+        assertEquals("ab", new String(parser.readContents(), "US-ASCII"));
+        assertFalse( parser.next() );
+    }
+
+    @Test
+    public void readsHeaderAtOffset() throws Exception {
+        final ASN1Parser parser = new ASN1Parser(BYTES, 0, BYTES.length);
+        parser.reset(7, BYTES.length);
+        assertTrue( parser.next() );
+        assertEquals(4, parser.tag());
+        assertEquals(0, parser.depth());
+        assertEquals(2, parser.length());
+        parser.reset(4, 7);
+        assertTrue( parser.next() );
+        assertEquals(2, parser.tag());
+        assertFalse( parser.next() );
+    }
+
+    @Test
+    public void failsOnTruncatedArray() throws Exception {
+        final ASN1Parser parser = new ASN1Parser(BYTES, 2, BYTES.length - 3);
+        try {
+            parser.next(); fail("truncated");
+        }
+        catch (EOFException e) {
+            assertEquals("DEF length 7 object truncated by 1", e.getMessage());
+        }
+        parser.reset(2, 3);
+        try {
+            parser.next(); fail("truncated");
+        }
+        catch (EOFException e) {
+            assertEquals("EOF found when length expected", e.getMessage());
+        }
+    }
+
+    @Test
+    public void parsesSameAsStream() throws Exception {
+        final ASN1Parser array = new ASN1Parser(BYTES, 2, BYTES.length - 2);
+        final ASN1Parser stream = new ASN1Parser(new ByteArrayInputStream(BYTES, 2, BYTES.length - 2));
+        while ( array.next() ) {
+            assertTrue( stream.next() );
+            assertEquals(stream.tag(), array.tag());
+            assertEquals(stream.length(), array.length());
+            assertEquals(stream.offset() + 2, array.offset());
+        }
+        assertFalse( stream.next() );
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.jruby.ext.openssl.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Base64Test {
+
+    private static byte[] randomBytes(final Random random, final int len) {
+        final byte[] bytes = new byte[len]; random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String ascii(final byte[] bytes) throws IOException {
+        return new String(bytes, "US-ASCII");
+    }
+
+    @Test
+    public void encodesLikeBouncyCastle() throws Exception {
+        final Random random = new Random(42);
+        for ( int len = 0; len < 300; len++ ) {
+            final byte[] bytes = randomBytes(random, len);
+            final byte[] expected = org.bouncycastle.util.encoders.Base64.encode(bytes);
+            assertEquals(ascii(expected), ascii(Base64.encode(bytes)));
+            assertArrayEquals(bytes, Base64.decode(expected));
+        }
+    }
+
+    @Test
+    public void wrapsLines() throws Exception {
+        final Random random = new Random(64);
+        for ( int len = 0; len < 200; len++ ) {
+            final byte[] bytes = randomBytes(random, len);
+            final String plain = ascii(Base64.encode(bytes));
+            final StringBuilder expected = new StringBuilder();
+            for ( int i = 0; i < plain.length(); i += 64 ) {
+                expected.append(plain, i, Math.min(i + 64, plain.length())).append('\n');
+            }
+            final byte[] pem = Base64.encode(bytes, 0, len, Base64.PEM_LINE_LENGTH);
+            assertEquals(Base64.encodedLength(len, Base64.PEM_LINE_LENGTH), pem.length);
+            assertEquals(expected.toString(), ascii(pem));
+            assertArrayEquals(bytes, Base64.decode(pem));
+        }
+        assertEquals(76, Base64.encodeBytes(new byte[100], Base64.DO_BREAK_LINES).indexOf('\n'));
+    }
+
+    @Test
+    public void decodesWithWhiteSpace() throws Exception {
+        assertEquals("Hello World!", ascii(Base64.decode("SGVs bG8g\r\nV29y\tbGQh\n")));
+        assertEquals("Hello World", ascii(Base64.decode("SGVsbG8gV29ybGQ=\n")));
+        assertEquals("Hello Worl", ascii(Base64.decode("SGVsbG8gV29y bA==")));
+        assertEquals("Hello Worl", ascii(Base64.decode("SGVsbG8gV29ybA"))); // unpadded
+        assertEquals(0, Base64.decode(" \n").length);
+    }
+
+    @Test
+    public void decodesInPlace() throws Exception {
+        final byte[] bytes = randomBytes(new Random(1), 1000);
+        final byte[] buf = Base64.encode(bytes, 0, bytes.length, Base64.PEM_LINE_LENGTH);
+        final int len = Base64.decode(buf, 0, buf.length, buf, 0);
+        assertEquals(bytes.length, len);
+        for ( int i = 0; i < len; i++ ) assertEquals(bytes[i], buf[i]);
+    }
+
+    @Test
+    public void failsOnBadInput() {
+        try {
+            Base64.decode("SGVs*bG8=");
+            fail("expected IOException");
+        }
+        catch (IOException e) { /* expected */ }
+        try {
+            Base64.decode("SGVsb");
+            fail("expected IOException");
+        }
+        catch (IOException e) { /* expected */ }
+    }
+
+    @Test
+    public void streams() throws Exception {
+        final byte[] bytes = randomBytes(new Random(7), 10000);
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        final Base64.OutputStream out = new Base64.OutputStream(encoded, Base64.DO_BREAK_LINES);
+        for ( int i = 0; i < bytes.length; ) {
+            final int n = Math.min(i % 7 + 1, bytes.length - i);
+            if ( n == 1 ) out.write(bytes[i]); else out.write(bytes, i, n);
+            i += n;
+        }
+        out.close();
+        assertEquals(Base64.encodeBytes(bytes, Base64.DO_BREAK_LINES), ascii(encoded.toByteArray()));
+
+        final Base64.InputStream in = new Base64.InputStream(new ByteArrayInputStream(encoded.toByteArray()));
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1000]; int r;
+        decoded.write(in.read());
+        while ( ( r = in.read(buf, 0, buf.length) ) != -1 ) decoded.write(buf, 0, r);
+        assertArrayEquals(bytes, decoded.toByteArray());
+
+        final byte[] pem = "SGVsbG8g\nV29ybGQ=\n-----END DATA-----\n".getBytes("US-ASCII");
+        r = new Base64.InputStream(new ByteArrayInputStream(pem)).read(buf, 0, buf.length);
+        assertEquals("Hello World", new String(buf, 0, r, "US-ASCII"));
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.jruby.ext.openssl.x509store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.Test;
+
+public class NameTest {
+
+    // openssl req -x509 -subj "/C=US/O=  Ruby   Lang  Org /CN=JRuby  Test/emailAddress=Foo@Example.COM"
+    private static final String CERT =
+        "-----BEGIN CERTIFICATE-----\n" +
+        "MIICnjCCAgegAwIBAgIUPp/xwVRwbz5aaqKePzdv/HIjT0IwDQYJKoZIhvcNAQEL\n" +
+        "BQAwYTELMAkGA1UEBhMCVVMxHDAaBgNVBAoMEyAgUnVieSAgIExhbmcgIE9yZyAx\n" +
+        "FDASBgNVBAMMC0pSdWJ5ICBUZXN0MR4wHAYJKoZIhvcNAQkBFg9Gb29ARXhhbXBs\n" +
+        "ZS5DT00wHhcNMjYxMDE4MjMyMTUwWhcNMzYxMDE1MjMyMTUwWjBhMQswCQYDVQQG\n" +
+        "EwJVUzEcMBoGA1UECgwTICBSdWJ5ICAgTGFuZyAgT3JnIDEUMBIGA1UEAwwLSlJ1\n" +
+        "YnkgIFRlc3QxHjAcBgkqhkiG9w0BCQEWD0Zvb0BFeGFtcGxlLkNPTTCBnzANBgkq\n" +
+        "hkiG9w0BAQEFAAOBjQAwgYkCgYEAvXNw3d0aFRT7vRuuQ97c9PPby2OsZgxoYLoG\n" +
+        "xgh8KYXYcPi/SyyLApuqFOo5t48BGRaeUCIAYDkARAw/BDWOKM2OgXBAsA25dXFV\n" +
+        "sqy6B3dwa2vb2UdFtGS8iTIGNwGiGm2Y4PJUSmiNgS6mhnnCFOzWD/heGZvA4Bre\n" +
+        "vdVppLUCAwEAAaNTMFEwHQYDVR0OBBYEFF7hv5Q92DiF1MT+7+iwQqUypK4qMB8G\n" +
+        "A1UdIwQYMBaAFF7hv5Q92DiF1MT+7+iwQqUypK4qMA8GA1UdEwEB/wQFMAMBAf8w\n" +
+        "DQYJKoZIhvcNAQELBQADgYEArEiQX/TofAMTgpjLRUWsxMeysF0dpZMgR36CVSk2\n" +
+        "O1Np6x78SQSLbvH8WAocHngWWuartCe2FRy4hb+sxsX8lpQTjz9j4gBOsD6QYsCg\n" +
+        "NT8JVJsQuUYoYZT0qoLwiPjB4E+hYIkKev/Gx7nPeMj7n16WajoLMiOBnrTqhRgd\n" +
+        "w20=\n" +
+        "-----END CERTIFICATE-----\n";
+
+    private static X509Certificate readCertificate(final InputStream in) throws Exception {
+        return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+    }
+
+    @Test
+    public void hashesMatchOpenSSL() throws Exception {
+        // openssl x509 -hash -subject_hash_old
+        X509Certificate cert = readCertificate(new ByteArrayInputStream(CERT.getBytes("US-ASCII")));
+        Name name = new Name(cert.getSubjectX500Principal());
+        assertEquals("a371dabb", String.format("%08x", name.hash()));
+        assertEquals("e3c0cca4", String.format("%08x", name.canonicalHash()));
+
+        FileInputStream in = new FileInputStream("src/test/ruby/x509/EntrustnetSecureServerCertificationAuthority.pem");
+        try { cert = readCertificate(in); } finally { in.close(); }
+        name = new Name(cert.getSubjectX500Principal());
+        assertEquals("ed524cf5", String.format("%08x", name.hash()));
+        assertEquals("5f267794", String.format("%08x", name.canonicalHash()));
+    }
+
+    @Test
+    public void internsEqualPrincipals() {
+        final Name name = Name.getInstance(new X500Principal("CN=Interned, O=JRuby"));
+        assertSame(name, Name.getInstance(new X500Principal("CN=Interned, O=JRuby")));
+        assertTrue(name.equalTo(new X500Principal("CN=Interned,O=JRuby")));
+    }
+
+}
@@ -43,5 +43,37 @@ module PKCS7Test
       read = bio.gets(arr, 10)
       assert_equal 0, read
     end
+
+    def test_mem_bio_chunks
+      bio = BIO::mem
+      line = ("0123456789" * 10 + "\n").to_java_bytes # 101 bytes
+      1000.times { bio.write(line, 0, line.length) } # spans several chunks
+      assert_equal 101_000, bio.mem_copy.length
+
+      arr = Java::byte[256].new
+      1000.times do
+        assert_equal 101, bio.gets(arr, 256)
+        assert_equal line.to_a, arr.to_a[0...101]
+      end
+      assert_equal 0, bio.gets(arr, 256)
+      assert_equal 0, bio.read(arr, 0, 256)
+
+      bio.write(line, 0, 10)
+      assert_equal 10, bio.read(arr, 0, 256)
+      bio.write(line, 0, line.length)
+      assert_equal "0123456789" * 10 + "\n", String.from_java_bytes(bio.mem_copy)
+      assert_equal "0123456789" * 10 + "\n", bio.mem_byte_list.to_s
+    end
+
+    def test_mem_buf_reset
+      bytes = "abc\ndef".to_java_bytes
+      bio = BIO::mem_buf(bytes, 1, 6)
+      arr = Java::byte[20].new
+      assert_equal 3, bio.gets(arr, 20)
+      assert_equal "bc\n", String.from_java_bytes(arr.to_a[0...3].to_java(:byte))
+      bio.reset
+      assert_equal 6, bio.read(arr, 0, 20)
+      assert_equal "bc\ndef", String.from_java_bytes(arr.to_a[0...6].to_java(:byte))
+    end
   end
 end
@@ -773,6 +773,75 @@ PKCS7STR
       assert_equal PKCS7_PEM_SECOND_KEY, String.from_java_bytes(second.enc_key.octets)
     end
 
+    def test_sign_verify_and_write_smime_streaming
+      require 'stringio'; require 'tempfile'
+      key = OpenSSL::PKey::RSA.new(1024)
+      now = Time.now
+      cert = issue_cert(OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=Stream"), key, 1, now - 60, now + 3600,
+                        [], nil, nil, OpenSSL::Digest::SHA1.new)
+      store = OpenSSL::X509::Store.new; store.add_cert(cert)
+
+      content = "streamed line\n" * 10_000
+      file = Tempfile.new('pkcs7'); file.binmode; file.write(content); file.flush
+      flags = ::OpenSSL::PKCS7::DETACHED | ::OpenSSL::PKCS7::BINARY
+      p7 = File.open(file.path, 'rb') { |io| ::OpenSSL::PKCS7.sign(cert, key, io, [], flags) }
+      assert_equal ::OpenSSL::PKCS7.sign(cert, key, content, [], flags).signers.size, p7.signers.size
+
+      p7 = ::OpenSSL::PKCS7.new(p7.to_der)
+      assert File.open(file.path, 'rb') { |io| p7.verify([], store, io, ::OpenSSL::PKCS7::BINARY) }
+      assert_nil p7.data # streamed content is not kept
+      assert p7.verify([], store, content, ::OpenSSL::PKCS7::BINARY)
+      assert ! p7.verify([], store, StringIO.new(content + "."), ::OpenSSL::PKCS7::BINARY)
+
+      out = StringIO.new
+      smime = File.open(file.path, 'rb') { |io| ::OpenSSL::PKCS7.write_smime(p7, io, flags, out) }
+      assert_same out, smime
+      boundary = lambda { |str| str.gsub(/----[0-9A-Z]{32}/, '----BOUNDARY') }
+      assert_equal boundary[::OpenSSL::PKCS7.write_smime(p7, content, flags)], boundary[out.string]
+      assert out.string.include?(content)
+      assert ::OpenSSL::PKCS7.write_smime(p7).start_with?("MIME-Version: 1.0")
+    ensure
+      file.close! if file
+    end
+
+    def test_encrypt_decrypt_large_content
+      key = OpenSSL::PKey::RSA.new(1024)
+      now = Time.now
+      cert = issue_cert(OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=Crypt"), key, 1, now - 60, now + 3600,
+                        [], nil, nil, OpenSSL::Digest::SHA1.new)
+
+      content = ( 0...256 ).map { |i| i.chr }.join * 1025 # > 4 blocks
+      [ 'AES-128-CBC', 'DES-EDE3-CBC' ].each do |name|
+        p7 = ::OpenSSL::PKCS7.encrypt([ cert ], content, OpenSSL::Cipher.new(name), ::OpenSSL::PKCS7::BINARY)
+        p7 = ::OpenSSL::PKCS7.new(p7.to_der)
+        assert_equal content, p7.decrypt(key, cert, ::OpenSSL::PKCS7::BINARY)
+        assert_equal content, p7.decrypt(key, cert, ::OpenSSL::PKCS7::BINARY)
+      end
+    end
+
+    def test_encrypt_wraps_recipient_keys_in_parallel
+      now = Time.now
+      keys = []; certs = []
+      8.times do |i|
+        keys << ( key = OpenSSL::PKey::RSA.new(1024) )
+        certs << issue_cert(OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=Recipient#{i}"), key, i + 1,
+                            now - 60, now + 3600, [], nil, nil, OpenSSL::Digest::SHA1.new)
+      end
+      content = "parallel content\n" * 100
+      cipher = OpenSSL::Cipher.new('AES-128-CBC')
+
+      p7 = ::OpenSSL::PKCS7.encrypt(certs, content, cipher, ::OpenSSL::PKCS7::BINARY, 3)
+      p7 = ::OpenSSL::PKCS7.new(p7.to_der)
+      assert_equal (1..8).to_a, p7.recipients.map(&:serial).map(&:to_i)
+      keys.each_with_index do |key, i|
+        assert_equal content, p7.decrypt(key, certs[i], ::OpenSSL::PKCS7::BINARY)
+      end
+      serial = ::OpenSSL::PKCS7.encrypt(certs, content, cipher, ::OpenSSL::PKCS7::BINARY)
+      assert_equal serial.recipients.map(&:serial), p7.recipients.map(&:serial)
+
+      assert_raise(ArgumentError) { ::OpenSSL::PKCS7.encrypt(certs, content, cipher, 0, 0) }
+    end
+
     private
 
     def assert_raise_pkcs7_exception
@@ -15,6 +15,88 @@ class TestSSL < TestCase
     assert OpenSSL::SSL::SSLContext::DEFAULT_CERT_STORE.is_a?(OpenSSL::X509::Store)
   end
 
+  def test_ecdhe_ecdsa_ciphers
+    ctx = OpenSSL::SSL::SSLContext.new
+    ctx.ciphers = 'ECDHE-ECDSA-AES128-SHA'
+    assert_equal [ 'ECDHE-ECDSA-AES128-SHA' ], ctx.ciphers.map(&:first)
+    ctx.ciphers = 'EECDH+aECDSA+AES'
+    assert_equal [ 'ECDHE-ECDSA-AES128-SHA', 'ECDHE-ECDSA-AES256-SHA' ], ctx.ciphers.map(&:first).sort
+  end
+
+  def test_ecdhe_ecdsa_handshake
+    ec_key = OpenSSL::PKey::EC.generate('prime256v1')
+    now = Time.at(Time.now.to_i)
+    ec_cert = OpenSSL::X509::Certificate.new
+    ec_cert.version = 2; ec_cert.serial = 4
+    ec_cert.subject = @svr; ec_cert.issuer = @ca_cert.subject
+    ec_cert.public_key = ec_key
+    ec_cert.not_before = now; ec_cert.not_after = now + 1800
+    ec_cert.sign(@ca_key, OpenSSL::Digest::SHA256.new)
+
+    ctx_proc = Proc.new do |ctx|
+      ctx.cert = ec_cert; ctx.key = ec_key
+      ctx.ciphers = 'ECDHE-ECDSA-AES128-SHA'
+    end
+    start_server(PORT, OpenSSL::SSL::VERIFY_NONE, true, :ctx_proc => ctx_proc) do |server, port|
+      sock = TCPSocket.new("127.0.0.1", port)
+      ctx = OpenSSL::SSL::SSLContext.new
+      ctx.ciphers = 'ECDHE-ECDSA-AES128-SHA'
+      ssl = OpenSSL::SSL::SSLSocket.new(sock, ctx)
+      ssl.connect
+      assert_match /_ECDHE_ECDSA_/, ssl.cipher
+      assert_equal ec_cert.to_der, ssl.peer_cert.to_der
+      ssl.puts "ping"; assert_equal "ping\n", ssl.gets
+      ssl.close
+    end
+  end
+
+  def test_tmp_dh_callback
+    args = nil
+    ctx_proc = Proc.new do |ctx|
+      ctx.ciphers = 'DHE-RSA-AES128-SHA:AES128-SHA'
+      ctx.tmp_dh_callback = proc { |*a| args = a; OpenSSL::PKey::DH.group(2048) }
+    end
+    start_server(PORT, OpenSSL::SSL::VERIFY_NONE, true, :ctx_proc => ctx_proc) do |server, port|
+      sock = TCPSocket.new("127.0.0.1", port)
+      ssl = OpenSSL::SSL::SSLSocket.new(sock)
+      ssl.connect
+      assert_match /_DHE_/, ssl.cipher
+      ssl.close
+    end
+    assert_instance_of OpenSSL::SSL::SSLSocket, args[0]
+    assert_equal [ false, 1024 ], args[1..-1] # server key is RSA 1024
+
+    ctx_proc = Proc.new do |ctx|
+      ctx.ciphers = 'DHE-RSA-AES128-SHA:AES128-SHA'
+      ctx.tmp_dh_callback = proc { OpenSSL::PKey::DH.group(1536) } # not what JSSE uses
+    end
+    require 'stringio'
+    stderr = $stderr; $stderr = StringIO.new
+    begin
+      start_server(PORT, OpenSSL::SSL::VERIFY_NONE, true, :ctx_proc => ctx_proc) do |server, port|
+        sock = TCPSocket.new("127.0.0.1", port)
+        ssl = OpenSSL::SSL::SSLSocket.new(sock)
+        ssl.connect
+        ssl.close
+      end
+      assert_match /tmp_dh_callback DH parameters \(1536 bits\) are not used/, $stderr.string
+    ensure
+      $stderr = stderr
+    end if ENV_JAVA['jdk.tls.ephemeralDHKeySize'].nil?
+
+    ctx_proc = Proc.new do |ctx|
+      ctx.ciphers = 'DHE-RSA-AES128-SHA:AES128-SHA'
+      ctx.tmp_dh_callback = proc { nil } # DHE suites disabled
+    end
+    start_server(PORT, OpenSSL::SSL::VERIFY_NONE, true, :ctx_proc => ctx_proc) do |server, port|
+      sock = TCPSocket.new("127.0.0.1", port)
+      ssl = OpenSSL::SSL::SSLSocket.new(sock)
+      ssl.connect
+      assert_no_match /_DHE_/, ssl.cipher
+      ssl.close
+    end
+  end
+
   def test_post_connection_check
     sslerr = OpenSSL::SSL::SSLError
 
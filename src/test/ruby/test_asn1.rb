@@ -477,6 +477,166 @@ dPMQD5JX6g5HKnHFg2mZtoXQrWmJSn7p8GJK8yNTopEErA==
     end
   end
 
+  def test_decode_primitives
+    raw = [ %w{ 30 3D 01 01 FF 02 02 FF 7F 03 03 01 01 80 04 02 00 FF 05 00
+                06 09 2A 86 48 86 F7 0D 01 01 0B 0A 01 03 0C 02 68 69
+                13 03 61 62 63 17 0D 30 39 30 32 31 33 32 33 33 31 33 30 5A
+                31 03 02 01 01 }.join ].pack('H*')
+    asn1 = OpenSSL::ASN1.decode(raw)
+    assert_universal(OpenSSL::ASN1::SEQUENCE, asn1)
+    values = asn1.value
+    assert_equal [ OpenSSL::ASN1::Boolean, OpenSSL::ASN1::Integer, OpenSSL::ASN1::BitString,
+                   OpenSSL::ASN1::OctetString, OpenSSL::ASN1::Null, OpenSSL::ASN1::ObjectId,
+                   OpenSSL::ASN1::Enumerated, OpenSSL::ASN1::UTF8String, OpenSSL::ASN1::PrintableString,
+                   OpenSSL::ASN1::UTCTime, OpenSSL::ASN1::Set ], values.map(&:class)
+    values.each { |value| assert_equal(:UNIVERSAL, value.tag_class) }
+    assert_equal true, values[0].value
+    assert_equal(-129, values[1].value)
+    assert_equal "\x01\x80", values[2].value
+    assert_equal 1, values[2].unused_bits
+    assert_equal "\x00\xFF", values[3].value
+    assert_equal nil, values[4].value
+    assert_equal 'RSA-SHA256', values[5].value
+    assert_equal 3, values[6].value
+    assert_equal 'hi', values[7].value
+    assert_equal 'abc', values[8].value
+    assert_equal Time.at(1234567890), values[9].value
+    assert_equal 1, values[10].value[0].value
+
+    assert_raise(OpenSSL::ASN1::ASN1Error) { OpenSSL::ASN1.decode(raw[0...-1]) }
+    assert_raise(OpenSSL::ASN1::ASN1Error) { OpenSSL::ASN1.decode(raw + "\x05\x00") }
+    # zero length INTEGER / ENUMERATED
+    assert_raise(OpenSSL::ASN1::ASN1Error) { OpenSSL::ASN1.decode("\x02\x00") }
+    assert_raise(OpenSSL::ASN1::ASN1Error) { OpenSSL::ASN1.decode("\x0A\x00") }
+    assert_raise(OpenSSL::ASN1::ASN1Error) { OpenSSL::ASN1.decode("\x30\x02\x02\x00", :lazy => true).value }
+  end
+
+  def test_decode_lazy
+    key = OpenSSL::PKey::RSA.new 1024
+    now = Time.now
+    cert = issue_cert(OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=Lazy"), key, 42, now, now + 3600,
+                      [ [ "basicConstraints", "CA:TRUE", true ] ], nil, nil, OpenSSL::Digest::SHA256.new)
+    der = cert.to_der
+
+    asn1 = OpenSSL::ASN1.decode(der, :lazy => true)
+    assert_universal(OpenSSL::ASN1::SEQUENCE, asn1)
+    assert_equal der, asn1.to_der
+    assert_equal der, asn1.dup.to_der
+
+    eager = OpenSSL::ASN1.decode(der)
+    assert_equal 3, asn1.value.size
+    assert_equal 42, asn1.value[0].value[1].value
+    assert_equal eager.value[0].value[1].value, asn1.value[0].value[1].value
+    assert_equal 'RSA-SHA256', asn1.value[1].value[0].value
+    assert_equal eager.value[2].value, asn1.value[2].value
+    # un-touched values re-use the DER slice :
+    assert_equal eager.value[0].value[3].to_der, asn1.value[0].value[3].to_der
+    assert_equal der, asn1.to_der
+
+    der.replace('') # lazy value won't notice
+    assert_equal eager.value[0].value[4].to_der, asn1.value[0].value[4].to_der
+
+    asn1.value[1] = OpenSSL::ASN1::Sequence.new([ OpenSSL::ASN1::ObjectId.new('sha1WithRSAEncryption'), OpenSSL::ASN1::Null.new(nil) ])
+    assert_equal 'RSA-SHA1', OpenSSL::ASN1.decode(asn1.to_der).value[1].value[0].value
+
+    seq = OpenSSL::ASN1.decode(eager.value[1].to_der, :lazy => true)
+    seq.value = [ OpenSSL::ASN1::Integer.new(1) ]
+    assert_equal "0\x03\x02\x01\x01", seq.to_der
+
+    # in place modifications of (primitive) values :
+    seq = OpenSSL::ASN1.decode("\x30\x06\x04\x01a\x04\x01b", :lazy => true)
+    seq.value[0].value << 'x'
+    assert_equal "0\x07\x04\x02ax\x04\x01b", seq.to_der
+    seq = OpenSSL::ASN1.decode("\x30\x06\x04\x01a\x04\x01b", :lazy => true)
+    seq.value[1].value.replace 'c'
+    assert_equal "0\x06\x04\x01a\x04\x01c", seq.to_der
+    seq = OpenSSL::ASN1.decode("\x30\x06\x04\x01a\x04\x01b", :lazy => true)
+    seq.value[1].value[0] = 'd'
+    assert_equal "0\x06\x04\x01a\x04\x01d", seq.to_der
+    seq = OpenSSL::ASN1.decode("\x30\x03\x02\x01\x01", :lazy => true)
+    seq.value[0].value.set_bit!(1)
+    assert_equal "0\x03\x02\x01\x03", seq.to_der
+
+    assert_raise(OpenSSL::ASN1::ASN1Error) do
+      OpenSSL::ASN1.decode("\x30\x03\x30\x02\x02", :lazy => true).value[0].value
+    end
+
+    # reading the instance variable decodes as well :
+    seq = OpenSSL::ASN1.decode(eager.value[1].to_der, :lazy => true)
+    assert_equal 'RSA-SHA256', seq.instance_variable_get(:@value)[0].value
+    seq = OpenSSL::ASN1.decode(eager.value[1].to_der, :lazy => true)
+    assert seq.instance_variables.map(&:to_s).include?('@value')
+    seq = OpenSSL::ASN1.decode(eager.value[1].to_der, :lazy => true)
+    assert_match(/@value=\[/, seq.inspect)
+    assert_equal eager.value[1].to_der, seq.to_der
+  end
+
+  def test_encode_constructive
+    seq = OpenSSL::ASN1::Sequence.new([
+      OpenSSL::ASN1::Integer.new(-129),
+      OpenSSL::ASN1::Integer.new(2**64),
+      OpenSSL::ASN1::Boolean.new(true),
+      OpenSSL::ASN1::Null.new(nil),
+      OpenSSL::ASN1::Set.new([ OpenSSL::ASN1::OctetString.new('b'), OpenSSL::ASN1::Integer.new(1), OpenSSL::ASN1::OctetString.new('a') ]),
+      OpenSSL::ASN1::IA5String.new('x' * 200)
+    ])
+    der = seq.to_der
+    assert_equal "0\x81\xEA".force_encoding('BINARY'), der[0, 3]
+    assert_equal "\x02\x02\xFF\x7F".force_encoding('BINARY'), der[3, 4]
+    assert_equal "\x02\x09\x01" + ( "\x00" * 8 ), der[7, 11]
+    assert_equal "\x01\x01\xFF\x05\x00".force_encoding('BINARY'), der[18, 5]
+    # SET OF elements are sorted by their encodings :
+    assert_equal "1\x09\x02\x01\x01\x04\x01a\x04\x01b", der[23, 11]
+    assert_equal "\x16\x81\xC8" + ( 'x' * 200 ), der[34..-1]
+
+    decoded = OpenSSL::ASN1.decode(der)
+    assert_equal der, decoded.to_der
+    assert_equal 2**64, decoded.value[1].value.to_i
+
+    # infinite length values nested within a (definite length) sequence :
+    inner = OpenSSL::ASN1::Sequence.new([ OpenSSL::ASN1::Integer.new(2), OpenSSL::ASN1::EndOfContent.new ])
+    inner.infinite_length = true
+    seq = OpenSSL::ASN1::Sequence.new([ OpenSSL::ASN1::Integer.new(1), inner ])
+    assert_equal "0\x0A\x02\x01\x010\x80\x02\x01\x02\x00\x00", seq.to_der
+  end
+
+  def test_traverse
+    der = OpenSSL::ASN1::Sequence.new([
+      OpenSSL::ASN1::Integer.new(1),
+      OpenSSL::ASN1::Sequence.new([ OpenSSL::ASN1::OctetString.new('abc') ]),
+      OpenSSL::ASN1::Null.new(nil)
+    ]).to_der
+    expected = [
+      [ 0, 0, 2, 12, true, :UNIVERSAL, 16 ],
+      [ 1, 2, 2, 1, false, :UNIVERSAL, 2 ],
+      [ 1, 5, 2, 5, true, :UNIVERSAL, 16 ],
+      [ 2, 7, 2, 3, false, :UNIVERSAL, 4 ],
+      [ 1, 12, 2, 0, false, :UNIVERSAL, 5 ]
+    ]
+    events = []
+    OpenSSL::ASN1.traverse(der) { |*args| events << args }
+    assert_equal expected, events
+
+    events = []
+    OpenSSL::ASN1.traverse(StringIO.new(der + der)) { |*args| events << args }
+    assert_equal 10, events.size
+    assert_equal [ 0, 14, 2, 12, true, :UNIVERSAL, 16 ], events[5]
+
+    # indefinite length (BER) :
+    events = []
+    OpenSSL::ASN1.traverse("\x30\x80\xA0\x03\x02\x01\x01\x00\x00") do |depth, off, hlen, len, cons, tc, tag|
+      events << [ depth, off, hlen, len, cons, tc, tag ]
+    end
+    assert_equal [ 0, 0, 2, nil, true, :UNIVERSAL, 16 ], events[0]
+    assert_equal [ 1, 2, 2, 3, true, :CONTEXT_SPECIFIC, 0 ], events[1]
+    assert_equal [ 1, 7, 2, 0, false, :UNIVERSAL, 0 ], events[3]
+    assert_equal 4, events.size
+
+    assert_raise(OpenSSL::ASN1::ASN1Error) do
+      OpenSSL::ASN1.traverse("\x30\x03\x02\x01") { |*args| }
+    end
+  end
+
   def test_decode_application_specific
     raw = "0\x18\x02\x01\x01`\x13\x02\x01\x03\x04\to=Telstra\x80\x03ess"
     asn1 = OpenSSL::ASN1.decode(raw)
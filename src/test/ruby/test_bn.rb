@@ -38,4 +38,142 @@ class TestBN < TestCase
     assert_equal bn, 1234567890123456789012345678901234567890.to_bn
   end
 
+  def test_in_place_arithmetic
+    m = OpenSSL::BN.new('1000000007')
+    bn = OpenSSL::BN.new('1234567')
+    assert bn.equal?( bn.add!(3) )
+    assert_equal 1234570, bn.to_i
+    assert_equal 1234560, bn.sub!(10).to_i
+    assert_equal 2469120, bn.mul!(2).to_i
+    assert_equal 2469120 ** 2, bn.dup.sqr!.to_i
+    assert_equal ( 2469120 * 7 ) % 1000000007, bn.dup.mod_mul!(7, m).to_i
+    assert_equal ( 2469120 ** 2 ) % 1000000007, bn.dup.mod_sqr!(m).to_i
+    assert_equal 2469120.to_bn.mod_exp(65537, m), bn.dup.mod_exp!(65537, m)
+    assert_equal 1000000006, OpenSSL::BN.new('1').mod_sub!(2, m).to_i
+    assert_equal 2469120 % 1000, bn.mod!(1000).to_i
+    assert_raise(ZeroDivisionError) { bn.mod_mul!(2, 0) }
+  end
+
+  def test_context
+    m = OpenSSL::BN.new('1000000007')
+    ctx = OpenSSL::BN::Context.new(m)
+    assert_equal m, ctx.mod
+    bn = OpenSSL::BN.new('123456789')
+    assert_equal bn.mod_mul(bn, m), bn.dup.mod_mul!(bn, ctx)
+    assert_equal bn.mod_exp(1234, m), bn.mod_exp(1234, ctx)
+    assert_raise(OpenSSL::BNError) { OpenSSL::BN::Context.new(0) }
+  end
+
+  def test_fixed_base_mod_exp
+    p = OpenSSL::BN.new('FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74' +
+                        '020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437' +
+                        '4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED' +
+                        'EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE65381FFFFFFFFFFFFFFFF', 16)
+    g = OpenSSL::BN.new('2')
+    fixed = OpenSSL::BN::FixedBase.new(g, p)
+    assert_equal g, fixed.base
+    [ 0, 1, 2, 31, 32, 65537, OpenSSL::BN.rand(1023), OpenSSL::BN.rand(1024), p - 1, p * 2 ].each do |e|
+      assert_equal g.mod_exp(e, p), fixed.mod_exp(e), "2 ** #{e} mod p"
+    end
+    fixed = OpenSSL::BN::FixedBase.new(3, OpenSSL::BN::Context.new(1000), 3, 64) # even modulus
+    [ 0, 5, 2 ** 63, 2 ** 64 + 1 ].each do |e|
+      assert_equal 3.to_bn.mod_exp(e, 1000), fixed.mod_exp(e)
+    end
+    assert_raise(ArgumentError) { OpenSSL::BN::FixedBase.new(g, p, 9) }
+  end
+
+  def test_mod_exp_many
+    m = OpenSSL::BN.generate_prime(256, false)
+    bases = (1..10).map { OpenSSL::BN.rand(255) }
+    exps = (1..10).map { OpenSSL::BN.rand(256) }
+    expected = bases.zip(exps).map { |b, e| b.mod_exp(e, m) }
+    assert_equal expected, OpenSSL::BN.mod_exp_many(bases, exps, m)
+    assert_equal expected, OpenSSL::BN.mod_exp_many(bases, exps, m, 4)
+    assert_equal bases.map { |b| b.mod_exp(65537, m) }, OpenSSL::BN.mod_exp_many(bases, 65537, m, 2)
+    assert_equal [], OpenSSL::BN.mod_exp_many([], [], m, 2)
+    assert_raise(ArgumentError) { OpenSSL::BN.mod_exp_many(bases, exps[1..-1], m) }
+    assert_raise(ArgumentError) { OpenSSL::BN.mod_exp_many(bases, exps, m, 0) }
+    assert_raise(ZeroDivisionError) { OpenSSL::BN.mod_exp_many(bases, exps, 0, 2) }
+  end
+
+  def test_multi_exp
+    [ OpenSSL::BN.generate_prime(512, false), OpenSSL::BN.new('1000000000000') ].each do |m|
+      bases = (1..5).map { OpenSSL::BN.rand(511) }
+      exps = (1..5).map { |i| OpenSSL::BN.rand(100 * i) }
+      expected = bases.zip(exps).inject(1.to_bn) { |r, (b, e)| r.mod_mul(b.mod_exp(e, m), m) }
+      assert_equal expected, OpenSSL::BN.multi_exp(bases, exps, m)
+      assert_equal expected, OpenSSL::BN.multi_exp(bases, exps, OpenSSL::BN::Context.new(m))
+    end
+    m = OpenSSL::BN.new('1000000007')
+    assert_equal 2.to_bn.mod_exp(10, m).mod_mul(3.to_bn.mod_exp(1000000005, m), m), # 3 ** -1
+                 OpenSSL::BN.multi_exp([ 2, 3 ], [ 10, -1 ], m)
+    assert_equal 1, OpenSSL::BN.multi_exp([ 2, 3 ], [ 0, 0 ], m).to_i
+    assert_equal 1, OpenSSL::BN.multi_exp([], [], m).to_i
+
+    m = OpenSSL::BN.new( ( 2 ** 2048 - 1942289 ).to_s ) # simultaneous exponentiation
+    bases = (1..16).map { OpenSSL::BN.rand(2047) }
+    exps = (1..16).map { |i| OpenSSL::BN.rand(128 * i) }
+    expected = bases.zip(exps).inject(1.to_bn) { |r, (b, e)| r.mod_mul(b.mod_exp(e, m), m) }
+    assert_equal expected, OpenSSL::BN.multi_exp(bases, exps, m)
+    m = m + 1 # even
+    expected = bases.zip(exps).inject(1.to_bn) { |r, (b, e)| r.mod_mul(b.mod_exp(e, m), m) }
+    assert_equal expected, OpenSSL::BN.multi_exp(bases, exps, m)
+  end
+
+  def test_generate_prime
+    p = OpenSSL::BN.generate_prime(256, false)
+    assert_equal 256, p.num_bits
+    assert p.prime?
+    p = OpenSSL::BN.generate_prime(128) # safe
+    assert_equal 128, p.num_bits
+    assert p.prime? && ( p >> 1 ).prime?
+    p = OpenSSL::BN.generate_prime(128, false, 12, 5)
+    assert_equal 5, p.to_i % 12
+    assert p.prime?
+    p = OpenSSL::BN.generate_prime(16, true)
+    assert p.prime? && ( p >> 1 ).prime?
+    p = OpenSSL::BN.generate_prime(256, true, nil, nil, 2)
+    assert_equal 256, p.num_bits
+    assert p.prime? && ( p >> 1 ).prime?
+    assert_raise(ArgumentError) { OpenSSL::BN.generate_prime(256, true, nil, nil, 0) }
+  end
+
+  def test_to_s_radix_round_trip
+    [ 0, 1, 15, 16, 255, 256, 2**64 - 1, 2**64, 10**18, 10**36 + 7, 2**1024 + 3, 3**3000 ].each do |i|
+      [ i, -i ].each do |v|
+        bn = OpenSSL::BN.new(v.to_s)
+        assert_equal v.to_s, bn.to_s
+        assert_equal Encoding::US_ASCII, bn.to_s.encoding if defined? Encoding
+        assert_equal v, bn.to_i
+        hex = v.abs.to_s(16).upcase
+        hex = "0#{hex}" if v > 0 && hex.size.odd?
+        assert_equal( v < 0 ? "-#{hex}" : hex, bn.to_s(16) )
+        assert_equal bn, OpenSSL::BN.new(bn.to_s(16), 16)
+        assert_equal bn, OpenSSL::BN.new(v.to_s(16).downcase, 16)
+        assert_equal OpenSSL::BN.new(v.abs.to_s), OpenSSL::BN.new(bn.to_s(2), 2)
+      end
+    end
+  end
+
+  def test_new_invalid_string
+    [ '', '-', '+', '12a', '1 0', '0x10' ].each do |str|
+      assert_raise(ArgumentError) { OpenSSL::BN.new(str) }
+    end
+    [ '', '-', 'g', 'x1', '1 F' ].each do |str|
+      assert_raise(ArgumentError) { OpenSSL::BN.new(str, 16) }
+    end
+  end
+
+  def test_to_bytes
+    bn = OpenSSL::BN.new('256')
+    assert_equal "\x01\x00", bn.to_bytes
+    assert_equal "\x00\x00\x01\x00", bn.to_bytes(4)
+    assert_equal bn.to_s(2), bn.to_bytes
+    assert_equal '', OpenSSL::BN.new('0').to_bytes
+    assert_equal "\x00\x00", OpenSSL::BN.new('0').to_bytes(2)
+    assert_equal "\xFF", OpenSSL::BN.new('-255').to_bytes(1)
+    assert_raise(OpenSSL::BNError) { OpenSSL::BN.new('65536').to_bytes(2) }
+    assert_raise(ArgumentError) { bn.to_bytes(-1) }
+  end
+
 end
\ No newline at end of file
@@ -98,6 +98,10 @@ EOF
     assert_equal last_serial.to_i(16).to_s, revoked.serial.to_s
 
     assert_equal Date.new(2014, 07, 07), Date.parse(revoked.time.strftime('%Y/%m/%d'))
+
+    # PEM with leading text (e.g. openssl crl -text output)
+    crl2 = OpenSSL::X509::CRL.new "Certificate Revocation List (CRL):\n    ...\n" + crl_data
+    assert_equal crl.to_der, crl2.to_der
   end
 
   # NOTE: same as OpenSSL's test_extension but without extension order requirement ...
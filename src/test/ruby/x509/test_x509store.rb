@@ -58,4 +58,136 @@ class TestX509Store < TestCase
     end
   end
 
+  def test_add_bundle
+    ca_key = OpenSSL::PKey::RSA.new 1024
+    ca_name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Bundle CA"
+    ca_exts = [
+      [ "basicConstraints", "CA:TRUE", true ],
+      [ "keyUsage", "keyCertSign, cRLSign", true ],
+    ]
+    now = Time.now
+    ca = issue_cert(ca_name, ca_key, 1, now, now + 3600, ca_exts, nil, nil, OpenSSL::Digest::SHA256.new)
+
+    ee_key = OpenSSL::PKey::RSA.new 1024
+    ee_name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Bundled EE"
+    ee = issue_cert(ee_name, ee_key, 2, now, now + 3600, [], ca, ca_key, OpenSSL::Digest::SHA256.new)
+
+    require 'tmpdir'
+    Dir.mktmpdir do |dir|
+      File.open(pem = File.join(dir, 'ca.pem'), 'w') { |f| f << ca.to_pem }
+      other = File.expand_path('../EntrustnetSecureServerCertificationAuthority.pem', __FILE__)
+      bundle = File.join(dir, 'ca.bundle')
+      assert_equal 2, OpenSSL::X509::Store.compile_bundle(bundle, pem, other)
+
+      store = OpenSSL::X509::Store.new
+      assert_equal false, store.verify(ee)
+
+      store = OpenSSL::X509::Store.new
+      assert_equal store, store.add_bundle(bundle)
+      assert store.verify(ee), store.error_string
+    end
+  end if defined? JRUBY_VERSION
+
+  def test_add_bundle_rejects_non_bundle
+    store = OpenSSL::X509::Store.new
+    pem = File.expand_path('../EntrustnetSecureServerCertificationAuthority.pem', __FILE__)
+    assert_raise(OpenSSL::X509::StoreError) { store.add_bundle(pem) }
+  end if defined? JRUBY_VERSION
+
+  def test_add_bundle_rejects_corrupted_entry
+    require 'tmpdir'
+    Dir.mktmpdir do |dir|
+      pem = File.expand_path('../EntrustnetSecureServerCertificationAuthority.pem', __FILE__)
+      bundle = File.join(dir, 'ca.bundle')
+      assert_equal 1, OpenSSL::X509::Store.compile_bundle(bundle, pem)
+      bytes = File.binread(bundle)
+      bytes[24, 4] = [ 0x7FFFFFFF ].pack('N') # (first) entry's blob length
+      File.binwrite(bundle, bytes)
+
+      store = OpenSSL::X509::Store.new
+      assert_raise(OpenSSL::X509::StoreError) { store.add_bundle(bundle) }
+    end
+  end if defined? JRUBY_VERSION
+
+  def test_add_path
+    ca_key = OpenSSL::PKey::RSA.new 1024
+    ca_name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Hashed CA"
+    ca_exts = [
+      [ "basicConstraints", "CA:TRUE", true ],
+      [ "keyUsage", "keyCertSign, cRLSign", true ],
+    ]
+    now = Time.now
+    ca = issue_cert(ca_name, ca_key, 1, now, now + 3600, ca_exts, nil, nil, OpenSSL::Digest::SHA256.new)
+
+    ee_key = OpenSSL::PKey::RSA.new 1024
+    ee_name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Hashed EE"
+    ee = issue_cert(ee_name, ee_key, 2, now, now + 3600, [], ca, ca_key, OpenSSL::Digest::SHA256.new)
+
+    other_name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Other EE"
+    other = issue_cert(other_name, ee_key, 3, now, now + 3600, [], nil, nil, OpenSSL::Digest::SHA256.new)
+
+    require 'tmpdir'
+    Dir.mktmpdir do |dir|
+      hash = '%08x' % ( ca.subject.hash & 0xffffffff )
+      File.open(File.join(dir, "#{hash}.0"), 'w') { |f| f << ca.to_pem }
+      File.open(File.join(dir, 'README'), 'w') { |f| f << 'not a cert' }
+
+      store = OpenSSL::X509::Store.new
+      assert_equal store, store.add_path(dir)
+      # lookups are shared (thread-safe) with verify_many's snapshot
+      assert_equal [ [ true, 0 ] ] * 4, store.verify_many([ ee ] * 4, 2)
+      assert_equal false, store.verify(other)
+      assert store.verify(ee), store.error_string
+      assert store.verify(ee), store.error_string
+    end
+
+    Dir.mktmpdir do |dir|
+      hash = '%08x' % ( ca.subject.hash & 0xffffffff )
+      File.open(File.join(dir, "#{hash}.0"), 'w') { |f| f << 'not (yet) a cert' }
+
+      store = OpenSSL::X509::Store.new
+      store.add_path(dir)
+      assert_equal false, store.verify(ee)
+      # failed loads are not remembered
+      File.open(File.join(dir, "#{hash}.0"), 'w') { |f| f << ca.to_pem }
+      assert store.verify(ee), store.error_string
+    end
+  end
+
+  def test_verify_many
+    ca_key = OpenSSL::PKey::RSA.new 1024
+    ca_exts = [
+      [ "basicConstraints", "CA:TRUE", true ],
+      [ "keyUsage", "keyCertSign, cRLSign", true ],
+    ]
+    now = Time.now
+    ca_name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Batch CA"
+    ca = issue_cert(ca_name, ca_key, 1, now, now + 3600, ca_exts, nil, nil, OpenSSL::Digest::SHA256.new)
+    sub_name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Batch Sub CA"
+    sub = issue_cert(sub_name, ca_key, 2, now, now + 3600, ca_exts, ca, ca_key, OpenSSL::Digest::SHA256.new)
+
+    ee_key = OpenSSL::PKey::RSA.new 1024
+    certs = (1..8).map do |i|
+      name = OpenSSL::X509::Name.parse "/DC=org/DC=ruby-lang/CN=Batch EE #{i}"
+      issue_cert(name, ee_key, 10 + i, now, now + 3600, [], ca, ca_key, OpenSSL::Digest::SHA256.new)
+    end
+    sub_ee = issue_cert(OpenSSL::X509::Name.parse("/CN=Sub EE"), ee_key, 20, now, now + 3600, [], sub, ca_key, OpenSSL::Digest::SHA256.new)
+    self_signed = issue_cert(OpenSSL::X509::Name.parse("/CN=Self"), ee_key, 30, now, now + 3600, [], nil, nil, OpenSSL::Digest::SHA256.new)
+
+    store = OpenSSL::X509::Store.new
+    store.add_cert ca
+    store.verify_callback = lambda { |ok, ctx| raise 'not expected to be called' }
+
+    items = certs + [ self_signed, [ sub_ee, sub ], sub_ee ]
+    [ nil, 1, 4 ].each do |threads|
+      results = threads ? store.verify_many(items, threads) : store.verify_many(items)
+      assert_equal items.size, results.size
+      certs.size.times { |i| assert_equal [ true, 0 ], results[i] }
+      assert_equal [ false, OpenSSL::X509::V_ERR_DEPTH_ZERO_SELF_SIGNED_CERT ], results[-3]
+      assert_equal [ true, 0 ], results[-2]
+      assert_equal [ false, OpenSSL::X509::V_ERR_UNABLE_TO_GET_ISSUER_CERT_LOCALLY ], results[-1]
+    end
+    assert_equal [], store.verify_many([])
+  end
+
 end